@@ -0,0 +1,242 @@
+package traminer.parser;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Map;
+
+import traminer.parser.analyzer.Keywords;
+
+/**
+ * Statistics of the values of a semantic attribute (i.e. not the
+ * ID or coordinates) of the trajectory records: number of null and
+ * empty values, estimated number of distinct values, minimum and
+ * maximum values of number types, and the most frequent values of
+ * STRING types.
+ * <p>
+ * Distinct values are estimated by a {@link DistinctCountSketch},
+ * and the most frequent values by a {@link TopValuesSketch}, hence
+ * the memory used is bounded, regardless of the number of records.
+ * Values of array types are counted as a whole.
+ * <p>
+ * Statistics are mergeable, and must not be updated by many
+ * threads at once.
+ *
+ * @author douglasapeixoto
+ */
+public final class AttributeStatistics {
+	/** Number of most frequent values reported */
+	public static final int TOP_K = 10;
+
+	/** The attribute name */
+	public final String name;
+	/** The attribute type, as in the input data format */
+	public final String type;
+
+	// whether the attribute is of a number type
+	private final boolean isNumber;
+	// number of values, and of null and empty values
+	private long count = 0, nullCount = 0, emptyCount = 0;
+	// minimum and maximum values (number types), as given
+	private String minValue = null, maxValue = null;
+	private double min = Double.POSITIVE_INFINITY;
+	private double max = Double.NEGATIVE_INFINITY;
+	// distinct values, and most frequent values (STRING only)
+	private DistinctCountSketch distinctValues = new DistinctCountSketch();
+	private TopValuesSketch topValues;
+
+	/**
+	 * Creates new empty statistics of the given attribute.
+	 *
+	 * @param name The attribute name.
+	 * @param type The attribute type, as in the input data format.
+	 */
+	public AttributeStatistics(String name, String type) {
+		if (name == null || type == null) {
+			throw new NullPointerException(
+					"Attribute name and type must not be null.");
+		}
+		this.name = name;
+		this.type = type;
+		this.isNumber = Keywords.isNumberType(type);
+		this.topValues = type.equals(Keywords.STRING.name()) ?
+				new TopValuesSketch() : null;
+	}
+
+	/**
+	 * Add a value of this attribute. Null values, and the literal
+	 * "null" (any case), are counted as null, and blank values as
+	 * empty; other statistics are computed on the remaining values.
+	 * Values of number types that are not valid numbers are not
+	 * taken into account for the minimum and maximum.
+	 *
+	 * @param value The attribute value.
+	 */
+	public void add(String value) {
+		count++;
+		if (value == null || value.equalsIgnoreCase("null")) {
+			nullCount++;
+			return;
+		}
+		if (value.trim().isEmpty()) {
+			emptyCount++;
+			return;
+		}
+		distinctValues.update(value);
+		if (topValues != null) {
+			topValues.update(value);
+		}
+		if (isNumber) {
+			double number;
+			try {
+				number = parseDouble(value);
+			} catch (NumberFormatException e) {
+				return;
+			}
+			if (number < min) {min = number; minValue = value;}
+			if (number > max) {max = number; maxValue = value;}
+		}
+	}
+
+	/**
+	 * Merge the given statistics into these statistics.
+	 * The given statistics are not changed.
+	 *
+	 * @param other The statistics of the same attribute to merge.
+	 * @throws IllegalArgumentException If the statistics are not
+	 * of the same attribute name and type.
+	 */
+	public void merge(AttributeStatistics other) {
+		if (!name.equals(other.name) || !type.equals(other.type)) {
+			throw new IllegalArgumentException("Statistics of different "
+					+ "attributes can not be merged.");
+		}
+		count += other.count;
+		nullCount += other.nullCount;
+		emptyCount += other.emptyCount;
+		distinctValues.merge(other.distinctValues);
+		if (topValues != null) {
+			topValues.merge(other.topValues);
+		}
+		if (other.min < min) {min = other.min; minValue = other.minValue;}
+		if (other.max > max) {max = other.max; maxValue = other.maxValue;}
+	}
+
+	/**
+	 * @return Number of values added, including null and empty.
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * @return Number of null values.
+	 */
+	public long getNullCount() {
+		return nullCount;
+	}
+
+	/**
+	 * @return Number of empty (blank) values.
+	 */
+	public long getEmptyCount() {
+		return emptyCount;
+	}
+
+	/**
+	 * @return Estimated number of distinct (not null
+	 * nor empty) values.
+	 */
+	public long getDistinctCount() {
+		return distinctValues.getEstimate();
+	}
+
+	/**
+	 * @return True if the attribute is of a number type,
+	 * i.e. it has minimum and maximum values.
+	 */
+	public boolean isNumberType() {
+		return isNumber;
+	}
+
+	/**
+	 * @return The minimum value, as given in the input,
+	 * or null if there is no valid number value.
+	 */
+	public String getMinValue() {
+		return minValue;
+	}
+
+	/**
+	 * @return The maximum value, as given in the input,
+	 * or null if there is no valid number value.
+	 */
+	public String getMaxValue() {
+		return maxValue;
+	}
+
+	/**
+	 * @return The (up to) {@link #TOP_K} most frequent values and
+	 * their estimated counts, from the most frequent, or null if
+	 * the attribute is not a STRING type.
+	 */
+	public List<Map.Entry<String, Long>> getTopValues() {
+		return topValues == null ? null : topValues.getTopValues(TOP_K);
+	}
+
+	/**
+	 * Write the state of these statistics, see {@link MetadataState}.
+	 */
+	void write(DataOutput out) throws IOException {
+		MetadataState.writeString(out, name);
+		MetadataState.writeString(out, type);
+		out.writeLong(count);
+		out.writeLong(nullCount);
+		out.writeLong(emptyCount);
+		out.writeDouble(min);
+		out.writeDouble(max);
+		MetadataState.writeString(out, minValue);
+		MetadataState.writeString(out, maxValue);
+		distinctValues.write(out);
+		if (topValues != null) {
+			topValues.write(out);
+		}
+	}
+
+	/**
+	 * Read the state of statistics, see {@link #write(DataOutput)}.
+	 */
+	static AttributeStatistics read(DataInput in) throws IOException {
+		String name = MetadataState.readString(in);
+		String type = MetadataState.readString(in);
+		if (name == null || type == null) {
+			throw new IOException("Invalid attribute statistics state.");
+		}
+		AttributeStatistics stats = new AttributeStatistics(name, type);
+		stats.count = in.readLong();
+		stats.nullCount = in.readLong();
+		stats.emptyCount = in.readLong();
+		stats.min = in.readDouble();
+		stats.max = in.readDouble();
+		stats.minValue = MetadataState.readString(in);
+		stats.maxValue = MetadataState.readString(in);
+		stats.distinctValues = DistinctCountSketch.read(in);
+		if (stats.topValues != null) {
+			stats.topValues = TopValuesSketch.read(in);
+		}
+		return stats;
+	}
+
+	/**
+	 * Parse a decimal number, plain decimal numbers are parsed
+	 * directly, other formats must be valid {@link BigDecimal}.
+	 */
+	private static double parseDouble(String value) throws NumberFormatException {
+		if (DeltaCompressor.decimalPlaces(value) >= 0) {
+			return Double.parseDouble(value);
+		}
+		return new BigDecimal(value.trim()).doubleValue();
+	}
+}
@@ -0,0 +1,66 @@
+package traminer.parser;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A data record (file line) as a slice of the bytes of a
+ * memory-mapped input file, see {@link MappedRecordReader}.
+ * <p>
+ * The record bytes are not copied from the file buffer, and
+ * are decoded (UTF-8) only when needed.
+ *
+ * @author douglasapeixoto
+ */
+public final class ByteRecord {
+	/** The buffer containing the record bytes (read-only) */
+	private final ByteBuffer buffer;
+	/** Position of the first record byte in the buffer */
+	public final int offset;
+	/** Number of bytes in the record */
+	public final int length;
+
+	/**
+	 * A data record in the given buffer.
+	 *
+	 * @param buffer The buffer containing the record bytes.
+	 * @param offset Position of the first record byte in the buffer.
+	 * @param length Number of bytes in the record.
+	 */
+	public ByteRecord(ByteBuffer buffer, int offset, int length) {
+		if (buffer == null) {
+			throw new NullPointerException(
+					"Record buffer must not be null.");
+		}
+		if (offset < 0 || length < 0 || offset + length > buffer.limit()) {
+			throw new IndexOutOfBoundsException(
+					"Record bytes out of the buffer bounds.");
+		}
+		this.buffer = buffer;
+		this.offset = offset;
+		this.length = length;
+	}
+
+	/**
+	 * Copy the record bytes to the given array.
+	 *
+	 * @param dst The destination array, must have
+	 * room for at least {@link #length} bytes.
+	 */
+	public void copyTo(byte[] dst) {
+		// absolute gets, the buffer position is shared
+		for (int i=0; i<length; i++) {
+			dst[i] = buffer.get(offset + i);
+		}
+	}
+
+	/**
+	 * @return The record as a string (UTF-8 decoded).
+	 */
+	@Override
+	public String toString() {
+		byte[] bytes = new byte[length];
+		copyTo(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,481 @@
+package traminer.parser;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+import traminer.parser.analyzer.Keywords.OutputFormat;
+import traminer.parser.format.RecordPlan.CoordinatesPlan;
+import traminer.parser.format.RecordPlan.Delimiter;
+import traminer.parser.format.RecordPlan.ValueKind;
+import traminer.util.DeltaEncoder;
+import traminer.util.math.Decimal;
+
+/**
+ * Parse the Coordinates ARRAY attribute of the data records,
+ * according to the compiled {@link CoordinatesPlan}.
+ * <p>
+ * The array items are read with a cursor over the array string,
+ * the array is never copied. Very large arrays (e.g. one record
+ * per file) are split into chunks aligned on the array points,
+ * which are processed in parallel. The delta compression of the
+ * chunks continues from the last point of the previous chunk,
+ * hence the result is the same as the sequential parsing.
+ * <p>
+ * The chunks run in the given fork-join pool, while the parser
+ * thread waits. Parsers running in a worker pool (e.g. the PARSE
+ * stage of the {@link traminer.parser.pipeline.IngestPipeline})
+ * should share a dedicated pool, instead of the common pool that
+ * is also used by the application's parallel streams. Either way
+ * the chunk threads run in addition to the parser threads, so
+ * the CPUs may be oversubscribed while giant arrays are parsed.
+ * <p>
+ * A coordinates parser is thread-confined, see {@link RecordParser}.
+ *
+ * @author douglasapeixoto
+ */
+@SuppressWarnings("serial")
+class CoordinatesParser implements ParserInterface {
+	// minimum length of the arrays processed in parallel
+	private static final int PARALLEL_ARRAY_LENGTH = 1 << 20;
+	// length of the chunks of the arrays processed in parallel
+	private static final int ARRAY_CHUNK_LENGTH = 1 << 18;
+
+	// the compiled coordinates array format
+	private final CoordinatesPlan coordPlan;
+	// output data format
+	private final OutputFormat outputFormat;
+	// the points delimiter, if the array can be split into chunks
+	private final Delimiter pointDelim;
+	// statistics of the trajectories parsed (metadata)
+	private final StatisticsAccumulator statistics;
+	// runs the chunks of the arrays processed in parallel
+	private final ForkJoinPool chunkPool;
+
+	/**
+	 * Creates a new coordinates parser.
+	 *
+	 * @param coordPlan The compiled coordinates array format.
+	 * @param outputFormat The {@link OutputFormat} of choice.
+	 * @param statistics Accumulator of the metadata statistics,
+	 * owned by the parser thread.
+	 * @param chunkPool Runs the chunks of the arrays processed
+	 * in parallel.
+	 */
+	CoordinatesParser(CoordinatesPlan coordPlan, OutputFormat outputFormat,
+			StatisticsAccumulator statistics, ForkJoinPool chunkPool) {
+		this.coordPlan = coordPlan;
+		this.outputFormat = outputFormat;
+		this.statistics = statistics;
+		this.chunkPool = chunkPool;
+		// the array can be split at the points delimiter only if
+		// the delimiter is not used inside the points
+		Delimiter[] delims = coordPlan.getDelimiters();
+		Delimiter last = delims[delims.length - 1];
+		boolean splittable = last.isChar();
+		for (int i=0; i<delims.length-1; i++) {
+			splittable &= !delims[i].value.equals(last.value);
+		}
+		this.pointDelim = splittable ? last : null;
+	}
+
+	/**
+	 * Parse the Coordinates ARRAY, i.e.
+	 * put all array items comma separated, and organize the attributes
+	 * in (x,y,time) order, or (x,y,time,other_attributes) order
+	 * if the coordinates have attributes other than spatial-temporal.
+	 * <p>
+	 * Also compress the spatial-temporal attributes in the array
+	 * (x,y,time) using delta encoding (if they are not already compressed.
+	 *
+	 * @param arrayString The coordinates array (items)
+	 *
+	 * @return The formated coordinates array.
+	 */
+	String parse(String arrayString) {
+		// read the values in the array, split by the delimiters
+		List<PointsChunk> chunks = scanChunks(arrayString);
+		final int numChunks = chunks.size();
+
+		// get spatial-temporal attributes only
+		int numPts = 0;
+		for (PointsChunk chunk : chunks) {
+			chunk.offset = numPts;
+			numPts += chunk.numPts;
+		}
+		final String[] xValues = new String[numPts];
+		final String[] yValues = new String[numPts];
+		final String[] tValues = new String[numPts];
+		forEachChunk(numChunks, k -> {
+			PointsChunk chunk = chunks.get(k);
+			chunk.readValues(xValues, yValues, tValues);
+			// convert DATETIME attributes from the given pattern to INTEGER,
+			// i.e. number of milliseconds passed since 01/Jan/1970.
+			if (coordPlan.dateParser != null) {
+				formatDate(tValues, chunk.offset, chunk.numPts);
+			}
+		});
+
+		// fix backwards time-stamp values (if any)
+		fixTimeStamps(tValues, coordPlan.tKind);
+
+		// update metadata (if values are numeric)
+		statistics.addValues(
+				xValues, coordPlan.isDeltaX, coordPlan.xType,
+				yValues, coordPlan.isDeltaY, coordPlan.yType,
+				tValues, coordPlan.isDeltaT, coordPlan.tType);
+
+		// delta compress (x,y,t) values (if not), and format the
+		// coordinates array according with the user-specified
+		// output format (x,y,time,semantic)
+		final String[] parsedChunks = new String[numChunks];
+		forEachChunk(numChunks, k -> {
+			PointsChunk chunk = chunks.get(k);
+			Column xChunk = compressValues(xValues, chunk, coordPlan.xKind, coordPlan.isDeltaX);
+			Column yChunk = compressValues(yValues, chunk, coordPlan.yKind, coordPlan.isDeltaY);
+			Column tChunk = compressValues(tValues, chunk, coordPlan.tKind, coordPlan.isDeltaT);
+			parsedChunks[k] = formatChunk(chunk, xChunk, yChunk, tChunk);
+		});
+
+		StringBuilder parsedArray = new StringBuilder();
+		for (String parsedChunk : parsedChunks) {
+			parsedArray.append(parsedChunk);
+		}
+		return parsedArray.substring(1);
+	}
+
+	/**
+	 * Read the items of the array, split into chunks if the
+	 * array is large (and well-formed).
+	 *
+	 * @return The chunks of array items, in the array order.
+	 */
+	private List<PointsChunk> scanChunks(final String arrayString) {
+		final int length = arrayString.length();
+		if (pointDelim != null && length >= PARALLEL_ARRAY_LENGTH) {
+			// chunks boundaries, at the points delimiter
+			List<Integer> starts = new ArrayList<>();
+			starts.add(0);
+			int next = 0;
+			while ((next = pointDelim.indexIn(arrayString,
+					next + ARRAY_CHUNK_LENGTH)) != -1) {
+				starts.add(++next);
+			}
+			final int numChunks = starts.size();
+			final PointsChunk[] chunks = new PointsChunk[numChunks];
+			forEachChunk(numChunks, k -> {
+				boolean lastChunk = (k == numChunks - 1);
+				int start = starts.get(k);
+				int end = lastChunk ? length : starts.get(k+1) - 1;
+				chunks[k] = scanItems(arrayString, start, end, lastChunk);
+			});
+			// use the chunks only if all points are well-formed
+			if (!Arrays.asList(chunks).contains(null)) {
+				return Arrays.asList(chunks);
+			}
+		}
+		// read the whole array sequentially
+		List<PointsChunk> chunks = new ArrayList<>(1);
+		chunks.add(scanItems(arrayString, 0, length, true));
+		return chunks;
+	}
+
+	/**
+	 * Read the array items in the given range of the array string,
+	 * cycling through the array delimiters.
+	 * <p>
+	 * If the range is not the end of the array, the range must
+	 * end at the points delimiter, and the items must not cross the
+	 * points delimiter, otherwise the points are malformed, and
+	 * the array must be read sequentially.
+	 *
+	 * @param arrayString The coordinates array.
+	 * @param start Position of the first char of the range.
+	 * @param end Position after the last char of the range.
+	 * @param lastChunk Whether the range is the end of the array.
+	 *
+	 * @return The items in the range, or null if the points
+	 * in the range are malformed.
+	 */
+	private PointsChunk scanItems(String arrayString,
+			int start, int end, boolean lastChunk) {
+		final Delimiter[] delims = coordPlan.getDelimiters();
+		final int lastDelim = delims.length - 1;
+		List<String> itemValues = new ArrayList<>();
+		int from = start, index = 0;
+		// while there are values to read 
+		while (index != -1) {
+			for (int i=0; i<delims.length; i++) {
+				index = delims[i].indexIn(arrayString, from);
+				if (index >= end) index = -1;
+				if (index == -1){
+					// range must end with a whole point
+					if (!lastChunk && i != lastDelim) return null;
+					// last item 
+					itemValues.add(arrayString.substring(from, end));
+				} else {
+					// items must not cross the points delimiter
+					if (!lastChunk && i != lastDelim && arrayString
+						.lastIndexOf(pointDelim.charValue(), index) >= from) {
+						return null;
+					}
+					// move to next item
+					itemValues.add(arrayString.substring(from, index));
+					from = index + 1;
+				}
+			}
+		}
+		return new PointsChunk(itemValues, coordPlan.numAttr);
+	}
+
+	/**
+	 * Run the given action for each chunk index, in parallel
+	 * in the chunks pool if there are many chunks.
+	 */
+	private void forEachChunk(int numChunks, IntConsumer action) {
+		if (numChunks == 1) {
+			action.accept(0);
+		} else {
+			// a parallel stream runs in the pool of the calling task
+			chunkPool.submit(() -> IntStream.range(0, numChunks)
+					.parallel().forEach(action)).join();
+		}
+	}
+
+	/**
+	 * Format the points of the given chunk, each point preceded by ','.
+	 *
+	 * @return The formated chunk of the coordinates array.
+	 */
+	private String formatChunk(PointsChunk chunk,
+			Column xValues, Column yValues, Column tValues) {
+		final int numAttr = coordPlan.numAttr;
+		StringBuilder parsedArray = new StringBuilder();
+		// spatial attributes only
+		if (outputFormat.equals(OutputFormat.SPATIAL)) {
+			for (int i=0; i<chunk.numPts; i++) {
+				xValues.appendTo(parsedArray.append(','), i);
+				yValues.appendTo(parsedArray.append(','), i);
+			}
+		}
+		// spatial-temporal attributes only
+		else if (outputFormat.equals(OutputFormat.SPATIAL_TEMPORAL)) {
+			for(int i=0; i<chunk.numPts; i++){
+				xValues.appendTo(parsedArray.append(','), i);
+				yValues.appendTo(parsedArray.append(','), i);
+				tValues.appendTo(parsedArray.append(','), i);
+			}
+		}
+		// all attributes
+		else if (outputFormat.equals(OutputFormat.ALL)) {
+			final int[] semanticPos = coordPlan.getSemanticPositions();
+			final int numItems = chunk.itemValues.size();
+			for (int i=0,k=0; i < numItems; i+=numAttr,k++) {
+				xValues.appendTo(parsedArray.append(','), k);
+				yValues.appendTo(parsedArray.append(','), k);
+				tValues.appendTo(parsedArray.append(','), k);
+				for (int j : semanticPos) {
+					parsedArray.append(',').append(chunk.itemValues.get(i + j)); // semanticVals
+				}
+			}
+		}
+		return parsedArray.toString();
+	}
+
+	/**
+	 * Compress the values of the given chunk using Delta compression,
+	 * only if the array is not already compressed. The deltas of the
+	 * chunk start from the last value of the previous chunk.
+	 * <p>
+	 * Return the compressed values as Integer  (value * 10^DECIMAL_PRECISION)
+	 *
+	 * @param values The array of values to compress (all chunks).
+	 * @param chunk The chunk of values to compress.
+	 * @param kind The kind of the values to compress.
+	 * @param isCompressed If the values are already compressed.
+	 *
+	 * @return The chunk values in delta-compression.
+	 */
+	private Column compressValues(String[] values, PointsChunk chunk,
+			ValueKind kind, boolean isCompressed) {
+		// include the last value of the previous chunk
+		final int from = (chunk.offset == 0) ? 0 : chunk.offset - 1;
+		final int to = chunk.offset + chunk.numPts;
+		Column compressed = compressValues(
+				Arrays.copyOfRange(values, from, to), kind, isCompressed);
+		if (chunk.offset == 0) return compressed;
+		return compressed.dropFirst();
+	}
+
+	/**
+	 * Compress the array of values using Delta compression,
+	 * only if the array is not already compressed. Numbers are
+	 * compressed in the {@link DeltaCompressor} fast path, if 
+	 * possible, or using Decimal numbers otherwise.
+	 * 
+	 * @param values The array of values to compress.
+	 * @param kind The kind of the values to compress.
+	 * @param isCompressed If the values are already compressed.
+	 * 
+	 * @return The column of values in delta-compression.
+	 */
+	private Column compressValues(String[] values, ValueKind kind, boolean isCompressed) {
+		// if the values are not numbers, then do nothing
+		if (kind.equals(ValueKind.OTHER)) {
+			return new Column(null, values);
+		}
+		// Decimals keep the given precision, Integers the integer part only
+		int precision = kind.equals(ValueKind.DECIMAL) ? 
+				coordPlan.decimalPrecision : 0;
+		long[] numbers = DeltaCompressor.compress(values, isCompressed, precision);
+		if (numbers != null) {
+			return new Column(numbers, null);
+		}
+		return new Column(null, decimalCompress(values, kind, isCompressed));
+	}
+
+	/**
+	 * Compress the array of values using Delta compression
+	 * with Decimal numbers, only if the array is not already
+	 * compressed.
+	 * <p>
+	 * Return the compressed values as Integer  (value * 10^DECIMAL_PRECISION)
+	 *
+	 * @param values The array of values to compress.
+	 * @param kind The kind of the values to compress.
+	 * @param isCompressed If the values are already compressed.
+	 *
+	 * @return The array of values in delta-compression.
+	 */
+	private String[] decimalCompress(String[] values, ValueKind kind, boolean isCompressed) {
+		// compress values, if not
+		if (!isCompressed) { // $etype
+			values = DeltaEncoder.deltaEncode(values);
+		}
+		// if attribute is a Decimal, then convert and save values
+		// to integer with given precision ( value * 10^DECIMAL_PRECISION )
+		if (kind.equals(ValueKind.DECIMAL)) {
+			Decimal round = coordPlan.decimalScale;
+			Decimal intVal;
+			for (int i=0; i<values.length; i++) {
+				intVal = Decimal.valueOf(values[i]).multiply(round);
+				values[i] = ""+intVal.longValue();
+			}
+		}
+		// if attribute is an Integer, get only the integer part
+		if (kind.equals(ValueKind.INTEGER)) {
+			Decimal intVal;
+			for (int i=0; i<values.length; i++) {
+				intVal = Decimal.valueOf(values[i]);
+				values[i] = ""+intVal.longValue();
+			}
+		}
+
+		return values;
+	}
+
+	/**
+	 * Format DATETIME time attributes, convert the date attribute
+	 * from the given pattern to a Integer format, i.e. number of
+	 * milliseconds passed since 01/Jan/1970.
+	 *
+	 * @param tValues The list of attribute values to format.
+	 * @param from Position of the first value to format.
+	 * @param count Number of values to format.
+	 */
+	private void formatDate(String[] tValues, int from, int count) {
+		coordPlan.dateParser.toEpochMilli(tValues, from, count);
+	}
+
+	/**
+	 * Fix backwards time-stamps (negative delta time-stamps).
+	 *
+	 * @param deltaTimeValues List of time-stamp values.
+	 * @param kind The kind of the time-stamp values.
+	 */
+	private void fixTimeStamps(String[] deltaTimeValues, ValueKind kind) {
+		// do only if time-stamp values are numbers
+		if (!kind.equals(ValueKind.OTHER)) {
+			String prev, next;
+			for (int i=0; i<deltaTimeValues.length-1; i++) {
+				prev = deltaTimeValues[i];
+				next = deltaTimeValues[i+1];
+				// if delta is negative
+				if (Double.parseDouble(next) < Double.parseDouble(prev)) {
+					deltaTimeValues[i+1] = prev;
+				}
+			}
+		}
+	}
+
+	/**
+	 * A chunk of the coordinates array, i.e. the array items
+	 * in the chunk, and the position of the chunk points in
+	 * the whole array.
+	 */
+	private class PointsChunk {
+		// the item values, in the array order
+		final List<String> itemValues;
+		// number of (whole) points in the chunk
+		final int numPts;
+		// position of the first point in the whole array
+		int offset = 0;
+
+		PointsChunk(List<String> itemValues, int numAttr) {
+			this.itemValues = itemValues;
+			this.numPts = itemValues.size() / numAttr;
+		}
+
+		/**
+		 * Copy the (x,y,t) values of the chunk points
+		 * to the given arrays, at the chunk offset.
+		 */
+		void readValues(String[] xValues, String[] yValues, String[] tValues) {
+			final int numAttr = coordPlan.numAttr;
+			for (int i=0,j=offset; j<offset+numPts; i+=numAttr,j++) {
+				xValues[j] = itemValues.get(i + coordPlan.xPos);
+				yValues[j] = itemValues.get(i + coordPlan.yPos);
+				tValues[j] = itemValues.get(i + coordPlan.tPos);
+			}
+		}
+	}
+
+	/**
+	 * A column of compressed values, either numbers (from
+	 * the fast path) or strings (Decimal numbers or other
+	 * values not compressed).
+	 */
+	private static class Column {
+		final long[] numbers;
+		final String[] strings;
+
+		Column(long[] numbers, String[] strings) {
+			this.numbers = numbers;
+			this.strings = strings;
+		}
+
+		/**
+		 * Append the i-th value to the given builder.
+		 */
+		void appendTo(StringBuilder builder, int i) {
+			if (numbers != null) {
+				builder.append(numbers[i]);
+			} else {
+				builder.append(strings[i]);
+			}
+		}
+
+		/**
+		 * @return A column without the first value.
+		 */
+		Column dropFirst() {
+			if (numbers != null) {
+				return new Column(Arrays.copyOfRange(numbers, 1, numbers.length), null);
+			}
+			return new Column(null, Arrays.copyOfRange(strings, 1, strings.length));
+		}
+	}
+}
@@ -1,6 +1,24 @@
 package traminer.parser;
 
+import java.io.BufferedWriter;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -8,12 +26,20 @@ import org.apache.commons.lang.NullArgumentException;
 import org.apache.log4j.Logger;
 import org.bson.Document;
 
+import com.mongodb.MongoClient;
+import com.mongodb.ServerAddress;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.UpdateOptions;
+
 import traminer.io.HDFSService;
 import traminer.io.IOService;
 import traminer.io.db.MongoDBService;
 import traminer.io.params.HDFSParameters;
 import traminer.io.params.LocalFSParameters;
 import traminer.io.params.MongoDBParameters;
+import traminer.parser.MongoWriteParameters.DocumentLayout;
 import traminer.parser.analyzer.Keywords;
 import traminer.parser.analyzer.Keywords.OutputDatabase;
 import traminer.parser.analyzer.Keywords.OutputFormat;
@@ -40,11 +66,36 @@ public class DataWriter implements ParserInterface {
 	
 	// MongoDB service and parameters
 	private static MongoDBService mongodb = null;
+	// writes the parsed data to MongoDB in bulk
+	private static MongoBulkWriter mongoWriter = null;
+	// writes the trajectory buckets (bucketed layout only)
+	private static MongoBulkWriter mongoBucketWriter = null;
+	private static MongoWriteParameters mongoWriteParams = null;
+	// encodes the typed documents (null for the record layout)
+	private static MongoDocumentEncoder mongoEncoder = null;
+	// computes the shard key of the documents (null if not sharded)
+	private static MongoShardSplitter mongoSplitter = null;
+	// whether to upsert the changed documents only (reload mode),
+	// and the seed of the content hashes, i.e. of the layout
+	private static boolean mongoReload = false;
+	private static long mongoHashSeed = 0;
+	// indexes to build after the data loading
+	private static final Map<String, List<Document>> deferredIndexes = 
+			new LinkedHashMap<>();
 	
 	// HHFS service and parameters
 	private static HDFSService hdfs;
 	private static HDFSParameters hdfsParams;
 	
+	// sequence number of the data files written
+	private static final AtomicLong fileSeq = new AtomicLong(0);
+	// data files being written in batches (Local)
+	private static final Map<String, BufferedWriter> localFiles = 
+			new ConcurrentHashMap<>();
+	// data files being written in batches (HDFS)
+	private static final Map<String, List<String>> hdfsFiles = 
+			new ConcurrentHashMap<>();
+	
 	// System log
 	private static Logger log = Logger.getLogger(DataWriter.class);
 		
@@ -63,25 +114,91 @@ public class DataWriter implements ParserInterface {
 	}
 	
 	/**
-	 * Initialize data writer service with MongoDB.
+	 * Initialize data writer service with MongoDB, 
+	 * with the default write parameters.
 	 * 
 	 * @param params MongoDB access parameters and configurations.
 	 */
 	public static void init(MongoDBParameters params) {
+		init(params, new MongoWriteParameters());
+	}
+	
+	/**
+	 * Initialize data writer service with MongoDB.
+	 * 
+	 * @param params MongoDB access parameters and configurations.
+	 * @param writeParams Configuration of the bulk writes of 
+	 * the parsed data, see {@link MongoBulkWriter}.
+	 */
+	public static void init(MongoDBParameters params, 
+			MongoWriteParameters writeParams) {
 		if (params == null) {
 			throw new NullArgumentException(
 					"MongoDB parameters must not be null.");
 		}
+		if (writeParams == null) {
+			throw new NullArgumentException(
+					"MongoDB write parameters must not be null.");
+		}
 		params.addCollectionName("data", DATA_COLL_NAME);
 		params.addCollectionName("meta", META_COLL_NAME);
+		final boolean bucketed = writeParams.getDocumentLayout()
+				.equals(DocumentLayout.BUCKETED);
+		if (bucketed) {
+			params.addCollectionName("buckets", BUCKET_COLL_NAME);
+		}
+		if (mongoWriter != null) {
+			mongoWriter.close();
+			mongoWriter = null;
+		}
+		if (mongoBucketWriter != null) {
+			mongoBucketWriter.close();
+			mongoBucketWriter = null;
+		}
+		mongoWriteParams = writeParams;
+		mongoEncoder = null;
+		mongoSplitter = null;
+		mongoReload = false;
+		deferredIndexes.clear();
 		try {
 			mongodb = new MongoDBService(params);
+			mongoWriter = new MongoBulkWriter(
+					mongodb.getCollection(DATA_COLL_NAME), writeParams);
+			if (bucketed) {
+				final MongoBulkWriter bucketWriter = new MongoBulkWriter(
+						mongodb.getCollection(BUCKET_COLL_NAME), writeParams);
+				// on reload, delete the buckets past the end of the
+				// changed trajectories that got shorter
+				mongoWriter.setReplaceListener(Arrays.asList("_numBuckets"), 
+						trailingBucketsRemover(bucketWriter::delete));
+				mongoBucketWriter = bucketWriter;
+			}
 		} catch (IOException e) {
 			log.error("Unable to initialize MongoDB service.", e);
 		}
 		outputDb = OutputDatabase.MONGODB;
 	}
 	
+	/**
+	 * @param deleteBucket Deletes the bucket of the given '_id'.
+	 * @return The listener of the replaced trajectory headers 
+	 * (reload mode), which deletes the buckets past the end of
+	 * the trajectories that got shorter.
+	 */
+	static BiConsumer<Document, Document> trailingBucketsRemover(
+			final Consumer<Document> deleteBucket) {
+		return (previous, header) -> {
+			final Object prevBuckets = previous.get("_numBuckets");
+			final Object numBuckets  = header.get("_numBuckets");
+			if (!(prevBuckets instanceof Number)) return;
+			for (int b = ((Number) numBuckets).intValue(); 
+					 b < ((Number) prevBuckets).intValue(); b++) {
+				deleteBucket.accept(new Document("trajectory", header.get("_id"))
+						.append("bucket", b));
+			}
+		};
+	}
+	
 	/**
 	 * Initialize this data writer service with Local data storage.
 	 * 
@@ -92,6 +209,7 @@ public class DataWriter implements ParserInterface {
 			throw new NullArgumentException(
 					"HDFS parameters must not be null.");
 		}		
+		hdfsParams = params;
 		try {
 			hdfs = new HDFSService(params);
 		} catch (Exception e) {
@@ -100,6 +218,212 @@ public class DataWriter implements ParserInterface {
 		outputDb = OutputDatabase.HDFS;
 	}
 	
+	/**
+	 * Prepare the output database to save the data files of 
+	 * the given formats, i.e. the layout of the MongoDB documents,
+	 * the indexes to build after the data loading, and the sharding
+	 * of the collection (of the buckets collection in the bucketed
+	 * layout). Call before saving any data file.
+	 * 
+	 * @param dataFormat User-defined Input data format specifications.
+	 * @param outFormat  User-defined Output data format.
+	 * @param dataProfile The metadata of the data to load (e.g. of
+	 * a sample), to pre-split the sharded collection, or null.
+	 * 
+	 * @throws ParserException If the output database could
+	 * not be prepared.
+	 */
+	public static void prepareDataFiles(DataFormat dataFormat, 
+			OutputFormat outFormat, MetadataState dataProfile) throws ParserException {
+		if (!outputDb.equals(OutputDatabase.MONGODB)) {
+			return;
+		}
+		final MongoWriteParameters params = mongoWriteParams;
+		final boolean typed = !params.getDocumentLayout().equals(DocumentLayout.RECORD);
+		final boolean bucketed = params.getDocumentLayout().equals(DocumentLayout.BUCKETED);
+		// the collection of the points
+		final String pointsColl = bucketed ? BUCKET_COLL_NAME : DATA_COLL_NAME;
+		if (params.isReload() && params.getShardKey() != null) {
+			throw new ParserException("Unable to prepare the MongoDB documents: "
+					+ "the reload mode does not support sharding the collection.");
+		}
+		final OutputSpec spec;
+		try {
+			// the documents follow the output format
+			final String outputFormatScript = getOutputFormatScript(dataFormat, outFormat);
+			spec = OutputSpec.parse(Arrays.asList(outputFormatScript.split("\n")),
+					"output-format");
+			mongoEncoder = typed ? new MongoDocumentEncoder(spec, params.isGeoJson()) : null;
+			mongoSplitter = null;
+			
+			// documents of another format or layout are changed
+			mongoReload = params.isReload();
+			mongoHashSeed = StringHash.hash(0, params.getDocumentLayout() 
+					+ ";" + params.isGeoJson() + ";" + params.getBucketPoints()
+					+ ";" + params.getBucketSpan() + ";" + outputFormatScript);
+			
+			// indexes are built after the data loading
+			deferredIndexes.clear();
+			if (params.isDeferExistingIndexes()) {
+				deferIndexes(DATA_COLL_NAME, dropSecondaryIndexes(
+						mongodb.getCollection(DATA_COLL_NAME)));
+				if (bucketed) {
+					deferIndexes(BUCKET_COLL_NAME, dropSecondaryIndexes(
+							mongodb.getCollection(BUCKET_COLL_NAME)));
+				}
+			}
+		} catch (Exception e) {
+			throw new ParserException("Unable to prepare the MongoDB documents.", e);
+		}
+		if (params.isGeoIndex()) {
+			if (typed && params.isGeoJson() && 
+				spec.coordSystem.equals(Keywords.GEOGRAPHIC)) {
+				final String field = MongoDocumentEncoder.GEOMETRY_FIELD;
+				deferIndexes(pointsColl, Arrays.asList(
+						new Document("key", new Document(field, "2dsphere"))
+						.append("name", field + "_2dsphere")));
+			} else {
+				log.warn("The '2dsphere' index requires GEOGRAPHIC coordinates, "
+						+ "and the TYPED or BUCKETED document layout with the GeoJSON "
+						+ "geometry. Index not created.");
+			}
+		}
+		
+		// shard and pre-split the collection
+		if (params.getShardKey() != null) {
+			if (dataProfile == null) {
+				throw new ParserException("Unable to pre-split the MongoDB "
+						+ "collection: no metadata of the data to load.");
+			}
+			final MongoShardSplitter splitter;
+			try {
+				splitter = new MongoShardSplitter(params.getShardKey(), 
+						spec, dataProfile.getStatistics());
+			} catch (IllegalArgumentException e) {
+				throw new ParserException("Unable to shard the MongoDB collection.", e);
+			}
+			final long[] splitPoints = splitter.splitPoints(params.getNumChunks());
+			try {
+				runCommands(database -> splitter.shard(database.admin, 
+						database.name, pointsColl, splitPoints));
+			} catch (RuntimeException e) {
+				// the data can still be loaded, and sharded later
+				log.error("Unable to shard the MongoDB collection, loading "
+						+ "into the unsharded collection.", e);
+			}
+			mongoSplitter = splitter;
+		}
+	}
+	
+	/**
+	 * Finish the data files, after all data files have been saved
+	 * and flushed, i.e. build the deferred MongoDB indexes, see
+	 * {@link #prepareDataFiles(DataFormat, OutputFormat, MetadataState)}.
+	 * 
+	 * @throws ParserException If the indexes could not be built.
+	 */
+	public static void finishDataFiles() throws ParserException {
+		if (!outputDb.equals(OutputDatabase.MONGODB) || deferredIndexes.isEmpty()) {
+			return;
+		}
+		final Map<String, List<Document>> indexes = new LinkedHashMap<>(deferredIndexes);
+		deferredIndexes.clear();
+		for (Entry<String, List<Document>> coll : indexes.entrySet()) {
+			try {
+				final long start = System.currentTimeMillis();
+				runCommands(database -> database.db.runCommand(
+						new Document("createIndexes", coll.getKey())
+						.append("indexes", coll.getValue())));
+				log.info("Built " + coll.getValue().size() + " MongoDB indexes on '" 
+						+ coll.getKey() + "' in " 
+						+ (System.currentTimeMillis() - start) + " ms.");
+			} catch (RuntimeException e) {
+				throw new ParserException("Unable to build the MongoDB indexes on '" 
+						+ coll.getKey() + "': " + coll.getValue(), e);
+			}
+		}
+	}
+	
+	/**
+	 * Add the given indexes to the indexes to build on the 
+	 * given collection after the data loading.
+	 */
+	private static void deferIndexes(String collection, List<Document> indexes) {
+		if (indexes.isEmpty()) return;
+		List<Document> list = deferredIndexes.get(collection);
+		if (list == null) {
+			list = new ArrayList<>();
+			deferredIndexes.put(collection, list);
+		}
+		list.addAll(indexes);
+	}
+	
+	/**
+	 * Drop the secondary indexes of the given collection, 
+	 * except the unique indexes, and the indexes that can 
+	 * not be dropped (e.g. the shard key index).
+	 * 
+	 * @return The specifications of the dropped indexes.
+	 */
+	private static List<Document> dropSecondaryIndexes(
+			MongoCollection<Document> collection) {
+		final List<Document> dropped = new ArrayList<>();
+		for (Document index : collection.listIndexes()) {
+			final String name = index.getString("name");
+			final Object key = index.get("key");
+			if (name.equals("_id_") || Boolean.TRUE.equals(index.get("unique")) ||
+				(key instanceof Document && ((Document) key)
+						.containsKey(MongoShardSplitter.KEY_FIELD))) {
+				continue;
+			}
+			try {
+				collection.dropIndex(name);
+			} catch (RuntimeException e) {
+				log.warn("Index '" + name + "' kept during the data loading: " 
+						+ e.getMessage());
+				continue;
+			}
+			// the specification to rebuild the index
+			index.remove("v");
+			index.remove("ns");
+			dropped.add(index);
+			log.info("Index '" + name + "' dropped during the data loading: " 
+					+ index.toJson());
+		}
+		return dropped;
+	}
+	
+	/**
+	 * Run commands on the MongoDB database, and its 'admin'
+	 * database, through a new client.
+	 */
+	private static void runCommands(Consumer<MongoCommandTarget> commands) {
+		final MongoDBParameters params = mongodb.getParameters();
+		final MongoClient client = new MongoClient(new ServerAddress(
+				params.getHostName(), params.getPortNumber()));
+		try {
+			commands.accept(new MongoCommandTarget(params.getDatabaseName(),
+					client.getDatabase(params.getDatabaseName()),
+					client.getDatabase("admin")));
+		} finally {
+			client.close();
+		}
+	}
+	
+	/**
+	 * The database to run commands on, and the 'admin' database.
+	 */
+	private static final class MongoCommandTarget {
+		final String name;
+		final MongoDatabase db;
+		final MongoDatabase admin;
+		MongoCommandTarget(String name, MongoDatabase db, MongoDatabase admin) {
+			this.name  = name;
+			this.db    = db;
+			this.admin = admin;
+		}
+	}
+	
 	/**
 	 * Save the parsed data file to the output database of choice.
 	 * Save data in CSV file format by default.
@@ -108,7 +432,7 @@ public class DataWriter implements ParserInterface {
 	 */
 	public static void saveDataFile(Stream<String> parsedFile) {
 		// save output file
-		final String fileName = "data_file_" + System.currentTimeMillis() + ".csv";
+		final String fileName = newDataFileName();
 
 		// save the parsed file to local folder	
 		if (outputDb.equals(OutputDatabase.LOCAL)) {
@@ -123,22 +447,14 @@ public class DataWriter implements ParserInterface {
 		else if (outputDb.equals(OutputDatabase.MONGODB)) {
 			parsedFile.forEach(line -> {
 				if (line.length() > 0) { // if not an empty document
-					final String[] values = line.split(";");
-					final String _id = values[0];
-					final String[] _coords = values[1].split(",");
-					Document mongoDoc = new Document()
-							.append("_id",  _id)
-							.append("_coordinates", _coords)
-							.append("record", line);
-					// TODO add semantic attrs separately
-					mongodb.insertDocument(mongoDoc, DATA_COLL_NAME);
+					insertMongoDocument(line);
 				}
 			});
 		}
 		// save the parsed file to HDFS folder	
 		else if (outputDb.equals(OutputDatabase.HDFS)) {
-			final String outDir = hdfsParams.getRootDir();
 			try {
+				final String outDir = hdfsParams.getRootDir();
 				hdfs.writeFile(parsedFile.sequential().collect(Collectors.toList()), 
 						outDir, fileName);
 			} catch (Exception e) {
@@ -147,6 +463,197 @@ public class DataWriter implements ParserInterface {
 		}
 	}
 
+	/**
+	 * @return A new unique name for an output data file.
+	 * Data is saved in CSV file format by default.
+	 */
+	public static String newDataFileName() {
+		return "data_file_" + System.currentTimeMillis() + 
+				"_" + fileSeq.incrementAndGet() + ".csv";
+	}
+	
+	/**
+	 * Save a batch of parsed records to the given data file, in
+	 * the output database of choice. The file stays open until
+	 * {@link #closeDataFile(String)} is called.
+	 * <p>
+	 * Batches of the same file must be saved by the same thread,
+	 * different files can be saved concurrently.
+	 * 
+	 * @param fileName The name of the output data file.
+	 * @param lines The parsed lines to save.
+	 */
+	public static void saveDataBatch(String fileName, List<String> lines) {
+		// append the lines to the local file
+		if (outputDb.equals(OutputDatabase.LOCAL)) {
+			try {
+				BufferedWriter writer = localFiles.get(fileName);
+				if (writer == null) {
+					writer = Files.newBufferedWriter(Paths.get(
+							localParams.getLocalDataPath().toString(), fileName),
+							StandardCharsets.UTF_8);
+					localFiles.put(fileName, writer);
+				}
+				for (String line : lines) {
+					if (line.length() > 0) {
+						writer.write(line);
+						writer.write('\n');
+					}
+				}
+			} catch (IOException e) {
+				log.error("Error saving data file '" +fileName+ "'.", e);
+			}
+		}
+		// save the documents to MongoDB, in bulk
+		else if (outputDb.equals(OutputDatabase.MONGODB)) {
+			for (String line : lines) {
+				if (line.length() > 0) { // if not an empty document
+					insertMongoDocument(line);
+				}
+			}
+		}
+		// HDFS files are written in one go, when closed
+		else if (outputDb.equals(OutputDatabase.HDFS)) {
+			List<String> fileLines = hdfsFiles.get(fileName);
+			if (fileLines == null) {
+				fileLines = new ArrayList<>();
+				hdfsFiles.put(fileName, fileLines);
+			}
+			fileLines.addAll(lines);
+		}
+	}
+	
+	/**
+	 * Close the given data file, after all batches of 
+	 * the file have been saved.
+	 * 
+	 * @param fileName The name of the output data file.
+	 */
+	public static void closeDataFile(String fileName) {
+		if (outputDb.equals(OutputDatabase.LOCAL)) {
+			BufferedWriter writer = localFiles.remove(fileName);
+			if (writer == null) return;
+			try {
+				writer.close();
+			} catch (IOException e) {
+				log.error("Error saving data file '" +fileName+ "'.", e);
+			}
+		}
+		else if (outputDb.equals(OutputDatabase.HDFS)) {
+			List<String> fileLines = hdfsFiles.remove(fileName);
+			if (fileLines == null) return;
+			try {
+				final String outDir = hdfsParams.getRootDir();
+				hdfs.writeFile(fileLines, outDir, fileName);
+			} catch (Exception e) {
+				log.error("Error saving data file '" +fileName+ "' to HDFS.", e);
+			}
+		}
+	}
+	
+	/**
+	 * Wait for all data saved to be written, i.e. the MongoDB 
+	 * documents still buffered or in flight, see 
+	 * {@link MongoBulkWriter#flush()}. Call after all data 
+	 * files have been saved.
+	 */
+	public static void flushDataFiles() {
+		if (outputDb.equals(OutputDatabase.MONGODB)) {
+			flushMongoWriter(mongoWriter, "Documents");
+			flushMongoWriter(mongoBucketWriter, "Buckets");
+		}
+	}
+	
+	/**
+	 * Wait for the given writer (if any) to write its
+	 * documents, and log the written and failed counts.
+	 */
+	private static void flushMongoWriter(MongoBulkWriter writer, String what) {
+		if (writer == null) return;
+		writer.flush();
+		log.info(what + " written to MongoDB: " 
+				+ writer.getWrittenCount() + ".");
+		if (writer.getUnchangedCount() > 0) {
+			log.info(what + " unchanged, not written to MongoDB: " 
+					+ writer.getUnchangedCount() + ".");
+		}
+		if (writer.getFailedCount() > 0) {
+			log.error(what + " that could not be written to MongoDB: " 
+					+ writer.getFailedCount() + ".");
+		}
+	}
+	
+	/**
+	 * Insert the MongoDB document of a parsed line, in the
+	 * document layout of choice. Records that can not be 
+	 * encoded are ignored; errors of the writers (e.g. closed)
+	 * are thrown to the caller.
+	 * 
+	 * @param line The parsed line (trajectory record).
+	 */
+	private static void insertMongoDocument(String line) {
+		final MongoDocumentEncoder encoder = mongoEncoder;
+		final MongoShardSplitter splitter = mongoSplitter;
+		final MongoBulkWriter bucketWriter = mongoBucketWriter;
+		final Long hash;
+		final List<Document> docs;
+		try {
+			hash = mongoReload ? StringHash.hash(mongoHashSeed, line) : null;
+			if (encoder != null && bucketWriter != null) {
+				// the header, then the buckets
+				final MongoWriteParameters params = mongoWriteParams;
+				docs = encoder.encodeBuckets(line, params.getBucketPoints(), 
+						params.getBucketSpan(), splitter);
+			} else {
+				final Document doc = (encoder == null) ? 
+						toMongoDocument(line) : encoder.encode(line);
+				if (splitter != null) {
+					doc.append(MongoShardSplitter.KEY_FIELD, splitter.keyOf(line));
+				}
+				docs = Arrays.asList(doc);
+			}
+		} catch (RuntimeException e) {
+			log.warn("Unable to encode data record: '" + line
+					+ "'.\nRecord Ignored!", new ParserException(e));
+			return;
+		}
+		writeMongoDocument(mongoWriter, docs.get(0), hash);
+		for (Document bucket : docs.subList(1, docs.size())) {
+			writeMongoDocument(bucketWriter, bucket, hash);
+		}
+	}
+	
+	/**
+	 * Insert the given document, or upsert it if changed 
+	 * (reload mode), i.e. if it has a content hash.
+	 */
+	private static void writeMongoDocument(MongoBulkWriter writer, 
+			Document doc, Long hash) {
+		if (hash == null) {
+			writer.insert(doc);
+		} else {
+			writer.upsert(doc.append(MongoBulkWriter.HASH_FIELD, hash));
+		}
+	}
+	
+	/**
+	 * Create the MongoDB document of a parsed line, 
+	 * in the record layout.
+	 * 
+	 * @param line The parsed line (trajectory record).
+	 * @return The document to store in MongoDB.
+	 */
+	private static Document toMongoDocument(String line) {
+		final String[] values = line.split(";");
+		final String _id = values[0];
+		final String[] _coords = values[1].split(",");
+		// TODO add semantic attrs separately
+		return new Document()
+				.append("_id",  _id)
+				.append("_coordinates", _coords)
+				.append("record", line);
+	}
+
 	/**
 	 * Generate and save the OutputFormatFile. File containing the 
 	 * specifications of the intermediate data format. 
@@ -165,74 +672,7 @@ public class DataWriter implements ParserInterface {
 	public static String saveOutputFormatFile(
 			DataFormat dataFormat, OutputFormat outFormat) throws ParserException {
 		try {
-			// get the auxiliary object containing the coordinates array format
-			ArrayFormat coordArrayFormat = dataFormat.getCoordinatesArrayFormat();
-
-			// format commands configuration
-			String commandFormat = "";
-			commandFormat += Keywords._OUTPUT_FORMAT + "\t" + outFormat.name() + "\n";
-			commandFormat += Keywords._COORD_SYSTEM  + "\t" + dataFormat.getCoordinateSystem().name() + "\n";
-			commandFormat += Keywords._DECIMAL_PREC  + "\t" + dataFormat.getDecimalPrecision() + "\n";
-			commandFormat += Keywords._SPATIAL_DIM   + "\t" + coordArrayFormat.getSpatialDimensions();
-			
-			// format attributes configuration
-			String idFormat="", coordFormat="", otherAttrFormat="";
-			// for auto-generated IDs
-			if (dataFormat.isAutoId()) {
-				if (dataFormat.getIdPrefix().matches("\\d+")){
-					idFormat = "\n" + Keywords._ID + "\t" + Keywords.INTEGER;
-				} else {
-					idFormat = "\n" + Keywords._ID + "\t" + Keywords.STRING;
-				}
-			}
-			// print attributes specifications
-			for (AttributeEntry attr : dataFormat.getAttributesList()) {
-				if (attr.name.equals(Keywords._ID.name())) {
-					idFormat = "\n" + Keywords._ID + "\t" + dataFormat.getAttribute(
-							dataFormat.getIdAttrIndex()).type;
-				} else 
-				if (attr.name.equals(Keywords._COORDINATES.name())) {
-					// format the coordinates array type
-					String arrayType = Keywords.ARRAY + "(";
-					
-					int xPos = coordArrayFormat.getXAttrIndex();
-					int yPos = coordArrayFormat.getYAttrIndex();
-					int tPos = coordArrayFormat.getTimeAttrIndex();
-					
-					String xType = coordArrayFormat.getAttribute(xPos).type;
-					String yType = coordArrayFormat.getAttribute(yPos).type;
-					String tType = coordArrayFormat.getAttribute(tPos).type;
-					
-					// add spatial attributes
-					arrayType += Keywords._X + " " + Keywords.getBasicType(xType) + " " + 
-								 Keywords._Y + " " + Keywords.getBasicType(yType);
-								 
-					// add temporal attribute
-					if (outFormat.equals(OutputFormat.SPATIAL_TEMPORAL)) {
-						arrayType += " " + 
-								 Keywords._TIME + " " + Keywords.getBasicType(tType);
-					} 
-					// add semantic attributes
-					else if (outFormat.equals(OutputFormat.ALL)) {
-						arrayType += " " + 
-								 Keywords._TIME + " " + Keywords.getBasicType(tType);
-						for (AttributeEntry arrayAttr: coordArrayFormat.getAttributesList()) {
-								 if (arrayAttr.name.equalsIgnoreCase(Keywords._X.name()));
-							else if (arrayAttr.name.equalsIgnoreCase(Keywords._Y.name()));
-							else if (arrayAttr.name.equalsIgnoreCase(Keywords._TIME.name()));
-							else {arrayType += " " + arrayAttr.name + " " + arrayAttr.type;}
-						}
-					}				
-					coordFormat = "\n" + Keywords._COORDINATES + "\t" + arrayType + ")";
-				} else {
-					if (outFormat.equals(OutputFormat.ALL)) {
-						otherAttrFormat += "\n" + attr.name + "\t" + attr.type;
-					}
-				}
-			}
-
-			// create the script of the output format file
-			final String script = commandFormat + idFormat + coordFormat + otherAttrFormat;
+			final String script = getOutputFormatScript(dataFormat, outFormat);
 			
 			// create the file in the database
 			saveOutputFormatFile(script);
@@ -242,6 +682,87 @@ public class DataWriter implements ParserInterface {
 			throw new ParserException("Unable to generate and save 'Output Data Format' file.", e);
 		}
 	}
+	
+	/**
+	 * Generate the script of the OutputFormatFile, i.e. the 
+	 * specifications of the intermediate data format.
+	 * 
+	 * @param dataFormat User-defined Input data format specifications.
+	 * @param outFormat  User-defined Output data format.
+	 * 
+	 * @return The script/content of the Output Data Format file.
+	 */
+	private static String getOutputFormatScript(
+			DataFormat dataFormat, OutputFormat outFormat) {
+		// get the auxiliary object containing the coordinates array format
+		ArrayFormat coordArrayFormat = dataFormat.getCoordinatesArrayFormat();
+
+		// format commands configuration
+		String commandFormat = "";
+		commandFormat += Keywords._OUTPUT_FORMAT + "\t" + outFormat.name() + "\n";
+		commandFormat += Keywords._COORD_SYSTEM  + "\t" + dataFormat.getCoordinateSystem().name() + "\n";
+		commandFormat += Keywords._DECIMAL_PREC  + "\t" + dataFormat.getDecimalPrecision() + "\n";
+		commandFormat += Keywords._SPATIAL_DIM   + "\t" + coordArrayFormat.getSpatialDimensions();
+		
+		// format attributes configuration
+		String idFormat="", coordFormat="", otherAttrFormat="";
+		// for auto-generated IDs
+		if (dataFormat.isAutoId()) {
+			if (dataFormat.getIdPrefix().matches("\\d+")){
+				idFormat = "\n" + Keywords._ID + "\t" + Keywords.INTEGER;
+			} else {
+				idFormat = "\n" + Keywords._ID + "\t" + Keywords.STRING;
+			}
+		}
+		// print attributes specifications
+		for (AttributeEntry attr : dataFormat.getAttributesList()) {
+			if (attr.name.equals(Keywords._ID.name())) {
+				idFormat = "\n" + Keywords._ID + "\t" + dataFormat.getAttribute(
+						dataFormat.getIdAttrIndex()).type;
+			} else 
+			if (attr.name.equals(Keywords._COORDINATES.name())) {
+				// format the coordinates array type
+				String arrayType = Keywords.ARRAY + "(";
+				
+				int xPos = coordArrayFormat.getXAttrIndex();
+				int yPos = coordArrayFormat.getYAttrIndex();
+				int tPos = coordArrayFormat.getTimeAttrIndex();
+				
+				String xType = coordArrayFormat.getAttribute(xPos).type;
+				String yType = coordArrayFormat.getAttribute(yPos).type;
+				String tType = coordArrayFormat.getAttribute(tPos).type;
+				
+				// add spatial attributes
+				arrayType += Keywords._X + " " + Keywords.getBasicType(xType) + " " + 
+							 Keywords._Y + " " + Keywords.getBasicType(yType);
+							 
+				// add temporal attribute
+				if (outFormat.equals(OutputFormat.SPATIAL_TEMPORAL)) {
+					arrayType += " " + 
+							 Keywords._TIME + " " + Keywords.getBasicType(tType);
+				} 
+				// add semantic attributes
+				else if (outFormat.equals(OutputFormat.ALL)) {
+					arrayType += " " + 
+							 Keywords._TIME + " " + Keywords.getBasicType(tType);
+					for (AttributeEntry arrayAttr: coordArrayFormat.getAttributesList()) {
+							 if (arrayAttr.name.equalsIgnoreCase(Keywords._X.name()));
+						else if (arrayAttr.name.equalsIgnoreCase(Keywords._Y.name()));
+						else if (arrayAttr.name.equalsIgnoreCase(Keywords._TIME.name()));
+						else {arrayType += " " + arrayAttr.name + " " + arrayAttr.type;}
+					}
+				}				
+				coordFormat = "\n" + Keywords._COORDINATES + "\t" + arrayType + ")";
+			} else {
+				if (outFormat.equals(OutputFormat.ALL)) {
+					otherAttrFormat += "\n" + attr.name + "\t" + attr.type;
+				}
+			}
+		}
+
+		// create the script of the output format file
+		return commandFormat + idFormat + coordFormat + otherAttrFormat;
+	}
 
 	/**
 	 * Save the OutputFormatFile. File containing the 
@@ -266,8 +787,8 @@ public class DataWriter implements ParserInterface {
 			}		
 			// save file to MongoDB
 			else if (outputDb.equals(OutputDatabase.MONGODB)) {
-				mongodb.insertDocument(new Document("_id", "output-format")
-					   .append("value", outputDataFormat), META_COLL_NAME);
+				saveMongoDocument(mongodb.getCollection(META_COLL_NAME),
+						"output-format", outputDataFormat);
 			}
 			// save file to HDFS
 			else if (outputDb.equals(OutputDatabase.HDFS)) {
@@ -296,30 +817,14 @@ public class DataWriter implements ParserInterface {
 	public static String saveMetadataFile(DataFormat dataFormat, 
 			OutputFormat outFormat) throws ParserException {
 		try {
-			// number of trajectory attributes in the output data
-			int attrCount;
-			// number of coordinate attributes in the output data
-			int coordAttrCount;
-			if (outFormat.equals(OutputFormat.ALL)) {
-				attrCount = dataFormat.numValidAttributes();
-				coordAttrCount = dataFormat.getCoordinatesArrayFormat().numValidAttributes();
-			} else 
-			if (outFormat.equals(OutputFormat.SPATIAL)) {
-				attrCount = 2; // id and coordinates only
-				coordAttrCount = dataFormat.getCoordinatesArrayFormat().getSpatialDimensions();
-			} else {
-				attrCount = 2; // id and coordinates only
-				coordAttrCount = dataFormat.getCoordinatesArrayFormat().getSpatialDimensions() + 1;
-			}
+			// metadata derived from the raw metadata state
+			MetadataState state = MetadataService.getState(dataFormat, outFormat);
+			String script = state.getMetadata();
 			
-			String script = "";
-			script += "NUM_FILES\t" + MetadataService.getFilesCount() + "\n";		
-			script += "NUM_ATTRIBUTES\t" + attrCount + "\n";
-			script += "NUM_COORD_ATTRIBUTES\t" + coordAttrCount + "\n";
-			script += MetadataService.getMetadata();
-			
-			// create the file in the database
+			// create the files in the database
 			saveMetadataFile(script);
+			saveDensityFile(state.getStatistics().getDensityHistogram());
+			saveStateFile(state);
 			
 			return script;
 		} catch (Exception e) {
@@ -348,8 +853,8 @@ public class DataWriter implements ParserInterface {
 			}
 			// save file to MongoDB
 			else if (outputDb.equals(OutputDatabase.MONGODB)) {
-				mongodb.insertDocument(new Document("_id", "metadata")
-						.append("value", metadata), META_COLL_NAME);
+				saveMongoDocument(mongodb.getCollection(META_COLL_NAME),
+						"metadata", metadata);
 			}
 			// save file to HDFS
 			else if (outputDb.equals(OutputDatabase.HDFS)) {
@@ -360,4 +865,167 @@ public class DataWriter implements ParserInterface {
 			throw new ParserException("Unable to generate and save 'Metadata' file.", e);
 		}
 	}
+
+	/**
+	 * Save the histogram of the points density over the coverage
+	 * of the output dataset, in binary form, next to the metadata
+	 * file. Nothing is saved if the histogram is empty.
+	 * 
+	 * <br> Save file as 'density.grid'. In HDFS, the binary form
+	 * is saved Base64-encoded, as 'density.grid.b64'.
+	 * 
+	 * @param histogram The density histogram to save.
+	 *  
+	 * @throws ParserException If the file could not be successfully
+	 * created or saved.
+	 */
+	public static void saveDensityFile(DensityHistogram histogram) throws ParserException {
+		if (histogram.numCells() == 0) return;
+		try {
+			saveBinaryFile(DensityHistogram.FILE_NAME, "density", 
+					histogram.toByteArray());
+		} catch (Exception e) {
+			throw new ParserException("Unable to generate and save 'Density' file.", e);
+		}
+	}
+	
+	/**
+	 * Save the raw state of the metadata, in binary form, next 
+	 * to the metadata file. States of parts of a dataset can be 
+	 * merged, see {@link MetadataMerger}.
+	 * 
+	 * <br> Save file as 'metadata.state'. In HDFS, the binary form
+	 * is saved Base64-encoded, as 'metadata.state.b64'.
+	 * 
+	 * @param state The metadata state to save.
+	 *  
+	 * @throws ParserException If the file could not be successfully
+	 * created or saved.
+	 */
+	public static void saveStateFile(MetadataState state) throws ParserException {
+		try {
+			saveBinaryFile(MetadataState.FILE_NAME, "metadata-state", 
+					state.toByteArray());
+		} catch (Exception e) {
+			throw new ParserException("Unable to generate and save 'Metadata State' file.", e);
+		}
+	}
+	
+	/**
+	 * Save a snapshot of the metadata taken during the data 
+	 * loading, see {@link MetadataSnapshotter}, i.e. the metadata
+	 * script and its raw state, replacing the last snapshot.
+	 * <p>
+	 * In the Local folder, each file is written to a temporary 
+	 * file first, and then moved over the last snapshot, hence 
+	 * readers always see a whole snapshot. In MongoDB, each file
+	 * is a document replaced at once. In HDFS (no rename), the 
+	 * files are overwritten.
+	 * 
+	 * <br> Save files as 'metadata.snapshot.meta' and 
+	 * 'metadata.snapshot.state'.
+	 * 
+	 * @param metadata The metadata script of the snapshot.
+	 * @param state The metadata state of the snapshot.
+	 *  
+	 * @throws ParserException If the files could not be saved.
+	 */
+	public static void saveSnapshotFiles(String metadata, 
+			MetadataState state) throws ParserException {
+		final byte[] stateBytes = state.toByteArray();
+		try {
+			// save files to local folder	
+			if (outputDb.equals(OutputDatabase.LOCAL)) {
+				final Path outDir = localParams.getLocalDataPath();
+				writeAtomically(outDir, MetadataSnapshotter.FILE_NAME, 
+						metadata.getBytes(StandardCharsets.UTF_8));
+				writeAtomically(outDir, MetadataSnapshotter.STATE_FILE_NAME, 
+						stateBytes);
+			}
+			// save files to MongoDB
+			else if (outputDb.equals(OutputDatabase.MONGODB)) {
+				saveMongoDocument(mongodb.getCollection(META_COLL_NAME),
+						"metadata-snapshot", metadata);
+				saveMongoDocument(mongodb.getCollection(META_COLL_NAME),
+						"metadata-state-snapshot", stateBytes);
+			}
+			// save files to HDFS
+			else if (outputDb.equals(OutputDatabase.HDFS)) {
+				final String outDir = hdfsParams.getRootDir();
+				hdfs.writeFile(metadata, outDir, MetadataSnapshotter.FILE_NAME);
+				hdfs.writeFile(Base64.getEncoder().encodeToString(stateBytes), 
+						outDir, MetadataSnapshotter.STATE_FILE_NAME + ".b64");
+			}
+		} catch (Exception e) {
+			throw new ParserException("Unable to save 'Metadata Snapshot' files.", e);
+		}
+	}
+
+	/**
+	 * Write a local file atomically, i.e. write a temporary file
+	 * in the same folder, and move it to the given file name.
+	 */
+	private static void writeAtomically(Path dir, String fileName, 
+			byte[] bytes) throws IOException {
+		Path tempFile = Files.createTempFile(dir, fileName, ".tmp");
+		try {
+			Files.write(tempFile, bytes);
+			try {
+				Files.move(tempFile, dir.resolve(fileName), 
+						StandardCopyOption.ATOMIC_MOVE, 
+						StandardCopyOption.REPLACE_EXISTING);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(tempFile, dir.resolve(fileName), 
+						StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			Files.deleteIfExists(tempFile);
+		}
+	}
+
+	/**
+	 * Save a binary file to the output database of choice. 
+	 * In MongoDB, the file is saved as a document in the 
+	 * metadata collection, and in HDFS (text files only)
+	 * it is saved Base64-encoded, with extension '.b64'.
+	 * 
+	 * @param fileName The name of the file.
+	 * @param docId The ID of the MongoDB document.
+	 * @param bytes The content of the file.
+	 */
+	private static void saveBinaryFile(String fileName, String docId, 
+			byte[] bytes) throws Exception {
+		// save file to local folder	
+		if (outputDb.equals(OutputDatabase.LOCAL)) {
+			String outDir = localParams.getLocalDataPath().toString();
+			Files.write(Paths.get(outDir, fileName), bytes);
+		}
+		// save file to MongoDB
+		else if (outputDb.equals(OutputDatabase.MONGODB)) {
+			saveMongoDocument(mongodb.getCollection(META_COLL_NAME), docId, bytes);
+		}
+		// save file to HDFS
+		else if (outputDb.equals(OutputDatabase.HDFS)) {
+			final String outDir = hdfsParams.getRootDir();
+			hdfs.writeFile(Base64.getEncoder().encodeToString(bytes), 
+					outDir, fileName + ".b64");
+		}
+	}
+	
+	/**
+	 * Save a file as a document of the given ID in the given MongoDB
+	 * collection, i.e. { _id: docId, value: content }. Replaces the
+	 * document of a previous load (if any), so the data can be 
+	 * loaded again into the same database (e.g. reload mode).
+	 * 
+	 * @param collection The MongoDB collection.
+	 * @param docId The ID of the document.
+	 * @param value The content of the file.
+	 */
+	public static void saveMongoDocument(MongoCollection<Document> collection,
+			String docId, Object value) {
+		collection.replaceOne(Filters.eq("_id", docId), 
+				new Document("_id", docId).append("value", value),
+				new UpdateOptions().upsert(true));
+	}
 }
@@ -0,0 +1,281 @@
+package traminer.parser;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Parse DATETIME values of a given pattern to the number of
+ * milliseconds passed since 01/Jan/1970 (UTC).
+ * <p>
+ * There is one parser per pattern, with a precompiled formatter,
+ * and the parsers are thread-safe. Common ISO-8601 layouts, i.e.
+ * "yyyy-MM-dd HH:mm:ss" with date separator '-' or '/', any single
+ * date-time separator (e.g. ' ', 'T', ','), and optional ".SSS"
+ * milliseconds, are parsed by hand, other patterns (and values not
+ * matching the layout exactly) are parsed by the formatter.
+ * <p>
+ * Time-stamps of the same trajectory usually share their date, hence
+ * when parsing an array of values, the epoch of the date part of the
+ * previous value is reused, and only the time part is parsed.
+ *
+ * @author douglasapeixoto
+ */
+public final class DateTimeParser {
+	// one parser per pattern
+	private static final ConcurrentMap<String, DateTimeParser> PARSERS =
+			new ConcurrentHashMap<>();
+	// milliseconds per time unit
+	private static final long MILLIS_PER_SECOND = 1000L;
+	private static final long MILLIS_PER_MINUTE = 60L * MILLIS_PER_SECOND;
+	private static final long MILLIS_PER_HOUR   = 60L * MILLIS_PER_MINUTE;
+	private static final long MILLIS_PER_DAY    = 24L * MILLIS_PER_HOUR;
+	// length of the date part "yyyy-MM-dd" in the ISO layout
+	private static final int DATE_LENGTH = 10;
+	// literal symbols separating the date and time in the ISO layout
+	private static final String DATE_TIME_SEPARATORS = " ,;_|/-";
+
+	// the DATETIME pattern
+	private final String pattern;
+	// formatter of the pattern (thread-safe)
+	private final DateTimeFormatter formatter;
+	// ISO layout of the pattern, or null if not an ISO layout
+	private final IsoLayout isoLayout;
+
+	private DateTimeParser(String pattern) {
+		this.pattern = pattern;
+		this.formatter = DateTimeFormatter.ofPattern(pattern);
+		this.isoLayout = IsoLayout.of(pattern);
+	}
+
+	/**
+	 * @param pattern The DATETIME pattern, e.g. "yyyy-MM-dd HH:mm:ss".
+	 * @return The parser of the given pattern.
+	 * @throws IllegalArgumentException If the pattern is invalid.
+	 */
+	public static DateTimeParser forPattern(String pattern) {
+		if (pattern == null) {
+			throw new NullPointerException(
+					"DATETIME pattern must not be null.");
+		}
+		DateTimeParser parser = PARSERS.get(pattern);
+		if (parser == null) {
+			parser = new DateTimeParser(pattern);
+			DateTimeParser previous = PARSERS.putIfAbsent(pattern, parser);
+			if (previous != null) parser = previous;
+		}
+		return parser;
+	}
+
+	/**
+	 * @return The DATETIME pattern of this parser.
+	 */
+	public String getPattern() {
+		return pattern;
+	}
+
+	/**
+	 * @return True if the values of this pattern are parsed
+	 * by hand (ISO layout).
+	 */
+	public boolean isIsoLayout() {
+		return isoLayout != null;
+	}
+
+	/**
+	 * Parse the given DATETIME value.
+	 *
+	 * @param value The DATETIME value, in this parser pattern.
+	 * @return The number of milliseconds since 01/Jan/1970 (UTC).
+	 * @throws java.time.format.DateTimeParseException If the
+	 * value can not be parsed.
+	 */
+	public long toEpochMilli(String value) {
+		if (isoLayout != null) {
+			long dayMillis = isoLayout.dateMillis(value);
+			if (dayMillis != Long.MIN_VALUE) {
+				long timeMillis = isoLayout.timeMillis(value);
+				if (timeMillis >= 0) {
+					return dayMillis + timeMillis;
+				}
+			}
+		}
+		return parse(value);
+	}
+
+	/**
+	 * Parse the DATETIME values in the given range, and replace
+	 * them by the number of milliseconds since 01/Jan/1970 (UTC).
+	 *
+	 * @param values The DATETIME values, in this parser pattern.
+	 * @param from Position of the first value to parse.
+	 * @param count Number of values to parse.
+	 * @throws java.time.format.DateTimeParseException If any
+	 * value can not be parsed.
+	 */
+	public void toEpochMilli(String[] values, int from, int count) {
+		// previous value parsed, and its date part
+		String prevValue = null, prevDate = null;
+		long prevMillis = 0, prevDayMillis = 0;
+		for (int i=from; i<from+count; i++) {
+			final String value = values[i];
+			long millis;
+			if (value.equals(prevValue)) {
+				millis = prevMillis;
+			} else if (isoLayout != null) {
+				// reuse the epoch of the previous date, if the same
+				long dayMillis;
+				if (prevDate != null && value.length() == prevDate.length() &&
+					value.regionMatches(0, prevDate, 0, DATE_LENGTH)) {
+					dayMillis = prevDayMillis;
+				} else {
+					dayMillis = isoLayout.dateMillis(value);
+				}
+				long timeMillis = (dayMillis == Long.MIN_VALUE) ?
+						-1 : isoLayout.timeMillis(value);
+				if (timeMillis >= 0) {
+					millis = dayMillis + timeMillis;
+					prevDate = value;
+					prevDayMillis = dayMillis;
+				} else {
+					millis = parse(value);
+				}
+			} else {
+				millis = parse(value);
+			}
+			values[i] = Long.toString(millis);
+			prevValue = value;
+			prevMillis = millis;
+		}
+	}
+
+	/**
+	 * Parse the given value with the pattern formatter.
+	 */
+	private long parse(String value) {
+		return LocalDateTime.parse(value, formatter)
+				.toInstant(ZoneOffset.UTC).toEpochMilli();
+	}
+
+	/**
+	 * Hand-written parser of the ISO layout of a pattern, i.e.
+	 * yyyy[-/]MM[-/]dd?HH:mm:ss[.SSS]. Values not matching the
+	 * layout exactly (e.g. fields out of range), must be parsed
+	 * by the pattern formatter.
+	 */
+	private static final class IsoLayout {
+		// separator of the date fields
+		final char dateSep;
+		// separator of the date and time parts
+		final char dateTimeSep;
+		// whether the time has milliseconds (.SSS)
+		final boolean hasMillis;
+		// length of the values
+		final int length;
+
+		private IsoLayout(char dateSep, char dateTimeSep, boolean hasMillis) {
+			this.dateSep = dateSep;
+			this.dateTimeSep = dateTimeSep;
+			this.hasMillis = hasMillis;
+			this.length = hasMillis ? 23 : 19;
+		}
+
+		/**
+		 * @return The ISO layout of the given pattern,
+		 * or null if the pattern is not an ISO layout.
+		 */
+		static IsoLayout of(String pattern) {
+			// date part
+			if (pattern.length() < DATE_LENGTH) return null;
+			char dateSep = pattern.charAt(4);
+			if (dateSep != '-' && dateSep != '/') return null;
+			if (!pattern.startsWith("yyyy" + dateSep + "MM" + dateSep + "dd")) {
+				return null;
+			}
+			// date-time separator, a literal (quoted) letter or a symbol
+			String time = pattern.substring(DATE_LENGTH);
+			char dateTimeSep;
+			if (time.length() > 3 && time.charAt(0) == '\'' && time.charAt(2) == '\'' &&
+				Character.isLetter(time.charAt(1))) {
+				dateTimeSep = time.charAt(1);
+				time = time.substring(3);
+			} else if (time.length() > 1 && DATE_TIME_SEPARATORS.indexOf(time.charAt(0)) >= 0) {
+				dateTimeSep = time.charAt(0);
+				time = time.substring(1);
+			} else {
+				return null;
+			}
+			// time part
+			if (time.equals("HH:mm:ss")) {
+				return new IsoLayout(dateSep, dateTimeSep, false);
+			}
+			if (time.equals("HH:mm:ss.SSS")) {
+				return new IsoLayout(dateSep, dateTimeSep, true);
+			}
+			return null;
+		}
+
+		/**
+		 * @return The epoch (milliseconds) of the date part of the
+		 * value, or Long.MIN_VALUE if the value does not match the
+		 * layout (or the date is not valid).
+		 */
+		long dateMillis(String value) {
+			if (value.length() != length ||
+				value.charAt(4) != dateSep || value.charAt(7) != dateSep) {
+				return Long.MIN_VALUE;
+			}
+			int year  = digits(value, 0, 4);
+			int month = digits(value, 5, 2);
+			int day   = digits(value, 8, 2);
+			if (year < 1 || month < 1 || month > 12 || day < 1) {
+				return Long.MIN_VALUE;
+			}
+			LocalDate firstDay = LocalDate.of(year, month, 1);
+			if (day > firstDay.lengthOfMonth()) {
+				return Long.MIN_VALUE;
+			}
+			return (firstDay.toEpochDay() + day - 1) * MILLIS_PER_DAY;
+		}
+
+		/**
+		 * @return The milliseconds of the time part of the value
+		 * (in the day), or -1 if the value does not match the layout.
+		 * The value length must have been checked.
+		 */
+		long timeMillis(String value) {
+			if (value.charAt(DATE_LENGTH) != dateTimeSep ||
+				value.charAt(13) != ':' || value.charAt(16) != ':' ||
+				(hasMillis && value.charAt(19) != '.')) {
+				return -1;
+			}
+			int hour   = digits(value, 11, 2);
+			int minute = digits(value, 14, 2);
+			int second = digits(value, 17, 2);
+			int millis = hasMillis ? digits(value, 20, 3) : 0;
+			if (hour < 0 || hour > 23 || minute < 0 || minute > 59 ||
+				second < 0 || second > 59 || millis < 0) {
+				return -1;
+			}
+			return hour * MILLIS_PER_HOUR + minute * MILLIS_PER_MINUTE +
+				   second * MILLIS_PER_SECOND + millis;
+		}
+
+		/**
+		 * @return The number given by the ASCII digits in the
+		 * given range of the value, or -1 if not all digits.
+		 */
+		private static int digits(String value, int from, int count) {
+			int result = 0;
+			for (int i=from; i<from+count; i++) {
+				char c = value.charAt(i);
+				if (c < '0' || c > '9') return -1;
+				result = result * 10 + (c - '0');
+			}
+			return result;
+		}
+	}
+}
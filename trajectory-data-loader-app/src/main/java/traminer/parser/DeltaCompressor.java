@@ -0,0 +1,151 @@
+package traminer.parser;
+
+/**
+ * Delta compression of numeric values, given as decimal strings,
+ * to integers scaled by 10^precision, i.e. (value * 10^precision)
+ * truncated, as in the output of the coordinates array.
+ * <p>
+ * This is the fast path of the compression, the decimal strings
+ * are parsed directly into scaled longs, and the deltas are
+ * computed in primitive arithmetic, without creating any number
+ * objects. The result is the same as computing the deltas and
+ * scaling the values with {@link traminer.util.math.Decimal}
+ * numbers (scale 10). Values that cannot be computed exactly in
+ * this path (e.g. exponent notation, more than 10 decimal places,
+ * or values out of the long range) are not compressed, and must
+ * be compressed with Decimal numbers.
+ *
+ * @author douglasapeixoto
+ */
+public final class DeltaCompressor {
+	// maximum number of decimal places (scale of Decimal numbers)
+	private static final int MAX_SCALE = 10;
+	// maximum precision supported
+	private static final int MAX_PRECISION = 18;
+	// powers of ten, up to 10^18
+	private static final long[] POW10 = new long[MAX_PRECISION + 1];
+	static {
+		POW10[0] = 1;
+		for (int i=1; i<POW10.length; i++) {
+			POW10[i] = POW10[i-1] * 10;
+		}
+	}
+
+	private DeltaCompressor() {}
+
+	/**
+	 * Compress the values using Delta compression, if not already
+	 * compressed, and convert them to integers with the given
+	 * precision, i.e. (value * 10^precision) truncated.
+	 * <p>
+	 * The first value is kept as is (only scaled), the following
+	 * values are the difference to the previous value.
+	 *
+	 * @param values The values to compress, as decimal strings.
+	 * @param isCompressed If the values are already compressed.
+	 * @param precision The number of decimal places to keep,
+	 * zero to keep the integer part only.
+	 *
+	 * @return The compressed values, or null if the values
+	 * cannot be compressed exactly in this fast path.
+	 */
+	public static long[] compress(String[] values, boolean isCompressed, int precision) {
+		if (values == null) {
+			throw new NullPointerException(
+					"List of values for delta compression must not be null.");
+		}
+		if (precision < 0 || precision > MAX_PRECISION) return null;
+		// common scale of the values
+		int scale = 0;
+		for (String value : values) {
+			int places = decimalPlaces(value);
+			if (places < 0 || places > MAX_SCALE) return null;
+			scale = Math.max(scale, places);
+		}
+		long[] result = new long[values.length];
+		try {
+			long previous = 0, current, delta;
+			for (int i=0; i<values.length; i++) {
+				current = parseScaled(values[i], scale);
+				delta = (isCompressed || i == 0) ? current :
+						Math.subtractExact(current, previous);
+				result[i] = rescale(delta, scale, precision);
+				previous = current;
+			}
+		} catch (ArithmeticException e) {
+			// overflow
+			return null;
+		}
+		return result;
+	}
+
+	/**
+	 * @return The number of decimal places of the given decimal
+	 * string, or -1 if the string is not a plain ASCII decimal
+	 * number, i.e. [+-]digits[.digits] with at least one digit.
+	 */
+	static int decimalPlaces(String value) {
+		final int length = value.length();
+		int i = 0;
+		if (i < length && (value.charAt(i) == '-' || value.charAt(i) == '+')) i++;
+		int digits = 0, places = -1;
+		for (; i < length; i++) {
+			char c = value.charAt(i);
+			if (c >= '0' && c <= '9') {
+				digits++;
+				if (places >= 0) places++;
+			} else if (c == '.' && places < 0) {
+				places = 0;
+			} else {
+				return -1;
+			}
+		}
+		if (digits == 0) return -1;
+		return Math.max(places, 0);
+	}
+
+	/**
+	 * Parse a plain decimal string to a long scaled by 10^scale.
+	 *
+	 * @param value A plain decimal string, with no more
+	 * than (scale) decimal places.
+	 * @param scale The scale of the result.
+	 * @return (value * 10^scale)
+	 * @throws ArithmeticException If the result overflows a long.
+	 */
+	static long parseScaled(String value, int scale) {
+		final int length = value.length();
+		int i = 0;
+		boolean negative = false;
+		if (value.charAt(0) == '-' || value.charAt(0) == '+') {
+			negative = value.charAt(0) == '-';
+			i++;
+		}
+		long result = 0;
+		int places = -1;
+		for (; i < length; i++) {
+			char c = value.charAt(i);
+			if (c == '.') {
+				places = 0;
+				continue;
+			}
+			// accumulate as a negative number, to fit Long.MIN_VALUE
+			result = Math.subtractExact(Math.multiplyExact(result, 10), c - '0');
+			if (places >= 0) places++;
+		}
+		result = Math.multiplyExact(result, POW10[scale - Math.max(places, 0)]);
+		return negative ? result : Math.negateExact(result);
+	}
+
+	/**
+	 * @return The given value, scaled by 10^scale, converted to
+	 * scale 10^precision, with the fraction part truncated.
+	 */
+	private static long rescale(long value, int scale, int precision) {
+		if (precision >= scale) {
+			return Math.multiplyExact(value, POW10[precision - scale]);
+		}
+		// long division truncates towards zero
+		return value / POW10[scale - precision];
+	}
+}
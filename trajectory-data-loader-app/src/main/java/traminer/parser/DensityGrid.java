@@ -0,0 +1,512 @@
+package traminer.parser;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Mergeable count histogram of the trajectory points over the
+ * spatial (X,Y), or spatial-temporal (X,Y,T), coverage of the data.
+ * <p>
+ * The coverage box is not known while the data is parsed, hence the
+ * cells are aligned on powers of two: the cells of an axis have width
+ * 2^e, and a value v falls in the cell floor(v / 2^e). The exponent e
+ * of each axis is the smallest one for which the coverage of the axis
+ * spans no more than (resolution * 2^depth) cells. When the coverage
+ * grows, cells are coarsened by merging neighbour cells, which is exact.
+ * The exponents depend on the coverage only, hence grids of any part of
+ * the data can be merged, and the result is the same regardless of how
+ * the data was split among the grids.
+ * <p>
+ * Only non-empty cells are kept, so the memory is bounded by the
+ * number of cells, i.e. (resolution * 2^depth)^dimensions, in the worst
+ * case. See {@link #toHistogram()} for the adaptive histogram of the grid.
+ * <p>
+ * A grid must not be used by many threads at once.
+ *
+ * @author douglasapeixoto
+ */
+public final class DensityGrid {
+	/** Default number of cells per axis of the histogram */
+	public static final int DEFAULT_RESOLUTION = 64;
+	/** Default number of refinement levels of the histogram */
+	public static final int DEFAULT_DEPTH = 2;
+	// maximum number of cells per axis at the finest level
+	private static final int MAX_CELLS_PER_AXIS = 1 << 19;
+	// bits of each axis offset in the cell keys
+	private static final int OFFSET_BITS = 21;
+	private static final long OFFSET_MASK = (1L << OFFSET_BITS) - 1;
+	// bias of the (signed) offsets in the cell keys
+	private static final long OFFSET_BIAS = 1L << (OFFSET_BITS - 1);
+
+	// number of cells per axis at the top level
+	private final int resolution;
+	// number of refinement levels below the top level
+	private final int depth;
+	// number of dimensions, 2 (X,Y) or 3 (X,Y,T)
+	private final int dims;
+	// maximum number of cells per axis at the finest level
+	private final long maxCells;
+	// coverage of the points added, per axis
+	private final double[] min, max;
+	// cells width exponent, and index of the anchor cell, per axis
+	private final int[] exponent;
+	private final long[] anchor;
+	// counts of the non-empty cells, keys are offsets to the anchor
+	private CellCounts cells = new CellCounts(16);
+	// number of points added
+	private long count = 0;
+	// reusable buffer of the point values
+	private final double[] point = new double[3];
+
+	/**
+	 * Creates a new empty density grid.
+	 *
+	 * @param resolution Number of cells per axis of the coverage
+	 * box at the top level of the histogram (at least 1).
+	 * @param depth Number of refinement levels below the top
+	 * level, each level halves the cells width (at least 0).
+	 * @param temporal True to count the points over (X,Y,T),
+	 * false to count them over (X,Y) only.
+	 */
+	public DensityGrid(int resolution, int depth, boolean temporal) {
+		if (resolution < 1 || depth < 0) {
+			throw new IllegalArgumentException("Density grid resolution "
+					+ "must be positive, and depth must not be negative.");
+		}
+		if (depth > 19 || ((long) resolution << depth) > MAX_CELLS_PER_AXIS) {
+			throw new IllegalArgumentException("Density grid must have at "
+					+ "most " + MAX_CELLS_PER_AXIS + " cells per axis "
+					+ "(resolution * 2^depth).");
+		}
+		this.resolution = resolution;
+		this.depth = depth;
+		this.dims = temporal ? 3 : 2;
+		this.maxCells = (long) resolution << depth;
+		this.min = new double[dims];
+		this.max = new double[dims];
+		this.exponent = new int[dims];
+		this.anchor = new long[dims];
+		Arrays.fill(min, Double.POSITIVE_INFINITY);
+		Arrays.fill(max, Double.NEGATIVE_INFINITY);
+	}
+
+	/**
+	 * @return Number of cells per axis at the top level.
+	 */
+	public int getResolution() {
+		return resolution;
+	}
+
+	/**
+	 * @return Number of refinement levels below the top level.
+	 */
+	public int getDepth() {
+		return depth;
+	}
+
+	/**
+	 * @return True if the points are counted over (X,Y,T).
+	 */
+	public boolean isTemporal() {
+		return dims == 3;
+	}
+
+	/**
+	 * @return Number of points added to this grid.
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * @return Number of non-empty cells at the finest level.
+	 */
+	public int numCells() {
+		return cells.size;
+	}
+
+	/**
+	 * Add a point to this grid. Points with NaN or infinite
+	 * values are ignored.
+	 *
+	 * @param x The X coordinate of the point.
+	 * @param y The Y coordinate of the point.
+	 * @param t The time-stamp of the point (ignored if not temporal).
+	 */
+	public void update(double x, double y, double t) {
+		point[0] = x; point[1] = y; point[2] = t;
+		boolean grown = false;
+		for (int d=0; d<dims; d++) {
+			if (Double.isNaN(point[d]) || Double.isInfinite(point[d])) {
+				return;
+			}
+		}
+		for (int d=0; d<dims; d++) {
+			if (point[d] < min[d]) {min[d] = point[d]; grown = true;}
+			if (point[d] > max[d]) {max[d] = point[d]; grown = true;}
+		}
+		if (count == 0) {
+			for (int d=0; d<dims; d++) {
+				exponent[d] = requiredExponent(d);
+				anchor[d] = cellIndex(point[d], exponent[d]);
+			}
+		} else if (grown) {
+			int[] shifts = new int[dims];
+			boolean coarsen = false;
+			for (int d=0; d<dims; d++) {
+				shifts[d] = requiredExponent(d) - exponent[d];
+				coarsen |= shifts[d] > 0;
+			}
+			if (coarsen) coarsen(shifts);
+		}
+		long key = 0;
+		for (int d=0; d<dims; d++) {
+			key |= offsetKey(cellIndex(point[d], exponent[d]) - anchor[d], d);
+		}
+		cells.add(key, 1);
+		count++;
+	}
+
+	/**
+	 * Merge the counts of the given grid into this grid.
+	 * The given grid is not changed.
+	 *
+	 * @param other The grid to merge, of same resolution,
+	 * depth and dimensions of this grid.
+	 * @throws IllegalArgumentException If the grids are not
+	 * of the same resolution, depth and dimensions.
+	 */
+	public void merge(DensityGrid other) {
+		if (resolution != other.resolution || depth != other.depth ||
+			dims != other.dims) {
+			throw new IllegalArgumentException("Density grids of "
+					+ "different resolution, depth or dimensions "
+					+ "can not be merged.");
+		}
+		if (other.count == 0) return;
+		for (int d=0; d<dims; d++) {
+			min[d] = Math.min(min[d], other.min[d]);
+			max[d] = Math.max(max[d], other.max[d]);
+		}
+		// exponents of the merged coverage
+		int[] merged = new int[dims];
+		for (int d=0; d<dims; d++) {
+			merged[d] = Math.max(requiredExponent(d), other.exponent[d]);
+			if (count > 0) merged[d] = Math.max(merged[d], exponent[d]);
+		}
+		if (count == 0) {
+			for (int d=0; d<dims; d++) {
+				exponent[d] = merged[d];
+				anchor[d] = other.anchor[d] >> (merged[d] - other.exponent[d]);
+			}
+		} else {
+			int[] shifts = new int[dims];
+			for (int d=0; d<dims; d++) {
+				shifts[d] = merged[d] - exponent[d];
+			}
+			coarsen(shifts);
+		}
+		final CellCounts otherCells = other.cells;
+		for (int i=0; i<otherCells.keys.length; i++) {
+			final long otherKey = otherCells.keys[i];
+			if (otherKey == 0) continue;
+			long key = 0;
+			for (int d=0; d<dims; d++) {
+				long index = other.cellIndex(otherKey, d) >>
+						(exponent[d] - other.exponent[d]);
+				key |= offsetKey(index - anchor[d], d);
+			}
+			cells.add(key, otherCells.counts[i]);
+		}
+		count += other.count;
+	}
+
+	/**
+	 * Build the adaptive histogram of this grid. The top level of
+	 * the histogram has about (resolution) cells per axis over the
+	 * coverage box. Cells with more points than the average non-empty
+	 * top level cell are refined, i.e. split in 2^dimensions cells,
+	 * recursively down to the finest level of the grid. Hence, hot
+	 * spots are described in detail, and sparse areas by a few cells.
+	 *
+	 * @return The adaptive histogram of this grid, with the
+	 * non-empty cells only.
+	 */
+	public DensityHistogram toHistogram() {
+		// top level index of the coverage origin
+		final long[] origin = new long[dims];
+		for (int d=0; d<dims; d++) {
+			origin[d] = (count == 0) ? 0 :
+				cellIndex(min[d], exponent[d]) >> depth;
+		}
+		// counts of each level (0 is the finest), keys are
+		// the cell indexes relative to the origin
+		List<Map<Long, Long>> levelCounts = new ArrayList<>(depth + 1);
+		for (int level=0; level<=depth; level++) {
+			levelCounts.add(new HashMap<>());
+		}
+		for (int i=0; i<cells.keys.length; i++) {
+			final long key = cells.keys[i];
+			if (key == 0) continue;
+			for (int level=0; level<=depth; level++) {
+				long levelKey = 0;
+				for (int d=0; d<dims; d++) {
+					long index = (cellIndex(key, d) >> level) -
+							(origin[d] << (depth - level));
+					levelKey |= index << (OFFSET_BITS * d);
+				}
+				levelCounts.get(level).merge(levelKey, cells.counts[i], Long::sum);
+			}
+		}
+		// refine the cells denser than the average top cell
+		Map<Long, Long> topCounts = levelCounts.get(depth);
+		final long threshold = topCounts.isEmpty() ? 0 : count / topCounts.size();
+		Long[] topKeys = topCounts.keySet().toArray(new Long[0]);
+		Arrays.sort(topKeys);
+		HistogramBuilder builder = new HistogramBuilder();
+		for (Long key : topKeys) {
+			refine(depth, key, topCounts.get(key), threshold, levelCounts, builder);
+		}
+		return builder.build(origin);
+	}
+
+	/**
+	 * Write the state of this grid, see {@link MetadataState}.
+	 */
+	void write(DataOutput out) throws IOException {
+		out.writeInt(resolution);
+		out.writeByte(depth);
+		out.writeBoolean(isTemporal());
+		out.writeLong(count);
+		for (int d=0; d<dims; d++) {
+			out.writeDouble(min[d]);
+			out.writeDouble(max[d]);
+			out.writeInt(exponent[d]);
+			out.writeLong(anchor[d]);
+		}
+		out.writeInt(cells.size);
+		for (int i=0; i<cells.keys.length; i++) {
+			if (cells.keys[i] == 0) continue;
+			out.writeLong(cells.keys[i]);
+			out.writeLong(cells.counts[i]);
+		}
+	}
+
+	/**
+	 * Read the state of a grid, see {@link #write(DataOutput)}.
+	 */
+	static DensityGrid read(DataInput in) throws IOException {
+		DensityGrid grid = new DensityGrid(
+				in.readInt(), in.readByte(), in.readBoolean());
+		grid.count = in.readLong();
+		for (int d=0; d<grid.dims; d++) {
+			grid.min[d] = in.readDouble();
+			grid.max[d] = in.readDouble();
+			grid.exponent[d] = in.readInt();
+			grid.anchor[d] = in.readLong();
+		}
+		int size = in.readInt();
+		if (size < 0 || size > (1 << 30)) {
+			throw new IOException("Invalid density grid state.");
+		}
+		grid.cells = new CellCounts(
+				Integer.highestOneBit(Math.max(8, size)) * 4);
+		for (int i=0; i<size; i++) {
+			long key = in.readLong();
+			if (key == 0) {
+				throw new IOException("Invalid density grid state.");
+			}
+			grid.cells.add(key, in.readLong());
+		}
+		return grid;
+	}
+
+	/**
+	 * Add the given cell to the histogram, or its sub-cells
+	 * if the cell is refined.
+	 */
+	private void refine(int level, long key, long cellCount, long threshold,
+			List<Map<Long, Long>> levelCounts, HistogramBuilder builder) {
+		if (level == 0 || cellCount <= threshold) {
+			builder.add(level, key, cellCount);
+			return;
+		}
+		final Map<Long, Long> subCounts = levelCounts.get(level - 1);
+		for (int child=0; child<(1 << dims); child++) {
+			long childKey = 0;
+			for (int d=0; d<dims; d++) {
+				long index = ((key >>> (OFFSET_BITS * d)) & OFFSET_MASK) * 2 +
+						((child >> d) & 1);
+				childKey |= index << (OFFSET_BITS * d);
+			}
+			Long childCount = subCounts.get(childKey);
+			if (childCount != null) {
+				refine(level - 1, childKey, childCount, threshold,
+						levelCounts, builder);
+			}
+		}
+	}
+
+	/**
+	 * Coarsen the cells, i.e. add the given number of
+	 * levels to the exponent of each axis.
+	 */
+	private void coarsen(int[] shifts) {
+		long[] newAnchor = new long[dims];
+		for (int d=0; d<dims; d++) {
+			newAnchor[d] = anchor[d] >> shifts[d];
+		}
+		final CellCounts oldCells = cells;
+		cells = new CellCounts(oldCells.keys.length);
+		for (int i=0; i<oldCells.keys.length; i++) {
+			final long oldKey = oldCells.keys[i];
+			if (oldKey == 0) continue;
+			long key = 0;
+			for (int d=0; d<dims; d++) {
+				long index = cellIndex(oldKey, d) >> shifts[d];
+				key |= offsetKey(index - newAnchor[d], d);
+			}
+			cells.add(key, oldCells.counts[i]);
+		}
+		for (int d=0; d<dims; d++) {
+			anchor[d] = newAnchor[d];
+			exponent[d] += shifts[d];
+		}
+	}
+
+	/**
+	 * @return The smallest cells width exponent of the given axis,
+	 * for which the axis coverage spans at most maxCells cells. The
+	 * exponent is also large enough for the cell indexes to fit
+	 * in a long, i.e. about the precision of the values.
+	 */
+	private int requiredExponent(int d) {
+		double maxAbs = Math.max(Math.abs(min[d]), Math.abs(max[d]));
+		int e = Math.max(Math.getExponent(maxAbs), Double.MIN_EXPONENT) - 52;
+		double extent = max[d] - min[d];
+		if (extent > 0) {
+			// lower bound, from the extent
+			e = Math.max(e, Math.getExponent(extent / maxCells) - 1);
+		}
+		while (cellIndex(max[d], e) - cellIndex(min[d], e) + 1 > maxCells) {
+			e++;
+		}
+		return e;
+	}
+
+	/**
+	 * @return The index of the cell of the given value,
+	 * for cells of width 2^e.
+	 */
+	private static long cellIndex(double value, int e) {
+		return (long) Math.floor(Math.scalb(value, -e));
+	}
+
+	/**
+	 * @return The cell index of the given axis in the cell key.
+	 */
+	private long cellIndex(long key, int d) {
+		return ((key >>> (OFFSET_BITS * d)) & OFFSET_MASK) -
+				OFFSET_BIAS + anchor[d];
+	}
+
+	/**
+	 * @return The cell key bits of the given axis offset.
+	 */
+	private static long offsetKey(long offset, int d) {
+		return ((offset + OFFSET_BIAS) & OFFSET_MASK) << (OFFSET_BITS * d);
+	}
+
+	/**
+	 * Builder of the histogram cells, in the order they are added.
+	 */
+	private final class HistogramBuilder {
+		byte[] levels = new byte[16];
+		int[][] offsets = new int[dims][16];
+		long[] counts = new long[16];
+		int size = 0;
+
+		void add(int level, long key, long cellCount) {
+			if (size == counts.length) {
+				levels = Arrays.copyOf(levels, size * 2);
+				counts = Arrays.copyOf(counts, size * 2);
+				for (int d=0; d<dims; d++) {
+					offsets[d] = Arrays.copyOf(offsets[d], size * 2);
+				}
+			}
+			levels[size] = (byte) level;
+			for (int d=0; d<dims; d++) {
+				// offset in finest cells
+				offsets[d][size] = (int)
+						(((key >>> (OFFSET_BITS * d)) & OFFSET_MASK) << level);
+			}
+			counts[size++] = cellCount;
+		}
+
+		DensityHistogram build(long[] origin) {
+			int[][] cellOffsets = new int[dims][];
+			for (int d=0; d<dims; d++) {
+				cellOffsets[d] = Arrays.copyOf(offsets[d], size);
+			}
+			return new DensityHistogram(resolution, depth, count,
+					exponent.clone(), origin, Arrays.copyOf(levels, size),
+					cellOffsets, Arrays.copyOf(counts, size));
+		}
+	}
+
+	/**
+	 * Open-addressing hash map of the cell counts. Zero is
+	 * not a valid cell key (all offsets are biased).
+	 */
+	private static final class CellCounts {
+		long[] keys;
+		long[] counts;
+		int size = 0;
+
+		CellCounts(int capacity) {
+			keys = new long[capacity];
+			counts = new long[capacity];
+		}
+
+		void add(long key, long n) {
+			int mask = keys.length - 1;
+			int i = hash(key) & mask;
+			while (keys[i] != 0 && keys[i] != key) {
+				i = (i + 1) & mask;
+			}
+			if (keys[i] == key) {
+				counts[i] += n;
+				return;
+			}
+			keys[i] = key;
+			counts[i] = n;
+			if (++size * 2 > keys.length) grow();
+		}
+
+		private void grow() {
+			final long[] oldKeys = keys, oldCounts = counts;
+			keys = new long[oldKeys.length * 2];
+			counts = new long[oldKeys.length * 2];
+			int mask = keys.length - 1;
+			for (int j=0; j<oldKeys.length; j++) {
+				if (oldKeys[j] == 0) continue;
+				int i = hash(oldKeys[j]) & mask;
+				while (keys[i] != 0) {
+					i = (i + 1) & mask;
+				}
+				keys[i] = oldKeys[j];
+				counts[i] = oldCounts[j];
+			}
+		}
+
+		private static int hash(long key) {
+			return (int) ((key * 0x9E3779B97F4A7C15L) >>> 32);
+		}
+	}
+}
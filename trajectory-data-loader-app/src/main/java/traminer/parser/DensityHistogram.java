@@ -0,0 +1,213 @@
+package traminer.parser;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Adaptive count histogram of the trajectory points over the
+ * spatial (X,Y), or spatial-temporal (X,Y,T), coverage of the
+ * data, built by a {@link DensityGrid}. Only non-empty cells are
+ * kept; cells of level 0 are the finest, and each level above
+ * doubles the cells width.
+ * <p>
+ * The histogram is saved in a compact binary form (big-endian):
+ * <pre>
+ * int    magic ("TDGH"), short version
+ * byte   dimensions, int resolution, byte depth, long count
+ * per axis:  int exponent, long origin
+ * int    number of cells N
+ * byte[N] levels, int[N] offsets (per axis), long[N] counts
+ * </pre>
+ * The cells of an axis at the finest level have width 2^exponent,
+ * and a cell lies at [(origin * 2^depth + offset) * 2^exponent,
+ * (origin * 2^depth + offset + 2^level) * 2^exponent).
+ *
+ * @author douglasapeixoto
+ */
+public final class DensityHistogram {
+	/** Name of the histogram file, saved next to 'metadata.meta' */
+	public static final String FILE_NAME = "density.grid";
+	// file header
+	private static final int MAGIC = 0x54444748;
+	private static final short VERSION = 1;
+
+	/** Number of dimensions, 2 (X,Y) or 3 (X,Y,T) */
+	public final int dims;
+	/** Number of cells per axis at the top level */
+	public final int resolution;
+	/** Number of refinement levels below the top level */
+	public final int depth;
+	/** Number of points counted */
+	public final long count;
+
+	// cells width exponent of the finest level, per axis
+	private final int[] exponents;
+	// top level index of the coverage origin, per axis
+	private final long[] origin;
+	// level, offsets (in finest cells) and count of the cells
+	private final byte[] levels;
+	private final int[][] offsets;
+	private final long[] counts;
+
+	/**
+	 * Creates a histogram with the given cells,
+	 * see {@link DensityGrid#toHistogram()}.
+	 */
+	DensityHistogram(int resolution, int depth, long count,
+			int[] exponents, long[] origin,
+			byte[] levels, int[][] offsets, long[] counts) {
+		this.dims = exponents.length;
+		this.resolution = resolution;
+		this.depth = depth;
+		this.count = count;
+		this.exponents = exponents;
+		this.origin = origin;
+		this.levels = levels;
+		this.offsets = offsets;
+		this.counts = counts;
+	}
+
+	/**
+	 * @return Number of (non-empty) cells in this histogram.
+	 */
+	public int numCells() {
+		return counts.length;
+	}
+
+	/**
+	 * @param cell The cell index, from 0 to numCells()-1.
+	 * @return Number of points in the given cell.
+	 */
+	public long getCount(int cell) {
+		return counts[cell];
+	}
+
+	/**
+	 * @param cell The cell index, from 0 to numCells()-1.
+	 * @return The level of the given cell, 0 is the finest.
+	 */
+	public int getLevel(int cell) {
+		return levels[cell];
+	}
+
+	/**
+	 * @param cell The cell index, from 0 to numCells()-1.
+	 * @param dim The axis, 0 (X), 1 (Y) or 2 (T).
+	 * @return The lower bound (inclusive) of the cell on the given axis.
+	 */
+	public double getCellMin(int cell, int dim) {
+		return Math.scalb((double) ((origin[dim] << depth) +
+				offsets[dim][cell]), exponents[dim]);
+	}
+
+	/**
+	 * @param cell The cell index, from 0 to numCells()-1.
+	 * @param dim The axis, 0 (X), 1 (Y) or 2 (T).
+	 * @return The upper bound (exclusive) of the cell on the given axis.
+	 */
+	public double getCellMax(int cell, int dim) {
+		return Math.scalb((double) ((origin[dim] << depth) +
+				offsets[dim][cell] + (1L << levels[cell])), exponents[dim]);
+	}
+
+	/**
+	 * @return The binary form of this histogram.
+	 */
+	public byte[] toByteArray() {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(
+				32 + counts.length * (9 + 4 * dims));
+		try {
+			write(bytes);
+		} catch (IOException e) {
+			// not thrown by byte array streams
+			throw new IllegalStateException(e);
+		}
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Write the binary form of this histogram to the given stream.
+	 * The stream is flushed, but not closed.
+	 *
+	 * @param out The output stream.
+	 * @throws IOException If the stream can not be written.
+	 */
+	public void write(OutputStream out) throws IOException {
+		DataOutputStream data = new DataOutputStream(
+				new BufferedOutputStream(out));
+		data.writeInt(MAGIC);
+		data.writeShort(VERSION);
+		data.writeByte(dims);
+		data.writeInt(resolution);
+		data.writeByte(depth);
+		data.writeLong(count);
+		for (int d=0; d<dims; d++) {
+			data.writeInt(exponents[d]);
+			data.writeLong(origin[d]);
+		}
+		data.writeInt(counts.length);
+		data.write(levels);
+		for (int d=0; d<dims; d++) {
+			for (int offset : offsets[d]) {
+				data.writeInt(offset);
+			}
+		}
+		for (long cellCount : counts) {
+			data.writeLong(cellCount);
+		}
+		data.flush();
+	}
+
+	/**
+	 * Read a histogram in binary form from the given stream,
+	 * see {@link #write(OutputStream)}. The stream is not closed.
+	 *
+	 * @param in The input stream.
+	 * @return The histogram read.
+	 * @throws IOException If the stream can not be read, or
+	 * it is not a histogram of a supported version.
+	 */
+	public static DensityHistogram read(InputStream in) throws IOException {
+		DataInputStream data = new DataInputStream(
+				new BufferedInputStream(in));
+		if (data.readInt() != MAGIC) {
+			throw new IOException("Not a density histogram file.");
+		}
+		short version = data.readShort();
+		if (version != VERSION) {
+			throw new IOException("Density histogram version '"
+					+ version + "' is not supported.");
+		}
+		int dims = data.readByte();
+		int resolution = data.readInt();
+		int depth = data.readByte();
+		long count = data.readLong();
+		int[] exponents = new int[dims];
+		long[] origin = new long[dims];
+		for (int d=0; d<dims; d++) {
+			exponents[d] = data.readInt();
+			origin[d] = data.readLong();
+		}
+		int size = data.readInt();
+		byte[] levels = new byte[size];
+		data.readFully(levels);
+		int[][] offsets = new int[dims][size];
+		for (int d=0; d<dims; d++) {
+			for (int i=0; i<size; i++) {
+				offsets[d][i] = data.readInt();
+			}
+		}
+		long[] counts = new long[size];
+		for (int i=0; i<size; i++) {
+			counts[i] = data.readLong();
+		}
+		return new DensityHistogram(resolution, depth, count,
+				exponents, origin, levels, offsets, counts);
+	}
+}
@@ -0,0 +1,216 @@
+package traminer.parser;
+
+import traminer.util.spatial.SpatialUtils;
+import traminer.util.spatial.distance.PointDistanceFunction;
+import traminer.util.spatial.objects.Point;
+
+/**
+ * Distance kernels of geographic coordinates (longitude and latitude
+ * in degrees), used to compute the trajectories length metadata.
+ * Distances are in meters, on a sphere of radius
+ * {@link SpatialUtils#EARTH_RADIUS}.
+ * <p>
+ * The kernels trade accuracy for speed:
+ * <ul>
+ * <li>{@link #HAVERSINE}: the exact great-circle distance, the
+ * same as the {@code HaversineDistanceFunction}.</li>
+ * <li>{@link #EQUIRECTANGULAR}: a local flat approximation, with
+ * the longitude difference scaled by the cosine of the mean latitude.
+ * The relative error is below 1e-5 for segments up to 10 km at
+ * latitudes up to 80 degrees, and grows with the segment length
+ * and latitude, see {@link #MAX_EQUIRECTANGULAR_ERROR}.</li>
+ * <li>{@link #HAVERSINE_TABLE}: the Haversine formula with sines
+ * and cosines interpolated from a table, and a series for the
+ * arcsine of short arcs. The relative error is below 1e-7 for
+ * segments longer than 1 meter at latitudes up to 89 degrees,
+ * see {@link #MAX_TABLE_ERROR}.</li>
+ * </ul>
+ * Trajectory lengths are computed over primitive arrays, see
+ * {@link #length(double[], double[], int)}.
+ *
+ * @see MetadataService#setDistanceKernel(DistanceKernel)
+ *
+ * @author douglasapeixoto
+ */
+public enum DistanceKernel implements PointDistanceFunction {
+	/** Exact Haversine distance */
+	HAVERSINE,
+	/** Local equirectangular approximation */
+	EQUIRECTANGULAR,
+	/** Haversine distance with table-based trigonometry */
+	HAVERSINE_TABLE;
+
+	/**
+	 * Maximum relative error of the {@link #EQUIRECTANGULAR} kernel,
+	 * for segments up to 10 km at latitudes up to 80 degrees.
+	 */
+	public static final double MAX_EQUIRECTANGULAR_ERROR = 1e-5;
+	/**
+	 * Maximum relative error of the {@link #HAVERSINE_TABLE} kernel,
+	 * for segments longer than 1 meter at latitudes up to 89 degrees.
+	 */
+	public static final double MAX_TABLE_ERROR = 1e-7;
+
+	// radius of the Earth, in meters
+	private static final double RADIUS = SpatialUtils.EARTH_RADIUS;
+	// number of intervals of the sine table over [0, PI/2]
+	private static final int TABLE_SIZE = 4096;
+	private static final double TABLE_STEP = (Math.PI / 2) / TABLE_SIZE;
+	// sine values at (i * TABLE_STEP), plus one guard value
+	private static final double[] SIN_TABLE = new double[TABLE_SIZE + 2];
+	static {
+		for (int i=0; i<SIN_TABLE.length; i++) {
+			SIN_TABLE[i] = Math.sin(i * TABLE_STEP);
+		}
+	}
+	// arcs of sine below this use the arcsine series
+	private static final double ASIN_SERIES_LIMIT = 0.05;
+
+	/**
+	 * Calculate the distance (in meters) between two points
+	 * given by their longitude and latitude (in degrees).
+	 */
+	@Override
+	public double pointToPointDistance(double lon1, double lat1,
+			double lon2, double lat2) {
+		switch (this) {
+		case EQUIRECTANGULAR:
+			return equirectangular(lon1, lat1, lon2, lat2);
+		case HAVERSINE_TABLE:
+			return haversineTable(lon1, lat1, lon2, lat2);
+		default:
+			return haversine(lon1, lat1, lon2, lat2);
+		}
+	}
+
+	/**
+	 * Calculate the distance (in meters) between two points
+	 * given by their longitude (X) and latitude (Y).
+	 */
+	@Override
+	public double distance(Point p1, Point p2) {
+		if (p1 == null || p2 == null) {
+			throw new NullPointerException("Points for distance "
+					+ "calculation cannot be null.");
+		}
+		return pointToPointDistance(p1.x(), p1.y(), p2.x(), p2.y());
+	}
+
+	/**
+	 * Calculate the length (in meters) of a trajectory, i.e. the
+	 * sum of the distances between its consecutive points. The
+	 * distances are added with a compensated (Neumaier) sum.
+	 *
+	 * @param lon The longitudes of the points.
+	 * @param lat The latitudes of the points.
+	 * @param numPts Number of points to read from the arrays.
+	 * @return The length of the trajectory.
+	 */
+	public double length(double[] lon, double[] lat, int numPts) {
+		double length = 0, comp = 0;
+		switch (this) {
+		case EQUIRECTANGULAR:
+			for (int i=1; i<numPts; i++) {
+				double d = equirectangular(lon[i-1], lat[i-1], lon[i], lat[i]);
+				double sum = length + d;
+				comp += (length >= d) ? (length - sum) + d : (d - sum) + length;
+				length = sum;
+			}
+			break;
+		case HAVERSINE_TABLE:
+			for (int i=1; i<numPts; i++) {
+				double d = haversineTable(lon[i-1], lat[i-1], lon[i], lat[i]);
+				double sum = length + d;
+				comp += (length >= d) ? (length - sum) + d : (d - sum) + length;
+				length = sum;
+			}
+			break;
+		default:
+			for (int i=1; i<numPts; i++) {
+				double d = haversine(lon[i-1], lat[i-1], lon[i], lat[i]);
+				double sum = length + d;
+				comp += (length >= d) ? (length - sum) + d : (d - sum) + length;
+				length = sum;
+			}
+		}
+		return length + comp;
+	}
+
+	/**
+	 * Exact Haversine distance, computed as
+	 * in the {@code HaversineDistanceFunction}.
+	 */
+	private static double haversine(
+			double lon1, double lat1, double lon2, double lat2) {
+		double radLat1 = Math.toRadians(lat1);
+		double radLat2 = Math.toRadians(lat2);
+		double dLat = Math.toRadians(lat2-lat1);
+		double dLon = Math.toRadians(lon2-lon1);
+
+		double a = Math.sin(dLat / 2) * Math.sin(dLat / 2) +
+				   Math.cos(radLat1) * Math.cos(radLat2) *
+				   Math.sin(dLon / 2) * Math.sin(dLon / 2);
+
+		return RADIUS * (2 * Math.atan2(Math.sqrt(a), Math.sqrt(1-a)));
+	}
+
+	/**
+	 * Equirectangular approximation, with the longitude difference
+	 * scaled by the cosine of the mean latitude.
+	 */
+	private static double equirectangular(
+			double lon1, double lat1, double lon2, double lat2) {
+		double dLon = lon2 - lon1;
+		// shortest way across the antimeridian
+		if (dLon > 180) dLon -= 360; else
+		if (dLon < -180) dLon += 360;
+		double x = Math.toRadians(dLon) * Math.cos(Math.toRadians((lat1 + lat2) / 2));
+		double y = Math.toRadians(lat2 - lat1);
+		return RADIUS * Math.sqrt(x*x + y*y);
+	}
+
+	/**
+	 * Haversine distance, with the sines and cosines
+	 * interpolated from the table.
+	 */
+	private static double haversineTable(
+			double lon1, double lat1, double lon2, double lat2) {
+		double dLon = lon2 - lon1;
+		if (dLon > 180) dLon -= 360; else
+		if (dLon < -180) dLon += 360;
+		double sinLat = sin(Math.toRadians(lat2 - lat1) / 2);
+		double sinLon = sin(Math.toRadians(dLon) / 2);
+		double a = sinLat * sinLat +
+				cos(Math.toRadians(lat1)) * cos(Math.toRadians(lat2)) *
+				sinLon * sinLon;
+		double s = Math.sqrt(Math.min(a, 1.0));
+		if (s < ASIN_SERIES_LIMIT) {
+			double s2 = s * s;
+			s *= 1 + s2 * (1.0/6 + s2 * (3.0/40 + s2 * (5.0/112)));
+		} else {
+			s = Math.asin(s);
+		}
+		return RADIUS * 2 * s;
+	}
+
+	/**
+	 * @return The sine of the given angle in [-PI/2, PI/2],
+	 * interpolated from the table.
+	 */
+	private static double sin(double angle) {
+		if (angle < 0) return -sin(-angle);
+		double pos = angle / TABLE_STEP;
+		int i = (int) pos;
+		if (i >= TABLE_SIZE) return 1.0;
+		double frac = pos - i;
+		return SIN_TABLE[i] + (SIN_TABLE[i+1] - SIN_TABLE[i]) * frac;
+	}
+
+	/**
+	 * @return The cosine of the given angle in [-PI/2, PI/2],
+	 * interpolated from the table.
+	 */
+	private static double cos(double angle) {
+		return sin(Math.PI / 2 - Math.abs(angle));
+	}
+}
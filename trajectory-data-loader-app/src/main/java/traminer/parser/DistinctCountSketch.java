@@ -0,0 +1,123 @@
+package traminer.parser;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Mergeable estimate of the number of distinct values in a
+ * stream of values, based on the HyperLogLog sketch (Flajolet
+ * et al., 2007), with 64-bit hashes.
+ * <p>
+ * The sketch keeps 2^p registers of one byte, hence the memory
+ * is constant (4 KB for the default p=12), regardless of the
+ * number of values added. The relative standard error of the
+ * estimate is about 1.04/sqrt(2^p), i.e. about 1.6% for p=12.
+ * Small cardinalities are estimated by linear counting, which
+ * is nearly exact for up to a few hundred values.
+ * <p>
+ * A sketch must not be used by many threads at once.
+ *
+ * @author douglasapeixoto
+ */
+public final class DistinctCountSketch {
+	/** Default precision (number of index bits) of the sketch */
+	public static final int DEFAULT_PRECISION = 12;
+
+	// number of index bits
+	private final int p;
+	// one register per index, the maximum rank seen
+	private final byte[] registers;
+
+	/**
+	 * Creates a new empty sketch with the default precision.
+	 */
+	public DistinctCountSketch() {
+		this(DEFAULT_PRECISION);
+	}
+
+	/**
+	 * Creates a new empty sketch.
+	 *
+	 * @param p The precision of the sketch, from 4 to 18. The
+	 * sketch keeps 2^p registers.
+	 */
+	public DistinctCountSketch(int p) {
+		if (p < 4 || p > 18) {
+			throw new IllegalArgumentException(
+					"Sketch precision must be from 4 to 18.");
+		}
+		this.p = p;
+		this.registers = new byte[1 << p];
+	}
+
+	/**
+	 * Add a value to this sketch.
+	 *
+	 * @param value The value to add.
+	 */
+	public void update(String value) {
+		final long hash = StringHash.hash(0, value);
+		final int index = (int) (hash >>> (64 - p));
+		final int rank = Math.min(Long.numberOfLeadingZeros(hash << p),
+				64 - p) + 1;
+		if (rank > registers[index]) {
+			registers[index] = (byte) rank;
+		}
+	}
+
+	/**
+	 * Merge the values of the given sketch into this sketch.
+	 * The given sketch is not changed.
+	 *
+	 * @param other The sketch to merge, of the same precision.
+	 */
+	public void merge(DistinctCountSketch other) {
+		if (other.p != p) {
+			throw new IllegalArgumentException("Sketches of different "
+					+ "precision can not be merged.");
+		}
+		for (int i=0; i<registers.length; i++) {
+			if (other.registers[i] > registers[i]) {
+				registers[i] = other.registers[i];
+			}
+		}
+	}
+
+	/**
+	 * @return The estimated number of distinct values added.
+	 */
+	public long getEstimate() {
+		final int m = registers.length;
+		double sum = 0;
+		int zeros = 0;
+		for (byte register : registers) {
+			sum += Math.scalb(1.0, -register);
+			if (register == 0) zeros++;
+		}
+		final double alpha = 0.7213 / (1 + 1.079 / m);
+		double estimate = alpha * m * m / sum;
+		// small range correction (linear counting)
+		if (estimate <= 2.5 * m && zeros > 0) {
+			estimate = m * Math.log((double) m / zeros);
+		}
+		return Math.round(estimate);
+	}
+
+	/**
+	 * Write the state of this sketch, see {@link MetadataState}.
+	 */
+	void write(DataOutput out) throws IOException {
+		out.writeByte(p);
+		out.write(registers);
+	}
+
+	/**
+	 * Read the state of a sketch, see {@link #write(DataOutput)}.
+	 */
+	static DistinctCountSketch read(DataInput in) throws IOException {
+		DistinctCountSketch sketch = new DistinctCountSketch(in.readByte());
+		in.readFully(sketch.registers);
+		return sketch;
+	}
+}
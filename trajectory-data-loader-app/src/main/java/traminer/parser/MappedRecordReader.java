@@ -0,0 +1,205 @@
+package traminer.parser;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import traminer.parser.pipeline.FileChunk;
+
+/**
+ * Reads the data records of input files with one record per
+ * file line (_RECORDS_DELIM LN), by memory-mapping the files
+ * ({@link FileChannel#map}) and scanning the line breaks
+ * directly on the file bytes.
+ * <p>
+ * Records are returned as {@link ByteRecord} slices of the
+ * mapped file, no string is created per line. Lines are split
+ * on '\n', with a trailing '\r' removed (if any). Files larger
+ * than 2GB are mapped in regions aligned on the line breaks.
+ * <p>
+ * Files can also be read in chunks, see {@link RecordsSplitter}.
+ *
+ * @author douglasapeixoto
+ */
+@SuppressWarnings("serial")
+public class MappedRecordReader implements ParserInterface {
+	// maximum size of each mapped region of a file
+	private static final long MAX_REGION_SIZE = Integer.MAX_VALUE;
+	// lines to ignore in the input files (zero-based)
+	private final Set<Integer> ignoredLines;
+
+	/**
+	 * Creates a new reader.
+	 *
+	 * @param ignoredLinesList List of the lines to ignore in
+	 * every file (zero-based), or null if none.
+	 */
+	public MappedRecordReader(List<Integer> ignoredLinesList) {
+		this.ignoredLines = (ignoredLinesList == null) ?
+				new HashSet<Integer>() : new HashSet<>(ignoredLinesList);
+	}
+
+	/**
+	 * Read the records of the given file, ignored lines removed.
+	 *
+	 * @param path Path to the input file.
+	 * @return A stream of the records in the file. Closing the
+	 * stream closes the file.
+	 * @throws IOException If the file could not be opened.
+	 */
+	public Stream<ByteRecord> read(String path) throws IOException {
+		return read(FileChunk.wholeFile(path, Files.size(Paths.get(path))));
+	}
+
+	/**
+	 * Read the records of the given file chunk, ignored lines
+	 * removed (if the chunk line numbers are known).
+	 *
+	 * @param chunk The file chunk to read.
+	 * @return A stream of the records in the chunk. Closing the
+	 * stream closes the file.
+	 * @throws IOException If the file could not be opened.
+	 */
+	public Stream<ByteRecord> read(FileChunk chunk) throws IOException {
+		final FileChannel channel = FileChannel.open(
+				Paths.get(chunk.path), StandardOpenOption.READ);
+		return read(channel, chunk);
+	}
+
+	/**
+	 * @return A stream of the records in the given chunk.
+	 */
+	private Stream<ByteRecord> read(final FileChannel channel, FileChunk chunk) throws IOException {
+		Iterator<ByteRecord> recordsItr;
+		try {
+			recordsItr = new LinesIterator(channel, chunk);
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+		Stream<ByteRecord> records = StreamSupport.stream(
+				Spliterators.spliteratorUnknownSize(recordsItr,
+						Spliterator.ORDERED | Spliterator.NONNULL), false);
+		return records.onClose(() -> {
+			try {
+				channel.close();
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		});
+	}
+
+	/**
+	 * Iterates over the lines of a mapped file chunk,
+	 * mapping one region of the chunk at a time.
+	 */
+	private class LinesIterator implements Iterator<ByteRecord> {
+		private final FileChannel channel;
+		// position after the last byte of the chunk
+		private final long chunkEnd;
+		// whether the line numbers are known
+		private final boolean numberedLines;
+		// current mapped region, and its position in the file
+		private MappedByteBuffer region;
+		private long regionStart = 0;
+		// position of the next line in the region
+		private int pos = 0;
+		// number of the next line in the file
+		private int lineNumber;
+		// next record to return (if already found)
+		private ByteRecord next = null;
+
+		LinesIterator(FileChannel channel, FileChunk chunk) throws IOException {
+			this.channel  = channel;
+			this.chunkEnd = chunk.end;
+			this.numberedLines = (chunk.firstLine != FileChunk.UNKNOWN_LINE);
+			this.lineNumber = chunk.firstLine;
+			this.region = map(chunk.start);
+		}
+
+		@Override
+		public boolean hasNext() {
+			while (next == null) {
+				ByteRecord line = nextLine();
+				if (line == null) return false;
+				if (!numberedLines || !ignoredLines.contains(lineNumber++)) {
+					next = line;
+				}
+			}
+			return true;
+		}
+
+		@Override
+		public ByteRecord next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			ByteRecord record = next;
+			next = null;
+			return record;
+		}
+
+		/**
+		 * @return The next line in the file (line break
+		 * removed), or null if the end of file was reached.
+		 */
+		private ByteRecord nextLine() {
+			final int limit = region.limit();
+			int end = pos;
+			while (end < limit && region.get(end) != '\n') end++;
+			// line break not found in the region
+			if (end == limit) {
+				// end of chunk
+				if (regionStart + limit == chunkEnd) {
+					if (pos == limit) return null;
+					return newLine(pos, limit, limit);
+				}
+				// line crosses the region boundary, map next region
+				if (pos == 0) {
+					throw new UncheckedIOException(new IOException(
+							"Data record larger than the mapped region size."));
+				}
+				try {
+					region = map(regionStart + pos);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+				pos = 0;
+				return nextLine();
+			}
+			return newLine(pos, end, end + 1);
+		}
+
+		/**
+		 * @return The line in the given region range, without '\r'.
+		 */
+		private ByteRecord newLine(int start, int end, int nextPos) {
+			if (end > start && region.get(end - 1) == '\r') end--;
+			pos = nextPos;
+			return new ByteRecord(region, start, end - start);
+		}
+
+		/**
+		 * Map the region of the chunk starting at the given position.
+		 */
+		private MappedByteBuffer map(long start) throws IOException {
+			regionStart = start;
+			long size = Math.min(MAX_REGION_SIZE, chunkEnd - start);
+			return channel.map(MapMode.READ_ONLY, start, size);
+		}
+	}
+}
@@ -0,0 +1,106 @@
+package traminer.parser;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Command line tool to merge the metadata of datasets loaded in
+ * parts, e.g. in different machines. Reads the metadata states
+ * ('metadata.state') of the parts, and writes the metadata files
+ * of the whole dataset, i.e. 'metadata.meta', 'density.grid' and
+ * 'metadata.state', to the given output folder. The data files
+ * are not read, the merge takes time linear in the number of states.
+ * <p>
+ * Usage: {@code MetadataMerger <output-folder> <state-file>...}
+ *
+ * @see MetadataState
+ *
+ * @author douglasapeixoto
+ */
+public final class MetadataMerger {
+
+	private MetadataMerger() {}
+
+	/**
+	 * Merge the given metadata state files, and write the merged
+	 * metadata files to the given folder.
+	 *
+	 * @param args The output folder, followed by the state files.
+	 */
+	public static void main(String[] args) {
+		if (args.length < 2) {
+			System.err.println("Usage: MetadataMerger "
+					+ "<output-folder> <state-file>...");
+			System.exit(1);
+		}
+		try {
+			List<Path> stateFiles = new ArrayList<>();
+			for (int i=1; i<args.length; i++) {
+				stateFiles.add(Paths.get(args[i]));
+			}
+			MetadataState merged = merge(stateFiles);
+			save(merged, Paths.get(args[0]));
+			System.out.println("Merged " + stateFiles.size() + " metadata states: "
+					+ merged.getStatistics().getTrajectoriesCount() + " trajectories, "
+					+ merged.getStatistics().getPointsCount() + " points.");
+		} catch (IOException | IllegalArgumentException e) {
+			System.err.println("Unable to merge metadata states: " + e.getMessage());
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Read and merge the given metadata state files.
+	 *
+	 * @param stateFiles The 'metadata.state' files to merge.
+	 * @return The merged metadata state.
+	 * @throws IOException If a state file can not be read.
+	 * @throws IllegalArgumentException If the states can not
+	 * be merged, see {@link MetadataState#merge(List)}.
+	 */
+	public static MetadataState merge(List<Path> stateFiles) throws IOException {
+		List<MetadataState> states = new ArrayList<>(stateFiles.size());
+		for (Path file : stateFiles) {
+			try (InputStream in = Files.newInputStream(file)) {
+				states.add(MetadataState.read(in));
+			} catch (IOException e) {
+				throw new IOException("Error reading metadata state '"
+						+ file + "'. " + e.getMessage(), e);
+			}
+		}
+		return MetadataState.merge(states);
+	}
+
+	/**
+	 * Save the metadata files of the given state, i.e. 'metadata.meta',
+	 * 'density.grid' (if not empty) and 'metadata.state', to the
+	 * given folder.
+	 *
+	 * @param state The metadata state to save.
+	 * @param outDir The output folder, created if needed.
+	 * @throws IOException If the files can not be written.
+	 */
+	public static void save(MetadataState state, Path outDir) throws IOException {
+		Files.createDirectories(outDir);
+		Files.write(outDir.resolve("metadata.meta"),
+				state.getMetadata().getBytes(StandardCharsets.UTF_8));
+		DensityHistogram histogram = state.getStatistics().getDensityHistogram();
+		if (histogram.numCells() > 0) {
+			try (OutputStream out = Files.newOutputStream(
+					outDir.resolve(DensityHistogram.FILE_NAME))) {
+				histogram.write(out);
+			}
+		}
+		try (OutputStream out = Files.newOutputStream(
+				outDir.resolve(MetadataState.FILE_NAME))) {
+			state.write(out);
+		}
+	}
+}
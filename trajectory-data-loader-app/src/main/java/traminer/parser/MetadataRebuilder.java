@@ -0,0 +1,343 @@
+package traminer.parser;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+import traminer.parser.pipeline.FileChunk;
+import traminer.parser.pipeline.IngestPipeline;
+import traminer.parser.pipeline.IngestPipeline.FileSplitter;
+import traminer.parser.pipeline.PipelineParameters;
+import traminer.parser.pipeline.PipelineParameters.Stage;
+
+/**
+ * Command line tool to rebuild the metadata of a dataset from
+ * its output data files ('data_file_*.csv') and output format
+ * file ('output-format.tddf'), without parsing the raw input
+ * again, e.g. if the metadata files were lost, or to compute
+ * them with other settings (distance kernel, density grid).
+ * Writes the metadata files, i.e. 'metadata.meta', 'density.grid'
+ * and 'metadata.state', to the same folder.
+ * <p>
+ * The data files are read in an {@link IngestPipeline} (profile-only),
+ * split into chunks as the raw input. Each parser thread decodes the
+ * delta-compressed coordinates of the records directly from the
+ * records bytes into primitive arrays, in exact integer arithmetic,
+ * and adds them to its own {@link StatisticsAccumulator}. The
+ * accumulators are merged by the {@link MetadataService}.
+ * <p>
+ * The metadata is computed from the output values, hence it may
+ * differ from the metadata of the raw parse: coordinates are
+ * rounded to the output precision (_DECIMAL_PREC), time statistics
+ * (duration, speed and sampling rate) need the time-stamps in the
+ * output (formats SPATIAL_TEMPORAL and ALL), and array attributes
+ * are counted with their items comma separated.
+ * <p>
+ * Usage: {@code MetadataRebuilder <output-folder> [num-threads]}
+ *
+ * @see MetadataMerger
+ *
+ * @author douglasapeixoto
+ */
+public final class MetadataRebuilder {
+	/** Name of the output data format file */
+	public static final String FORMAT_FILE_NAME = "output-format.tddf";
+
+	// System log
+	private static Logger log = Logger.getLogger(MetadataRebuilder.class);
+
+	private MetadataRebuilder() {}
+
+	/**
+	 * Rebuild the metadata files of the data files in the
+	 * given folder.
+	 *
+	 * @param args The output folder, optionally followed
+	 * by the number of parser threads.
+	 */
+	public static void main(String[] args) {
+		if (args.length < 1 || args.length > 2) {
+			System.err.println("Usage: MetadataRebuilder "
+					+ "<output-folder> [num-threads]");
+			System.exit(1);
+		}
+		try {
+			PipelineParameters params = new PipelineParameters();
+			if (args.length == 2) {
+				params.setNumWorkers(Stage.PARSE, Integer.parseInt(args[1]));
+			}
+			Path dataPath = Paths.get(args[0]);
+			MetadataState state = rebuild(dataPath, params);
+			MetadataMerger.save(state, dataPath);
+			System.out.println("Rebuilt the metadata of " + state.filesCount + " files: "
+					+ state.getStatistics().getTrajectoriesCount() + " trajectories, "
+					+ state.getStatistics().getPointsCount() + " points.");
+		} catch (IOException | RuntimeException e) {
+			System.err.println("Unable to rebuild metadata: " + e.getMessage());
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Compute the metadata state of the data files in the given
+	 * folder, described by its output data format file. The
+	 * metadata files are not written, see
+	 * {@link MetadataMerger#save(MetadataState, Path)}.
+	 * <p>
+	 * Uses the {@link MetadataService}, hence must not run
+	 * while a dataset is being parsed.
+	 *
+	 * @param dataPath The folder of the output data files.
+	 * @param params Configuration of the pipeline reading the files.
+	 * @return The metadata state of the data files.
+	 * @throws IOException If the output format file is not valid,
+	 * or if the data files can not be read.
+	 */
+	public static MetadataState rebuild(Path dataPath,
+			PipelineParameters params) throws IOException {
+		final OutputSpec spec = OutputSpec.read(dataPath.resolve(FORMAT_FILE_NAME));
+		MetadataService.init(spec.distanceFunction());
+
+		// output files have one record per line
+		final RecordsSplitter recordsSplitter = new RecordsSplitter(
+				ParserInterface.LINE_BREAK, null, params.getChunkSize());
+		final MappedRecordReader reader = new MappedRecordReader(null);
+		final IngestPipeline<ByteRecord, ByteRecord> pipeline = new IngestPipeline<>(
+				params, new FileSplitter() {
+					// read the data files only
+					public List<FileChunk> split(String path) throws IOException {
+						if (!isDataFile(path)) return Collections.emptyList();
+						return recordsSplitter.split(path);
+					}
+					public long maxRecords(FileChunk chunk) {
+						return recordsSplitter.maxRecords(chunk);
+					}
+				},
+				chunk -> reader.read(chunk),
+				// one decoder and accumulator per thread
+				() -> new RecordDecoder(spec, MetadataService.newAccumulator())::decode,
+				null);
+		try {
+			pipeline.run(dataPath);
+		} catch (ParserException e) {
+			throw new IOException(e.getMessage(), e.getCause());
+		}
+
+		long filesCount = 0;
+		for (String path : pipeline.getPathList()) {
+			if (isDataFile(path)) filesCount++;
+		}
+		if (filesCount == 0) {
+			throw new IOException("No data files found in '" + dataPath + "'.");
+		}
+		if (pipeline.getErrorFilesCount() > 0) {
+			throw new IOException("Unable to read " +
+					pipeline.getErrorFilesCount() + " data files.");
+		}
+		MetadataService.setFilesCount(filesCount);
+		MetadataService.setRecordsCount(
+				pipeline.getReadCount(), pipeline.getReadCount());
+		log.info("Rebuilt the metadata of " + filesCount + " data files: "
+				+ pipeline.getParsedCount() + " of " + pipeline.getReadCount()
+				+ " records in " + pipeline.getElapsedTime() + " ms.");
+
+		return MetadataService.getState(
+				spec.numAttributes, spec.numCoordAttributes);
+	}
+
+	/**
+	 * @return True if the given file is an output data file.
+	 */
+	private static boolean isDataFile(String path) {
+		String name = Paths.get(path).getFileName().toString();
+		return name.startsWith("data_file_") && name.endsWith(".csv");
+	}
+
+	/**
+	 * Decodes the output data records, and adds them to the
+	 * statistics of its thread. A decoder is thread-confined.
+	 */
+	private static final class RecordDecoder {
+		private final OutputSpec spec;
+		private final StatisticsAccumulator statistics;
+		// statistics of the semantic attributes (format ALL)
+		private final AttributeStatistics[] attributeStats;
+		// scale of the (x,y,time) values, zero if not numbers
+		private final double xScale, yScale, tScale;
+		// reusable buffers of the records' bytes, and
+		// of the decoded (x,y,time) values
+		private byte[] bytes = new byte[1024];
+		private long[] xBuffer = new long[64];
+		private long[] yBuffer = new long[64];
+		private long[] tBuffer = new long[64];
+
+		RecordDecoder(OutputSpec spec, StatisticsAccumulator statistics) {
+			this.spec = spec;
+			this.statistics = statistics;
+			this.attributeStats = new AttributeStatistics[spec.attrNames.size()];
+			for (int i=0; i<attributeStats.length; i++) {
+				attributeStats[i] = statistics.getAttributeStatistics(
+						spec.attrNames.get(i), spec.attrTypes.get(i));
+			}
+			this.xScale = spec.scaleOf(spec.xType);
+			this.yScale = spec.scaleOf(spec.yType);
+			this.tScale = (spec.tPos < 0) ? 0 : spec.scaleOf(spec.tType);
+		}
+
+		/**
+		 * Decode an output record, i.e. ID;coordinates[;attribute...],
+		 * and add it to the statistics.
+		 *
+		 * @return The given record, or null if it could not be decoded.
+		 */
+		ByteRecord decode(ByteRecord record, long recordNum) {
+			try {
+				final int length = record.length;
+				if (bytes.length < length) {
+					bytes = new byte[Math.max(length, 2 * bytes.length)];
+				}
+				record.copyTo(bytes);
+				// skip the ID
+				int start = indexOf(';', 0, length) + 1;
+				if (start == 0) {
+					throw new IllegalArgumentException("Coordinates array not found.");
+				}
+				int end = indexOf(';', start, length);
+				if (end < 0) end = length;
+				final int numPts = decodeCoordinates(start, end);
+				// split the semantic attributes, before any statistics
+				final String[] attrValues = new String[attributeStats.length];
+				start = end + 1;
+				for (int i=0; i<attrValues.length; i++) {
+					if (start > length) {
+						throw new IllegalArgumentException("Missing attribute values.");
+					}
+					end = indexOf(';', start, length);
+					if (end < 0) end = length;
+					attrValues[i] = new String(bytes, start, end - start, StandardCharsets.UTF_8);
+					start = end + 1;
+				}
+				if (attrValues.length > 0 && start <= length) {
+					throw new IllegalArgumentException("Too many attribute values.");
+				}
+
+				statistics.addValues(
+						toValues(xBuffer, numPts, xScale), false,
+						toValues(yBuffer, numPts, yScale), false,
+						toValues(tBuffer, numPts, tScale), false);
+				for (int i=0; i<attrValues.length; i++) {
+					attributeStats[i].add(attrValues[i]);
+				}
+				return record;
+			} catch (RuntimeException e) {
+				log.warn("Unable to read data record: '" + record
+						+ "'.\nRecord Ignored!", new ParserException(e));
+				return null;
+			}
+		}
+
+		/**
+		 * Decode the (x,y,time) values of the coordinates array in
+		 * the given range of the record bytes, i.e. the sums of the
+		 * delta values, to the buffers.
+		 *
+		 * @return The number of points in the array.
+		 */
+		private int decodeCoordinates(int start, int end) {
+			final int numAttr = spec.numCoordAttributes;
+			long x = 0, y = 0, t = 0;
+			int item = 0, point = 0, attr = 0;
+			int from = start;
+			while (from <= end) {
+				int to = indexOf(',', from, end);
+				if (to < 0) to = end;
+				if (attr == 0) ensureCapacity(point + 1);
+				if (attr == spec.xPos) {
+					xBuffer[point] = (x += parseLong(from, to));
+				} else
+				if (attr == spec.yPos) {
+					yBuffer[point] = (y += parseLong(from, to));
+				} else
+				if (attr == spec.tPos) {
+					tBuffer[point] = (t += (tScale == 0) ? 0 : parseLong(from, to));
+				}
+				item++;
+				if (++attr == numAttr) {
+					attr = 0; point++;
+				}
+				from = to + 1;
+			}
+			if (item % numAttr != 0) {
+				throw new IllegalArgumentException(
+						"Coordinates array with incomplete points.");
+			}
+			return point;
+		}
+
+		/**
+		 * @return The first position of the given char in
+		 * the given range of the record bytes, or -1.
+		 */
+		private int indexOf(char c, int from, int to) {
+			for (int i=from; i<to; i++) {
+				if (bytes[i] == c) return i;
+			}
+			return -1;
+		}
+
+		/**
+		 * Parse the integer in the given range of the record bytes.
+		 *
+		 * @throws NumberFormatException If not an integer.
+		 */
+		private long parseLong(int from, int to) {
+			boolean negative = from < to && bytes[from] == '-';
+			int i = negative ? from + 1 : from;
+			if (i == to) {
+				throw new NumberFormatException("Invalid coordinate value: '"
+						+ new String(bytes, from, to - from, StandardCharsets.UTF_8) + "'.");
+			}
+			long value = 0;
+			for (; i<to; i++) {
+				int digit = bytes[i] - '0';
+				if (digit < 0 || digit > 9) {
+					throw new NumberFormatException("Invalid coordinate value: '"
+							+ new String(bytes, from, to - from, StandardCharsets.UTF_8) + "'.");
+				}
+				value = value * 10 + digit;
+			}
+			return negative ? -value : value;
+		}
+
+		/**
+		 * @return The decoded values of the given buffer, divided
+		 * by the given scale, or zeros if the scale is zero.
+		 */
+		private static double[] toValues(long[] buffer, int numPts, double scale) {
+			double[] values = new double[numPts];
+			if (scale == 0) return values;
+			for (int i=0; i<numPts; i++) {
+				values[i] = buffer[i] / scale;
+			}
+			return values;
+		}
+
+		/**
+		 * Make sure the buffers can hold the given number of points.
+		 */
+		private void ensureCapacity(int numPts) {
+			if (xBuffer.length < numPts) {
+				int capacity = Math.max(numPts, 2 * xBuffer.length);
+				xBuffer = Arrays.copyOf(xBuffer, capacity);
+				yBuffer = Arrays.copyOf(yBuffer, capacity);
+				tBuffer = Arrays.copyOf(tBuffer, capacity);
+			}
+		}
+	}
+}
@@ -2,10 +2,13 @@ package traminer.parser;
 
 import java.math.RoundingMode;
 import java.text.DecimalFormat;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import traminer.parser.analyzer.Keywords;
-import traminer.util.DeltaEncoder;
-import traminer.util.math.Decimal;
+import traminer.parser.analyzer.Keywords.OutputFormat;
+import traminer.parser.format.DataFormat;
 import traminer.util.spatial.SpatialInterface;
 import traminer.util.spatial.distance.EuclideanDistanceFunction;
 import traminer.util.spatial.distance.PointDistanceFunction;
@@ -15,6 +18,18 @@ import traminer.util.spatial.distance.PointDistanceFunction;
  * This service computes the metadata by processing
  * one input trajectory at time and updating the metadata
  * statistics after each addition.
+ * <p>
+ * Each parser thread owns a {@link StatisticsAccumulator},
+ * created by {@link #newAccumulator()}, so that the parsers
+ * need no locking. The statistics of all accumulators are
+ * merged when the metadata is requested, i.e. at the end
+ * of the job.
+ * <p>
+ * The density of the points over the coverage is counted in 
+ * a grid of configurable resolution, see 
+ * {@link #setDensityGrid(int, int, boolean)}. The length of
+ * trajectories in geographic coordinates is computed with the
+ * distance kernel set by {@link #setDistanceKernel(DistanceKernel)}.
  * 
  * @author douglasapeixoto
  */
@@ -22,73 +37,123 @@ import traminer.util.spatial.distance.PointDistanceFunction;
 public final class MetadataService implements SpatialInterface {
 	// Point distance measure to use
 	private static PointDistanceFunction distFunc;
-	// Total Number of trajectories processed
-	private static long trajectoriesCount = 0;
-	// Total number of trajectory points processed
-	private static long pointsCount = 0;
 	// Total number of data files processed
 	private static long filesCount = 0;
-	
-	// Arrays containing the (x,y,time) values of the 
-	// current trajectory
-	private static Decimal[] xValues, yValues, tValues;
-	// Number of points in the current trajectory
-	private static int numPts = 0;
-	
-	// Statics about the total number of points
-	private static Decimal numPtsSum = new Decimal(0);
-	private static Decimal numPtsSqr = new Decimal(0);
-	private static Decimal numPtsMin  = new Decimal(INFINITY);
-	private static Decimal numPtsMax  = new Decimal(-INFINITY);
-	// Statics about the length of the trajectories
-	private static Decimal lengthSum = new Decimal(0);
-	private static Decimal lengthSqr = new Decimal(0);
-	private static Decimal lengthMin = new Decimal(INFINITY);
-	private static Decimal lengthMax = new Decimal(-INFINITY);
-	// Statics about the time duration of the trajectories
-	private static Decimal durationSum = new Decimal(0);
-	private static Decimal durationSqr = new Decimal(0);
-	private static Decimal durationMin = new Decimal(INFINITY);
-	private static Decimal durationMax = new Decimal(-INFINITY);
-	// Statics about the speed of the trajectories
-	private static Decimal speedSum = new Decimal(0);
-	private static Decimal speedSqr = new Decimal(0);
-	private static Decimal speedMin = new Decimal(INFINITY);
-	private static Decimal speedMax = new Decimal(-INFINITY);
-	// Statics about the sampling rate of the trajectories
-	private static Decimal samplingSum = new Decimal(0);
-	private static Decimal samplingSqr = new Decimal(0);
-	private static Decimal samplingMin = new Decimal(INFINITY);
-	private static Decimal samplingMax = new Decimal(-INFINITY);
-	// Statics about the spatial-temporal coverage of the trajectories
-	private static Decimal minX = new Decimal(INFINITY);
-	private static Decimal minY = new Decimal(INFINITY);
-	private static Decimal minT = new Decimal(INFINITY);
-	private static Decimal maxX = new Decimal(-INFINITY);
-	private static Decimal maxY = new Decimal(-INFINITY);
-	private static Decimal maxT = new Decimal(-INFINITY);
+	// number of input records read, and in the sample
+	private static long recordsCount = 0;
+	private static long sampledCount = 0;
+	// accumulators of the parser threads
+	private static final Queue<StatisticsAccumulator> accumulators = 
+			new ConcurrentLinkedQueue<>();
+	// accumulator of the values added to this service directly
+	private static StatisticsAccumulator shared = null;
+	// resolution, depth and dimensions of the density grids
+	private static int gridResolution = DensityGrid.DEFAULT_RESOLUTION;
+	private static int gridDepth = DensityGrid.DEFAULT_DEPTH;
+	private static boolean temporalGrid = false;
+	// distance kernel of geographic coordinates
+	private static DistanceKernel distanceKernel = DistanceKernel.HAVERSINE;
 
 	/**
 	 * Initialize this service using the default Euclidean 
 	 * distance function.
 	 */
 	public static void init() {
-		distFunc = new EuclideanDistanceFunction();
+		init(new EuclideanDistanceFunction());
 	}
 	
 	/**
 	 * Initialize this service using the given distance function.
+	 * Statistics collected so far are discarded.
 	 * 
 	 * @param distFunc Point distance measure to use to calculate
 	 * the statics about the trajectory data.
 	 */
-	public static void init(PointDistanceFunction distFunc) {
+	public static synchronized void init(PointDistanceFunction distFunc) {
 		MetadataService.distFunc = distFunc;
+		accumulators.clear();
+		shared = null;
+	}
+
+	/**
+	 * Set the resolution of the points density histogram, 
+	 * see {@link DensityGrid}. Must be set before the data is 
+	 * processed, the setting is kept when the service is
+	 * initialized again.
+	 * 
+	 * @param resolution Number of cells per axis of the coverage
+	 * box at the top level of the histogram.
+	 * @param depth Number of refinement levels below the top level.
+	 * @param temporal True to count the points over (X,Y,T),
+	 * false to count them over (X,Y) only.
+	 * @throws IllegalArgumentException If the resolution or
+	 * depth are not valid.
+	 */
+	public static synchronized void setDensityGrid(
+			int resolution, int depth, boolean temporal) {
+		// validate the parameters
+		new DensityGrid(resolution, depth, temporal);
+		gridResolution = resolution;
+		gridDepth = depth;
+		temporalGrid = temporal;
+	}
+
+	/**
+	 * Set the kernel used to compute the distances between
+	 * points in geographic coordinates, i.e. the length (and 
+	 * speed) statistics. Defaults to the exact Haversine distance.
+	 * The setting is kept when the service is initialized again.
+	 * 
+	 * @param kernel The geographic distance kernel.
+	 */
+	public static synchronized void setDistanceKernel(DistanceKernel kernel) {
+		if (kernel == null) {
+			throw new NullPointerException(
+					"Distance kernel must not be null.");
+		}
+		distanceKernel = kernel;
+	}
+
+	/**
+	 * @return The kernel used to compute the distances
+	 * between points in geographic coordinates.
+	 */
+	public static synchronized DistanceKernel getDistanceKernel() {
+		return distanceKernel;
+	}
+
+	/**
+	 * @return A new empty density grid, as configured.
+	 */
+	private static DensityGrid newDensityGrid() {
+		return new DensityGrid(gridResolution, gridDepth, temporalGrid);
+	}
+
+	/**
+	 * Creates a new statistics accumulator, owned by the calling 
+	 * parser, whose statistics are added to this metadata.
+	 * 
+	 * @return A new empty accumulator.
+	 * @throws IllegalStateException If this service has not
+	 * been initialized.
+	 */
+	public static synchronized StatisticsAccumulator newAccumulator() {
+		if (distFunc == null) {
+			throw new IllegalStateException(
+					"Metadata service has not been initialized.");
+		}
+		StatisticsAccumulator accumulator = 
+				new StatisticsAccumulator(distFunc, newDensityGrid());
+		accumulators.add(accumulator);
+		return accumulator;
 	}
 
 	/**
 	 * Add trajectory spatial-temporal data to this metadata.
 	 * Re-calculate the statistics and update the metadada.
+	 * <p>
+	 * Parsers should add the values to their own accumulator
+	 * instead, see {@link #newAccumulator()}.
 	 * 
 	 * @param xValues Array containing the X coordinates of 
 	 * 		the trajectory points as a String.
@@ -109,64 +174,19 @@ public final class MetadataService implements SpatialInterface {
 			String[] xValues, boolean isDeltaX, String xType,
 			String[] yValues, boolean isDeltaY, String yType,
 			String[] tValues, boolean isDeltaT, String tType) 
-			throws IllegalArgumentException {		
-		if (xValues == null || yValues == null || tValues == null) {
-			throw new NullPointerException("Values for metadata "
-					+ "computation must not be null.");
-		}
-		if (xValues.length == 0 || yValues.length == 0 || tValues.length == 0) {
-			throw new IllegalArgumentException("Values for metadata "
-					+ "computation must not be empty.");
-		}
-		if (xValues.length != yValues.length || xValues.length != tValues.length) {
-			throw new IllegalArgumentException("Arrays with values for "
-					+ "metadata computation must be of same size.");
-		}
-		
-		numPts = xValues.length;
-		// decompress (if not) and parse if possible
-		String[] newValues;
-		if (isDeltaX) {
-			newValues = DeltaEncoder.deltaDecode(xValues);
-			MetadataService.xValues = parseToDecimal(newValues);
-		} else if (Keywords.isNumberType(xType)) {
-			MetadataService.xValues = parseToDecimal(xValues);
-		} else {
-			MetadataService.xValues = new Decimal[numPts];
-			for (int i=0; i<numPts; i++) {
-				MetadataService.xValues[i] = new Decimal(0);
-			}
-		}
-		if (isDeltaY) {
-			newValues = DeltaEncoder.deltaDecode(yValues);
-			MetadataService.yValues = parseToDecimal(newValues);
-		} else if (Keywords.isNumberType(yType)){
-			MetadataService.yValues = parseToDecimal(yValues);
-		} else {
-			MetadataService.yValues = new Decimal[numPts];
-			for (int i=0; i<numPts; i++) {
-				MetadataService.yValues[i] = new Decimal(0);
-			}
-		}
-		if (isDeltaT) {
-			newValues = DeltaEncoder.deltaDecode(tValues);
-			MetadataService.tValues = parseToDecimal(newValues);
-		} else if (Keywords.isNumberType(tType)){
-			MetadataService.tValues = parseToDecimal(tValues);
-		} else {
-			MetadataService.tValues = new Decimal[numPts];
-			for (int i=0; i<numPts; i++) {
-				MetadataService.tValues[i] = new Decimal(0);
-			}
-		}
-		
-		// update dataset statistics for this new trajectory
-		updateStatistics();
+			throws IllegalArgumentException {
+		sharedAccumulator().addValues(
+				xValues, isDeltaX, xType, 
+				yValues, isDeltaY, yType, 
+				tValues, isDeltaT, tType);
 	}
 
 	/**
 	 * Add trajectory spatial-temporal data to this metadata.
 	 * Re-calculate the statistics and update the metadada.
+	 * <p>
+	 * Parsers should add the values to their own accumulator
+	 * instead, see {@link #newAccumulator()}.
 	 * 
 	 * @param xValues Array containing the X coordinates of 
 	 * 		the trajectory points.
@@ -185,143 +205,82 @@ public final class MetadataService implements SpatialInterface {
 			double[] yValues, boolean isDeltaY,
 			double[] tValues, boolean isDeltaT) 
 			throws IllegalArgumentException {
-		if (xValues == null || yValues == null || tValues == null) {
-			throw new NullPointerException("Values for metadata "
-					+ "computation must not be null.");
-		}
-		if (xValues.length == 0 || yValues.length == 0 || tValues.length == 0) {
-			throw new IllegalArgumentException("Values for metadata "
-					+ "computation must not be empty.");
-		}
-		if (xValues.length != yValues.length || xValues.length != tValues.length) {
-			throw new IllegalArgumentException("Arrays with values for "
-					+ "metadata computation must be of same size.");
-		}
-		
-		numPts = xValues.length;
-		// decompress (if not)
-		double[] newValues;
-		if (isDeltaX) {
-			newValues = DeltaEncoder.deltaDecode(xValues);
-			MetadataService.xValues = parseToDecimal(newValues);
-		} else {
-			MetadataService.xValues = parseToDecimal(xValues);
-		}
-		if (isDeltaY) {
-			newValues = DeltaEncoder.deltaDecode(yValues);
-			MetadataService.yValues = parseToDecimal(newValues);
-		} else {
-			MetadataService.yValues = parseToDecimal(yValues);
-		}		
-		if (isDeltaT) {
-			newValues = DeltaEncoder.deltaDecode(tValues);
-			MetadataService.tValues = parseToDecimal(newValues);
-		} else {
-			MetadataService.tValues = parseToDecimal(tValues);
-		}
+		sharedAccumulator().addValues(
+				xValues, isDeltaX, 
+				yValues, isDeltaY, 
+				tValues, isDeltaT);
+	}
 
-		// update dataset statistics for this new trajectory
-		updateStatistics();
+	/**
+	 * @return The accumulator of the values added to this
+	 * service directly (created on demand).
+	 */
+	private static StatisticsAccumulator sharedAccumulator() {
+		if (shared == null) {
+			shared = newAccumulator();
+		}
+		return shared;
 	}
 
 	/**
-	 * Parse this array of String to Decimal values.
-	 * 
-	 * @param values Values to parse.
-	 * @return Array containing the parsed String numbers to Decimal numbers.
+	 * Merge the statistics of all accumulators. Must be called
+	 * after the parsers are done (e.g. at the end of the job).
 	 * 
-	 * @throws NumberFormatException If the values cannot be parsed to Decimal.
+	 * @return The statistics about the data collected so far.
 	 */
-	private static Decimal[] parseToDecimal(String[] values) throws NumberFormatException {
-		int size = values.length;
-		Decimal[] result = new Decimal[size];
-		for (int i=0; i<size; i++) {
-			result[i] = new Decimal(values[i]);
+	public static synchronized StatisticsAccumulator getStatistics() {
+		StatisticsAccumulator result = new StatisticsAccumulator(
+				distFunc == null ? new EuclideanDistanceFunction() : distFunc,
+				newDensityGrid());
+		for (StatisticsAccumulator accumulator : accumulators) {
+			result.merge(accumulator);
 		}
 		return result;
 	}
+	
+	/**
+	 * Request a copy of the statistics of every accumulator, to
+	 * take a snapshot, see {@link #getSnapshot()}. Each parser
+	 * publishes its copy before it adds its next trajectory, 
+	 * hence the parsers are not blocked.
+	 */
+	public static synchronized void requestSnapshot() {
+		for (StatisticsAccumulator accumulator : accumulators) {
+			accumulator.requestPublish();
+		}
+	}
 
 	/**
-	 * Parse this array of doubles to Decimal values.
-	 * 
-	 * @param values Values to parse.
-	 * @return Array containing the parsed values to Decimal numbers.
-	 * 
-	 * @throws NumberFormatException If the values cannot be parsed to Decimal.
+	 * @return True if all accumulators have published the copy
+	 * requested by the last {@link #requestSnapshot()}.
 	 */
-	private static Decimal[] parseToDecimal(double[] values) throws NumberFormatException {
-		int size = values.length;
-		Decimal[] result = new Decimal[size];
-		for (int i=0; i<size; i++) {
-			result[i] = new Decimal(values[i]);
+	public static synchronized boolean isSnapshotReady() {
+		for (StatisticsAccumulator accumulator : accumulators) {
+			if (!accumulator.isPublished()) return false;
 		}
-		return result;
+		return true;
 	}
+
 	/**
-	 * Update the metadata statistics for every new input trajectory.
-	 * <br> [0]: mean [1]: min [2]: max [3]: std
-	 */
-	private static void updateStatistics() {
-		// get statistics of this trajectory points
-		// using the provided distance measure
-		double distance;
-		Decimal length   = new Decimal(0);
-		Decimal duration = new Decimal(0);
-		for (int i=0; i<numPts-1; i++) {
-			distance = distFunc.pointToPointDistance(
-					xValues[i].value(), yValues[i].value(), 
-					xValues[i+1].value(), yValues[i+1].value());
-			// trajectory's length and duration
-			length   = length.sum(distance);
-			duration = duration.sum(tValues[i+1].sub(tValues[i]));
-			
-			minX = minX.min(xValues[i]);
-			minY = minY.min(yValues[i]);
-			minT = minT.min(tValues[i]);
-			maxX = maxX.max(xValues[i]);
-			maxY = maxY.max(yValues[i]);
-			maxT = maxT.max(tValues[i]);
+	 * Merge the copies of the statistics last published by the
+	 * accumulators, see {@link #requestSnapshot()}. Can be called
+	 * while the parsers are running, without blocking them. The
+	 * statistics of the parsers which have not published a copy
+	 * since the last request (e.g. idle parsers) may be outdated.
+	 * 
+	 * @return A snapshot of the statistics collected so far.
+	 */
+	public static synchronized StatisticsAccumulator getSnapshot() {
+		StatisticsAccumulator result = new StatisticsAccumulator(
+				distFunc == null ? new EuclideanDistanceFunction() : distFunc,
+				newDensityGrid());
+		for (StatisticsAccumulator accumulator : accumulators) {
+			StatisticsAccumulator copy = accumulator.getPublished();
+			if (copy != null) result.merge(copy);
 		}
-		
-		numPtsSum = numPtsSum.sum(numPts); 
-		numPtsSqr = numPtsSqr.sum(numPts*numPts);
-		numPtsMin = numPtsMin.min(numPts); 
-		numPtsMax = numPtsMax.max(numPts);
-			
-		lengthSum = lengthSum.sum(length);
-		lengthSqr = lengthSqr.sum(length.multiply(length));
-		lengthMin = lengthMin.min(length); 
-		lengthMax = lengthMax.max(length); 
-	
-		durationSum = durationSum.sum(duration); 
-		durationSqr = durationSqr.sum(duration.multiply(duration));
-		durationMin = durationMin.min(duration); 
-		durationMax = durationMax.max(duration);
-		
-		Decimal speed = duration.equals(0) ? 
-				new Decimal(0) : length.divide(duration);
-		speedSum = speedSum.sum(speed);
-		speedSqr = speedSqr.sum(speed.multiply(speed));
-		speedMin = speedMin.min(speed); 
-		speedMax = speedMax.max(speed);
-	 		
-		Decimal sampling = duration.divide(numPts-1);
-		samplingSum = samplingSum.sum(sampling); 
-		samplingSqr = samplingSqr.sum(sampling.multiply(sampling));
-		samplingMin = samplingMin.min(sampling); 
-		samplingMax = samplingMax.max(sampling);
-		
-		minX = minX.min(xValues[numPts-1]);
-		minY = minY.min(yValues[numPts-1]);
-		minT = minT.min(tValues[numPts-1]);
-		maxX = maxX.max(xValues[numPts-1]);
-		maxY = maxY.max(yValues[numPts-1]);
-		maxT = maxT.max(tValues[numPts-1]);
-		
-		trajectoriesCount++;
-		pointsCount += numPts;
+		return result;
 	}
-	
+
 	/**
 	 * @return Total number of data files processed.
 	 */
@@ -337,12 +296,26 @@ public final class MetadataService implements SpatialInterface {
 		filesCount = count;
 	}
 
+	/**
+	 * Set the number of input records read, and the number of
+	 * records in the sample the statistics are computed from.
+	 * If the sample is smaller, the totals of the dataset are
+	 * extrapolated in the metadata.
+	 * 
+	 * @param recordsRead Number of input records read.
+	 * @param recordsSampled Number of input records in the sample.
+	 */
+	public static void setRecordsCount(long recordsRead, long recordsSampled) {
+		recordsCount = recordsRead;
+		sampledCount = recordsSampled;
+	}
+
 	/**
 	 * @return Number of trajectories processed so far 
 	 * from the input dataset.
 	 */
 	public static long getTrajectoriesCount(){
-		return trajectoriesCount;
+		return getStatistics().getTrajectoriesCount();
 	}
 	
 	/**
@@ -350,7 +323,7 @@ public final class MetadataService implements SpatialInterface {
 	 * so far from the input dataset.
 	 */
 	public static long getPointsCount(){
-		return pointsCount;
+		return getStatistics().getPointsCount();
 	}
 
 	/**
@@ -362,20 +335,7 @@ public final class MetadataService implements SpatialInterface {
 	 * <p> [0]: min [1]: max [2]: mean [3]: std
 	 */
 	public static double[] getNumPointsStats() {
-		if (trajectoriesCount == 0) {
-			return new double[4];
-		}
-		Decimal mean = numPtsSum.divide(trajectoriesCount);
-		Decimal stdSqr = numPtsSqr.sub(numPtsSum.pow2().divide(trajectoriesCount)).abs();
-		Decimal std = stdSqr.divide(trajectoriesCount).sqrt();
-		
-		// min, max, mean, std
-		double[] result = new double[] {
-				numPtsMin.value(), numPtsMax.value(), 
-				mean.value(), std.value()
-		};
-				
-		return result;
+		return getStatistics().getNumPointsStats();
 	}
 	
 	/**
@@ -386,20 +346,7 @@ public final class MetadataService implements SpatialInterface {
 	 * <p> [0]: min [1]: max [2]: mean [3]: std
 	 */
 	public static double[] getLengthStats() {
-		if (trajectoriesCount == 0) {
-			return new double[4];
-		}
-		Decimal mean   = lengthSum.divide(trajectoriesCount);
-		Decimal stdSqr = lengthSqr.sub(lengthSum.pow2().divide(trajectoriesCount)).abs();
-		Decimal std    = stdSqr.divide(trajectoriesCount).sqrt();
-		
-		// min, max, mean, std
-		double[] result = new double[] {
-				lengthMin.value(), lengthMax.value(), 
-				mean.value(), std.value()
-		};
-		
-		return result;
+		return getStatistics().getLengthStats();
 	}	
 	
 	/**
@@ -410,20 +357,7 @@ public final class MetadataService implements SpatialInterface {
 	 * <p> [0]: min [1]: max [2]: mean [3]: std
 	 */
 	public static double[] getDurationStats() {
-		if (trajectoriesCount == 0) {
-			return new double[4];
-		}
-		Decimal mean   = durationSum.divide(trajectoriesCount);
-		Decimal stdSqr = durationSqr.sub(durationSum.pow2().divide(trajectoriesCount)).abs();
-		Decimal std    = stdSqr.divide(trajectoriesCount).sqrt();
-		
-		// min, max, mean, std
-		double[] result = new double[] {
-				durationMin.value(), durationMax.value(), 
-				mean.value(), std.value()
-		};
-		
-		return result;
+		return getStatistics().getDurationStats();
 	}
 
 	/**
@@ -434,20 +368,7 @@ public final class MetadataService implements SpatialInterface {
 	 * <p> [0]: min [1]: max [2]: mean [3]: std
 	 */
 	public static double[] getSpeedStats() {
-		if (trajectoriesCount == 0) {
-			return new double[4];
-		}
-		Decimal mean   = speedSum.divide(trajectoriesCount);
-		Decimal stdSqr = speedSqr.sub(speedSum.pow2().divide(trajectoriesCount)).abs();
-		Decimal std    = stdSqr.divide(trajectoriesCount).sqrt();
-		
-		// min, max, mean, std
-		double[] result = new double[] {
-				speedMin.value(), speedMax.value(), 
-				mean.value(), std.value()
-		};
-		
-		return result;
+		return getStatistics().getSpeedStats();
 	}
 
 	/**
@@ -459,20 +380,7 @@ public final class MetadataService implements SpatialInterface {
 	 * <p> [0]: min [1]: max [2]: mean [3]: std
 	 */
 	public static double[] getSamplingRateStats() {
-		if (trajectoriesCount == 0) {
-			return new double[4];
-		}
-		Decimal mean   = samplingSum.divide(trajectoriesCount);
-		Decimal stdSqr = samplingSqr.sub(samplingSum.pow2().divide(trajectoriesCount)).abs();
-		Decimal std    = stdSqr.divide(trajectoriesCount).sqrt();
-		
-		// min, max, mean, std
-		double[] result = new double[] {
-				samplingMin.value(), samplingMax.value(), 
-				mean.value(), std.value()
-		};
-		
-		return result;
+		return getStatistics().getSamplingRateStats();
 	}
 
 	/**
@@ -485,16 +393,84 @@ public final class MetadataService implements SpatialInterface {
 	 * 	    [3]: max X [4]: max Y [5]: max Time
 	 */
 	public static double[] getCoverageStats() {
-		if (trajectoriesCount == 0) {
-			return new double[6];
+		return getStatistics().getCoverageStats();
+	}
+	
+	/**
+	 * Histogram of the density of the points over the 
+	 * spatial-temporal coverage of the dataset.
+	 * 
+	 * @return The adaptive histogram of the points density,
+	 * see {@link DensityGrid#toHistogram()}.
+	 */
+	public static DensityHistogram getDensityHistogram() {
+		return getStatistics().getDensityHistogram();
+	}
+	
+	/**
+	 * The raw state of the metadata collected so far, which 
+	 * can be saved and merged with the states of other parts
+	 * of the dataset, see {@link MetadataState}.
+	 * 
+	 * @param numAttributes Number of trajectory attributes 
+	 * in the output data.
+	 * @param numCoordAttributes Number of coordinates attributes
+	 * in the output data.
+	 * @return The metadata state of the data collected so far.
+	 */
+	public static MetadataState getState(
+			int numAttributes, int numCoordAttributes) {
+		return new MetadataState(filesCount, numAttributes, 
+				numCoordAttributes, recordsCount, sampledCount, getStatistics());
+	}
+	
+	/**
+	 * The raw state of the metadata collected so far, with the 
+	 * number of attributes of the given output data format.
+	 * 
+	 * @param dataFormat User-defined Input data format specifications.
+	 * @param outFormat  User-defined Output data format.
+	 * @return The metadata state of the data collected so far.
+	 */
+	public static MetadataState getState(
+			DataFormat dataFormat, OutputFormat outFormat) {
+		return getState(dataFormat, outFormat, filesCount, 
+				recordsCount, sampledCount, getStatistics());
+	}
+
+	/**
+	 * The state of the metadata of the given statistics, with the
+	 * number of attributes of the given output data format, e.g.
+	 * of a snapshot taken during the data loading.
+	 * 
+	 * @param dataFormat User-defined Input data format specifications.
+	 * @param outFormat  User-defined Output data format.
+	 * @param filesCount Number of data files processed.
+	 * @param recordsRead Number of input records read.
+	 * @param recordsSampled Number of input records in the sample.
+	 * @param stats The statistics of the data.
+	 * @return The metadata state of the given statistics.
+	 */
+	public static MetadataState getState(
+			DataFormat dataFormat, OutputFormat outFormat, long filesCount, 
+			long recordsRead, long recordsSampled, StatisticsAccumulator stats) {
+		// number of trajectory attributes in the output data
+		int attrCount;
+		// number of coordinate attributes in the output data
+		int coordAttrCount;
+		if (outFormat.equals(OutputFormat.ALL)) {
+			attrCount = dataFormat.numValidAttributes();
+			coordAttrCount = dataFormat.getCoordinatesArrayFormat().numValidAttributes();
+		} else 
+		if (outFormat.equals(OutputFormat.SPATIAL)) {
+			attrCount = 2; // id and coordinates only
+			coordAttrCount = dataFormat.getCoordinatesArrayFormat().getSpatialDimensions();
+		} else {
+			attrCount = 2; // id and coordinates only
+			coordAttrCount = dataFormat.getCoordinatesArrayFormat().getSpatialDimensions() + 1;
 		}
-		
-		double[] result = new double[] {
-				minX.value(), minY.value(), minT.value(),
-				maxX.value(), maxY.value(), maxT.value()
-		};
-		
-		return result;
+		return new MetadataState(filesCount, attrCount, coordAttrCount, 
+				recordsRead, recordsSampled, stats);
 	}
 	
 	/**
@@ -502,19 +478,83 @@ public final class MetadataService implements SpatialInterface {
 	 * data collected so far in this dataset.
 	 */
 	public static String getMetadata() {
+		return getMetadata(getStatistics());
+	}
+	
+	/**
+	 * Extrapolate the number of trajectories and points of a dataset
+	 * from the statistics of a random sample of its records. Totals
+	 * are estimated as (records read) x (mean per sampled record), 
+	 * with a 95% confidence interval (normal approximation, with the
+	 * finite population correction). Records that could not be parsed 
+	 * count as zero trajectories and points.
+	 * 
+	 * @param stats The statistics of the sample.
+	 * @param recordsRead Number of input records read.
+	 * @param recordsSampled Number of input records in the sample.
+	 * @return A String text with the sample size and the
+	 * extrapolated totals, with the half-width of their
+	 * confidence intervals ('_CI95').
+	 */
+	public static String getEstimates(StatisticsAccumulator stats,
+			long recordsRead, long recordsSampled) {
+		final DecimalFormat df = new DecimalFormat("#.#####");
+		df.setRoundingMode(RoundingMode.HALF_EVEN);
+		final long numTraj = stats.getTrajectoriesCount();
+		String script = "";
+		script += "NUM_RECORDS\t" + recordsRead + "\n";
+		script += "SAMPLE_NUM_RECORDS\t" + recordsSampled + "\n";
+		script += "SAMPLE_RATE\t" + (recordsRead == 0 ? 0 :
+				df.format((double) recordsSampled / recordsRead)) + "\n";
+		double[] traj = estimateTotal(numTraj, numTraj, recordsRead, recordsSampled);
+		script += "EST_NUM_TRAJECTORIES\t" + Math.round(traj[0]) + "\n";
+		script += "EST_NUM_TRAJECTORIES_CI95\t" + df.format(traj[1]) + "\n";
+		double[] pts = estimateTotal(stats.getPointsCount(), 
+				stats.getPointsSquaresSum(), recordsRead, recordsSampled);
+		script += "EST_NUM_POINTS\t" + Math.round(pts[0]) + "\n";
+		script += "EST_NUM_POINTS_CI95\t" + df.format(pts[1]) + "\n";
+		return script;
+	}
+
+	/**
+	 * @param sum Sum of the values of the sampled records.
+	 * @param squaresSum Sum of the squared values.
+	 * @param size Number of records in the population (N).
+	 * @param sampleSize Number of records in the sample (n).
+	 * @return [0]: estimated total of the population 
+	 * [1]: half-width of its 95% confidence interval.
+	 */
+	private static double[] estimateTotal(double sum, double squaresSum,
+			long size, long sampleSize) {
+		if (sampleSize == 0) {
+			return new double[2];
+		}
+		final double n = sampleSize, N = size;
+		final double mean = sum / n;
+		final double var = sampleSize < 2 ? 0 : 
+				Math.max(0, (squaresSum - n * mean * mean) / (n - 1));
+		final double stdErr = N * Math.sqrt((1 - n / N) * var / n);
+		return new double[]{N * mean, 1.96 * stdErr};
+	}
+	
+	/**
+	 * @param stats The statistics of a dataset.
+	 * @return A String text with the given statistics.
+	 */
+	public static String getMetadata(StatisticsAccumulator stats) {
      	String script = "";
-		if (trajectoriesCount == 0) {
+		if (stats.getTrajectoriesCount() == 0) {
 			return script;
 		}
 		
-     	long numTraj = getTrajectoriesCount();
-     	long numPts  = getPointsCount();
-     	double[] avgPts = getNumPointsStats();
-     	double[] avgDur = getDurationStats();
-     	double[] avgLen = getLengthStats();
-     	double[] avgSpeed = getSpeedStats();
-     	double[] avgRate  = getSamplingRateStats();
-     	double[] cover  = getCoverageStats();
+     	long numTraj = stats.getTrajectoriesCount();
+     	long numPts  = stats.getPointsCount();
+     	double[] avgPts = stats.getNumPointsStats();
+     	double[] avgDur = stats.getDurationStats();
+     	double[] avgLen = stats.getLengthStats();
+     	double[] avgSpeed = stats.getSpeedStats();
+     	double[] avgRate  = stats.getSamplingRateStats();
+     	double[] cover  = stats.getCoverageStats();
 
      	// Format of the numbers in the output statistics
      	final DecimalFormat df = new DecimalFormat("#.#####");
@@ -528,26 +568,36 @@ public final class MetadataService implements SpatialInterface {
      	script += "MAX_PTS_PER_TRAJECTORY\t" + avgPts[1] + "\n";
      	script += "AVG_PTS_PER_TRAJECTORY\t" + df.format(avgPts[2]) + "\n";
      	script += "STD_PTS_PER_TRAJECTORY\t" + df.format(avgPts[3]) + "\n";
+     	script += getQuantilesScript("PTS_PER_TRAJECTORY", 
+     			stats.getNumPointsQuantiles(), df);
      	
      	script += "MIN_TRAJECTORY_LENGTH\t" + df.format(avgLen[0]) + "\n";
      	script += "MAX_TRAJECTORY_LENGTH\t" + df.format(avgLen[1]) + "\n";
      	script += "AVG_TRAJECTORY_LENGTH\t" + df.format(avgLen[2]) + "\n";
      	script += "STD_TRAJECTORY_LENGTH\t" + df.format(avgLen[3]) + "\n";
+     	script += getQuantilesScript("TRAJECTORY_LENGTH", 
+     			stats.getLengthQuantiles(), df);
      	
      	script += "MIN_TRAJECTORY_DURATION\t" + df.format(avgDur[0]) + "\n"; 
      	script += "MAX_TRAJECTORY_DURATION\t" + df.format(avgDur[1]) + "\n"; 
      	script += "AVG_TRAJECTORY_DURATION\t" + df.format(avgDur[2]) + "\n";
      	script += "STD_TRAJECTORY_DURATION\t" + df.format(avgDur[3]) + "\n";
+     	script += getQuantilesScript("TRAJECTORY_DURATION", 
+     			stats.getDurationQuantiles(), df);
      	
      	script += "MIN_TRAJECTORY_SPEED\t" + df.format(avgSpeed[0]) + "\n";
      	script += "MAX_TRAJECTORY_SPEED\t" + df.format(avgSpeed[1]) + "\n";
      	script += "AVG_TRAJECTORY_SPEED\t" + df.format(avgSpeed[2]) + "\n";
      	script += "STD_TRAJECTORY_SPEED\t" + df.format(avgSpeed[3]) + "\n";
+     	script += getQuantilesScript("TRAJECTORY_SPEED", 
+     			stats.getSpeedQuantiles(), df);
      	
      	script += "MIN_SAMPLING_RATE\t" + df.format(avgRate[0]) + "\n";
      	script += "MAX_SAMPLING_RATE\t" + df.format(avgRate[1]) + "\n";
      	script += "AVG_SAMPLING_RATE\t" + df.format(avgRate[2]) + "\n";
      	script += "STD_SAMPLING_RATE\t" + df.format(avgRate[3]) + "\n";
+     	script += getQuantilesScript("SAMPLING_RATE", 
+     			stats.getSamplingRateQuantiles(), df);
      	
      	script += "MIN_X\t" + cover[0] + "\n";
      	script += "MIN_Y\t" + cover[1] + "\n";
@@ -555,7 +605,68 @@ public final class MetadataService implements SpatialInterface {
      	script += "MAX_X\t" + cover[3] + "\n";
      	script += "MAX_Y\t" + cover[4] + "\n";
      	script += "MAX_T\t" + cover[5];
+     	
+     	// semantic attributes statistics
+     	for (AttributeStatistics attr : stats.getAttributesStatistics()) {
+     		script += getAttributeScript(attr);
+     	}
     	
      	return script;
 	}
+
+	/**
+	 * @param attr The statistics of a semantic attribute.
+	 * @return The script lines of the attribute statistics, 
+	 * each line starting with a line break.
+	 */
+	private static String getAttributeScript(AttributeStatistics attr) {
+		final String prefix = "\nATTR_" + attr.name + "_";
+		// array types are described in the output format file
+		final String type = attr.type.startsWith(Keywords.ARRAY.name()) ? 
+				Keywords.ARRAY.name() : attr.type;
+		String script = "";
+		script += prefix + "TYPE\t" + type;
+		script += prefix + "NUM_NULL\t" + attr.getNullCount();
+		script += prefix + "NUM_EMPTY\t" + attr.getEmptyCount();
+		script += prefix + "NUM_DISTINCT\t" + attr.getDistinctCount();
+		if (attr.isNumberType() && attr.getMinValue() != null) {
+			script += prefix + "MIN\t" + attr.getMinValue();
+			script += prefix + "MAX\t" + attr.getMaxValue();
+		}
+		if (attr.getTopValues() != null) {
+			int rank = 1;
+			for (Map.Entry<String, Long> top : attr.getTopValues()) {
+				script += prefix + "TOP_" + (rank++) + "\t" + 
+						escape(top.getKey()) + "\t" + top.getValue();
+			}
+		}
+		return script;
+	}
+
+	/**
+	 * @return The given value with backslashes, tabs and line
+	 * breaks escaped, to fit in one metadata line.
+	 */
+	private static String escape(String value) {
+		return value.replace("\\", "\\\\").replace("\t", "\\t")
+				.replace("\n", "\\n").replace("\r", "\\r");
+	}
+
+	/**
+	 * @param name The name of the metric.
+	 * @param quantiles The quantiles of the metric, see
+	 * {@link StatisticsAccumulator#QUANTILES}.
+	 * @param df Format of the numbers.
+	 * @return The script lines of the metric quantiles,
+	 * i.e. P50, P90, P99 and P999.
+	 */
+	private static String getQuantilesScript(
+			String name, double[] quantiles, DecimalFormat df) {
+		String script = "";
+		script += "P50_"  + name + "\t" + df.format(quantiles[0]) + "\n";
+		script += "P90_"  + name + "\t" + df.format(quantiles[1]) + "\n";
+		script += "P99_"  + name + "\t" + df.format(quantiles[2]) + "\n";
+		script += "P999_" + name + "\t" + df.format(quantiles[3]) + "\n";
+		return script;
+	}
 }
@@ -0,0 +1,175 @@
+package traminer.parser;
+
+import java.time.Instant;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Takes snapshots of the metadata periodically during long data
+ * loads, every given number of seconds and/or of trajectories
+ * parsed, see {@link TrajectoryParser#setMetadataSnapshots(long, long)}.
+ * Snapshots let users watch the shape of the data during the load,
+ * and keep the metadata of the data loaded so far if the job dies.
+ * <p>
+ * Snapshots are taken in a background thread, and never block the
+ * parsers: each parser publishes a copy of its statistics before
+ * its next trajectory, see {@link MetadataService#requestSnapshot()},
+ * and the copies are merged and written by the background thread.
+ * The snapshot files, i.e. the metadata script and its raw state
+ * (see {@link MetadataState}), replace the previous snapshot
+ * atomically, see {@link DataWriter#saveSnapshotFiles(String, MetadataState)}.
+ * <p>
+ * The conditions are checked once a second, hence snapshots by
+ * number of trajectories are taken up to one second late.
+ *
+ * @author douglasapeixoto
+ */
+public final class MetadataSnapshotter {
+	/** Name of the snapshot metadata file */
+	public static final String FILE_NAME = "metadata.snapshot.meta";
+	/** Name of the snapshot metadata state file */
+	public static final String STATE_FILE_NAME = "metadata.snapshot.state";
+
+	// how often the snapshot conditions are checked (ms)
+	private static final long POLL_INTERVAL = 1000;
+	// maximum time to wait for the parsers' statistics (ms)
+	private static final long PUBLISH_TIMEOUT = 1000;
+
+	/** Seconds between snapshots, zero if not by time */
+	public final long intervalSeconds;
+	/** Trajectories parsed between snapshots, zero if not by count */
+	public final long intervalTrajectories;
+
+	// background thread, while running
+	private ScheduledExecutorService executor = null;
+	// number of trajectories parsed so far
+	private LongSupplier parsedCount;
+	// takes the metadata state of the snapshot
+	private Supplier<MetadataState> snapshot;
+	// time and trajectories count of the last snapshot
+	private long lastTime, lastCount;
+	// number of snapshots written
+	private volatile long snapshotsCount = 0;
+
+	// System log
+	private static Logger log = Logger.getLogger(MetadataSnapshotter.class);
+
+	/**
+	 * Creates a new metadata snapshotter.
+	 *
+	 * @param intervalSeconds Seconds between snapshots,
+	 * zero to not take snapshots by time.
+	 * @param intervalTrajectories Trajectories parsed between
+	 * snapshots, zero to not take snapshots by count.
+	 */
+	public MetadataSnapshotter(long intervalSeconds, long intervalTrajectories) {
+		if (intervalSeconds < 0 || intervalTrajectories < 0) {
+			throw new IllegalArgumentException(
+					"Snapshot intervals must not be negative.");
+		}
+		if (intervalSeconds == 0 && intervalTrajectories == 0) {
+			throw new IllegalArgumentException(
+					"At least one snapshot interval must be set.");
+		}
+		this.intervalSeconds = intervalSeconds;
+		this.intervalTrajectories = intervalTrajectories;
+	}
+
+	/**
+	 * Start taking snapshots in the background.
+	 *
+	 * @param parsedCount Number of trajectories parsed so far.
+	 * @param snapshot Takes the metadata state of a snapshot,
+	 * after the parsers have published their statistics,
+	 * see {@link MetadataService#getSnapshot()}.
+	 */
+	public synchronized void start(LongSupplier parsedCount,
+			Supplier<MetadataState> snapshot) {
+		if (executor != null) {
+			throw new IllegalStateException(
+					"Metadata snapshots already started.");
+		}
+		this.parsedCount = parsedCount;
+		this.snapshot = snapshot;
+		this.lastTime = System.currentTimeMillis();
+		this.lastCount = 0;
+		executor = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "traminer-snapshot");
+			thread.setDaemon(true);
+			return thread;
+		});
+		executor.scheduleWithFixedDelay(this::poll,
+				POLL_INTERVAL, POLL_INTERVAL, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Stop taking snapshots. Waits for the snapshot
+	 * being written (if any).
+	 */
+	public synchronized void stop() {
+		if (executor == null) return;
+		executor.shutdown();
+		try {
+			executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		executor = null;
+	}
+
+	/**
+	 * @return Number of snapshots written.
+	 */
+	public long getSnapshotsCount() {
+		return snapshotsCount;
+	}
+
+	/**
+	 * Take a snapshot, if due.
+	 */
+	private void poll() {
+		final long now = System.currentTimeMillis();
+		final long count = parsedCount.getAsLong();
+		boolean due =
+			(intervalSeconds > 0 && now - lastTime >= intervalSeconds * 1000) ||
+			(intervalTrajectories > 0 && count - lastCount >= intervalTrajectories);
+		if (!due) return;
+		try {
+			takeSnapshot(count);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (RuntimeException e) {
+			// a failed snapshot must not stop the data loading
+			log.warn("Unable to take metadata snapshot.", e);
+		}
+		lastTime = now;
+		lastCount = count;
+	}
+
+	/**
+	 * Take a snapshot of the metadata, and save it.
+	 */
+	private void takeSnapshot(long count) throws InterruptedException {
+		// wait (not the parsers) for the statistics to be published
+		MetadataService.requestSnapshot();
+		final long deadline = System.currentTimeMillis() + PUBLISH_TIMEOUT;
+		while (!MetadataService.isSnapshotReady() &&
+				System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		MetadataState state = snapshot.get();
+		String script = "SNAPSHOT_TIME\t" + Instant.now() + "\n"
+				+ "SNAPSHOT_NUM_PARSED\t" + count + "\n"
+				+ state.getMetadata();
+		DataWriter.saveSnapshotFiles(script, state);
+		snapshotsCount++;
+		log.info("Metadata snapshot " + snapshotsCount + ": "
+				+ state.getStatistics().getTrajectoriesCount()
+				+ " trajectories.");
+	}
+}
@@ -0,0 +1,336 @@
+package traminer.parser;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import traminer.util.spatial.distance.PointDistanceFunction;
+
+/**
+ * The raw state of the metadata of a dataset, i.e. the counts,
+ * sums, minimum/maximum values and sketches the metadata statistics
+ * are derived from, see {@link StatisticsAccumulator}.
+ * <p>
+ * Unlike the derived values in 'metadata.meta' (e.g. means and
+ * standard deviations), states can be merged. Hence, a dataset can
+ * be loaded in parts (e.g. in different machines), and the metadata
+ * of the whole dataset is given by merging the states of the parts,
+ * without reading the data again, see {@link MetadataMerger}.
+ * <p>
+ * The state is saved in a versioned binary form (big-endian),
+ * next to the metadata file, as 'metadata.state':
+ * <pre>
+ * int    magic ("TDMS"), short version
+ * long   number of files, int number of attributes,
+ * int    number of coordinates attributes,
+ * long   number of records read, long number of records sampled
+ *        (since version 2)
+ * string class name of the point distance function, followed
+ *        by the constant name if an enum (e.g. {@link DistanceKernel})
+ * ...    accumulator state
+ * </pre>
+ * Strings are written as their UTF-8 length (int, -1 if null)
+ * followed by their UTF-8 bytes.
+ *
+ * @author douglasapeixoto
+ */
+public final class MetadataState {
+	/** Name of the state file, saved next to 'metadata.meta' */
+	public static final String FILE_NAME = "metadata.state";
+	// file header
+	private static final int MAGIC = 0x54444D53;
+	private static final short VERSION = 2;
+
+	/** Number of data files processed */
+	public final long filesCount;
+	/** Number of trajectory attributes in the output data */
+	public final int numAttributes;
+	/** Number of coordinates attributes in the output data */
+	public final int numCoordAttributes;
+	/** Number of input records read, zero if unknown */
+	public final long recordsCount;
+	/** 
+	 * Number of input records in the sample the statistics were 
+	 * computed from, less than {@link #recordsCount} if sampled 
+	 */
+	public final long sampledCount;
+
+	// the statistics of the data processed
+	private final StatisticsAccumulator statistics;
+
+	/**
+	 * Creates the metadata state of a dataset.
+	 *
+	 * @param filesCount Number of data files processed.
+	 * @param numAttributes Number of trajectory attributes
+	 * in the output data.
+	 * @param numCoordAttributes Number of coordinates attributes
+	 * in the output data.
+	 * @param statistics The statistics of the data processed.
+	 */
+	public MetadataState(long filesCount, int numAttributes,
+			int numCoordAttributes, StatisticsAccumulator statistics) {
+		this(filesCount, numAttributes, numCoordAttributes, 0, 0, statistics);
+	}
+
+	/**
+	 * Creates the metadata state of a dataset, or of a sample
+	 * of the dataset.
+	 *
+	 * @param filesCount Number of data files processed.
+	 * @param numAttributes Number of trajectory attributes
+	 * in the output data.
+	 * @param numCoordAttributes Number of coordinates attributes
+	 * in the output data.
+	 * @param recordsCount Number of input records read.
+	 * @param sampledCount Number of input records in the sample.
+	 * @param statistics The statistics of the data processed, 
+	 * i.e. of the records in the sample.
+	 */
+	public MetadataState(long filesCount, int numAttributes,
+			int numCoordAttributes, long recordsCount, long sampledCount,
+			StatisticsAccumulator statistics) {
+		if (sampledCount > recordsCount) {
+			throw new IllegalArgumentException(
+					"Sample must not be larger than the records read.");
+		}
+		if (statistics == null) {
+			throw new NullPointerException(
+					"Metadata statistics must not be null.");
+		}
+		this.filesCount = filesCount;
+		this.numAttributes = numAttributes;
+		this.numCoordAttributes = numCoordAttributes;
+		this.recordsCount = recordsCount;
+		this.sampledCount = sampledCount;
+		this.statistics = statistics;
+	}
+
+	/**
+	 * @return The statistics of the data processed.
+	 */
+	public StatisticsAccumulator getStatistics() {
+		return statistics;
+	}
+
+	/**
+	 * @return True if the statistics were computed from a
+	 * sample of the records read.
+	 */
+	public boolean isSampled() {
+		return sampledCount < recordsCount;
+	}
+
+	/**
+	 * @return The metadata script of this state, i.e. the
+	 * content of the 'metadata.meta' file. If sampled, the
+	 * totals of the dataset are extrapolated, see 
+	 * {@link MetadataService#getEstimates(StatisticsAccumulator, long, long)}.
+	 */
+	public String getMetadata() {
+		String script = "";
+		script += "NUM_FILES\t" + filesCount + "\n";
+		script += "NUM_ATTRIBUTES\t" + numAttributes + "\n";
+		script += "NUM_COORD_ATTRIBUTES\t" + numCoordAttributes + "\n";
+		if (isSampled()) {
+			script += MetadataService.getEstimates(
+					statistics, recordsCount, sampledCount);
+		}
+		script += MetadataService.getMetadata(statistics);
+		return script;
+	}
+
+	/**
+	 * Merge the given metadata states, e.g. of parts of the same
+	 * dataset. The number of files and all statistics are merged,
+	 * the given states are not changed. Sampled states should be
+	 * of the same sample rate, otherwise the extrapolated totals
+	 * are biased.
+	 *
+	 * @param states The states to merge, at least one.
+	 * @return The merged state.
+	 * @throws IllegalArgumentException If the states are not of
+	 * the same output format (number of attributes), distance
+	 * function, or density grid resolution.
+	 */
+	public static MetadataState merge(List<MetadataState> states) {
+		if (states == null || states.isEmpty()) {
+			throw new IllegalArgumentException(
+					"List of metadata states must not be empty.");
+		}
+		final MetadataState first = states.get(0);
+		final String distName = distanceName(
+				first.statistics.getDistanceFunction());
+		StatisticsAccumulator merged = first.statistics.emptyCopy();
+		long filesCount = 0, recordsCount = 0, sampledCount = 0;
+		for (MetadataState state : states) {
+			if (state.numAttributes != first.numAttributes ||
+				state.numCoordAttributes != first.numCoordAttributes) {
+				throw new IllegalArgumentException("Metadata states "
+						+ "of different output formats can not be merged.");
+			}
+			if (!distanceName(state.statistics.getDistanceFunction())
+					.equals(distName)) {
+				throw new IllegalArgumentException("Metadata states "
+						+ "of different distance functions can not be merged.");
+			}
+			merged.merge(state.statistics);
+			filesCount += state.filesCount;
+			recordsCount += state.recordsCount;
+			sampledCount += state.sampledCount;
+		}
+		return new MetadataState(filesCount, first.numAttributes,
+				first.numCoordAttributes, recordsCount, sampledCount, merged);
+	}
+
+	/**
+	 * @return The binary form of this state.
+	 */
+	public byte[] toByteArray() {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(8192);
+		try {
+			write(bytes);
+		} catch (IOException e) {
+			// not thrown by byte array streams
+			throw new IllegalStateException(e);
+		}
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Write the binary form of this state to the given stream.
+	 * The stream is flushed, but not closed.
+	 *
+	 * @param out The output stream.
+	 * @throws IOException If the stream can not be written.
+	 */
+	public void write(OutputStream out) throws IOException {
+		DataOutputStream data = new DataOutputStream(
+				new BufferedOutputStream(out));
+		data.writeInt(MAGIC);
+		data.writeShort(VERSION);
+		data.writeLong(filesCount);
+		data.writeInt(numAttributes);
+		data.writeInt(numCoordAttributes);
+		data.writeLong(recordsCount);
+		data.writeLong(sampledCount);
+		PointDistanceFunction distFunc = statistics.getDistanceFunction();
+		if (distFunc instanceof Enum) {
+			writeString(data, ((Enum<?>) distFunc).getDeclaringClass().getName());
+			writeString(data, ((Enum<?>) distFunc).name());
+		} else {
+			writeString(data, distFunc.getClass().getName());
+		}
+		statistics.writeState(data);
+		data.flush();
+	}
+
+	/**
+	 * Read a state in binary form from the given stream,
+	 * see {@link #write(OutputStream)}. The stream is not closed.
+	 *
+	 * @param in The input stream.
+	 * @return The state read.
+	 * @throws IOException If the stream can not be read, or it
+	 * is not a metadata state of a supported version.
+	 */
+	public static MetadataState read(InputStream in) throws IOException {
+		DataInputStream data = new DataInputStream(
+				new BufferedInputStream(in));
+		if (data.readInt() != MAGIC) {
+			throw new IOException("Not a metadata state file.");
+		}
+		short version = data.readShort();
+		if (version < 1 || version > VERSION) {
+			throw new IOException("Metadata state version '"
+					+ version + "' is not supported.");
+		}
+		try {
+			long filesCount = data.readLong();
+			int numAttributes = data.readInt();
+			int numCoordAttributes = data.readInt();
+			long recordsCount = 0, sampledCount = 0;
+			if (version >= 2) {
+				recordsCount = data.readLong();
+				sampledCount = data.readLong();
+			}
+			Class<?> distClass = Class.forName(readString(data));
+			PointDistanceFunction distFunc;
+			if (distClass.isEnum()) {
+				distFunc = (PointDistanceFunction)
+						enumConstant(distClass, readString(data));
+			} else {
+				distFunc = (PointDistanceFunction)
+						distClass.getDeclaredConstructor().newInstance();
+			}
+			StatisticsAccumulator statistics =
+					StatisticsAccumulator.readState(data, distFunc);
+			return new MetadataState(filesCount, numAttributes,
+					numCoordAttributes, recordsCount, sampledCount, statistics);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			throw new IOException("Invalid metadata state.", e);
+		}
+	}
+
+	/**
+	 * @return The constant of the given enum class with the
+	 * given name.
+	 * @throws IllegalArgumentException If the enum class has
+	 * no constant with the given name.
+	 */
+	private static Object enumConstant(Class<?> enumClass, String name) {
+		for (Object constant : enumClass.getEnumConstants()) {
+			if (((Enum<?>) constant).name().equals(name)) {
+				return constant;
+			}
+		}
+		throw new IllegalArgumentException("No enum constant '"
+				+ enumClass.getName() + "." + name + "'.");
+	}
+
+	/**
+	 * @return The name of the given distance function, i.e. its
+	 * class name, and constant name if an enum.
+	 */
+	private static String distanceName(PointDistanceFunction distFunc) {
+		if (distFunc instanceof Enum) {
+			return ((Enum<?>) distFunc).getDeclaringClass().getName()
+					+ "." + ((Enum<?>) distFunc).name();
+		}
+		return distFunc.getClass().getName();
+	}
+
+	/**
+	 * Write a string (may be null), as its UTF-8 length
+	 * and bytes.
+	 */
+	static void writeString(DataOutput out, String value) throws IOException {
+		if (value == null) {
+			out.writeInt(-1);
+			return;
+		}
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	/**
+	 * Read a string, see {@link #writeString(DataOutput, String)}.
+	 */
+	static String readString(DataInput in) throws IOException {
+		int length = in.readInt();
+		if (length < 0) return null;
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,325 @@
+package traminer.parser;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+import org.apache.log4j.Logger;
+import org.bson.Document;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.DeleteOneModel;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.InsertOneModel;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.ReplaceOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.WriteModel;
+
+/**
+ * Writes documents to a MongoDB collection in batches, i.e. one
+ * round trip to the server per batch of documents, rather than
+ * per document.
+ * <p>
+ * Documents are buffered until a batch is full, then the batch is
+ * sent as an unordered bulk write by a pool of writer threads, so
+ * the callers (i.e. the pipeline) do not wait for the server.
+ * Unordered writes let the server apply the documents of a batch 
+ * in any order, and a failed document does not stop the rest of 
+ * the batch. The number of batches in flight is bounded, see 
+ * {@link MongoWriteParameters}, when reached the callers block 
+ * until a batch is done.
+ * <p>
+ * Documents can also be upserted if changed, see {@link #upsert(Document)},
+ * to reload the data into the same collection.
+ * <p>
+ * Thread-safe. Call {@link #flush()} to write the batch being
+ * filled and wait for the batches in flight.
+ *
+ * @author douglasapeixoto
+ */
+public final class MongoBulkWriter {
+	/** Name of the content hash field of the upserted documents */
+	public static final String HASH_FIELD = "_hash";
+
+	// writes of a batch in any order, not stopping on errors
+	private static final BulkWriteOptions UNORDERED = 
+			new BulkWriteOptions().ordered(false);
+	// inserts the document if not in the collection
+	private static final UpdateOptions UPSERT = new UpdateOptions().upsert(true);
+	
+	// the collection to write to
+	private final MongoCollection<Document> collection;
+	// number of documents per bulk write
+	private final int batchSize;
+	// maximum number of batches in flight
+	private final int maxInFlight;
+	// permits of the batches in flight
+	private final Semaphore inFlight;
+	// the writer threads
+	private final ExecutorService writers;
+	// batch being filled
+	private List<WriteModel<Document>> buffer;
+	// number of documents written, and failed
+	private final AtomicLong writtenCount = new AtomicLong(0);
+	private final AtomicLong failedCount = new AtomicLong(0);
+	// number of documents not written, as unchanged
+	private final AtomicLong unchangedCount = new AtomicLong(0);
+	// fields of the replaced documents to the listener, and the listener
+	private volatile List<String> replacedFields = new ArrayList<>();
+	private volatile BiConsumer<Document, Document> replaceListener = null;
+
+	// System log
+	private static Logger log = Logger.getLogger(MongoBulkWriter.class);
+
+	/**
+	 * Creates a new bulk writer.
+	 *
+	 * @param collection The MongoDB collection to write to.
+	 * @param params Batch size, number of writer threads, and
+	 * batches in flight.
+	 */
+	public MongoBulkWriter(MongoCollection<Document> collection,
+			MongoWriteParameters params) {
+		if (collection == null || params == null) {
+			throw new NullPointerException(
+					"MongoDB collection and write parameters must not be null.");
+		}
+		this.collection  = collection;
+		this.batchSize   = params.getBatchSize();
+		this.maxInFlight = params.getMaxInFlight();
+		this.inFlight    = new Semaphore(maxInFlight);
+		this.buffer      = new ArrayList<>(batchSize);
+		final AtomicInteger threadSeq = new AtomicInteger(0);
+		this.writers = Executors.newFixedThreadPool(params.getNumWriters(), r -> {
+			Thread thread = new Thread(r, "traminer-mongo-writer-" 
+					+ threadSeq.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Insert the given document. The document is written when
+	 * its batch is full, or on {@link #flush()}.
+	 *
+	 * @param document The document to insert.
+	 */
+	public void insert(Document document) {
+		add(new InsertOneModel<>(document));
+	}
+
+	/**
+	 * Insert or replace the given document, if new or changed, i.e.
+	 * if no document of the same '_id' with the same content hash 
+	 * ({@link #HASH_FIELD}) is in the collection. The content hashes
+	 * of the documents of a batch are read in one query before the
+	 * batch is written, and the unchanged documents are not sent.
+	 *
+	 * @param document The document to upsert, with its '_id'
+	 * and its content hash.
+	 */
+	public void upsert(Document document) {
+		if (!document.containsKey("_id") || !document.containsKey(HASH_FIELD)) {
+			throw new IllegalArgumentException(
+					"Upserted documents must have an '_id' and a content hash.");
+		}
+		add(new ReplaceOneModel<>(Filters.eq("_id", document.get("_id")), 
+				document, UPSERT));
+	}
+
+	/**
+	 * Delete the document of the given '_id' (if any). The document
+	 * is deleted when its batch is written.
+	 *
+	 * @param id The '_id' of the document to delete.
+	 */
+	public void delete(Object id) {
+		add(new DeleteOneModel<>(Filters.eq("_id", id)));
+	}
+
+	/**
+	 * Set the listener of the changed documents replaced by
+	 * {@link #upsert(Document)}, called with the previous document
+	 * (its '_id', content hash, and the given fields only) and the
+	 * new document, by the writer threads, before the replacement 
+	 * is written.
+	 *
+	 * @param fields Fields of the previous documents to the listener.
+	 * @param listener The listener of the replaced documents.
+	 */
+	public void setReplaceListener(Collection<String> fields,
+			BiConsumer<Document, Document> listener) {
+		this.replacedFields = new ArrayList<>(fields);
+		this.replaceListener = listener;
+	}
+
+	/**
+	 * Write the batch being filled (if any), and wait until all
+	 * batches in flight are done.
+	 */
+	public void flush() {
+		List<WriteModel<Document>> batch;
+		synchronized (this) {
+			batch = buffer;
+			buffer = new ArrayList<>(batchSize);
+		}
+		if (!batch.isEmpty()) {
+			submit(batch);
+		}
+		// all permits are back when no batch is in flight
+		inFlight.acquireUninterruptibly(maxInFlight);
+		inFlight.release(maxInFlight);
+	}
+
+	/**
+	 * Flush the documents, and stop the writer threads.
+	 * Nothing can be written after closed.
+	 */
+	public void close() {
+		flush();
+		writers.shutdown();
+	}
+
+	/**
+	 * @return Number of documents written so far.
+	 */
+	public long getWrittenCount() {
+		return writtenCount.get();
+	}
+
+	/**
+	 * @return Number of documents that could not be written.
+	 */
+	public long getFailedCount() {
+		return failedCount.get();
+	}
+
+	/**
+	 * @return Number of upserted documents not written, 
+	 * as unchanged.
+	 */
+	public long getUnchangedCount() {
+		return unchangedCount.get();
+	}
+
+	/**
+	 * Add a write request to the batch being filled,
+	 * and submit the batch when full.
+	 */
+	private void add(WriteModel<Document> request) {
+		List<WriteModel<Document>> batch = null;
+		synchronized (this) {
+			buffer.add(request);
+			if (buffer.size() >= batchSize) {
+				batch = buffer;
+				buffer = new ArrayList<>(batchSize);
+			}
+		}
+		// blocks outside the lock, others may keep filling
+		if (batch != null) {
+			submit(batch);
+		}
+	}
+
+	/**
+	 * Submit the batch to the writer threads, waits
+	 * while the maximum batches are in flight.
+	 */
+	private void submit(final List<WriteModel<Document>> batch) {
+		inFlight.acquireUninterruptibly();
+		try {
+			writers.execute(() -> {
+				try {
+					write(batch);
+				} finally {
+					inFlight.release();
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			inFlight.release();
+			throw new IllegalStateException(
+					"MongoDB bulk writer is closed.", e);
+		}
+	}
+
+	/**
+	 * Send the batch to the server, in one bulk write.
+	 */
+	private void write(List<WriteModel<Document>> batch) {
+		try {
+			batch = changedOnly(batch);
+			if (batch.isEmpty()) return;
+			collection.bulkWrite(batch, UNORDERED);
+			writtenCount.addAndGet(batch.size());
+		} catch (MongoBulkWriteException e) {
+			// unordered, only the documents in error are not written
+			final int failed = e.getWriteErrors().size();
+			writtenCount.addAndGet(batch.size() - failed);
+			failedCount.addAndGet(failed);
+			log.error("Unable to write " + failed + " of " + batch.size() 
+					+ " documents to MongoDB.", e);
+		} catch (RuntimeException e) {
+			failedCount.addAndGet(batch.size());
+			log.error("Unable to write " + batch.size() 
+					+ " documents to MongoDB.", e);
+		}
+	}
+
+	/**
+	 * @return The write requests of the batch without the 
+	 * upserts of unchanged documents, i.e. of the same 
+	 * content hash as in the collection.
+	 */
+	private List<WriteModel<Document>> changedOnly(List<WriteModel<Document>> batch) {
+		final List<Object> ids = new ArrayList<>();
+		for (WriteModel<Document> request : batch) {
+			if (request instanceof ReplaceOneModel) {
+				ids.add(((ReplaceOneModel<Document>) request).getReplacement().get("_id"));
+			}
+		}
+		if (ids.isEmpty()) return batch;
+
+		// the content hashes in the collection, in one query
+		final List<String> fields = new ArrayList<>(replacedFields);
+		fields.add(HASH_FIELD);
+		final Map<Object, Document> previous = new HashMap<>();
+		try (MongoCursor<Document> cursor = collection.find(Filters.in("_id", ids))
+				.projection(Projections.include(fields)).iterator()) {
+			while (cursor.hasNext()) {
+				final Document doc = cursor.next();
+				previous.put(doc.get("_id"), doc);
+			}
+		}
+		final BiConsumer<Document, Document> listener = replaceListener;
+		final List<WriteModel<Document>> changed = new ArrayList<>(batch.size());
+		for (WriteModel<Document> request : batch) {
+			if (request instanceof ReplaceOneModel) {
+				final Document doc = ((ReplaceOneModel<Document>) request).getReplacement();
+				final Document prev = previous.get(doc.get("_id"));
+				if (prev != null) {
+					if (Objects.equals(prev.get(HASH_FIELD), doc.get(HASH_FIELD))) {
+						unchangedCount.incrementAndGet();
+						continue;
+					}
+					if (listener != null) listener.accept(prev, doc);
+				}
+			}
+			changed.add(request);
+		}
+		return changed;
+	}
+}
@@ -0,0 +1,465 @@
+package traminer.parser;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import org.bson.Document;
+
+import traminer.parser.analyzer.Keywords;
+
+/**
+ * Encodes the output data records as typed MongoDB documents,
+ * following the output data format ('output-format.tddf'), see
+ * {@link MongoWriteParameters.DocumentLayout#TYPED}, i.e.
+ * <pre>
+ * { _id: ID,
+ *   _x: [x...], _y: [y...], _time: [time...],
+ *   _geometry: { type: "LineString", coordinates: [[x,y]...] },
+ *   _pointAttributes: { name: [value...], ... },
+ *   name: value, ... }
+ * </pre>
+ * The (x,y,time) values are decoded from the delta compression,
+ * DECIMAL values as doubles, INTEGER values as integers, and DATETIME
+ * time-stamps as dates. The other coordinates attributes (format
+ * ALL) are arrays of one value per point, in '_pointAttributes'.
+ * <p>
+ * The GeoJSON geometry is added for GEOGRAPHIC data only (if set), and is
+ * ready for a '2dsphere' index: consecutive duplicate points are
+ * removed (invalid in a LineString), trajectories of one distinct
+ * point are a GeoJSON Point, and trajectories with coordinates out
+ * of the longitude/latitude range have no geometry.
+ * <p>
+ * Semantic attributes (format ALL) are typed as declared, and array
+ * attributes are lists, or documents of one list per item attribute
+ * if the array items have more than one attribute. INTEGER values
+ * are 32-bit integers if in range. Values that do not match their 
+ * declared type are kept as strings.
+ * <p>
+ * Long trajectories can be encoded in buckets of points instead,
+ * see {@link #encodeBuckets(String, int, double, MongoShardSplitter)}.
+ * <p>
+ * Thread-safe.
+ *
+ * @author douglasapeixoto
+ */
+final class MongoDocumentEncoder {
+	/** Name of the x, y and time arrays fields */
+	static final String X_FIELD = "_x", Y_FIELD = "_y", TIME_FIELD = "_time";
+	/** Name of the GeoJSON geometry field */
+	static final String GEOMETRY_FIELD = "_geometry";
+	/** Name of the other coordinates attributes field */
+	static final String POINT_ATTR_FIELD = "_pointAttributes";
+
+	// the layout of the output records
+	private final OutputSpec spec;
+	// type of the trajectory ID
+	private final FieldType idType;
+	// types of the coordinates attributes, and of the semantic attributes
+	private final FieldType[] coordTypes;
+	private final FieldType[] attrTypes;
+	// scale of the (x,y,time) values
+	private final double xScale, yScale, tScale;
+	// whether to add the GeoJSON geometry
+	private final boolean geoJson;
+
+	/**
+	 * Creates a new document encoder.
+	 *
+	 * @param spec The specifications of the output data.
+	 * @param geoJson Whether to add the GeoJSON geometry
+	 * (GEOGRAPHIC data only).
+	 */
+	MongoDocumentEncoder(OutputSpec spec, boolean geoJson) {
+		this.spec = spec;
+		this.idType = FieldType.of(spec.idType);
+		this.coordTypes = new FieldType[spec.numCoordAttributes];
+		for (int i=0; i<coordTypes.length; i++) {
+			coordTypes[i] = FieldType.of(spec.coordTypes.get(i));
+		}
+		this.attrTypes = new FieldType[spec.attrNames.size()];
+		for (int i=0; i<attrTypes.length; i++) {
+			attrTypes[i] = FieldType.of(spec.attrTypes.get(i));
+		}
+		this.xScale = spec.scaleOf(spec.xType);
+		this.yScale = spec.scaleOf(spec.yType);
+		this.tScale = (spec.tPos < 0) ? 0 : spec.scaleOf(spec.tType);
+		if (xScale == 0 || yScale == 0) {
+			throw new IllegalArgumentException(
+					"Coordinates (x,y) must be numbers.");
+		}
+		this.geoJson = geoJson && (spec.coordSystem == Keywords.GEOGRAPHIC);
+	}
+
+	/**
+	 * Encode an output record, i.e. ID;coordinates[;attribute...].
+	 *
+	 * @param line The output record.
+	 * @return The typed document of the record.
+	 * @throws IllegalArgumentException If the record does
+	 * not match the output data format.
+	 */
+	Document encode(String line) {
+		final String[] fields = split(line);
+		final Document doc = new Document("_id", idType.convert(fields[0]));
+		final Points points = decode(fields[1]);
+		appendPoints(doc, points, 0, points.size);
+		appendAttributes(doc, fields);
+		return doc;
+	}
+
+	/**
+	 * Encode an output record in buckets of points, see 
+	 * {@link MongoWriteParameters.DocumentLayout#BUCKETED}, i.e. 
+	 * the header of the trajectory, followed by its buckets:
+	 * <pre>
+	 * header: 
+	 * { _id: ID, _numPoints: n, _numBuckets: b,
+	 *   _bbox: [minX, minY, maxX, maxY], _startTime: t0, _endTime: t1,
+	 *   _buckets: [{ _id: {...}, _numPoints, _bbox, _startTime, _endTime }...],
+	 *   name: value, ... }
+	 * bucket:
+	 * { _id: { trajectory: ID, bucket: i }, _numPoints: n,
+	 *   _bbox: [...], _startTime: t0, _endTime: t1,
+	 *   _x: [x...], _y: [y...], _time: [time...], 
+	 *   _geometry: {...}, _pointAttributes: {...} }
+	 * </pre>
+	 * The header lists the bucket summaries, so readers fetch only
+	 * the buckets they need by '_id' (e.g. of a time range). The time
+	 * range is omitted if the time-stamps are not numbers.
+	 *
+	 * @param line The output record.
+	 * @param maxPoints Maximum number of points per bucket.
+	 * @param maxSpan Maximum time span per bucket (seconds for
+	 * DATETIME), or zero to bucket by number of points only.
+	 * @param splitter Adds the shard key to the buckets, or null.
+	 * @return The header of the record, then its buckets.
+	 * @throws IllegalArgumentException If the record does
+	 * not match the output data format.
+	 */
+	List<Document> encodeBuckets(String line, int maxPoints, double maxSpan,
+			MongoShardSplitter splitter) {
+		final String[] fields = split(line);
+		final Object id = idType.convert(fields[0]);
+		final Points points = decode(fields[1]);
+		final boolean byTime = maxSpan > 0 && tScale != 0;
+		final double span = (spec.tType == Keywords.DATETIME) ? maxSpan * 1000 : maxSpan;
+
+		final List<Document> docs = new ArrayList<>();
+		final List<Document> summaries = new ArrayList<>();
+		docs.add(null); // the header
+		int from = 0;
+		while (from < points.size) {
+			// fill the bucket
+			int to = from + 1;
+			while (to < points.size && to - from < maxPoints &&
+				  (!byTime || points.t[to] - points.t[from] <= span)) {
+				to++;
+			}
+			final Document key = new Document("trajectory", id)
+					.append("bucket", summaries.size());
+			final Document summary = new Document("_id", key);
+			appendSummary(summary, points, from, to);
+			summaries.add(summary);
+			final Document bucket = new Document("_id", key);
+			appendSummary(bucket, points, from, to);
+			appendPoints(bucket, points, from, to);
+			if (splitter != null) {
+				bucket.append(MongoShardSplitter.KEY_FIELD, splitter.keyOf(
+						points.x[from], points.y[from], points.tValue[from]));
+			}
+			docs.add(bucket);
+			from = to;
+		}
+		final Document header = new Document("_id", id);
+		appendSummary(header, points, 0, points.size);
+		header.append("_numBuckets", summaries.size())
+			  .append("_buckets", summaries);
+		appendAttributes(header, fields);
+		docs.set(0, header);
+		return docs;
+	}
+
+	/**
+	 * @return The fields of the given output record.
+	 */
+	private String[] split(String line) {
+		final String[] fields = line.split(";", -1);
+		if (fields.length != 2 + attrTypes.length) {
+			throw new IllegalArgumentException("Expected " + (2 + attrTypes.length)
+					+ " attributes, found " + fields.length + ".");
+		}
+		return fields;
+	}
+
+	/**
+	 * @return The points of the given coordinates array, 
+	 * decoded from the delta compression.
+	 */
+	private Points decode(String coordinates) {
+		final String[] items = coordinates.split(",");
+		final int numAttr = spec.numCoordAttributes;
+		if (items.length % numAttr != 0) {
+			throw new IllegalArgumentException(
+					"Coordinates array with incomplete points.");
+		}
+		final Points points = new Points(items.length / numAttr);
+		long xSum = 0, ySum = 0, tSum = 0;
+		for (int p=0; p<points.size; p++) {
+			final int first = p * numAttr;
+			xSum += Long.parseLong(items[first + spec.xPos]);
+			ySum += Long.parseLong(items[first + spec.yPos]);
+			points.x[p] = xSum / xScale;
+			points.y[p] = ySum / yScale;
+			if (spec.tPos >= 0) {
+				final String t = items[first + spec.tPos];
+				if (tScale != 0) tSum += Long.parseLong(t);
+				points.tValue[p] = tSum;
+				points.t[p] = (spec.tType == Keywords.DECIMAL) ? tSum / tScale : tSum;
+				points.time.add(timeValue(tSum, t));
+			}
+		}
+		for (int a=0; a<numAttr; a++) {
+			if (a == spec.xPos || a == spec.yPos || a == spec.tPos) continue;
+			final List<Object> values = new ArrayList<>(points.size);
+			for (int p=0; p<points.size; p++) {
+				values.add(coordTypes[a].convert(items[p * numAttr + a]));
+			}
+			points.attributes.append(spec.coordNames.get(a), values);
+		}
+		return points;
+	}
+
+	/**
+	 * Append the points in the given range to the given document,
+	 * i.e. the (x,y,time) arrays, the GeoJSON geometry (if set),
+	 * and the other coordinates attributes.
+	 */
+	private void appendPoints(Document doc, Points points, int from, int to) {
+		doc.append(X_FIELD, toList(points.x, from, to))
+		   .append(Y_FIELD, toList(points.y, from, to));
+		if (spec.tPos >= 0) {
+			doc.append(TIME_FIELD, points.time.subList(from, to));
+		}
+		if (geoJson) {
+			Document geometry = toGeometry(points.x, points.y, from, to);
+			if (geometry != null) doc.append(GEOMETRY_FIELD, geometry);
+		}
+		if (!points.attributes.isEmpty()) {
+			final Document pointAttr = new Document();
+			for (String name : points.attributes.keySet()) {
+				pointAttr.append(name, ((List<?>) points.attributes.get(name))
+						.subList(from, to));
+			}
+			doc.append(POINT_ATTR_FIELD, pointAttr);
+		}
+	}
+
+	/**
+	 * Append the summary of the points in the given range to the
+	 * given document, i.e. number of points, bounding box, and 
+	 * time range (if the time-stamps are numbers).
+	 */
+	private void appendSummary(Document doc, Points points, int from, int to) {
+		double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+		double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+		for (int p=from; p<to; p++) {
+			minX = Math.min(minX, points.x[p]);
+			minY = Math.min(minY, points.y[p]);
+			maxX = Math.max(maxX, points.x[p]);
+			maxY = Math.max(maxY, points.y[p]);
+		}
+		doc.append("_numPoints", to - from)
+		   .append("_bbox", Arrays.asList(minX, minY, maxX, maxY));
+		if (spec.tPos >= 0 && tScale != 0 && to > from) {
+			int first = from, last = from;
+			for (int p=from; p<to; p++) {
+				if (points.t[p] < points.t[first]) first = p;
+				if (points.t[p] > points.t[last])  last = p;
+			}
+			doc.append("_startTime", points.time.get(first))
+			   .append("_endTime", points.time.get(last));
+		}
+	}
+
+	/**
+	 * Append the semantic attributes of the given record fields.
+	 */
+	private void appendAttributes(Document doc, String[] fields) {
+		for (int i=0; i<attrTypes.length; i++) {
+			doc.append(spec.attrNames.get(i), attrTypes[i].convert(fields[2 + i]));
+		}
+	}
+
+	/**
+	 * @return The time-stamp of the given decoded value:
+	 * dates for DATETIME, numbers otherwise, or the raw
+	 * value if not a number.
+	 */
+	private Object timeValue(long value, String raw) {
+		if (tScale == 0) return raw;
+		if (spec.tType == Keywords.DATETIME) return new Date(value);
+		if (spec.tType == Keywords.DECIMAL) return value / tScale;
+		return toInteger(value);
+	}
+
+	/**
+	 * @return The GeoJSON geometry of the points in the given range, without
+	 * consecutive duplicates, or null if the points are not valid
+	 * longitude/latitude coordinates.
+	 */
+	private static Document toGeometry(double[] x, double[] y, int from, int to) {
+		final List<List<Double>> positions = new ArrayList<>(to - from);
+		for (int p=from; p<to; p++) {
+			if (x[p] < -180 || x[p] > 180 || y[p] < -90 || y[p] > 90) {
+				return null;
+			}
+			if (p > from && x[p] == x[p-1] && y[p] == y[p-1]) continue;
+			positions.add(Arrays.asList(x[p], y[p]));
+		}
+		if (positions.isEmpty()) return null;
+		if (positions.size() == 1) {
+			return new Document("type", "Point")
+					.append("coordinates", positions.get(0));
+		}
+		return new Document("type", "LineString")
+				.append("coordinates", positions);
+	}
+
+	/**
+	 * @return The given integer as a 32-bit integer if in
+	 * range, which takes half the space in BSON.
+	 */
+	private static Object toInteger(long value) {
+		if (value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE) {
+			return (int) value;
+		}
+		return value;
+	}
+
+	/**
+	 * @return The values in the given range as a list.
+	 */
+	private static List<Double> toList(double[] values, int from, int to) {
+		final List<Double> list = new ArrayList<>(to - from);
+		for (int i=from; i<to; i++) list.add(values[i]);
+		return list;
+	}
+
+	/**
+	 * The decoded points of a trajectory.
+	 */
+	private static final class Points {
+		// number of points
+		final int size;
+		// decoded coordinates
+		final double[] x, y;
+		// time-stamps as in the output (undone delta), and decoded
+		final long[] tValue;
+		final double[] t;
+		// time-stamps as stored in the documents
+		final List<Object> time;
+		// the other coordinates attributes, one list per attribute
+		final Document attributes = new Document();
+
+		Points(int size) {
+			this.size = size;
+			this.x = new double[size];
+			this.y = new double[size];
+			this.tValue = new long[size];
+			this.t = new double[size];
+			this.time = new ArrayList<>(size);
+		}
+	}
+
+	/**
+	 * The declared type of an attribute,
+	 * converts the attribute values.
+	 */
+	private static final class FieldType {
+		// the basic type, e.g. INTEGER, DECIMAL, ARRAY
+		final Keywords type;
+		// names and types of the array items (arrays only)
+		final String[] itemNames;
+		final FieldType[] itemTypes;
+
+		private FieldType(Keywords type, String[] itemNames, FieldType[] itemTypes) {
+			this.type = type;
+			this.itemNames = itemNames;
+			this.itemTypes = itemTypes;
+		}
+
+		/**
+		 * @return The field type of the given declared type, i.e.
+		 * a basic type or ARRAY(name type delimiter ...).
+		 */
+		static FieldType of(String declared) {
+			final Keywords type = Keywords.getBasicType(declared.trim());
+			if (type != Keywords.ARRAY) {
+				return new FieldType(type, null, null);
+			}
+			int start = declared.indexOf('('), end = declared.lastIndexOf(')');
+			List<String> items = (start < 0 || end < start) ? new ArrayList<>() :
+					OutputSpec.splitItems(declared.substring(start + 1, end));
+			// (name type delimiter) per array item attribute
+			final int numItems = (items.size() + 1) / 3;
+			final String[] names = new String[numItems];
+			final FieldType[] types = new FieldType[numItems];
+			for (int i=0; i<numItems; i++) {
+				names[i] = items.get(3*i);
+				types[i] = of(items.get(3*i + 1));
+			}
+			return new FieldType(type, names, types);
+		}
+
+		/**
+		 * @return The typed value of the given output value, the
+		 * value itself if it does not match the type, or null if
+		 * empty.
+		 */
+		Object convert(String value) {
+			if (value == null || value.isEmpty()) return null;
+			try {
+				switch (type) {
+				case INTEGER: return toInteger(Long.parseLong(value.trim()));
+				case DECIMAL: return Double.parseDouble(value.trim());
+				case BOOLEAN:
+					if (value.trim().equalsIgnoreCase("true"))  return true;
+					if (value.trim().equalsIgnoreCase("false")) return false;
+					return value;
+				case ARRAY: return convertArray(value);
+				default: return value;
+				}
+			} catch (NumberFormatException e) {
+				return value;
+			}
+		}
+
+		/**
+		 * @return The list of the array items, comma separated
+		 * in the output, or a document with one list per item
+		 * attribute if the items have more than one attribute.
+		 */
+		private Object convertArray(String value) {
+			final String[] items = value.split(",");
+			final int numAttr = itemTypes.length;
+			if (numAttr <= 1 || items.length % numAttr != 0) {
+				final List<Object> list = new ArrayList<>(items.length);
+				for (String item : items) {
+					list.add(numAttr == 1 ? itemTypes[0].convert(item) : item);
+				}
+				return list;
+			}
+			final Document columns = new Document();
+			for (int a=0; a<numAttr; a++) {
+				final List<Object> list = new ArrayList<>(items.length / numAttr);
+				for (int i=a; i<items.length; i+=numAttr) {
+					list.add(itemTypes[a].convert(items[i]));
+				}
+				columns.append(itemNames[a], list);
+			}
+			return columns;
+		}
+	}
+}
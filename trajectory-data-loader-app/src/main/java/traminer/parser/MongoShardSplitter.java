@@ -0,0 +1,261 @@
+package traminer.parser;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+import org.bson.Document;
+import org.bson.types.MinKey;
+
+import com.mongodb.client.MongoDatabase;
+
+import traminer.parser.MongoWriteParameters.ShardKey;
+
+/**
+ * Shards the MongoDB collection of the parsed data on a spatial or
+ * temporal key, and pre-splits it into chunks of about the same
+ * number of points, spread over the shards before the data loading,
+ * so the inserts go to all shards from the start (instead of to one
+ * chunk, split and balanced as the data grows).
+ * <p>
+ * The shard key is {_shardKey: 1, _id: 1}, where '_shardKey' is
+ * the key of the trajectory's first point, i.e. the Z-order code
+ * of its (x,y) coordinates in a 2^16 x 2^16 grid over the spatial
+ * coverage of the data ({@link ShardKey#SPATIAL}), or its time-stamp
+ * as in the output ({@link ShardKey#TEMPORAL}). The chunks are split
+ * on the quantiles of the points density of the data, from the
+ * metadata of the data (e.g. of a sample) given.
+ *
+ * @author douglasapeixoto
+ */
+final class MongoShardSplitter {
+	/** Name of the shard key field of the documents */
+	static final String KEY_FIELD = "_shardKey";
+	// bits per axis of the Z-order grid
+	private static final int GRID_BITS = 16;
+	private static final double GRID_SIZE = 1 << GRID_BITS;
+
+	// the key of choice
+	private final ShardKey shardKey;
+	// the layout of the output records
+	private final OutputSpec spec;
+	// the metadata of the data to load
+	private final StatisticsAccumulator profile;
+	// spatial coverage of the Z-order grid
+	private final double minX, minY, width, height;
+	// scale of the (x,y,time) values in the output
+	private final double xScale, yScale, tScale;
+
+	// System log
+	private static Logger log = Logger.getLogger(MongoShardSplitter.class);
+
+	/**
+	 * Creates a new shard splitter.
+	 *
+	 * @param shardKey The key to shard on.
+	 * @param spec The specifications of the output data.
+	 * @param profile The statistics of the data to load (e.g.
+	 * of a sample), i.e. its coverage and points density.
+	 * @throws IllegalArgumentException If the output data has no
+	 * time-stamps, for the {@link ShardKey#TEMPORAL} key.
+	 */
+	MongoShardSplitter(ShardKey shardKey, OutputSpec spec,
+			StatisticsAccumulator profile) {
+		if (shardKey == ShardKey.TEMPORAL && spec.tPos < 0) {
+			throw new IllegalArgumentException(
+					"Temporal shard key requires time-stamps in the output.");
+		}
+		this.shardKey = shardKey;
+		this.spec = spec;
+		this.profile = profile;
+		final double[] coverage = profile.getCoverageStats();
+		this.minX = coverage[0];
+		this.minY = coverage[1];
+		this.width  = Math.max(coverage[3] - coverage[0], Double.MIN_NORMAL);
+		this.height = Math.max(coverage[4] - coverage[1], Double.MIN_NORMAL);
+		this.xScale = spec.scaleOf(spec.xType);
+		this.yScale = spec.scaleOf(spec.yType);
+		this.tScale = (spec.tPos < 0) ? 0 : spec.scaleOf(spec.tType);
+	}
+
+	/**
+	 * @param line An output record, i.e. ID;coordinates[;attribute...].
+	 * @return The shard key of the record, from its first point.
+	 */
+	long keyOf(String line) {
+		final int start = line.indexOf(';') + 1;
+		int end = line.indexOf(';', start);
+		if (end < 0) end = line.length();
+		// the first point is not delta-compressed
+		final String[] items = line.substring(start, end)
+				.split(",", spec.numCoordAttributes + 1);
+		if (shardKey == ShardKey.TEMPORAL) {
+			return (tScale == 0) ? 0 : Long.parseLong(items[spec.tPos]);
+		}
+		return spatialKey(
+				Long.parseLong(items[spec.xPos]) / xScale,
+				Long.parseLong(items[spec.yPos]) / yScale);
+	}
+
+	/**
+	 * @param x The x coordinate of the first point.
+	 * @param y The y coordinate of the first point.
+	 * @param time The time-stamp of the first point,
+	 * as in the output (not delta-compressed).
+	 * @return The shard key of the given first point.
+	 */
+	long keyOf(double x, double y, long time) {
+		if (shardKey == ShardKey.TEMPORAL) {
+			return (tScale == 0) ? 0 : time;
+		}
+		return spatialKey(x, y);
+	}
+
+	/**
+	 * @return The Z-order code of the given point, points out
+	 * of the coverage are clamped to the coverage.
+	 */
+	long spatialKey(double x, double y) {
+		final long i = gridIndex((x - minX) / width);
+		final long j = gridIndex((y - minY) / height);
+		long code = 0;
+		for (int b=GRID_BITS-1; b>=0; b--) {
+			code = (code << 2) | (((i >> b) & 1) << 1) | ((j >> b) & 1);
+		}
+		return code;
+	}
+
+	/**
+	 * @return The temporal key of the given time-stamp,
+	 * as in the output.
+	 */
+	private long temporalKey(double t) {
+		return (long) Math.floor(t * tScale);
+	}
+
+	/**
+	 * @return The grid index of the given relative position.
+	 */
+	private static long gridIndex(double position) {
+		return (long) Math.max(0, Math.min(GRID_SIZE - 1,
+				Math.floor(position * GRID_SIZE)));
+	}
+
+	/**
+	 * Compute the split points of the key range into the given
+	 * number of chunks of about the same number of points, i.e.
+	 * the quantiles of the key over the density histogram cells.
+	 *
+	 * @param numChunks The number of chunks.
+	 * @return The split points, strictly increasing,
+	 * at most numChunks-1.
+	 */
+	long[] splitPoints(int numChunks) {
+		final DensityHistogram histogram = profile.getDensityHistogram();
+		final boolean byCells = histogram.numCells() > 0 &&
+				(shardKey == ShardKey.SPATIAL || histogram.dims == 3);
+		if (!byCells) {
+			// uniform over the time range
+			final double[] coverage = profile.getCoverageStats();
+			final long min = temporalKey(coverage[2]);
+			final long max = temporalKey(coverage[5]);
+			final long[] points = new long[numChunks - 1];
+			for (int i=1; i<numChunks; i++) {
+				points[i-1] = min + (long) ((double) (max - min) * i / numChunks);
+			}
+			return distinct(points);
+		}
+		// key and count of the cells, by key
+		final int numCells = histogram.numCells();
+		final long[][] cells = new long[numCells][];
+		for (int c=0; c<numCells; c++) {
+			final long key = (shardKey == ShardKey.SPATIAL) ?
+				spatialKey(center(histogram, c, 0), center(histogram, c, 1)) :
+				temporalKey(center(histogram, c, 2));
+			cells[c] = new long[] {key, histogram.getCount(c)};
+		}
+		Arrays.sort(cells, (a, b) -> Long.compare(a[0], b[0]));
+		final double total = histogram.count;
+		final long[] points = new long[numChunks - 1];
+		int next = 1;
+		long cumulative = 0;
+		for (int c=0; c<numCells && next<numChunks; c++) {
+			cumulative += cells[c][1];
+			while (next < numChunks && cumulative >= total * next / numChunks) {
+				// split after this cell
+				points[next-1] = (c + 1 < numCells) ? cells[c+1][0] : cells[c][0] + 1;
+				next++;
+			}
+		}
+		return distinct(Arrays.copyOf(points, next - 1));
+	}
+
+	/**
+	 * @return The center of the given cell on the given axis.
+	 */
+	private static double center(DensityHistogram histogram, int cell, int dim) {
+		return (histogram.getCellMin(cell, dim) + histogram.getCellMax(cell, dim)) / 2;
+	}
+
+	/**
+	 * @return The distinct values of the given sorted values.
+	 */
+	private static long[] distinct(long[] values) {
+		return Arrays.stream(values).distinct().toArray();
+	}
+
+	/**
+	 * Shard the given collection on the shard key, split it on the
+	 * given split points, and move the chunks to the shards, round-
+	 * robin. The collection should be empty, and the database must
+	 * be reached through a 'mongos' router.
+	 *
+	 * @param admin The 'admin' database.
+	 * @param database The database name.
+	 * @param collection The collection name.
+	 * @param splitPoints The split points of the chunks.
+	 */
+	void shard(MongoDatabase admin, String database, String collection,
+			long[] splitPoints) {
+		final String namespace = database + "." + collection;
+		admin.runCommand(new Document("enableSharding", database));
+		admin.runCommand(new Document("shardCollection", namespace)
+				.append("key", new Document(KEY_FIELD, 1).append("_id", 1)));
+		for (long point : splitPoints) {
+			admin.runCommand(new Document("split", namespace)
+					.append("middle", chunkMin(point)));
+		}
+		// spread the chunks over the shards
+		final List<String> shards = new ArrayList<>();
+		final Object list = admin.runCommand(new Document("listShards", 1)).get("shards");
+		if (list instanceof List) {
+			for (Object shard : (List<?>) list) {
+				shards.add(((Document) shard).getString("_id"));
+			}
+		}
+		if (shards.size() > 1) {
+			for (int c=0; c<splitPoints.length; c++) {
+				try {
+					admin.runCommand(new Document("moveChunk", namespace)
+						.append("find", chunkMin(splitPoints[c]))
+						.append("to", shards.get((c + 1) % shards.size())));
+				} catch (RuntimeException e) {
+					// e.g. already on the shard
+					log.debug("Chunk not moved: " + e.getMessage());
+				}
+			}
+		}
+		log.info("Sharded '" + namespace + "' on the " + shardKey + " key, in "
+				+ (splitPoints.length + 1) + " chunks over "
+				+ Math.max(1, shards.size()) + " shards.");
+	}
+
+	/**
+	 * @return The shard key of the first document of the chunk
+	 * starting at the given split point.
+	 */
+	private static Document chunkMin(long point) {
+		return new Document(KEY_FIELD, point).append("_id", new MinKey());
+	}
+}
@@ -0,0 +1,353 @@
+package traminer.parser;
+
+/**
+ * Configuration of the writes of the parsed data to MongoDB,
+ * i.e. the number of documents per bulk write, the number of
+ * writer threads, and the maximum number of bulk writes in 
+ * flight, see {@link MongoBulkWriter}, the layout of the
+ * documents, the indexes and sharding of the collection, and
+ * the reload mode.
+ *
+ * @author douglasapeixoto
+ */
+@SuppressWarnings("serial")
+public class MongoWriteParameters implements ParserInterface {
+	/**
+	 * Layouts of the MongoDB documents of the parsed data.
+	 */
+	public enum DocumentLayout {
+		/** The output line as is ('record'), with the ID, and
+		 *  the coordinates array items as strings ('_coordinates') */
+		RECORD,
+		/** Typed fields following the output data format, i.e. 
+		 *  decoded (x,y,time) arrays, GeoJSON geometry (GEOGRAPHIC 
+		 *  data), and typed semantic attributes, see 
+		 *  {@link MongoDocumentEncoder} */
+		TYPED,
+		/** The typed fields, with the points of the trajectories in
+		 *  buckets of a given number of points or time span, in a
+		 *  separate collection, and a header document per trajectory,
+		 *  for long trajectories, see {@link #setBuckets(int, double)} */
+		BUCKETED
+	}
+
+	/**
+	 * Keys to shard the collection of the parsed data on,
+	 * see {@link MongoShardSplitter}.
+	 */
+	public enum ShardKey {
+		/** Z-order code of the trajectory's first point */
+		SPATIAL,
+		/** Time-stamp of the trajectory's first point */
+		TEMPORAL
+	}
+
+	// number of documents per bulk write
+	private int batchSize = DEFAULT_MONGO_BATCH_SIZE;
+	// number of writer threads
+	private int numWriters = DEFAULT_MONGO_WRITERS;
+	// maximum number of bulk writes sent or waiting to be sent
+	private int maxInFlight = DEFAULT_MONGO_IN_FLIGHT;
+	// layout of the documents
+	private DocumentLayout layout = DocumentLayout.RECORD;
+	// maximum number of points, and time span, per bucket
+	private int bucketPoints = DEFAULT_MONGO_BUCKET_POINTS;
+	private double bucketSpan = 0;
+	// whether to add the GeoJSON geometry to the documents
+	private boolean geoJson = true;
+	// whether to create a '2dsphere' index on the geometry
+	private boolean geoIndex = false;
+	// whether to upsert the changed documents only
+	private boolean reload = false;
+	// whether to rebuild the existing indexes after the load
+	private boolean deferExistingIndexes = false;
+	// key to shard the collection on (null if not sharded)
+	private ShardKey shardKey = null;
+	// number of chunks to pre-split the collection into
+	private int numChunks = 0;
+	// metadata of the data to load, to pre-split the collection
+	private transient MetadataState splitProfile = null;
+
+	/**
+	 * @return The number of documents per bulk write.
+	 */
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	/**
+	 * Set the number of documents per bulk write. Larger batches
+	 * save round trips to the server, but hold more documents
+	 * in memory.
+	 *
+	 * @param batchSize Documents per bulk write, must be positive.
+	 */
+	public void setBatchSize(int batchSize) {
+		if (batchSize <= 0) {
+			throw new IllegalArgumentException(
+					"MongoDB batch size must be positive.");
+		}
+		this.batchSize = batchSize;
+	}
+
+	/**
+	 * @return The number of writer threads.
+	 */
+	public int getNumWriters() {
+		return numWriters;
+	}
+
+	/**
+	 * Set the number of threads sending the bulk writes to
+	 * the server concurrently.
+	 *
+	 * @param numWriters Number of writer threads, must be positive.
+	 */
+	public void setNumWriters(int numWriters) {
+		if (numWriters <= 0) {
+			throw new IllegalArgumentException(
+					"Number of MongoDB writers must be positive.");
+		}
+		this.numWriters = numWriters;
+	}
+
+	/**
+	 * @return The maximum number of bulk writes in flight.
+	 */
+	public int getMaxInFlight() {
+		return maxInFlight;
+	}
+
+	/**
+	 * Set the maximum number of bulk writes in flight, i.e. being
+	 * sent or waiting for a writer thread. When reached, the
+	 * pipeline blocks until a bulk write is done (backpressure),
+	 * hence at most {@code maxInFlight * batchSize} documents
+	 * are held in memory.
+	 *
+	 * @param maxInFlight Maximum bulk writes in flight, must be
+	 * positive.
+	 */
+	public void setMaxInFlight(int maxInFlight) {
+		if (maxInFlight <= 0) {
+			throw new IllegalArgumentException(
+					"MongoDB bulk writes in flight must be positive.");
+		}
+		this.maxInFlight = maxInFlight;
+	}
+
+	/**
+	 * @return The layout of the documents.
+	 */
+	public DocumentLayout getDocumentLayout() {
+		return layout;
+	}
+
+	/**
+	 * Set the layout of the documents. The {@link DocumentLayout#TYPED}
+	 * layout can be queried server-side, and does not store the output
+	 * line twice as the {@link DocumentLayout#RECORD} layout does.
+	 *
+	 * @param layout The documents layout.
+	 */
+	public void setDocumentLayout(DocumentLayout layout) {
+		if (layout == null) {
+			throw new NullPointerException(
+					"MongoDB document layout must not be null.");
+		}
+		this.layout = layout;
+	}
+
+	/**
+	 * @return The maximum number of points per bucket.
+	 */
+	public int getBucketPoints() {
+		return bucketPoints;
+	}
+
+	/**
+	 * @return The maximum time span per bucket, 
+	 * zero if not bucketed by time.
+	 */
+	public double getBucketSpan() {
+		return bucketSpan;
+	}
+
+	/**
+	 * Set the size of the buckets of the {@link DocumentLayout#BUCKETED}
+	 * layout. A new bucket is started when the bucket is full, or when
+	 * the next point is more than the given time span after the first
+	 * point of the bucket. Smaller buckets make partial reads (e.g. of
+	 * a time range) cheaper, but add one document per bucket.
+	 *
+	 * @param maxPoints Maximum number of points per bucket, 
+	 * must be positive.
+	 * @param maxSpan Maximum time span per bucket, in seconds for
+	 * DATETIME time-stamps, in the time unit of the data otherwise,
+	 * or zero to bucket by number of points only.
+	 */
+	public void setBuckets(int maxPoints, double maxSpan) {
+		if (maxPoints <= 0) {
+			throw new IllegalArgumentException(
+					"Number of points per bucket must be positive.");
+		}
+		if (maxSpan < 0 || Double.isNaN(maxSpan)) {
+			throw new IllegalArgumentException(
+					"Bucket time span must not be negative.");
+		}
+		this.bucketPoints = maxPoints;
+		this.bucketSpan = maxSpan;
+	}
+
+	/**
+	 * @return Whether to add the GeoJSON geometry to the documents.
+	 */
+	public boolean isGeoJson() {
+		return geoJson;
+	}
+
+	/**
+	 * Add the GeoJSON geometry of the trajectories to the documents
+	 * ('_geometry'), for spatial queries. Only applies to GEOGRAPHIC
+	 * data in the {@link DocumentLayout#TYPED} layout (the buckets in
+	 * the {@link DocumentLayout#BUCKETED} layout). The geometry
+	 * repeats the (x,y) coordinates, i.e. about a third of the size 
+	 * of the spatial-temporal documents.
+	 *
+	 * @param geoJson True to add the geometry (default).
+	 */
+	public void setGeoJson(boolean geoJson) {
+		this.geoJson = geoJson;
+	}
+
+	/**
+	 * @return Whether to create a '2dsphere' index on the
+	 * GeoJSON geometry of the documents.
+	 */
+	public boolean isGeoIndex() {
+		return geoIndex;
+	}
+
+	/**
+	 * Create a '2dsphere' index on the GeoJSON geometry of the 
+	 * documents ('_geometry'). Only applies to GEOGRAPHIC data 
+	 * in the {@link DocumentLayout#TYPED} or {@link DocumentLayout#BUCKETED}
+	 * layout, with the GeoJSON
+	 * geometry, see {@link #setGeoJson(boolean)}.
+	 *
+	 * @param geoIndex True to create the index.
+	 */
+	public void setGeoIndex(boolean geoIndex) {
+		this.geoIndex = geoIndex;
+	}
+
+	/**
+	 * @return Whether to reload the data, i.e. upsert the
+	 * new and changed documents only.
+	 */
+	public boolean isReload() {
+		return reload;
+	}
+
+	/**
+	 * Reload the data into a collection loaded before, e.g. on
+	 * daily reloads. Each document stores the content hash of its
+	 * trajectory ('_hash'), of the output record and the document
+	 * layout, and is replaced (upsert) only if new or its hash has
+	 * changed, see {@link MongoBulkWriter#upsert(org.bson.Document)}; the
+	 * unchanged documents are not sent to the server. Trajectories 
+	 * no longer in the input data are not removed. The collection
+	 * can not be sharded by the loader in this mode, see
+	 * {@link #setSharding(ShardKey, int)}.
+	 *
+	 * @param reload True to reload, false to insert all
+	 * documents (default).
+	 */
+	public void setReload(boolean reload) {
+		this.reload = reload;
+	}
+
+	/**
+	 * @return Whether the existing secondary indexes of the
+	 * collection are rebuilt after the data loading.
+	 */
+	public boolean isDeferExistingIndexes() {
+		return deferExistingIndexes;
+	}
+
+	/**
+	 * Drop the existing secondary indexes of the collection before
+	 * the data loading, and rebuild them once the data is loaded, 
+	 * which is much faster than updating the indexes on every insert.
+	 * The '_id', unique and shard key indexes are kept. The indexes
+	 * created by the loader (e.g. '2dsphere') are always built after
+	 * the data loading.
+	 *
+	 * @param deferExistingIndexes True to rebuild the existing
+	 * indexes after the data loading.
+	 */
+	public void setDeferExistingIndexes(boolean deferExistingIndexes) {
+		this.deferExistingIndexes = deferExistingIndexes;
+	}
+
+	/**
+	 * @return The key to shard the collection on,
+	 * or null if the collection is not sharded.
+	 */
+	public ShardKey getShardKey() {
+		return shardKey;
+	}
+
+	/**
+	 * @return The number of chunks to pre-split the
+	 * sharded collection into.
+	 */
+	public int getNumChunks() {
+		return numChunks;
+	}
+
+	/**
+	 * Shard the collection on the given key before the data loading,
+	 * and pre-split it into the given number of chunks, of about the
+	 * same number of points, spread over the shards. Requires a 
+	 * sharded cluster (i.e. connect to a 'mongos' router), and an 
+	 * empty collection. The chunks are split on the density of the 
+	 * data, given by {@link #setSplitProfile(MetadataState)}, or by 
+	 * a sample of the input data otherwise.
+	 * In the {@link DocumentLayout#BUCKETED} layout, the buckets
+	 * collection is sharded (on the first point of the buckets).
+	 *
+	 * @param shardKey The key to shard on, or null to not shard.
+	 * @param numChunks Number of chunks, e.g. a few per shard,
+	 * must be positive.
+	 */
+	public void setSharding(ShardKey shardKey, int numChunks) {
+		if (shardKey != null && numChunks <= 0) {
+			throw new IllegalArgumentException(
+					"Number of chunks must be positive.");
+		}
+		this.shardKey = shardKey;
+		this.numChunks = (shardKey == null) ? 0 : numChunks;
+	}
+
+	/**
+	 * @return The metadata of the data to load, to pre-split
+	 * the sharded collection, or null to take a sample.
+	 */
+	public MetadataState getSplitProfile() {
+		return splitProfile;
+	}
+
+	/**
+	 * Set the metadata of the data to load, e.g. of a previous
+	 * profile (see {@link TrajectoryParser#profile}) or load,
+	 * to pre-split the sharded collection on its coverage and 
+	 * points density.
+	 *
+	 * @param splitProfile The metadata state of the data, or null
+	 * to profile a sample of the input data before loading.
+	 */
+	public void setSplitProfile(MetadataState splitProfile) {
+		this.splitProfile = splitProfile;
+	}
+}
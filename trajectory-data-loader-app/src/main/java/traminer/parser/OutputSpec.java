@@ -0,0 +1,187 @@
+package traminer.parser;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import traminer.parser.analyzer.Keywords;
+import traminer.util.spatial.distance.EuclideanDistanceFunction;
+import traminer.util.spatial.distance.PointDistanceFunction;
+
+/**
+ * The specifications of the output data, read from the 
+ * output data format file ('output-format.tddf'), i.e.
+ * the layout of the output data records.
+ *
+ * @see MetadataRebuilder
+ * @see MongoDocumentEncoder
+ *
+ * @author douglasapeixoto
+ */
+final class OutputSpec {
+	// coordinates system of the data
+	Keywords coordSystem = null;
+	// number of decimal places of the DECIMAL coordinates
+	int decimalPrecision = -1;
+	// type of the trajectory ID
+	String idType = Keywords.STRING.name();
+	// number of attributes, and of coordinates attributes
+	int numAttributes = 0;
+	int numCoordAttributes = 0;
+	// position of (x,y,time) in the coordinates points (-1 if none)
+	int xPos = -1, yPos = -1, tPos = -1;
+	// types of (x,y,time)
+	Keywords xType, yType, tType;
+	// names and types of the coordinates attributes, in the
+	// output order, (x,y,time) named as _X, _Y and _TIME
+	final List<String> coordNames = new ArrayList<>();
+	final List<String> coordTypes = new ArrayList<>();
+	// semantic attributes (format ALL), in the output order
+	final List<String> attrNames = new ArrayList<>();
+	final List<String> attrTypes = new ArrayList<>();
+
+	/**
+	 * Read the output data format file.
+	 */
+	static OutputSpec read(Path file) throws IOException {
+		return parse(Files.readAllLines(file, StandardCharsets.UTF_8), 
+				file.toString());
+	}
+
+	/**
+	 * Parse the lines of an output data format script.
+	 *
+	 * @param lines The lines of the script.
+	 * @param source Name of the script source, for error messages.
+	 */
+	static OutputSpec parse(List<String> lines, String source) throws IOException {
+		OutputSpec spec = new OutputSpec();
+		for (String line : lines) {
+			line = line.trim();
+			if (line.isEmpty()) continue;
+			String[] entry = line.split("\t", 2);
+			if (entry.length < 2) {
+				throw new IOException("Invalid output format line: '" + line + "'.");
+			}
+			String name = entry[0], value = entry[1].trim();
+			if (name.equals(Keywords._COORD_SYSTEM.name())) {
+				spec.coordSystem = Keywords.lookup(value);
+			} else
+			if (name.equals(Keywords._DECIMAL_PREC.name())) {
+				spec.decimalPrecision = Integer.parseInt(value);
+			} else
+			if (name.equals(Keywords._ID.name())) {
+				spec.numAttributes++;
+				spec.idType = value;
+			} else
+			if (name.equals(Keywords._COORDINATES.name())) {
+				spec.numAttributes++;
+				spec.readCoordinates(value);
+			} else
+			// ignored attributes are not in the data
+			if (!name.equals(Keywords._OUTPUT_FORMAT.name()) &&
+				!name.equals(Keywords._SPATIAL_DIM.name()) &&
+				!name.equals(Keywords._IGNORE_ATTR.name())) {
+				spec.numAttributes++;
+				spec.attrNames.add(name);
+				spec.attrTypes.add(value);
+			}
+		}
+		if (spec.coordSystem == null || spec.decimalPrecision < 0 ||
+			spec.xPos < 0 || spec.yPos < 0) {
+			throw new IOException("Invalid output format '" + source + "'.");
+		}
+		return spec;
+	}
+
+	/**
+	 * Read the attributes of the coordinates array type,
+	 * i.e. ARRAY(name type ...).
+	 */
+	private void readCoordinates(String arrayType) throws IOException {
+		int start = arrayType.indexOf('('), end = arrayType.lastIndexOf(')');
+		if (start < 0 || end < start) {
+			throw new IOException("Invalid coordinates type: '" + arrayType + "'.");
+		}
+		List<String> items = splitItems(arrayType.substring(start + 1, end));
+		for (int i=0; i+1<items.size(); i+=2) {
+			String name = items.get(i);
+			Keywords type = Keywords.getBasicType(items.get(i+1));
+			// _LON and _LAT are the (x,y) attributes, which
+			// may be listed twice, and ignored attributes
+			// are not in the data
+			if (name.equals(Keywords._X.name()) || name.equals(Keywords._LON.name())) {
+				if (xPos >= 0) continue;
+				xPos = numCoordAttributes; xType = type;
+				name = Keywords._X.name();
+			} else
+			if (name.equals(Keywords._Y.name()) || name.equals(Keywords._LAT.name())) {
+				if (yPos >= 0) continue;
+				yPos = numCoordAttributes; yType = type;
+				name = Keywords._Y.name();
+			} else
+			if (name.equals(Keywords._TIME.name())) {
+				tPos = numCoordAttributes; tType = type;
+			} else
+			if (name.equals(Keywords._IGNORE_ATTR.name())) {
+				continue;
+			}
+			coordNames.add(name);
+			coordTypes.add(items.get(i+1));
+			numCoordAttributes++;
+		}
+	}
+
+	/**
+	 * Split the given items by spaces, except inside quotes
+	 * or brackets, e.g. DATETIME("yyyy-MM-dd HH:mm").
+	 */
+	static List<String> splitItems(String items) {
+		List<String> result = new ArrayList<>();
+		StringBuilder item = new StringBuilder();
+		boolean quoted = false;
+		int depth = 0;
+		for (char c : items.toCharArray()) {
+			if (c == '"') quoted = !quoted;
+			if (!quoted && c == '(') depth++;
+			if (!quoted && c == ')') depth--;
+			if (!quoted && depth == 0 && Character.isWhitespace(c)) {
+				if (item.length() > 0) result.add(item.toString());
+				item.setLength(0);
+			} else {
+				item.append(c);
+			}
+		}
+		if (item.length() > 0) result.add(item.toString());
+		return result;
+	}
+
+	/**
+	 * @return The distance function of the coordinates system,
+	 * as in the raw parse.
+	 */
+	PointDistanceFunction distanceFunction() {
+		if (coordSystem == Keywords.GEOGRAPHIC) {
+			return MetadataService.getDistanceKernel();
+		}
+		return new EuclideanDistanceFunction();
+	}
+
+	/**
+	 * @return The scale of the output values of the given
+	 * type, i.e. 10^precision for DECIMAL values, 1 for
+	 * other numbers, or 0 if the values are not numbers.
+	 */
+	double scaleOf(Keywords type) {
+		if (type == Keywords.DECIMAL) {
+			return Math.pow(10, decimalPrecision);
+		}
+		if (type == Keywords.INTEGER || type == Keywords.DATETIME) {
+			return 1;
+		}
+		return 0;
+	}
+}
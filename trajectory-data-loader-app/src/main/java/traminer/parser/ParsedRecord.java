@@ -0,0 +1,56 @@
+package traminer.parser;
+
+import traminer.parser.analyzer.Keywords.OutputFormat;
+
+/**
+ * A trajectory record after parsing. The record ID,
+ * coordinates and semantic attributes have already been
+ * formatted to the intermediate format, but the record
+ * has not been encoded to its output representation yet.
+ *
+ * @see TrajectoryParser
+ *
+ * @author douglasapeixoto
+ */
+@SuppressWarnings("serial")
+public class ParsedRecord implements ParserInterface {
+	/** The trajectory ID */
+	public final String id;
+	/** The coordinates array, comma separated */
+	public final String coordinates;
+	/** The semantic attributes, each one starting with ';' */
+	public final String semanticAttr;
+
+	/**
+	 * A parsed trajectory record.
+	 *
+	 * @param id The trajectory ID.
+	 * @param coordinates The formated coordinates array.
+	 * @param semanticAttr The formated semantic attributes,
+	 * each attribute value preceded by ';'.
+	 */
+	public ParsedRecord(String id, String coordinates, String semanticAttr) {
+		if (id == null || coordinates == null || semanticAttr == null) {
+			throw new NullPointerException(
+					"Parsed record values must not be null.");
+		}
+		this.id = id;
+		this.coordinates  = coordinates;
+		this.semanticAttr = semanticAttr;
+	}
+
+	/**
+	 * Encode this record to an output line, 
+	 * according to the given output format.
+	 * 
+	 * @param outputFormat The {@link OutputFormat} of choice.
+	 * @return The output line.
+	 */
+	public String encode(OutputFormat outputFormat) {
+		// parse attributes according to the output format
+		if (outputFormat.equals(OutputFormat.ALL)) {
+			return id + ";" + coordinates + semanticAttr;
+		}
+		return id + ";" + coordinates;
+	}
+}
@@ -37,6 +37,24 @@ public interface ParserInterface extends Serializable {
 	public String 			DATA_COLL_NAME 		  = "trajectorydata";
 	/** Default Metadata collections name. */
 	public String 			META_COLL_NAME 		  = "metadata";
+	/** Default Trajectory buckets collections name. */
+	public String 			BUCKET_COLL_NAME 	  = "trajectorybuckets";
+	/** Default number of records per batch in the ingest pipeline. */
+	public int 				DEFAULT_BATCH_SIZE 	  = 1000;
+	/** Default capacity (in batches) of each ingest pipeline queue. */
+	public int 				DEFAULT_QUEUE_CAPACITY = 64;
+	/** Default size (in bytes) of the chunks large input files are split into. */
+	public long 			DEFAULT_CHUNK_SIZE 	  = 256L * 1024 * 1024;
+	/** Default number of chunks per file read ahead of the chunks written (ordered output). */
+	public int 				DEFAULT_REORDER_WINDOW = 4;
+	/** Default number of documents per MongoDB bulk write. */
+	public int 				DEFAULT_MONGO_BATCH_SIZE = 1000;
+	/** Default number of MongoDB writer threads. */
+	public int 				DEFAULT_MONGO_WRITERS  = 4;
+	/** Default maximum number of MongoDB bulk writes in flight. */
+	public int 				DEFAULT_MONGO_IN_FLIGHT = 8;
+	/** Default maximum number of points per MongoDB trajectory bucket. */
+	public int 				DEFAULT_MONGO_BUCKET_POINTS = 1000;
 	
 	/** Line break character. */
 	public String LINE_BREAK = System.getProperty("line.separator");
@@ -0,0 +1,125 @@
+package traminer.parser;
+
+import java.math.RoundingMode;
+import java.text.DecimalFormat;
+
+/**
+ * The result of a profile-only job, see 
+ * {@link TrajectoryParser#profile(traminer.parser.analyzer.Keywords.OutputFormat)}:
+ * the metadata of the input dataset, and the throughput of
+ * the reading and parsing stages, e.g. to size a cluster for 
+ * the full load.
+ * <p>
+ * The report script has one {@code KEY\tVALUE} line per value,
+ * like the metadata file, followed by the metadata script.
+ *
+ * @author douglasapeixoto
+ */
+public final class ProfileReport {
+	/** Number of input files read */
+	public final long filesCount;
+	/** Number of input files that could not be read */
+	public final long errorFilesCount;
+	/** Number of input bytes read */
+	public final long bytesCount;
+	/** Number of records parsed */
+	public final long recordsCount;
+	/** Number of trajectory points parsed */
+	public final long pointsCount;
+	/** Number of parser threads */
+	public final int numParsers;
+	/** Running time of the job, in milliseconds */
+	public final long elapsedTime;
+
+	// the metadata script of the dataset
+	private final String metadata;
+
+	/**
+	 * Creates a new profile report.
+	 *
+	 * @param filesCount Number of input files read.
+	 * @param errorFilesCount Number of input files that
+	 * could not be read.
+	 * @param bytesCount Number of input bytes read.
+	 * @param recordsCount Number of records parsed.
+	 * @param pointsCount Number of trajectory points parsed.
+	 * @param numParsers Number of parser threads.
+	 * @param elapsedTime Running time of the job (ms).
+	 * @param metadata The metadata script of the dataset.
+	 */
+	public ProfileReport(long filesCount, long errorFilesCount,
+			long bytesCount, long recordsCount, long pointsCount,
+			int numParsers, long elapsedTime, String metadata) {
+		this.filesCount = filesCount;
+		this.errorFilesCount = errorFilesCount;
+		this.bytesCount = bytesCount;
+		this.recordsCount = recordsCount;
+		this.pointsCount = pointsCount;
+		this.numParsers = numParsers;
+		this.elapsedTime = elapsedTime;
+		this.metadata = metadata;
+	}
+
+	/**
+	 * @return The metadata script of the dataset, as
+	 * saved in the 'metadata.meta' file by a full load.
+	 */
+	public String getMetadata() {
+		return metadata;
+	}
+
+	/**
+	 * @return Input megabytes (2^20 bytes) read per second.
+	 */
+	public double getMegabytesPerSecond() {
+		return perSecond(bytesCount / (1024.0 * 1024.0));
+	}
+
+	/**
+	 * @return Records parsed per second.
+	 */
+	public double getRecordsPerSecond() {
+		return perSecond(recordsCount);
+	}
+
+	/**
+	 * @return Trajectory points parsed per second.
+	 */
+	public double getPointsPerSecond() {
+		return perSecond(pointsCount);
+	}
+
+	/**
+	 * @return The given amount divided by the running time (in
+	 * seconds), zero if too fast to measure.
+	 */
+	private double perSecond(double amount) {
+		return elapsedTime == 0 ? 0 : amount * 1000.0 / elapsedTime;
+	}
+
+	/**
+	 * @return The script of this report, i.e. the throughput
+	 * values followed by the metadata.
+	 */
+	public String getScript() {
+		final DecimalFormat df = new DecimalFormat("#.##");
+		df.setRoundingMode(RoundingMode.HALF_EVEN);
+		String script = "";
+		script += "PROFILE_TIME_MS\t" + elapsedTime + "\n";
+		script += "PROFILE_PARSER_THREADS\t" + numParsers + "\n";
+		script += "PROFILE_NUM_FILES\t" + filesCount + "\n";
+		script += "PROFILE_NUM_ERROR_FILES\t" + errorFilesCount + "\n";
+		script += "PROFILE_NUM_BYTES\t" + bytesCount + "\n";
+		script += "PROFILE_NUM_RECORDS\t" + recordsCount + "\n";
+		script += "PROFILE_MB_PER_SEC\t" + df.format(getMegabytesPerSecond()) + "\n";
+		script += "PROFILE_RECORDS_PER_SEC\t" + df.format(getRecordsPerSecond()) + "\n";
+		script += "PROFILE_POINTS_PER_SEC\t" + df.format(getPointsPerSecond()) + "\n";
+		script += metadata;
+		return script;
+	}
+
+	@Override
+	public String toString() {
+		return getScript();
+	}
+}
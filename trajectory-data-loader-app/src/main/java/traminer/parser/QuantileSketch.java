@@ -0,0 +1,301 @@
+package traminer.parser;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Mergeable quantile sketch of a stream of values, based on the
+ * KLL sketch (Karnin, Lang and Liberty, 2016).
+ * <p>
+ * Values are kept in a hierarchy of compactors, the values at level
+ * h stand for 2^h values of the stream. When the sketch is full,
+ * the lowest full compactor is sorted, and every other value is
+ * promoted to the next level. The capacity of the levels decreases
+ * geometrically (by 2/3) from the top level, hence the memory is
+ * bounded by about 3k values, plus 2 values per level (at most 64),
+ * regardless of the number of values added. The rank error of the
+ * quantiles is about 1.7/k (about 1% for the default k=200).
+ * <p>
+ * Compactions alternate deterministically between the odd and even
+ * values, instead of a random coin. Results are exact while the
+ * sketch is not full, i.e. for up to about 3k values. Sketches
+ * must not be used by many threads at once.
+ *
+ * @author douglasapeixoto
+ */
+public final class QuantileSketch {
+	/** Default size parameter of the sketch */
+	public static final int DEFAULT_K = 200;
+	// capacity decrease rate from the top level down
+	private static final double CAPACITY_RATE = 2.0 / 3.0;
+
+	// size parameter of the sketch (capacity of the top level)
+	private final int k;
+	// compactors, values at level h have weight 2^h
+	private final List<double[]> levels = new ArrayList<>();
+	// number of values in each level
+	private int[] sizes = new int[0];
+	// total number of values in the compactors, and capacity
+	private int size = 0, maxSize = 0;
+	// number of values added to the sketch
+	private long count = 0;
+	// exact minimum and maximum values added
+	private double min = Double.POSITIVE_INFINITY;
+	private double max = Double.NEGATIVE_INFINITY;
+	// whether the next compaction promotes the odd values
+	private boolean oddCompaction = false;
+
+	/**
+	 * Creates a new empty sketch with the default size.
+	 */
+	public QuantileSketch() {
+		this(DEFAULT_K);
+	}
+
+	/**
+	 * Creates a new empty sketch.
+	 *
+	 * @param k Size parameter of the sketch, the larger the
+	 * more accurate (at least 8).
+	 */
+	public QuantileSketch(int k) {
+		if (k < 8) {
+			throw new IllegalArgumentException(
+					"Sketch size must be at least 8.");
+		}
+		this.k = k;
+		grow();
+	}
+
+	/**
+	 * Add a value to this sketch.
+	 *
+	 * @param value The value to add (NaN values are ignored).
+	 */
+	public void update(double value) {
+		if (Double.isNaN(value)) return;
+		count++;
+		min = Math.min(min, value);
+		max = Math.max(max, value);
+		append(0, value);
+		size++;
+		if (size >= maxSize) compress();
+	}
+
+	/**
+	 * Merge the values of the given sketch into this sketch.
+	 * The given sketch is not changed.
+	 *
+	 * @param other The sketch to merge.
+	 */
+	public void merge(QuantileSketch other) {
+		if (other.count == 0) return;
+		while (levels.size() < other.levels.size()) {
+			grow();
+		}
+		for (int h=0; h<other.levels.size(); h++) {
+			double[] values = other.levels.get(h);
+			for (int i=0; i<other.sizes[h]; i++) {
+				append(h, values[i]);
+			}
+		}
+		size += other.size;
+		count += other.count;
+		min = Math.min(min, other.min);
+		max = Math.max(max, other.max);
+		while (size >= maxSize) {
+			compress();
+		}
+	}
+
+	/**
+	 * @return Number of values added to this sketch.
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * Estimate the quantile of the given rank, i.e. the smallest
+	 * value whose (approximate) rank is at least q * count.
+	 *
+	 * @param q The normalized rank, from 0 to 1.
+	 * @return The estimated quantile, or NaN if the sketch is empty.
+	 */
+	public double getQuantile(double q) {
+		return getQuantiles(new double[]{q})[0];
+	}
+
+	/**
+	 * Estimate the quantiles of the given ranks,
+	 * see {@link #getQuantile(double)}.
+	 *
+	 * @param ranks The normalized ranks, from 0 to 1.
+	 * @return The estimated quantiles, in the ranks order.
+	 */
+	public double[] getQuantiles(double[] ranks) {
+		double[] result = new double[ranks.length];
+		if (count == 0) {
+			Arrays.fill(result, Double.NaN);
+			return result;
+		}
+		// values and weights, sorted by value
+		double[] values = new double[size];
+		long[] weights = new long[size];
+		int n = 0;
+		for (int h=0; h<levels.size(); h++) {
+			double[] level = levels.get(h);
+			for (int i=0; i<sizes[h]; i++) {
+				values[n] = level[i];
+				weights[n++] = 1L << h;
+			}
+		}
+		Integer[] order = new Integer[n];
+		for (int i=0; i<n; i++) order[i] = i;
+		Arrays.sort(order, (a, b) -> Double.compare(values[a], values[b]));
+		long totalWeight = 0;
+		for (int i=0; i<n; i++) totalWeight += weights[i];
+
+		for (int r=0; r<ranks.length; r++) {
+			final double q = ranks[r];
+			if (q < 0 || q > 1) {
+				throw new IllegalArgumentException(
+						"Quantile rank must be in [0,1].");
+			}
+			if (q == 0) { result[r] = min; continue; }
+			if (q == 1) { result[r] = max; continue; }
+			final double target = q * totalWeight;
+			long cumulative = 0;
+			result[r] = max;
+			for (int i=0; i<n; i++) {
+				cumulative += weights[order[i]];
+				if (cumulative >= target) {
+					result[r] = values[order[i]];
+					break;
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Write the state of this sketch, see {@link MetadataState}.
+	 */
+	void write(DataOutput out) throws IOException {
+		out.writeInt(k);
+		out.writeLong(count);
+		out.writeDouble(min);
+		out.writeDouble(max);
+		out.writeBoolean(oddCompaction);
+		out.writeInt(levels.size());
+		for (int h=0; h<levels.size(); h++) {
+			out.writeInt(sizes[h]);
+			double[] level = levels.get(h);
+			for (int i=0; i<sizes[h]; i++) {
+				out.writeDouble(level[i]);
+			}
+		}
+	}
+
+	/**
+	 * Read the state of a sketch, see {@link #write(DataOutput)}.
+	 */
+	static QuantileSketch read(DataInput in) throws IOException {
+		QuantileSketch sketch = new QuantileSketch(in.readInt());
+		sketch.count = in.readLong();
+		sketch.min = in.readDouble();
+		sketch.max = in.readDouble();
+		sketch.oddCompaction = in.readBoolean();
+		int numLevels = in.readInt();
+		if (numLevels < 1 || numLevels > 64) {
+			throw new IOException("Invalid quantile sketch state.");
+		}
+		while (sketch.levels.size() < numLevels) {
+			sketch.grow();
+		}
+		for (int h=0; h<numLevels; h++) {
+			int n = in.readInt();
+			if (n < 0) {
+				throw new IOException("Invalid quantile sketch state.");
+			}
+			for (int i=0; i<n; i++) {
+				sketch.append(h, in.readDouble());
+			}
+			sketch.size += n;
+		}
+		return sketch;
+	}
+
+	/**
+	 * Compact the lowest full level, and the levels above
+	 * while the sketch is full.
+	 */
+	private void compress() {
+		for (int h=0; h<levels.size(); h++) {
+			if (sizes[h] >= capacity(h)) {
+				if (h + 1 >= levels.size()) grow();
+				compact(h);
+				if (size < maxSize) break;
+			}
+		}
+	}
+
+	/**
+	 * Promote every other value of the given level to the
+	 * level above, i.e. half the values with double weight.
+	 */
+	private void compact(int h) {
+		double[] level = levels.get(h);
+		int n = sizes[h];
+		// keep one value if odd
+		int pairs = n / 2 * 2;
+		Arrays.sort(level, 0, n);
+		double kept = level[n - 1];
+		int offset = oddCompaction ? 1 : 0;
+		oddCompaction = !oddCompaction;
+		for (int i=offset; i<pairs; i+=2) {
+			append(h + 1, level[i]);
+		}
+		sizes[h] = 0;
+		if (pairs < n) {
+			level[sizes[h]++] = kept;
+		}
+		size -= pairs / 2;
+	}
+
+	/**
+	 * Add a new top level.
+	 */
+	private void grow() {
+		levels.add(new double[8]);
+		sizes = Arrays.copyOf(sizes, levels.size());
+		maxSize = 0;
+		for (int h=0; h<levels.size(); h++) {
+			maxSize += capacity(h);
+		}
+	}
+
+	/**
+	 * @return The capacity of the given level.
+	 */
+	private int capacity(int h) {
+		int depth = levels.size() - h - 1;
+		return (int) Math.ceil(Math.pow(CAPACITY_RATE, depth) * k) + 1;
+	}
+
+	/**
+	 * Append a value to the given level.
+	 */
+	private void append(int h, double value) {
+		double[] level = levels.get(h);
+		if (sizes[h] == level.length) {
+			level = Arrays.copyOf(level, level.length * 2);
+			levels.set(h, level);
+		}
+		level[sizes[h]++] = value;
+	}
+}
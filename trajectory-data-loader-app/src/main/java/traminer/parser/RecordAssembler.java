@@ -0,0 +1,146 @@
+package traminer.parser;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import traminer.parser.analyzer.Keywords;
+
+/**
+ * Assembles the data records of an input file from its lines,
+ * for files with many lines per record, i.e. records split by
+ * a custom delimiter (_RECORDS_DELIM), or one record per file
+ * (EOF). The lines of the same record are bonded by the
+ * {@link ParserInterface#LINE_BOND} token.
+ * <p>
+ * The file lines are read lazily, and each record is returned as
+ * soon as it is complete, hence the memory used is bounded by the
+ * largest record in the file. The record buffer is reused.
+ *
+ * @author douglasapeixoto
+ */
+@SuppressWarnings("serial")
+public class RecordAssembler implements Iterator<String>, ParserInterface {
+	// the lines of the input file
+	private final Iterator<String> linesItr;
+	// records delimiter
+	private final String recordsDelim;
+	// whether there is one record per file
+	private final boolean wholeFile;
+	// buffer of the record being assembled
+	private final StringBuilder record = new StringBuilder();
+	// next record to return (if already assembled)
+	private String next = null;
+	// whether the whole file has been read (one record per file)
+	private boolean hasLines = false;
+
+	/**
+	 * @param linesItr The lines of the input file.
+	 * @param recordsDelim The data records delimiter, a custom
+	 * delimiter or 'EOF' (one record per file).
+	 */
+	private RecordAssembler(Iterator<String> linesItr, String recordsDelim) {
+		this.linesItr = linesItr;
+		this.recordsDelim = recordsDelim;
+		this.wholeFile = recordsDelim.equals(Keywords.EOF.name());
+	}
+
+	/**
+	 * Assemble the data records from the given file lines.
+	 *
+	 * @param fileLines The lines of the input file.
+	 * @param recordsDelim The data records delimiter, a custom
+	 * delimiter or 'EOF' (one record per file).
+	 *
+	 * @return A stream of the data records, one record per item.
+	 * Closing the stream closes the stream of lines.
+	 */
+	public static Stream<String> assemble(Stream<String> fileLines, String recordsDelim) {
+		if (fileLines == null || recordsDelim == null) {
+			throw new NullPointerException(
+					"File lines and records delimiter must not be null.");
+		}
+		RecordAssembler assembler = new RecordAssembler(
+				fileLines.sequential().iterator(), recordsDelim);
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(
+				assembler, Spliterator.ORDERED | Spliterator.NONNULL), false)
+				.onClose(fileLines::close);
+	}
+
+	@Override
+	public boolean hasNext() {
+		if (next == null) {
+			next = wholeFile ? assembleFile() : assembleRecord();
+		}
+		return next != null;
+	}
+
+	@Override
+	public String next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		String result = next;
+		next = null;
+		return result;
+	}
+
+	/**
+	 * @return The next record split by the records delimiter,
+	 * or null if there are no more records.
+	 */
+	private String assembleRecord() {
+		while (linesItr.hasNext()) {
+			String line = linesItr.next();
+			if (line.startsWith(recordsDelim)) {
+				// previous record, if any
+				String previous = takeRecord();
+				// start new record
+				record.append(line.replace(recordsDelim, ""));
+				if (previous != null) {
+					return previous;
+				}
+			} else
+			if (record.length() == 0) {
+				record.append(line);
+			} else {
+				record.append(LINE_BOND).append(line);
+			}
+		}
+		// last record
+		return takeRecord();
+	}
+
+	/**
+	 * @return The whole file as one record, or null if
+	 * the file has already been read.
+	 *
+	 * @throws NoSuchElementException If the file is empty.
+	 */
+	private String assembleFile() {
+		if (hasLines) return null;
+		if (!linesItr.hasNext()) {
+			throw new NoSuchElementException("Empty data file.");
+		}
+		record.append(linesItr.next());
+		while (linesItr.hasNext()) {
+			record.append(LINE_BOND).append(linesItr.next());
+		}
+		hasLines = true;
+		return takeRecord();
+	}
+
+	/**
+	 * @return The record in the buffer (if not empty),
+	 * clear the buffer for the next record.
+	 */
+	private String takeRecord() {
+		if (record.length() == 0) return null;
+		String result = record.toString();
+		record.setLength(0);
+		return result;
+	}
+}
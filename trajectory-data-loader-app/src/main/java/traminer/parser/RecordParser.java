@@ -0,0 +1,382 @@
+package traminer.parser;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
+
+import org.apache.log4j.Logger;
+
+import traminer.parser.analyzer.Keywords.OutputFormat;
+import traminer.parser.format.DataFormat;
+import traminer.parser.format.RecordPlan;
+import traminer.parser.format.RecordPlan.Delimiter;
+import traminer.parser.format.RecordPlan.SlotKind;
+
+/**
+ * Parse the data records of the input dataset to the 
+ * Intermediate format, based on the specifications 
+ * given in the Input Data Format.
+ * <p>
+ * A record parser is thread-confined: each parser thread 
+ * must use its own instance. Parsers do not share mutable 
+ * state, hence need no locking: each parser adds the metadata
+ * statistics to its own {@link StatisticsAccumulator}, which are
+ * merged by the {@link MetadataService}. With output format ALL,
+ * the statistics of the semantic attributes are also added to the
+ * accumulator, see {@link AttributeStatistics}. Auto-generated IDs (_AUTO_ID)
+ * are given by the sequence number of the records in the 
+ * input, see {@link #parse(String, long)}, so that the same 
+ * input gets the same IDs regardless of the number of parsers.
+ * <p>
+ * Parsers execute a {@link RecordPlan} compiled once from the
+ * input data format, which is shared by all parsers.
+ * 
+ * @see TrajectoryParser
+ * 
+ * @author douglasapeixoto
+ */
+@SuppressWarnings("serial")
+public class RecordParser implements ParserInterface, Function<String, ParsedRecord> {
+	// compiled parse plan of the input data format
+	private final RecordPlan plan;
+	// sequence number of the last record parsed
+	private long recordNum = 0;
+	// parser of the coordinates array attribute
+	private final CoordinatesParser coordinatesParser;
+	// statistics of each semantic attribute slot (null if none)
+	private final AttributeStatistics[] attributeStats;
+	// reusable buffer for the records' bytes
+	private byte[] bytes = new byte[1024];
+
+	// System log
+	private static Logger log = Logger.getLogger(RecordParser.class);
+
+	/**
+	 * Creates a new record parser, executing the given parse plan,
+	 * with very large coordinates arrays processed in parallel in
+	 * the common fork-join pool.
+	 * 
+	 * @param plan The compiled parse plan of the input data format.
+	 * @param outputFormat The {@link OutputFormat} of choice.
+	 */
+	public RecordParser(
+			RecordPlan plan, 
+			OutputFormat outputFormat) {
+		this(plan, outputFormat, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Creates a new record parser, executing the given parse plan,
+	 * with very large coordinates arrays processed in parallel in
+	 * the given pool, e.g. a pool shared by all parsers of an
+	 * ingest pipeline.
+	 * 
+	 * @param plan The compiled parse plan of the input data format.
+	 * @param outputFormat The {@link OutputFormat} of choice.
+	 * @param chunkPool Runs the chunks of the very large coordinates
+	 * arrays, see {@link CoordinatesParser}.
+	 */
+	public RecordParser(
+			RecordPlan plan, 
+			OutputFormat outputFormat,
+			ForkJoinPool chunkPool) {
+		if (plan == null || outputFormat == null || chunkPool == null) {
+			throw new NullPointerException(
+					"Record parser parameters must not be null.");
+		}
+		this.plan = plan;
+		final StatisticsAccumulator statistics = 
+				MetadataService.newAccumulator();
+		this.coordinatesParser = new CoordinatesParser(
+				plan.getCoordinates(), outputFormat, statistics, chunkPool);
+		// semantic attributes are in the output format ALL only
+		this.attributeStats = new AttributeStatistics[plan.numSlots()];
+		if (outputFormat.equals(OutputFormat.ALL)) {
+			for (int i=0; i<plan.numSlots(); i++) {
+				SlotKind kind = plan.getSlotKind(i);
+				if (kind.equals(SlotKind.ARRAY) || kind.equals(SlotKind.VALUE)) {
+					attributeStats[i] = statistics.getAttributeStatistics(
+							plan.getAttributeName(i), plan.getAttributeType(i));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Creates a new record parser, compiling the parse plan of 
+	 * the given data format. Prefer {@link #RecordParser(RecordPlan, 
+	 * OutputFormat)} when creating many parsers for the same 
+	 * data format.
+	 * 
+	 * @param dataFormat The input data format. 
+	 * @param outputFormat The {@link OutputFormat} of choice.
+	 */
+	public RecordParser(
+			DataFormat dataFormat, 
+			OutputFormat outputFormat) {
+		this(new RecordPlan(dataFormat), outputFormat);
+	}
+
+	@Override
+	public ParsedRecord apply(String line) {
+		return parse(line);
+	}
+
+	/**
+	 * Parse a data record to the Intermediate format of choice,
+	 * the record is split according to the given attributes'
+	 * delimiter list.
+	 * <p>
+	 * Note: Assume the data files have already been pre-processed,
+	 * {@link preProcessDataFile}, hence the record is in one line. 
+	 * 
+	 * @param line The input record (file line) to parse.
+	 * 
+	 * @return The parsed record, or null if the record could
+	 * not be parsed.
+	 */
+	public ParsedRecord parse(String line) {
+		return parse(line, recordNum + 1);
+	}
+
+	/**
+	 * Parse a data record to the Intermediate format of choice,
+	 * see {@link #parse(String)}.
+	 * 
+	 * @param line The input record (file line) to parse.
+	 * @param recordNum The sequence number of the record in the
+	 * input, starting from 1, used to generate the trajectory 
+	 * ID (_AUTO_ID).
+	 * 
+	 * @return The parsed record, or null if the record could
+	 * not be parsed.
+	 */
+	public ParsedRecord parse(String line, long recordNum) {
+		this.recordNum = recordNum;
+		// check whether a record of the input data was 
+		// successfully read and processed
+		try {
+			return parseAttributes(getAttributes(line));
+		// Error processing file line	
+		} catch (Exception e) {
+			log.warn("Unable to parse data record: '" + line 
+					+ "'.\nRecord Ignored!", new ParserException(e));
+			return null;
+		}
+	}
+
+	/**
+	 * Parse a data record, given as the bytes of a file line,
+	 * to the Intermediate format of choice. 
+	 * <p>
+	 * If the attributes' delimiters are single ASCII chars, the
+	 * record is split directly on its bytes, and only the
+	 * attributes not ignored are decoded to strings. Otherwise,
+	 * the whole record is decoded, see {@link #parse(String)}.
+	 * 
+	 * @param record The input record (file line) to parse.
+	 * 
+	 * @return The parsed record, or null if the record could
+	 * not be parsed.
+	 */
+	public ParsedRecord parse(ByteRecord record) {
+		return parse(record, recordNum + 1);
+	}
+
+	/**
+	 * Parse a data record, given as the bytes of a file line,
+	 * to the Intermediate format of choice, see 
+	 * {@link #parse(ByteRecord)}.
+	 * 
+	 * @param record The input record (file line) to parse.
+	 * @param recordNum The sequence number of the record in the
+	 * input, starting from 1, used to generate the trajectory 
+	 * ID (_AUTO_ID).
+	 * 
+	 * @return The parsed record, or null if the record could
+	 * not be parsed.
+	 */
+	public ParsedRecord parse(ByteRecord record, long recordNum) {
+		if (!plan.isByteDelimited()) {
+			return parse(record.toString(), recordNum);
+		}
+		this.recordNum = recordNum;
+		try {
+			return parseAttributes(getAttributes(record));
+		// Error processing file line	
+		} catch (Exception e) {
+			log.warn("Unable to parse data record: '" + record 
+					+ "'.\nRecord Ignored!", new ParserException(e));
+			return null;
+		}
+	}
+
+	/**
+	 * Parse the attributes' values of a data record to the 
+	 * Intermediate format of choice.
+	 * 
+	 * @param attrValues The record's attributes values, 
+	 * ignored attributes may be null.
+	 * 
+	 * @return The parsed record.
+	 */
+	private ParsedRecord parseAttributes(String[] attrValues) {
+		// attributes to read
+		String id = "";
+		String coordinates  = "";
+		String semanticAttr = "";
+		String attrValue;
+		for (int i=0; i<attrValues.length; i++) {
+			// check if this is the ID or Coordinates attribute,
+			// or an array type attribute (format the array)
+			attrValue = attrValues[i];
+			switch (plan.getSlotKind(i)) {
+				// process only not-ignored attributes
+				case IGNORED: 
+					break;
+				case ID:
+					id = attrValue;
+					break;
+				// coordinates
+				case COORDINATES:
+					coordinates = coordinatesParser.parse(attrValue);
+					break;
+				// semantic attribute, array type 
+				case ARRAY:
+					attrValue = parseArray(plan.getArrayDelimiters(i), attrValue);
+					semanticAttr += ";" + attrValue;
+					break;
+				// semantic attribute, single valued
+				case VALUE:
+					semanticAttr += ";" + attrValue;
+					break;
+			}
+		}
+		// semantic attributes statistics, once the 
+		// record was successfully parsed
+		for (int i=0; i<attrValues.length; i++) {
+			if (attributeStats[i] != null) {
+				attributeStats[i].add(attrValues[i]);
+			}
+		}
+
+		// auto-generated IDs
+		if (plan.isAutoId()) {
+			id = plan.autoId(recordNum);
+		}
+		
+		return new ParsedRecord(id, coordinates, semanticAttr);
+	}
+	
+	/**
+	 * Split a given file line (trajectory record, attributes) 
+	 * based on the list of attributes delimiters. This method assumes that the file 
+	 * has already been pre-processed, thus has one record per line.
+	 * 
+	 * @param line A line (trajectory record) in the input file.
+	 * @return The list of attributes' values in this file line.
+	 */
+	private String[] getAttributes(String line) {
+		// process the line, read each attribute in the line
+		int numDelim = plan.numSlots();
+		String[] attrValues = new String[numDelim]; 
+		String attrValue = "";
+		int toIndex = 0, fromIndex = 0;  // attribute index in the line
+		for (int i=0; i<numDelim; i++) {
+			toIndex = plan.getDelimiter(i).indexIn(line, fromIndex);
+			// read until the end of the line
+			if (toIndex == -1) {
+				attrValue = line.substring(fromIndex);
+			} 
+			// stop at the given delimiter
+			else {
+				attrValue = line.substring(fromIndex, toIndex);
+			}
+			attrValues[i] = attrValue;
+			
+			fromIndex = toIndex + 1;
+		}
+
+		return attrValues;
+	}
+	
+	/**
+	 * Split a given data record (file line bytes) based on the list 
+	 * of attributes delimiters, as in {@link #getAttributes(String)}.
+	 * The delimiters are searched for directly on the record bytes,
+	 * and only the attributes not ignored are decoded (UTF-8).
+	 * 
+	 * @param record A line (trajectory record) in the input file.
+	 * @return The list of attributes' values in this record,
+	 * null for ignored attributes.
+	 */
+	private String[] getAttributes(ByteRecord record) {
+		// copy the record to the reusable buffer
+		final int length = record.length;
+		if (bytes.length < length) {
+			bytes = new byte[Math.max(length, 2 * bytes.length)];
+		}
+		record.copyTo(bytes);
+		// process the record, read each attribute in the record
+		int numDelim = plan.numSlots();
+		String[] attrValues = new String[numDelim]; 
+		int toIndex = 0, fromIndex = 0;  // attribute index in the record
+		for (int i=0; i<numDelim; i++) {
+			final byte delim = (byte) plan.getDelimiter(i).charValue();
+			toIndex = -1;
+			for (int j=fromIndex; j<length; j++) {
+				if (bytes[j] == delim) {
+					toIndex = j; break;
+				}
+			}
+			// decode only the attributes to process
+			if (!plan.getSlotKind(i).equals(SlotKind.IGNORED)) {
+				// read until the end of the record, 
+				// or stop at the given delimiter
+				int endIndex = (toIndex == -1) ? length : toIndex;
+				attrValues[i] = new String(bytes, fromIndex,
+						endIndex - fromIndex, StandardCharsets.UTF_8);
+			}
+			
+			fromIndex = toIndex + 1;
+		}
+
+		return attrValues;
+	}
+	
+	/**
+	 * Format an Array type attribute. 
+	 * Put all array items comma separated.
+	 * 
+	 * @param delimiters The array items' delimiters,
+	 * as in the file format
+	 * @param arrayString The array string (items)
+	 * 
+	 * @return The new formated array
+	 */
+	private String parseArray(
+			Delimiter[] delimiters, String arrayString){
+		// put all array items comma separated
+		boolean charDelims = true;
+		for (Delimiter delim : delimiters) {
+			charDelims &= delim.isChar();
+		}
+		// single-char delimiters, replace in one pass
+		if (charDelims) {
+			char[] chars = arrayString.toCharArray();
+			for (int i=0; i<chars.length; i++) {
+				for (Delimiter delim : delimiters) {
+					if (chars[i] == delim.charValue()) {
+						chars[i] = ','; break;
+					}
+				}
+			}
+			return new String(chars);
+		}
+		for (Delimiter delim : delimiters) {
+			arrayString = arrayString.replace(delim.value, ",");
+		}
+		// TODO: colocar os attributos de um general array delta-compressed?
+		return arrayString;
+	}
+}
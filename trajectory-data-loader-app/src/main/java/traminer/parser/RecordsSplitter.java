@@ -0,0 +1,197 @@
+package traminer.parser;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import traminer.parser.analyzer.Keywords;
+import traminer.parser.pipeline.FileChunk;
+import traminer.parser.pipeline.IngestPipeline.FileSplitter;
+
+/**
+ * Split large input files into chunks of (about) the given
+ * size, aligned on the data records delimiters (_RECORDS_DELIM),
+ * so that the chunks can be read and parsed independently.
+ * <p>
+ * With one record per line, chunks start at a line beginning.
+ * With a custom records delimiter, chunks start at a line
+ * beginning with the delimiter. Files with one record per
+ * file (EOF) are never split.
+ * <p>
+ * Lines to ignore (_IGNORE_LINES) are numbered over the whole
+ * file, hence the number of the first line of the chunks is
+ * counted, up to the last line to ignore.
+ *
+ * @author douglasapeixoto
+ */
+@SuppressWarnings("serial")
+public class RecordsSplitter implements FileSplitter, ParserInterface {
+	// size of the buffer used to scan the file
+	private static final int BUFFER_SIZE = 64 * 1024;
+	// records delimiter (bytes), null if one record per line
+	private final byte[] recordsDelim;
+	// whether the files must not be split (one record per file)
+	private final boolean wholeFile;
+	// last line to ignore in the files (zero-based), -1 if none
+	private final int lastIgnoredLine;
+	// target size of the chunks
+	private final long chunkSize;
+
+	/**
+	 * Creates a new splitter.
+	 *
+	 * @param recordsDelim The data records delimiter,
+	 * see {@link traminer.parser.format.DataFormat#getRecordsDelim()}.
+	 * @param ignoredLinesList List of the lines to ignore in
+	 * every file (zero-based), or null if none.
+	 * @param chunkSize Target size (in bytes) of the chunks.
+	 */
+	public RecordsSplitter(String recordsDelim,
+			List<Integer> ignoredLinesList, long chunkSize) {
+		if (recordsDelim == null) {
+			throw new NullPointerException(
+					"Records delimiter must not be null.");
+		}
+		if (chunkSize <= 0) {
+			throw new IllegalArgumentException(
+					"Chunk size must be positive.");
+		}
+		this.wholeFile = recordsDelim.equals(Keywords.EOF.name());
+		this.recordsDelim = recordsDelim.equals(LINE_BREAK) ? null :
+				recordsDelim.getBytes(StandardCharsets.UTF_8);
+		this.lastIgnoredLine = (ignoredLinesList == null ||
+				ignoredLinesList.isEmpty()) ? -1 : Collections.max(ignoredLinesList);
+		this.chunkSize = chunkSize;
+	}
+
+	@Override
+	public List<FileChunk> split(String path) throws IOException {
+		try (FileChannel channel = FileChannel.open(
+				Paths.get(path), StandardOpenOption.READ)) {
+			final long size = channel.size();
+			if (wholeFile || size <= chunkSize) {
+				return Collections.singletonList(FileChunk.wholeFile(path, size));
+			}
+			ByteCursor cursor = new ByteCursor(channel, size);
+			// chunks boundaries
+			List<Long> starts = new ArrayList<>();
+			starts.add(0L);
+			long start = 0;
+			while ((start = nextRecordStart(cursor, start + chunkSize)) < size) {
+				starts.add(start);
+			}
+			// number of the first line of each chunk
+			int numChunks = starts.size();
+			List<FileChunk> chunks = new ArrayList<>(numChunks);
+			int firstLine = 0;
+			for (int i=0; i<numChunks; i++) {
+				long end = (i+1 < numChunks) ? starts.get(i+1) : size;
+				chunks.add(new FileChunk(path, i, numChunks,
+						starts.get(i), end, firstLine));
+				if (firstLine != FileChunk.UNKNOWN_LINE) {
+					firstLine += countLines(cursor, starts.get(i), end);
+					// no more lines to ignore after this chunk
+					if (firstLine > lastIgnoredLine) {
+						firstLine = FileChunk.UNKNOWN_LINE;
+					}
+				}
+			}
+			return chunks;
+		}
+	}
+
+	/**
+	 * @return The maximum number of data records in the given
+	 * chunk, i.e. one record for files with one record per file
+	 * (EOF), or the chunk size (in bytes) otherwise.
+	 */
+	@Override
+	public long maxRecords(FileChunk chunk) {
+		final long size = chunk.end - chunk.start;
+		if (wholeFile) {
+			return Math.min(size, 1);
+		}
+		return size;
+	}
+
+	/**
+	 * Find the beginning of the first data record at, or after,
+	 * the given position in the file.
+	 *
+	 * @return The record position, or the file size if no
+	 * record begins after the given position.
+	 */
+	private long nextRecordStart(ByteCursor cursor, long pos) throws IOException {
+		// the beginning of the line after the given position
+		for (long p = pos - 1; p < cursor.size; p++) {
+			if (cursor.get(p) == '\n') {
+				long lineStart = p + 1;
+				if (recordsDelim == null ||
+					startsWithDelim(cursor, lineStart)) {
+					return lineStart;
+				}
+			}
+		}
+		return cursor.size;
+	}
+
+	/**
+	 * @return True if the bytes at the given position
+	 * are the records delimiter.
+	 */
+	private boolean startsWithDelim(ByteCursor cursor, long pos) throws IOException {
+		if (pos + recordsDelim.length > cursor.size) return false;
+		for (int i=0; i<recordsDelim.length; i++) {
+			if (cursor.get(pos + i) != recordsDelim[i]) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * @return The number of line breaks in the given range.
+	 */
+	private static int countLines(ByteCursor cursor, long start, long end) throws IOException {
+		int count = 0;
+		for (long p = start; p < end; p++) {
+			if (cursor.get(p) == '\n') count++;
+		}
+		return count;
+	}
+
+	/**
+	 * Reads the bytes of a file through a buffered window.
+	 */
+	private static class ByteCursor {
+		final FileChannel channel;
+		final long size;
+		final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+		// position of the buffer in the file
+		long bufferStart = 0;
+
+		ByteCursor(FileChannel channel, long size) {
+			this.channel = channel;
+			this.size = size;
+			buffer.limit(0);
+		}
+
+		/**
+		 * @return The byte at the given position of the file.
+		 */
+		byte get(long pos) throws IOException {
+			if (pos < bufferStart || pos >= bufferStart + buffer.limit()) {
+				buffer.clear();
+				bufferStart = pos;
+				while (buffer.hasRemaining() &&
+					   channel.read(buffer, pos + buffer.position()) > 0);
+				buffer.flip();
+			}
+			return buffer.get((int) (pos - bufferStart));
+		}
+	}
+}
@@ -0,0 +1,746 @@
+package traminer.parser;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import traminer.parser.analyzer.Keywords;
+import traminer.util.spatial.SpatialInterface;
+import traminer.util.spatial.distance.PointDistanceFunction;
+
+/**
+ * Accumulates the dataset statistics (metadata) of the trajectories
+ * processed by one parser thread. Each worker owns its accumulator,
+ * hence no locking is needed, and the accumulators of all workers
+ * are merged at the end of the job, see {@link #merge(StatisticsAccumulator)}.
+ * <p>
+ * Statistics are computed with primitive doubles: compensated
+ * (Neumaier) sums for the means, and Welford's algorithm for the
+ * standard deviations, merged with Chan's parallel formula. The
+ * results match the former Decimal computation within a relative
+ * error of 1e-9 for means and standard deviations; counts, minimum,
+ * maximum and coverage values are the same. Like before, all
+ * results are rounded to 10 decimal places, and the quotients of
+ * integral values (e.g. the mean number of points, or the sampling
+ * rate of integer time-stamps) are rounded to integers.
+ * <p>
+ * The quantiles of each metric (see {@link #QUANTILES}) are
+ * estimated with a {@link QuantileSketch}, hence the memory
+ * used is constant, regardless of the number of trajectories.
+ * The density of the points over the coverage is counted by a
+ * {@link DensityGrid}, also mergeable. Statistics of the semantic
+ * attributes are kept by {@link AttributeStatistics}.
+ * <p>
+ * An accumulator must not be used by many threads at once. Other
+ * threads can only read the copies published by the owner thread
+ * on request, e.g. for the metadata snapshots, see
+ * {@link MetadataService#getSnapshot()}.
+ *
+ * @author douglasapeixoto
+ */
+@SuppressWarnings("serial")
+public final class StatisticsAccumulator implements SpatialInterface {
+	/** Ranks of the quantiles of the trajectories metrics */
+	public static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+	// number of decimal places of the results
+	private static final int SCALE = 10;
+	// Point distance measure to use
+	private final PointDistanceFunction distFunc;
+	// Total Number of trajectories processed
+	private long trajectoriesCount = 0;
+	// Total number of trajectory points processed
+	private long pointsCount = 0;
+
+	// Statistics about the trajectories
+	private final Moments numPtsStats   = new Moments();
+	private final Moments lengthStats   = new Moments();
+	private final Moments durationStats = new Moments();
+	private final Moments speedStats    = new Moments();
+	private final Moments samplingStats = new Moments();
+	// Statistics about the spatial-temporal coverage of the trajectories
+	private double minX = INFINITY, minY = INFINITY, minT = INFINITY;
+	private double maxX = -INFINITY, maxY = -INFINITY, maxT = -INFINITY;
+	// density of the points over the coverage
+	private final DensityGrid densityGrid;
+	// statistics of the semantic attributes, by name
+	private final Map<String, AttributeStatistics> attributes = 
+			new LinkedHashMap<>();
+
+	// copy of the statistics last published by the owner thread
+	private volatile StatisticsAccumulator published = null;
+	// whether a new copy was requested by another thread
+	private volatile boolean publishRequested = false;
+
+	// reusable buffers of the (x,y,time) values of the trajectory
+	private double[] xBuffer = new double[0];
+	private double[] yBuffer = new double[0];
+	private double[] tBuffer = new double[0];
+
+	/**
+	 * Creates a new empty accumulator, with a 2D density 
+	 * grid of the default resolution.
+	 *
+	 * @param distFunc Point distance measure to use to calculate
+	 * the statistics about the trajectory data.
+	 */
+	public StatisticsAccumulator(PointDistanceFunction distFunc) {
+		this(distFunc, new DensityGrid(DensityGrid.DEFAULT_RESOLUTION, 
+				DensityGrid.DEFAULT_DEPTH, false));
+	}
+
+	/**
+	 * Creates a new empty accumulator.
+	 *
+	 * @param distFunc Point distance measure to use to calculate
+	 * the statistics about the trajectory data.
+	 * @param densityGrid Empty grid to count the density
+	 * of the points over the coverage.
+	 */
+	public StatisticsAccumulator(PointDistanceFunction distFunc, 
+			DensityGrid densityGrid) {
+		if (distFunc == null || densityGrid == null) {
+			throw new NullPointerException(
+					"Distance function and density grid must not be null.");
+		}
+		if (densityGrid.getCount() != 0) {
+			throw new IllegalArgumentException(
+					"Density grid of a new accumulator must be empty.");
+		}
+		this.distFunc = distFunc;
+		this.densityGrid = densityGrid;
+	}
+
+	/**
+	 * Add trajectory spatial-temporal data to this accumulator.
+	 *
+	 * @param xValues Array containing the X coordinates of
+	 * 		the trajectory points as a String.
+	 * @param isDeltaX If the array X is delta-encoded.
+	 * @param xType The type of the X values.
+	 * @param yValues Array containing the Y coordinates of
+	 * 		the trajectory points as a String.
+	 * @param isDeltaY If the array Y is delta-encoded.
+	 * @param yType The type of the Y values.
+	 * @param tValues Array containing the Time values of
+	 * 		the trajectory points as a String.
+	 * @param isDeltaT If the array T is delta-encoded.
+	 * @param tType The type of the T values.
+	 *
+	 * @throws IllegalArgumentException If the arrays are empty,
+	 * of different sizes, or have only one point.
+	 * @throws NumberFormatException If the values of a number
+	 * type can not be parsed.
+	 */
+	public void addValues(
+			String[] xValues, boolean isDeltaX, String xType,
+			String[] yValues, boolean isDeltaY, String yType,
+			String[] tValues, boolean isDeltaT, String tType)
+			throws IllegalArgumentException {
+		final int numPts = checkValues(xValues, yValues, tValues);
+		ensureCapacity(numPts);
+		// decompress (if not) and parse if possible
+		parseValues(xValues, isDeltaX, xType, xBuffer);
+		parseValues(yValues, isDeltaY, yType, yBuffer);
+		parseValues(tValues, isDeltaT, tType, tBuffer);
+
+		// update dataset statistics for this new trajectory
+		addTrajectory(numPts);
+	}
+
+	/**
+	 * Add trajectory spatial-temporal data to this accumulator.
+	 *
+	 * @param xValues Array containing the X coordinates of
+	 * 		the trajectory points.
+	 * @param isDeltaX If the array X is delta-encoded.
+	 * @param yValues Array containing the Y coordinates of
+	 * 		the trajectory points.
+	 * @param isDeltaY If the array Y is delta-encoded.
+	 * @param tValues Array containing the Time values of
+	 * 		the trajectory points.
+	 * @param isDeltaT If the array T is delta-encoded.
+	 *
+	 * @throws IllegalArgumentException If the arrays are empty,
+	 * of different sizes, or have only one point.
+	 */
+	public void addValues(
+			double[] xValues, boolean isDeltaX,
+			double[] yValues, boolean isDeltaY,
+			double[] tValues, boolean isDeltaT)
+			throws IllegalArgumentException {
+		if (xValues == null || yValues == null || tValues == null) {
+			throw new NullPointerException("Values for metadata "
+					+ "computation must not be null.");
+		}
+		final int numPts = checkSize(
+				xValues.length, yValues.length, tValues.length);
+		ensureCapacity(numPts);
+		// decompress (if not)
+		copyValues(xValues, isDeltaX, xBuffer);
+		copyValues(yValues, isDeltaY, yBuffer);
+		copyValues(tValues, isDeltaT, tBuffer);
+
+		// update dataset statistics for this new trajectory
+		addTrajectory(numPts);
+	}
+
+	/**
+	 * Merge the statistics of the given accumulator into
+	 * this accumulator. The given accumulator is not changed.
+	 *
+	 * @param other The accumulator to merge, with a density
+	 * grid of the same resolution of this accumulator.
+	 */
+	public void merge(StatisticsAccumulator other) {
+		trajectoriesCount += other.trajectoriesCount;
+		pointsCount += other.pointsCount;
+		numPtsStats.merge(other.numPtsStats);
+		lengthStats.merge(other.lengthStats);
+		durationStats.merge(other.durationStats);
+		speedStats.merge(other.speedStats);
+		samplingStats.merge(other.samplingStats);
+		minX = Math.min(minX, other.minX);
+		minY = Math.min(minY, other.minY);
+		minT = Math.min(minT, other.minT);
+		maxX = Math.max(maxX, other.maxX);
+		maxY = Math.max(maxY, other.maxY);
+		maxT = Math.max(maxT, other.maxT);
+		densityGrid.merge(other.densityGrid);
+		for (AttributeStatistics attr : other.attributes.values()) {
+			getAttributeStatistics(attr.name, attr.type).merge(attr);
+		}
+	}
+
+	/**
+	 * @return A new empty accumulator, with the same distance
+	 * function and density grid resolution of this accumulator.
+	 */
+	public StatisticsAccumulator emptyCopy() {
+		return new StatisticsAccumulator(distFunc, new DensityGrid(
+				densityGrid.getResolution(), densityGrid.getDepth(), 
+				densityGrid.isTemporal()));
+	}
+
+	/**
+	 * @return The point distance measure of this accumulator.
+	 */
+	public PointDistanceFunction getDistanceFunction() {
+		return distFunc;
+	}
+
+	/**
+	 * Write the raw state of this accumulator (counts, sums, 
+	 * sketches), see {@link MetadataState}.
+	 */
+	void writeState(DataOutput out) throws IOException {
+		densityGrid.write(out);
+		out.writeLong(trajectoriesCount);
+		out.writeLong(pointsCount);
+		numPtsStats.write(out);
+		lengthStats.write(out);
+		durationStats.write(out);
+		speedStats.write(out);
+		samplingStats.write(out);
+		out.writeDouble(minX);
+		out.writeDouble(minY);
+		out.writeDouble(minT);
+		out.writeDouble(maxX);
+		out.writeDouble(maxY);
+		out.writeDouble(maxT);
+		out.writeInt(attributes.size());
+		for (AttributeStatistics attr : attributes.values()) {
+			attr.write(out);
+		}
+	}
+
+	/**
+	 * Read the raw state of an accumulator, 
+	 * see {@link #writeState(DataOutput)}.
+	 */
+	static StatisticsAccumulator readState(DataInput in, 
+			PointDistanceFunction distFunc) throws IOException {
+		DensityGrid grid = DensityGrid.read(in);
+		StatisticsAccumulator result = new StatisticsAccumulator(distFunc,
+				new DensityGrid(grid.getResolution(), grid.getDepth(), 
+						grid.isTemporal()));
+		result.densityGrid.merge(grid);
+		result.trajectoriesCount = in.readLong();
+		result.pointsCount = in.readLong();
+		result.numPtsStats.read(in);
+		result.lengthStats.read(in);
+		result.durationStats.read(in);
+		result.speedStats.read(in);
+		result.samplingStats.read(in);
+		result.minX = in.readDouble();
+		result.minY = in.readDouble();
+		result.minT = in.readDouble();
+		result.maxX = in.readDouble();
+		result.maxY = in.readDouble();
+		result.maxT = in.readDouble();
+		int numAttributes = in.readInt();
+		for (int i=0; i<numAttributes; i++) {
+			AttributeStatistics attr = AttributeStatistics.read(in);
+			result.attributes.put(attr.name, attr);
+		}
+		return result;
+	}
+
+	/**
+	 * Get the statistics of the given semantic attribute, 
+	 * created empty on the first call.
+	 * 
+	 * @param name The attribute name.
+	 * @param type The attribute type, as in the input data format.
+	 * @return The statistics of the attribute, to add its values to.
+	 */
+	public AttributeStatistics getAttributeStatistics(String name, String type) {
+		AttributeStatistics attr = attributes.get(name);
+		if (attr == null) {
+			attr = new AttributeStatistics(name, type);
+			attributes.put(name, attr);
+		}
+		return attr;
+	}
+
+	/**
+	 * @return The statistics of the semantic attributes, in the
+	 * order they were first added.
+	 */
+	public Collection<AttributeStatistics> getAttributesStatistics() {
+		return Collections.unmodifiableCollection(attributes.values());
+	}
+
+	/**
+	 * Request a copy of the statistics, published by the owner
+	 * thread before it adds the next trajectory. Does not block.
+	 */
+	void requestPublish() {
+		publishRequested = true;
+	}
+
+	/**
+	 * @return True if the last requested copy was published.
+	 */
+	boolean isPublished() {
+		return !publishRequested;
+	}
+
+	/**
+	 * @return The copy of the statistics last published by the 
+	 * owner thread, or null if none. The copy is not changed.
+	 */
+	StatisticsAccumulator getPublished() {
+		return published;
+	}
+
+	/**
+	 * Update the statistics with the trajectory in the buffers.
+	 */
+	private void addTrajectory(final int numPts) {
+		// publish the statistics of the previous records
+		if (publishRequested) {
+			StatisticsAccumulator copy = emptyCopy();
+			copy.merge(this);
+			published = copy;
+			publishRequested = false;
+		}
+		// get statistics of this trajectory points
+		// using the provided distance measure
+		double length = 0;
+		if (distFunc instanceof DistanceKernel) {
+			// geographic kernels run over the buffers
+			length = ((DistanceKernel) distFunc).length(xBuffer, yBuffer, numPts);
+		} else {
+			double lengthComp = 0;
+			for (int i=1; i<numPts; i++) {
+				double distance = distFunc.pointToPointDistance(
+						xBuffer[i-1], yBuffer[i-1], xBuffer[i], yBuffer[i]);
+				// compensated sum of the distances
+				double sum = length + distance;
+				lengthComp += (Math.abs(length) >= Math.abs(distance)) ?
+						(length - sum) + distance : (distance - sum) + length;
+				length = sum;
+			}
+			length += lengthComp;
+		}
+		for (int i=0; i<numPts; i++) {
+			minX = Math.min(minX, xBuffer[i]);
+			minY = Math.min(minY, yBuffer[i]);
+			minT = Math.min(minT, tBuffer[i]);
+			maxX = Math.max(maxX, xBuffer[i]);
+			maxY = Math.max(maxY, yBuffer[i]);
+			maxT = Math.max(maxT, tBuffer[i]);
+			densityGrid.update(xBuffer[i], yBuffer[i], tBuffer[i]);
+		}
+		// sum of the time intervals
+		double duration = tBuffer[numPts-1] - tBuffer[0];
+
+		numPtsStats.add(numPts);
+		lengthStats.add(length);
+		durationStats.add(duration);
+		speedStats.add(duration == 0 ? 0 : divide(length, duration));
+		samplingStats.add(divide(duration, numPts-1));
+
+		trajectoriesCount++;
+		pointsCount += numPts;
+	}
+
+	/**
+	 * @return The number of points, if the arrays are valid.
+	 */
+	private static int checkValues(
+			String[] xValues, String[] yValues, String[] tValues) {
+		if (xValues == null || yValues == null || tValues == null) {
+			throw new NullPointerException("Values for metadata "
+					+ "computation must not be null.");
+		}
+		return checkSize(xValues.length, yValues.length, tValues.length);
+	}
+
+	/**
+	 * @return The number of points, if the arrays sizes are valid.
+	 */
+	private static int checkSize(int xSize, int ySize, int tSize) {
+		if (xSize == 0 || ySize == 0 || tSize == 0) {
+			throw new IllegalArgumentException("Values for metadata "
+					+ "computation must not be empty.");
+		}
+		if (xSize != ySize || xSize != tSize) {
+			throw new IllegalArgumentException("Arrays with values for "
+					+ "metadata computation must be of same size.");
+		}
+		// the sampling rate is undefined for one point
+		if (xSize == 1) {
+			throw new IllegalArgumentException("Trajectories for metadata "
+					+ "computation must have at least two points.");
+		}
+		return xSize;
+	}
+
+	/**
+	 * Make sure the buffers can hold the given number of points.
+	 */
+	private void ensureCapacity(int numPts) {
+		if (xBuffer.length < numPts) {
+			xBuffer = new double[numPts];
+			yBuffer = new double[numPts];
+			tBuffer = new double[numPts];
+		}
+	}
+
+	/**
+	 * Parse the given values to the buffer, delta-decoded if
+	 * the values are delta-encoded. Values are set to zero if
+	 * they are not of a number type.
+	 */
+	private static void parseValues(String[] values, boolean isDelta,
+			String type, double[] buffer) throws NumberFormatException {
+		if (!isDelta && !Keywords.isNumberType(type)) {
+			for (int i=0; i<values.length; i++) buffer[i] = 0;
+			return;
+		}
+		for (int i=0; i<values.length; i++) {
+			buffer[i] = parseDouble(values[i]);
+		}
+		if (isDelta) deltaDecode(buffer, values.length);
+	}
+
+	/**
+	 * Copy the given values to the buffer, delta-decoded if
+	 * the values are delta-encoded.
+	 */
+	private static void copyValues(double[] values, boolean isDelta, double[] buffer) {
+		System.arraycopy(values, 0, buffer, 0, values.length);
+		if (isDelta) deltaDecode(buffer, values.length);
+	}
+
+	/**
+	 * Decode the delta-encoded values in the buffer, in place,
+	 * with compensated sums.
+	 */
+	private static void deltaDecode(double[] buffer, int size) {
+		double sum = buffer[0], comp = 0;
+		for (int i=1; i<size; i++) {
+			final double delta = buffer[i];
+			final double next = sum + delta;
+			comp += (Math.abs(sum) >= Math.abs(delta)) ?
+					(sum - next) + delta : (delta - next) + sum;
+			sum = next;
+			buffer[i] = sum + comp;
+		}
+	}
+
+	/**
+	 * Parse a decimal number. Plain decimal numbers are parsed
+	 * directly, other formats (e.g. exponent) must be valid
+	 * {@link BigDecimal} numbers.
+	 *
+	 * @throws NumberFormatException If the value is not a number.
+	 */
+	private static double parseDouble(String value) throws NumberFormatException {
+		if (DeltaCompressor.decimalPlaces(value) >= 0) {
+			return Double.parseDouble(value);
+		}
+		return new BigDecimal(value).doubleValue();
+	}
+
+	/**
+	 * Divide the given values as the former Decimal computation,
+	 * i.e. the quotient of an integral dividend is rounded to an 
+	 * integer (HALF_EVEN).
+	 */
+	private static double divide(double dividend, double divisor) {
+		final double quotient = dividend / divisor;
+		return (dividend == Math.rint(dividend)) ? 
+				Math.rint(quotient) : quotient;
+	}
+
+	/**
+	 * @return The given value rounded to 10 decimal places.
+	 */
+	private static double round(double value) {
+		if (Double.isNaN(value) || Double.isInfinite(value)) return value;
+		return BigDecimal.valueOf(value)
+				.setScale(SCALE, RoundingMode.HALF_EVEN)
+				.doubleValue();
+	}
+
+	/**
+	 * @return Number of trajectories processed so far.
+	 */
+	public long getTrajectoriesCount() {
+		return trajectoriesCount;
+	}
+
+	/**
+	 * @return Number of trajectory sample points processed so far.
+	 */
+	public long getPointsCount() {
+		return pointsCount;
+	}
+
+	/**
+	 * @return The sum of the squared number of points of the 
+	 * trajectories, e.g. for the variance of sampled totals.
+	 */
+	public double getPointsSquaresSum() {
+		return numPtsStats.m2 + numPtsStats.mean * numPtsStats.mean * numPtsStats.count;
+	}
+
+	/**
+	 * @return Statistics on the number of points per trajectory.
+	 * <p> [0]: min [1]: max [2]: mean [3]: std
+	 */
+	public double[] getNumPointsStats() {
+		return numPtsStats.getStats();
+	}
+
+	/**
+	 * @return Statistics on the trajectories length.
+	 * <p> [0]: min [1]: max [2]: mean [3]: std
+	 */
+	public double[] getLengthStats() {
+		return lengthStats.getStats();
+	}
+
+	/**
+	 * @return Statistics on the trajectories duration.
+	 * <p> [0]: min [1]: max [2]: mean [3]: std
+	 */
+	public double[] getDurationStats() {
+		return durationStats.getStats();
+	}
+
+	/**
+	 * @return Statistics on the trajectories speed.
+	 * <p> [0]: min [1]: max [2]: mean [3]: std
+	 */
+	public double[] getSpeedStats() {
+		return speedStats.getStats();
+	}
+
+	/**
+	 * @return Statistics on the trajectories sampling rate.
+	 * <p> [0]: min [1]: max [2]: mean [3]: std
+	 */
+	public double[] getSamplingRateStats() {
+		return samplingStats.getStats();
+	}
+
+	/**
+	 * @return Quantiles of the number of points per trajectory.
+	 * <p> [0]: p50 [1]: p90 [2]: p99 [3]: p999
+	 */
+	public double[] getNumPointsQuantiles() {
+		return numPtsStats.getQuantiles();
+	}
+
+	/**
+	 * @return Quantiles of the trajectories length.
+	 * <p> [0]: p50 [1]: p90 [2]: p99 [3]: p999
+	 */
+	public double[] getLengthQuantiles() {
+		return lengthStats.getQuantiles();
+	}
+
+	/**
+	 * @return Quantiles of the trajectories duration.
+	 * <p> [0]: p50 [1]: p90 [2]: p99 [3]: p999
+	 */
+	public double[] getDurationQuantiles() {
+		return durationStats.getQuantiles();
+	}
+
+	/**
+	 * @return Quantiles of the trajectories speed.
+	 * <p> [0]: p50 [1]: p90 [2]: p99 [3]: p999
+	 */
+	public double[] getSpeedQuantiles() {
+		return speedStats.getQuantiles();
+	}
+
+	/**
+	 * @return Quantiles of the trajectories sampling rate.
+	 * <p> [0]: p50 [1]: p90 [2]: p99 [3]: p999
+	 */
+	public double[] getSamplingRateQuantiles() {
+		return samplingStats.getQuantiles();
+	}
+
+	/**
+	 * @return Statistics on the trajectories spatial-temporal coverage.
+	 * <p>	[0]: min X [1]: min Y [2]: min Time
+	 * 	    [3]: max X [4]: max Y [5]: max Time
+	 */
+	public double[] getCoverageStats() {
+		if (trajectoriesCount == 0) {
+			return new double[6];
+		}
+		return new double[] {
+				round(minX), round(minY), round(minT),
+				round(maxX), round(maxY), round(maxT)
+		};
+	}
+
+	/**
+	 * @return The adaptive histogram of the points density
+	 * over the coverage, see {@link DensityGrid#toHistogram()}.
+	 */
+	public DensityHistogram getDensityHistogram() {
+		return densityGrid.toHistogram();
+	}
+
+	/**
+	 * Count, mean, variance, minimum, maximum and quantiles of a 
+	 * sequence of values. The mean is given by a compensated sum, 
+	 * and the variance by Welford's algorithm.
+	 */
+	private static final class Moments {
+		long count = 0;
+		// compensated sum of the values
+		double sum = 0, sumComp = 0;
+		// Welford's running mean, and sum of squared differences
+		double mean = 0, m2 = 0;
+		double min = INFINITY, max = -INFINITY;
+		QuantileSketch sketch = new QuantileSketch();
+
+		void add(double value) {
+			count++;
+			addToSum(value);
+			final double delta = value - mean;
+			mean += delta / count;
+			m2 += delta * (value - mean);
+			min = Math.min(min, value);
+			max = Math.max(max, value);
+			sketch.update(value);
+		}
+
+		void merge(Moments other) {
+			if (other.count == 0) return;
+			sketch.merge(other.sketch);
+			if (count == 0) {
+				count = other.count;
+				sum = other.sum;
+				sumComp = other.sumComp;
+				mean = other.mean;
+				m2 = other.m2;
+				min = other.min;
+				max = other.max;
+				return;
+			}
+			// Chan's parallel formula
+			final long total = count + other.count;
+			final double delta = other.mean - mean;
+			mean += delta * other.count / total;
+			m2 += other.m2 + delta * delta * ((double) count * other.count / total);
+			count = total;
+			addToSum(other.sum);
+			addToSum(other.sumComp);
+			min = Math.min(min, other.min);
+			max = Math.max(max, other.max);
+		}
+
+		void write(DataOutput out) throws IOException {
+			out.writeLong(count);
+			out.writeDouble(sum);
+			out.writeDouble(sumComp);
+			out.writeDouble(mean);
+			out.writeDouble(m2);
+			out.writeDouble(min);
+			out.writeDouble(max);
+			sketch.write(out);
+		}
+
+		void read(DataInput in) throws IOException {
+			count = in.readLong();
+			sum = in.readDouble();
+			sumComp = in.readDouble();
+			mean = in.readDouble();
+			m2 = in.readDouble();
+			min = in.readDouble();
+			max = in.readDouble();
+			sketch = QuantileSketch.read(in);
+		}
+
+		private void addToSum(double value) {
+			final double next = sum + value;
+			sumComp += (Math.abs(sum) >= Math.abs(value)) ?
+					(sum - next) + value : (value - next) + sum;
+			sum = next;
+		}
+
+		/**
+		 * @return [0]: min [1]: max [2]: mean [3]: std
+		 */
+		double[] getStats() {
+			if (count == 0) {
+				return new double[4];
+			}
+			final double avg = divide(sum + sumComp, count);
+			final double std = Math.sqrt(Math.max(m2, 0) / count);
+			return new double[] {
+					round(min), round(max), round(avg), round(std)
+			};
+		}
+
+		/**
+		 * @return The quantiles of {@link #QUANTILES}.
+		 */
+		double[] getQuantiles() {
+			if (count == 0) {
+				return new double[QUANTILES.length];
+			}
+			double[] result = sketch.getQuantiles(QUANTILES);
+			for (int i=0; i<result.length; i++) {
+				result[i] = round(result[i]);
+			}
+			return result;
+		}
+	}
+}
@@ -0,0 +1,37 @@
+package traminer.parser;
+
+/**
+ * 64-bit hash of strings, FNV-1a with a final avalanche mix
+ * (MurmurHash3 fmix64), so all bits of the hash depend on all
+ * characters, e.g. for the {@link DistinctCountSketch} and the
+ * content hash of the MongoDB documents.
+ *
+ * @author douglasapeixoto
+ */
+final class StringHash {
+	// FNV-1a 64-bit offset basis and prime
+	private static final long OFFSET_BASIS = 0xcbf29ce484222325L;
+	private static final long PRIME = 0x100000001b3L;
+
+	private StringHash() {}
+
+	/**
+	 * @param seed The seed of the hash (zero for plain FNV-1a).
+	 * @param value The value to hash.
+	 * @return The 64-bit hash of the given value, with the given seed.
+	 */
+	static long hash(long seed, String value) {
+		long h = OFFSET_BASIS ^ seed;
+		for (int i=0; i<value.length(); i++) {
+			h ^= value.charAt(i);
+			h *= PRIME;
+		}
+		// avalanche (MurmurHash3 fmix64)
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+}
@@ -0,0 +1,182 @@
+package traminer.parser;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Mergeable summary of the most frequent values in a stream of
+ * values, based on the Space-Saving algorithm (Metwally et al.,
+ * 2005).
+ * <p>
+ * The sketch keeps at most (capacity) counters. When a new value
+ * arrives and all counters are taken, the counter of the least
+ * frequent value is given to the new value, and incremented. Hence,
+ * the memory is bounded, and the counts are upper bounds of the true
+ * counts, over-estimated by at most (number of values / capacity).
+ * Values more frequent than that are always in the summary.
+ * <p>
+ * A sketch must not be used by many threads at once.
+ *
+ * @author douglasapeixoto
+ */
+public final class TopValuesSketch {
+	/** Default number of counters of the sketch */
+	public static final int DEFAULT_CAPACITY = 100;
+
+	// maximum number of counters
+	private final int capacity;
+	// counters of the values in the summary
+	private final Map<String, long[]> counters;
+
+	/**
+	 * Creates a new empty sketch with the default capacity.
+	 */
+	public TopValuesSketch() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Creates a new empty sketch.
+	 *
+	 * @param capacity The maximum number of counters, the
+	 * larger the more accurate (at least 1).
+	 */
+	public TopValuesSketch(int capacity) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException(
+					"Sketch capacity must be positive.");
+		}
+		this.capacity = capacity;
+		this.counters = new HashMap<>(capacity * 2);
+	}
+
+	/**
+	 * Add a value to this sketch.
+	 *
+	 * @param value The value to add.
+	 */
+	public void update(String value) {
+		long[] counter = counters.get(value);
+		if (counter != null) {
+			counter[0]++;
+		} else if (counters.size() < capacity) {
+			counters.put(value, new long[]{1});
+		} else {
+			// replace the least frequent value
+			String minValue = minValue();
+			counter = counters.remove(minValue);
+			counter[0]++;
+			counters.put(value, counter);
+		}
+	}
+
+	/**
+	 * Merge the values of the given sketch into this sketch.
+	 * The given sketch is not changed. Values missing in one
+	 * of the summaries are counted as the minimum count of
+	 * that summary (if full), so counts stay upper bounds.
+	 *
+	 * @param other The sketch to merge.
+	 */
+	public void merge(TopValuesSketch other) {
+		final long thisMin = minCount();
+		final long otherMin = other.minCount();
+		for (Map.Entry<String, long[]> entry : counters.entrySet()) {
+			if (!other.counters.containsKey(entry.getKey())) {
+				entry.getValue()[0] += otherMin;
+			}
+		}
+		for (Map.Entry<String, long[]> entry : other.counters.entrySet()) {
+			long[] counter = counters.get(entry.getKey());
+			if (counter != null) {
+				counter[0] += entry.getValue()[0];
+			} else {
+				counters.put(entry.getKey(),
+						new long[]{entry.getValue()[0] + thisMin});
+			}
+		}
+		// keep the most frequent values
+		while (counters.size() > capacity) {
+			counters.remove(minValue());
+		}
+	}
+
+	/**
+	 * @param k Maximum number of values to return.
+	 * @return The (up to) k most frequent values, and their
+	 * estimated counts, from the most frequent. Ties are
+	 * sorted by value.
+	 */
+	public List<Map.Entry<String, Long>> getTopValues(int k) {
+		List<Map.Entry<String, Long>> result = new ArrayList<>(counters.size());
+		for (Map.Entry<String, long[]> entry : counters.entrySet()) {
+			result.add(new HashMap.SimpleImmutableEntry<>(
+					entry.getKey(), entry.getValue()[0]));
+		}
+		result.sort((a, b) -> {
+			int cmp = Long.compare(b.getValue(), a.getValue());
+			return cmp != 0 ? cmp : a.getKey().compareTo(b.getKey());
+		});
+		return result.subList(0, Math.min(k, result.size()));
+	}
+
+	/**
+	 * Write the state of this sketch, see {@link MetadataState}.
+	 */
+	void write(DataOutput out) throws IOException {
+		out.writeInt(capacity);
+		out.writeInt(counters.size());
+		for (Map.Entry<String, long[]> entry : counters.entrySet()) {
+			MetadataState.writeString(out, entry.getKey());
+			out.writeLong(entry.getValue()[0]);
+		}
+	}
+
+	/**
+	 * Read the state of a sketch, see {@link #write(DataOutput)}.
+	 */
+	static TopValuesSketch read(DataInput in) throws IOException {
+		TopValuesSketch sketch = new TopValuesSketch(in.readInt());
+		int size = in.readInt();
+		if (size < 0 || size > sketch.capacity) {
+			throw new IOException("Invalid top values sketch state.");
+		}
+		for (int i=0; i<size; i++) {
+			String value = MetadataState.readString(in);
+			sketch.counters.put(value, new long[]{in.readLong()});
+		}
+		return sketch;
+	}
+
+	/**
+	 * @return The minimum count in the summary if full,
+	 * otherwise zero (values missing were not seen).
+	 */
+	private long minCount() {
+		if (counters.size() < capacity) return 0;
+		return counters.get(minValue())[0];
+	}
+
+	/**
+	 * @return The least frequent value in the summary (the
+	 * largest value among ties, for a deterministic result).
+	 */
+	private String minValue() {
+		String minValue = null;
+		long minCount = Long.MAX_VALUE;
+		for (Map.Entry<String, long[]> entry : counters.entrySet()) {
+			long count = entry.getValue()[0];
+			if (count < minCount || (count == minCount &&
+				entry.getKey().compareTo(minValue) > 0)) {
+				minValue = entry.getKey();
+				minCount = count;
+			}
+		}
+		return minValue;
+	}
+}
@@ -3,16 +3,12 @@ package traminer.parser;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Date;
-import java.util.Iterator;
 import java.util.List;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.ForkJoinPool;
 import java.util.function.Function;
 import java.util.function.Predicate;
 import java.util.stream.Stream;
-import java.util.stream.Stream.Builder;
 
 import org.apache.log4j.Logger;
 
@@ -22,19 +18,19 @@ import traminer.io.params.LocalFSParameters;
 import traminer.io.params.MongoDBParameters;
 import traminer.parser.analyzer.Keywords;
 import traminer.parser.analyzer.LexicalAnalyzer;
-import traminer.parser.analyzer.Symbols;
 import traminer.parser.analyzer.SyntaxAnalyzer;
 import traminer.parser.analyzer.Keywords.OutputFormat;
 import traminer.parser.analyzer.LexicalAnalyzer.Token;
 import traminer.parser.analyzer.SemanticAnalyzer;
-import traminer.parser.format.ArrayFormat;
 import traminer.parser.format.DataFormat;
-import traminer.parser.format.Format.AttributeEntry;
-import traminer.util.DateUtils;
-import traminer.util.DeltaEncoder;
-import traminer.util.math.Decimal;
+import traminer.parser.format.RecordPlan;
+import traminer.parser.pipeline.FileChunk;
+import traminer.parser.pipeline.IngestPipeline;
+import traminer.parser.pipeline.PipelineParameters;
+import traminer.parser.pipeline.PipelineParameters.Stage;
+import traminer.parser.pipeline.RecordSampler;
+import traminer.parser.pipeline.RecordSampler.Method;
 import traminer.util.spatial.distance.EuclideanDistanceFunction;
-import traminer.util.spatial.distance.HaversineDistanceFunction;
 
 /**
  * Read and parse the input trajectory dataset, based on 
@@ -62,8 +58,24 @@ public class TrajectoryParser implements ParserInterface {
 	private long filesCount = 0;
 	// number of files that could not be read
 	private long errorFileCount = 0;
-	// total number of trajectories read
-    private AtomicInteger trajCount = new AtomicInteger(0);
+	// configuration of the ingest pipeline
+	private PipelineParameters pipelineParams = new PipelineParameters();
+	// configuration of the MongoDB bulk writes
+	private MongoWriteParameters mongoWriteParams = new MongoWriteParameters();
+	// metadata of the data to load, to pre-split the MongoDB collection
+	private MetadataState splitProfile = null;
+	// sample rate of the input records to pre-split the MongoDB collection
+	private static final double SPLIT_SAMPLE_RATE = 0.01;
+	private static final long SPLIT_SAMPLE_SEED = 1;
+	// reads the lines of the input file chunks
+	private final MappedRecordReader chunkReader = new MappedRecordReader(null);
+	// whether to parse the data without writing it (profile-only)
+	private boolean profileOnly = false;
+	// report of the last profile-only job
+	private ProfileReport profileReport = null;
+	// intervals of the metadata snapshots (zero if none)
+	private long snapshotSeconds = 0;
+	private long snapshotTrajectories = 0;
 	// metadata script generated during the data loading
 	private static String outputFormatScript = "";
 
@@ -99,6 +111,55 @@ public class TrajectoryParser implements ParserInterface {
 		this.dataFormatContent = inputDataFormat;
 	}
 
+	/**
+	 * Set the configuration of the ingest pipeline, i.e. 
+	 * number of threads per stage, and queues capacity.
+	 * 
+	 * @param params The ingest pipeline parameters.
+	 */
+	public void setPipelineParameters(PipelineParameters params) {
+		if (params == null) {
+			throw new NullPointerException(
+					"Pipeline parameters must not be null.");
+		}
+		this.pipelineParams = params;
+	}
+
+	/**
+	 * Set the configuration of the writes to MongoDB, i.e. 
+	 * documents per bulk write, writer threads, and bulk 
+	 * writes in flight, see {@link MongoBulkWriter}.
+	 * 
+	 * @param params The MongoDB write parameters.
+	 */
+	public void setMongoWriteParameters(MongoWriteParameters params) {
+		if (params == null) {
+			throw new NullPointerException(
+					"MongoDB write parameters must not be null.");
+		}
+		this.mongoWriteParams = params;
+	}
+
+	/**
+	 * Take snapshots of the metadata periodically during the 
+	 * data loading, every given number of seconds and/or of 
+	 * trajectories parsed, see {@link MetadataSnapshotter}. 
+	 * Snapshots are not taken when profiling.
+	 * 
+	 * @param intervalSeconds Seconds between snapshots,
+	 * zero to not take snapshots by time.
+	 * @param intervalTrajectories Trajectories parsed between
+	 * snapshots, zero to not take snapshots by count.
+	 */
+	public void setMetadataSnapshots(long intervalSeconds, long intervalTrajectories) {
+		if (intervalSeconds < 0 || intervalTrajectories < 0) {
+			throw new IllegalArgumentException(
+					"Snapshot intervals must not be negative.");
+		}
+		this.snapshotSeconds = intervalSeconds;
+		this.snapshotTrajectories = intervalTrajectories;
+	}
+
 	/**
 	 * Parse the input trajectory data based on the 
 	 * user-specified parameters. 
@@ -139,11 +200,22 @@ public class TrajectoryParser implements ParserInterface {
 			final OutputFormat outputFormat, 
 			final MongoDBParameters mongodbParams){
 		// initialize MongoDB storage service
-		DataWriter.init(mongodbParams);
+		DataWriter.init(mongodbParams, mongoWriteParams);
 		this.outputFormat = outputFormat;
 		
+		// metadata of the data, to pre-split the sharded collection
+		splitProfile = mongoWriteParams.getSplitProfile();
+		if (mongoWriteParams.getShardKey() != null && splitProfile == null) {
+			splitProfile = profileSample(outputFormat);
+			if (splitProfile == null) return false;
+		}
+		
 		// parse and store to MongoDB
-		return parse();
+		try {
+			return parse();
+		} finally {
+			splitProfile = null;
+		}
 	}
 	
 	/**
@@ -169,6 +241,65 @@ public class TrajectoryParser implements ParserInterface {
 		// parse and store to HDFS
 		return parse();
 	}
+
+	/**
+	 * Profile the input trajectory data, i.e. read and parse
+	 * the data and compute its metadata, at full parallelism, 
+	 * but without encoding and writing the parsed data or any 
+	 * output file. The metadata and the throughput of the job 
+	 * are given by {@link #getProfileReport()}.
+	 * 
+	 * @param outputFormat The {@link OutputFormat} the data would
+	 * 		be loaded in (e.g. SPATIAL, ALL, SPATIAL_TEMPORAL), which
+	 * 		defines the attributes profiled.
+	 * 
+	 * @return Whether or not the parsing was successful.
+	 */
+	public boolean profile(final OutputFormat outputFormat) {
+		this.outputFormat = outputFormat;
+		this.profileOnly = true;
+		try {
+			return parse();
+		} finally {
+			this.profileOnly = false;
+		}
+	}
+
+	/**
+	 * @return The report of the last profile-only job, see
+	 * {@link #profile(OutputFormat)}, or null if no data
+	 * has been profiled.
+	 */
+	public ProfileReport getProfileReport() {
+		return profileReport;
+	}
+
+	/**
+	 * Profile a stratified sample of the input data, e.g. to 
+	 * pre-split the MongoDB collection on the data density.
+	 * The profile report of the last profile-only job is kept.
+	 * 
+	 * @param outputFormat The {@link OutputFormat} the data 
+	 * will be loaded in.
+	 * 
+	 * @return The metadata state of the sample, or null if 
+	 * the sample could not be parsed.
+	 */
+	private MetadataState profileSample(final OutputFormat outputFormat) {
+		final RecordSampler sampler = pipelineParams.getSampler();
+		final ProfileReport report = profileReport;
+		pipelineParams.setSampler(new RecordSampler(
+				SPLIT_SAMPLE_RATE, Method.STRATIFIED, SPLIT_SAMPLE_SEED));
+		try {
+			if (!profile(outputFormat)) return null;
+			log.info("Profiled a sample of " + profileReport.recordsCount 
+					+ " records to pre-split the MongoDB collection.");
+			return MetadataService.getState(dataFormat, outputFormat);
+		} finally {
+			pipelineParams.setSampler(sampler);
+			profileReport = report;
+		}
+	}
 	
 	/**
 	 * Parse input trajectory data based on the 
@@ -190,7 +321,7 @@ public class TrajectoryParser implements ParserInterface {
 		
 		// init metadata management service			
 		if (dataFormat.getCoordinateSystem().equals(Keywords.GEOGRAPHIC)) {
-			MetadataService.init(new HaversineDistanceFunction());
+			MetadataService.init(MetadataService.getDistanceKernel());
 		} else 
 		if (dataFormat.getCoordinateSystem().equals(Keywords.CARTESIAN)) {
 			MetadataService.init(new EuclideanDistanceFunction());
@@ -204,11 +335,20 @@ public class TrajectoryParser implements ParserInterface {
 			return false;
 		}
 		
+		// nothing is written when profiling
+		if (profileOnly) {
+			log.info("Profile of '" + inputDataPath + "':\n" 
+					+ profileReport.getScript());
+			return true;
+		}
+		
 		// create and write output files, and get the files script
 		try {
 			outputFormatScript = DataWriter
 					.saveOutputFormatFile(dataFormat, outputFormat);
 			DataWriter.saveMetadataFile(dataFormat, outputFormat);
+			// build the indexes deferred until the data is loaded
+			DataWriter.finishDataFiles();
 			return true;
 		} catch (ParserException e) {
 			log.error(e.getMessage(), e.getCause());
@@ -221,147 +361,131 @@ public class TrajectoryParser implements ParserInterface {
 	 * (recursively), and parse each file according with the 
 	 * user-specified data format and output parameters.
 	 * <p>
-	 * Saves the parsed files to the output database of choice.
+	 * Files are read, parsed and written concurrently, in the
+	 * stages of an {@link IngestPipeline}.
+	 * <p>
+	 * Saves the parsed files to the output database of choice,
+	 * unless profile-only.
 	 * 
 	 * @return Whether or not ALL files were successfully read and parsed.
 	 */
 	private boolean readAndParseData() {
-		String[] delimList = new String[dataFormat.getDelimiters().size()];
-		delimList = dataFormat.getDelimiters().toArray(delimList);
-
-		// read file paths recursively (path names only)
-		List<String> pathList = new ArrayList<>();
+		// compile the parse plan only once, shared by all parsers
+		final RecordPlan recordPlan = new RecordPlan(dataFormat);
+		// giant coordinates arrays of all parsers are processed in
+		// parallel in this pool, not in the common pool
+		final ForkJoinPool chunkPool = new ForkJoinPool(
+				pipelineParams.getNumWorkers(Stage.PARSE));
+		// split large files into chunks aligned on the records
+		final RecordsSplitter splitter = new RecordsSplitter(
+				dataFormat.getRecordsDelim(), 
+				dataFormat.getIgnoredLinesList(),
+				pipelineParams.getChunkSize());
+		// format the output lines (none if profile-only)
+		final Function<ParsedRecord, String> encoder = profileOnly ? 
+				null : record -> record.encode(outputFormat);
+		final IngestPipeline<?, ParsedRecord> pipeline;
+		if (isMappedInput()) {
+			final MappedRecordReader mappedReader = 
+					new MappedRecordReader(dataFormat.getIgnoredLinesList());
+			pipeline = new IngestPipeline<ByteRecord, ParsedRecord>(
+					pipelineParams, splitter,
+					// map the file chunk, one data record per file line
+					chunk -> mappedReader.read(chunk),
+					// parse the records bytes to the Intermediate 
+					// format, one record parser per thread
+					() -> new RecordParser(recordPlan, outputFormat, chunkPool)::parse,
+					encoder);
+		} else {
+			pipeline = new IngestPipeline<String, ParsedRecord>(
+					pipelineParams, splitter,
+					// read and pre-process the file chunk, put one 
+					// data record per stream item
+					chunk -> preProcessDataFile(readFileChunk(chunk), chunk.firstLine),
+					// parse the records to the Intermediate format,
+					// one record parser per thread
+					() -> new RecordParser(recordPlan, outputFormat, chunkPool)::parse,
+					encoder);
+		}
+		// prepare the output database for the data files
+		if (!profileOnly) {
+			try {
+				DataWriter.prepareDataFiles(dataFormat, outputFormat, splitProfile);
+			} catch (ParserException e) {
+				log.error(e.getMessage(), e.getCause());
+				chunkPool.shutdown();
+				return false;
+			}
+		}
+		// snapshots of the metadata while loading (if set)
+		MetadataSnapshotter snapshotter = null;
+		if (!profileOnly && (snapshotSeconds > 0 || snapshotTrajectories > 0)) {
+			snapshotter = new MetadataSnapshotter(snapshotSeconds, snapshotTrajectories);
+			snapshotter.start(pipeline::getParsedCount, () -> getSnapshotState(pipeline));
+		}
 		try {
-			pathList = IOService.getFilesPathList(inputDataPath);
-		} catch (IOException e) {
-			log.error("Error reading input data path.", e);
+			pipeline.run(inputDataPath);
+		} catch (ParserException e) {
+			log.error(e.getMessage(), e.getCause());
+			return false;
+		} finally {
+			// wait for the data to be written
+			if (!profileOnly) DataWriter.flushDataFiles();
+			if (snapshotter != null) snapshotter.stop();
+			chunkPool.shutdown();
 		}
-		
+
 		// number of files read (metadata)
-		filesCount = pathList.size();
+		filesCount = pipeline.getPathList().size();
+		errorFileCount = pipeline.getErrorFilesCount();
 		MetadataService.setFilesCount(filesCount);
+		MetadataService.setRecordsCount(
+				pipeline.getReadCount(), pipeline.getSampledCount());
+		if (pipelineParams.getSampler() != null) {
+			log.info("Parsed a " + pipelineParams.getSampler() + ": " 
+					+ pipeline.getSampledCount() + " of " 
+					+ pipeline.getReadCount() + " records.");
+		}
 		
-		// process every file
-		for (String path : pathList) {
-			// check whether the file was successfully 
-			// read, processed and saved.
-			try {
-				// read the current file lines as a stream
-				Stream<String> fileLines = 
-						IOService.readFileAsStream(path);
-				// pre-process the file according with the records 
-				// delimiter, put one data record per file line
-				fileLines = preProcessDataFile(fileLines);
-				// parse file (one record per line)
-				Stream<String> parsedFile = parseFile(fileLines, delimList);
-				// write file to database of choice
-				DataWriter.saveDataFile(parsedFile);
-			} catch(Exception e) {
-				errorFileCount++;
-				String errMsg = "Unable to parse file: '" + path + "'.\nFile Ignored!";
-				log.error(errMsg, new ParserException(errMsg, e));
-			}
+		if (profileOnly) {
+			MetadataState state = MetadataService.getState(dataFormat, outputFormat);
+			profileReport = new ProfileReport(filesCount, errorFileCount,
+					pipeline.getBytesCount(), pipeline.getParsedCount(),
+					state.getStatistics().getPointsCount(),
+					pipelineParams.getNumWorkers(Stage.PARSE),
+					pipeline.getElapsedTime(), state.getMetadata());
 		}
 		
 		return (errorFileCount != filesCount);
 	}
 
 	/**
-	 * Parse the given file stream to the Intermediate format
-	 * of choice, each line in the file is split according to 
-	 * the given attributes' delimiter list.
-	 * <p>
-	 * Note: Assume the data files have already been pre-processed,
-	 * {@link preProcessDataFile}, hence contains one trajectory  
-	 * record per file line. 
-	 * 
-	 * @param fileLineStream Stream with the input file lines to parse.
-	 * @param delimList List of attributes' delimiter in the data records.
-	 * 
-	 * @return A Stream with the parsed file lines. 
+	 * @return The metadata state of a snapshot taken while the
+	 * given pipeline is running, see {@link MetadataService#getSnapshot()}.
 	 */
-	private Stream<String> parseFile(
-			Stream<String> fileLineStream,
-			final String[] delimList){
-		final int idPos    = dataFormat.getIdAttrIndex();
-		final int coordPos = dataFormat.getCoordinatesAttrIndex();
-				
-		// Map each line of the file, according to the 
-		// Input Data Format, to the chosen Intermediate Format.
-		Stream<String> parsedLinesStream = fileLineStream.parallel().map(
-				new Function<String, String>() {
-			public String apply(String line) {
-				// check whether a record of the input data was 
-				// successfully read and processed
-				try {
-					// attributes to read
-					String id = "";
-					String coordinates  = "";
-					String semanticAttr = "";
-					// get trajectory attributes
-					String[] attrValues = getAttributes(line, delimList);
-					String attrValue;
-					for (int i=0; i<attrValues.length; i++) {
-						// process only not-ignored attributes
-						if(dataFormat.isIgnoredAttr(i))	continue;						
-	
-						// check if this is the ID or Coordinates attribute,
-						// or an array type attribute (format the array)
-						attrValue = attrValues[i];
-						AttributeEntry attr = dataFormat.getAttribute(i);
-						if (i == idPos) {
-							id = attrValue;
-						} 
-						// coordinates
-						else if (i == coordPos) {
-							coordinates = parseCoordinatesArray(attrValue);
-						}  
-						// semantic attribute, array type 
-						else if (attr.isArrayType()) {
-							attrValue = parseArray(attr.type, attrValue);
-							semanticAttr += ";" + attrValue;
-						} 
-						// semantic attribute, single valued
-						else {
-							semanticAttr += ";" + attrValue;
-						}
-					}
-	
-					// auto-generated IDs
-					if (dataFormat.isAutoId()) {
-						int num = trajCount.incrementAndGet();
-						// if the prefix is a integer number
-						String idPrefix = dataFormat.getIdPrefix();
-						if (idPrefix.matches("\\d+")) {
-							// TODO no need to do parseInt() every time
-							id = ""+(num + Integer.parseInt(idPrefix) -1);
-						} else {
-							id = dataFormat.getIdPrefix() + "_" + num;
-						}
-					}
-					
-					// parse attributes according to the output format
-					String parsedLine = "";
-					if (outputFormat.equals(OutputFormat.ALL)) {
-						parsedLine = id + ";" + coordinates + semanticAttr;
-					} else{
-						parsedLine = id + ";" + coordinates;
-					}
-					
-					return parsedLine;
-					
-				// Error processing file line	
-				} catch (Exception e) {
-					log.warn("Unable to parse data record: '" + line 
-							+ "'.\nRecord Ignored!", new ParserException(e));
-					return "";
-				}
-			}
-		});
-					
-		return parsedLinesStream;
+	private MetadataState getSnapshotState(IngestPipeline<?, ?> pipeline) {
+		// records read are counted once a chunk is done
+		long sampled = pipeline.getSampledCount();
+		long read = pipelineParams.getSampler() == null ? 
+				sampled : Math.max(pipeline.getReadCount(), sampled);
+		return MetadataService.getState(dataFormat, outputFormat, 
+				pipeline.getPathList().size(), read, sampled, 
+				MetadataService.getSnapshot());
 	}
-	
+
+	/**
+	 * @return Whether to read the input files memory-mapped,
+	 * only if there is one data record per file line.
+	 */
+	private boolean isMappedInput() {
+		if (!pipelineParams.isMappedInput()) return false;
+		if (dataFormat.getRecordsDelim().equals(LINE_BREAK)) return true;
+		log.warn("Memory-mapped input requires one data record per "
+				+ "file line (_RECORDS_DELIM LN). Reading the input "
+				+ "files as text streams.");
+		return false;
+	}
+
 	/**
 	 * Perform the Lexical, Syntactical and Semantical
 	 * analysis of the input data format.
@@ -390,18 +514,36 @@ public class TrajectoryParser implements ParserInterface {
 		return (syntaxResult && semanticResult);
 	}
 	
+	/**
+	 * Read the lines of the given input file chunk.
+	 * 
+	 * @param chunk The file chunk to read.
+	 * @return The chunk lines.
+	 * @throws IOException If the file could not be read.
+	 */
+	private Stream<String> readFileChunk(FileChunk chunk) throws IOException {
+		if (chunk.isWholeFile()) {
+			return IOService.readFileAsStream(chunk.path);
+		}
+		return chunkReader.read(chunk).map(ByteRecord::toString);
+	}
+
 	/**
 	 * Put the data items one record per file line, and remove
 	 * ignored lines (if any).
 	 * 
-	 * @param fileLines The input file to preprocess.
+	 * @param fileLines The input file (or chunk) to preprocess.
+	 * @param firstLine Number of the first line in the file, 
+	 * or {@link FileChunk#UNKNOWN_LINE} if after the ignored lines.
 	 * @return The file lines after preprocessing.
 	 */
-	private synchronized Stream<String> preProcessDataFile(Stream<String> fileLines) {
+	private Stream<String> preProcessDataFile(
+			Stream<String> fileLines, final int firstLine) {
 		// remove ignored lines (if any)
-		if (dataFormat.hasLinesToIgnore()) {
+		if (dataFormat.hasLinesToIgnore() && 
+			firstLine != FileChunk.UNKNOWN_LINE) {
 			fileLines = fileLines.sequential().filter(new Predicate<String>() {
-				int lineNumber = 0;
+				int lineNumber = firstLine;
 				public boolean test (String line) {
 					if (dataFormat.getIgnoredLinesList().contains(lineNumber++)) {
 						return false;
@@ -416,313 +558,11 @@ public class TrajectoryParser implements ParserInterface {
 		// one record/item per file line
 		if (recordsDelim.equals(LINE_BREAK)){
 			return fileLines; // nothing to do
-		} else 
-		// one record/item per file
-		if (recordsDelim.equals(Keywords.EOF.name())) {
-			String record = fileLines
-					.sequential()
-					.reduce((a,b) -> a + LINE_BOND + b) // LINE_BOND changed from LINE_SPACE
-					.get(); 
-			return Stream.of(record);
-		}
-		
-		// many records per file, split by delimiter
-		Builder<String> streamBuilder = Stream.builder();
-		Iterator<String> linesItr = fileLines.iterator();
-		String record = "";
-		while (linesItr.hasNext()) {
-			String line = linesItr.next();
-			if (line.startsWith(recordsDelim)) {
-				// add previous record, if any
-				if (!record.isEmpty()) {
-					streamBuilder.accept(record);
-				}
-				// start new record
-				record = line.replace(recordsDelim, "");
-			} else 
-			if (record.isEmpty()) {
-				record = line;
-			} else {
-				record += LINE_BOND + line;
-			}
-		}
-		// last record
-		if (!record.isEmpty()) {
-			streamBuilder.accept(record);
-		}
-				
-		return streamBuilder.build();		
-	}
-
-	/**
-	 * A Thread-safe method to split a given file line (trajectory record, attributes) 
-	 * based on the list of attributes delimiters. This method assumes that the file 
-	 * has already been pre-processed, thus has one record per line.
-	 * 
-	 * @param line A line (trajectory record) in the input file.
-	 * @param delimList List of attributes' delimiters
-	 * @return The list of attributes' values in this file line.
-	 */
-	private synchronized String[] getAttributes(String line, String[] delimList) {
-		// process the line, read each attribute in the line
-		int numDelim = delimList.length;
-		String[] attrValues = new String[numDelim]; 
-		String attrValue = "";
-		int toIndex = 0, fromIndex = 0;  // attribute index in the line
-		for (int i=0; i<numDelim; i++) {
-			toIndex = line.indexOf(delimList[i], fromIndex);
-			// read until the end of the line
-			if (toIndex == -1) {
-				attrValue = line.substring(fromIndex);
-			} 
-			// stop at the given delimiter
-			else {
-				attrValue = line.substring(fromIndex, toIndex);
-			}
-			attrValues[i] = attrValue;
-			
-			fromIndex = toIndex + 1;
-		}
-
-		return attrValues;
-	}
-	
-	/**
-	 * A Thread-safe method to format an Array type attribute. 
-	 * Put all array items comma separated.
-	 * 
-	 * @param arrayFormat Array type description/specification, 
-	 * as in the file format
-	 * @param arrayString The array string (items)
-	 * 
-	 * @return The new formated array
-	 */
-	private synchronized String parseArray(
-			String arrayFormat, String arrayString){
-		// get the auxiliary object containing the array format
-		ArrayFormat array = new ArrayFormat(arrayFormat);
-		// put all array items comma separated
-		for (String delim : array.getDelimiters()) {
-			arrayString = arrayString.replace(delim, ",");
-		}
-		// TODO: colocar os attributos de um general array delta-compressed?
-		return arrayString;
-	}
-
-	/**
-	 * A Thread-safe method to parse the Coordinates ARRAY, i.e.
-	 * put all array items comma separated, and organize the attributes 
-	 * in (x,y,time) order, or (x,y,time,other_attributes) order 
-	 * if the coordinates have attributes other than spatial-temporal.
-	 * <p>
-	 * Also compress the spatial-temporal attributes in the array
-	 * (x,y,time) using delta encoding (if they are not already compressed.
-	 *
-	 * @param arrayString The coordinates array (items)
-	 * 
-	 * @return The formated coordinates array.
-	 */
-	private synchronized String parseCoordinatesArray(String arrayString) {
-		// get the auxiliary object containing the coordinates array format
-		ArrayFormat coordArrayFormat = dataFormat.getCoordinatesArrayFormat();
-
-		// read the values in the array, split by the delimiters
-		List<String> itemValues = new ArrayList<>();
-		int index = 0;
-		// while there are values to read 
-		while (index != -1) {
-			for (String delim : coordArrayFormat.getDelimiters()) {
-				index = arrayString.indexOf(delim);
-				if (index == -1){
-					// last item 
-					itemValues.add(arrayString);
-				} else {
-					// move to next item
-					itemValues.add(arrayString.substring(0, index));
-					arrayString = arrayString.substring(index+1, arrayString.length());
-				}
-			}
-		}
-/*
-TODO Usar o getAttributes ao inves do codigo acima, mas ta dando erro
-String[] delimList = new String[coordArrayFormat.getDelimiters().size()];
-delimList = coordArrayFormat.getDelimiters().toArray(delimList);
-String itemValues[] = getAttributes(arrayString, delimList);
-*/
-		// read array item values
-		int numItems = itemValues.size();
-		int numAttr  = coordArrayFormat.numAttributes();
-		int xPos = coordArrayFormat.getXAttrIndex();
-		int yPos = coordArrayFormat.getYAttrIndex();
-		int tPos = coordArrayFormat.getTimeAttrIndex();
-		
-		// get spatial-temporal attributes only
-		final int numPts = numItems / numAttr;
-		String[] xValues = new String[numPts];
-		String[] yValues = new String[numPts];
-		String[] tValues = new String[numPts];
-
-		for (int i=0,j=0; i<numItems; i+=numAttr,j++) {
-			xValues[j] = itemValues.get(i + xPos);
-			yValues[j] = itemValues.get(i + yPos);
-			tValues[j] = itemValues.get(i + tPos);
-		}
-
-		AttributeEntry xAttr = coordArrayFormat.getAttribute(xPos);
-		AttributeEntry yAttr = coordArrayFormat.getAttribute(yPos);
-		AttributeEntry tAttr = coordArrayFormat.getAttribute(tPos);
-
-		// check if any coordinate attribute is compressed (delta type)
-		boolean isDeltaX, isDeltaY, isDeltaT;
-		Token token;
-		token = new LexicalAnalyzer().analyzeToken(xAttr.type, false);
-		isDeltaX = token.lexSymbol.equals(Symbols.DeltaTypeSymbol); 
-		token = new LexicalAnalyzer().analyzeToken(yAttr.type, false);
-		isDeltaY = token.lexSymbol.equals(Symbols.DeltaTypeSymbol);
-		token = new LexicalAnalyzer().analyzeToken(tAttr.type, false);
-		isDeltaT = token.lexSymbol.equals(Symbols.DeltaTypeSymbol);
-
-		// convert DATETIME attributes from the given pattern to INTEGER, 
-		// i.e. number of milliseconds passed since 01/Jan/1970.
-		if (Keywords.isDateTimeType(tAttr.type)) {
-			formatDate(tValues, tAttr.type);
-			// attribute type now is INTEGER
-			tAttr = coordArrayFormat.new AttributeEntry(
-					tAttr.name, Keywords.INTEGER.name(), tAttr.delim);
-		}
-		// fix backwards time-stamp values (if any)
-		fixTimeStamps(tValues, tAttr.type);
-
-		// update metadata (if values are numeric)
-		MetadataService.addValues(
-				xValues, isDeltaX, xAttr.type,
-				yValues, isDeltaY, yAttr.type,
-				tValues, isDeltaT, tAttr.type);
-
-		// delta compress (x,y,t) values (if not)
-		xValues = compressValues(xValues, xAttr.type, isDeltaX);
-		yValues = compressValues(yValues, yAttr.type, isDeltaY);
-		tValues = compressValues(tValues, tAttr.type, isDeltaT);
-
-		// format the coordinates array according with the 
-		// user-specified output format (x,y,time,semantic)		
-		String parsedArray = "";
-		// spatial attributes only
-		if (outputFormat.equals(OutputFormat.SPATIAL)) {
-			for (int i=0; i<numPts; i++) {
-				parsedArray += "," + xValues[i] + "," + yValues[i]; 
-			}
-		}  
-		// spatial-temporal attributes only	
-		else if (outputFormat.equals(OutputFormat.SPATIAL_TEMPORAL)) {
-			for(int i=0; i<numPts; i++){
-				parsedArray += "," + xValues[i] + "," + yValues[i];
-				parsedArray += "," + tValues[i];
-			}
-		} 
-		// all attributes	
-		else if (outputFormat.equals(OutputFormat.ALL)) {
-			for (int i=0,k=0; i < numItems; i+=numAttr,k++) {
-				String xVal="", yVal="", tVal="", semantic="";
-				for (int j=i; j < (i+numAttr); j++) {
-						 if (j == (i + xPos)){xVal = xValues[k];} // xVal
-					else if (j == (i + yPos)){yVal = yValues[k];} // yVal
-					else if (j == (i + tPos)){tVal = tValues[k];} // tVal
-					else {semantic += "," + itemValues.get(j);}   // semanticVals
-				}
-				parsedArray += "," + xVal + "," + yVal; 
-				parsedArray += "," + tVal + semantic;
-			}
-		}
-
-		return parsedArray.substring(1);
-	}
-	
-	/**
-	 * Compress the array of values using Delta compression,
-	 * only if the array is not already compressed. 
-	 * <p>
-	 * Return the compressed values as Integer  (value * 10^DECIMAL_PRECISION)
-	 * 
-	 * @param values The array of values to compress.
-	 * @param type The type of the values to compress.
-	 * @param isCompressed If the values are already compressed.
-	 * 
-	 * @return The array of values in delta-compression.
-	 */
-	private synchronized String[] compressValues(String[] values, String type, boolean isCompressed) {
-		// if the values are not numbers, then do nothing
-		if (!Keywords.isNumberType(type)) return values;
-		// compress values, if not
-		if (!isCompressed) { // $etype
-			values = DeltaEncoder.deltaEncode(values);
-		} 
-		// if attribute is a Decimal, then convert and save values 
-		// to integer with given precision ( value * 10^DECIMAL_PRECISION )
-		if (type.equals(Keywords.DECIMAL.name()) ||
-			type.equals(Keywords.DELTADECIMAL.name())) {
-			Decimal round = Decimal.valueOf(
-					Math.pow(10, dataFormat.getDecimalPrecision()));
-			Decimal intVal;
-			for (int i=0; i<values.length; i++) {
-				intVal = Decimal.valueOf(values[i]).multiply(round);
-				values[i] = ""+intVal.longValue();
-			}	
-		}		
-		// if attribute is an Integer, get only the integer part
-		if (type.equals(Keywords.INTEGER.name()) ||
-			type.equals(Keywords.DELTAINTEGER.name())) {
-			Decimal intVal;
-			for (int i=0; i<values.length; i++) {
-				intVal = Decimal.valueOf(values[i]);
-				values[i] = ""+intVal.longValue();
-			}	
 		}
 		
-		return values;
-	}
-	
-	/**
-	 * Format DATETIME time attributes, convert the date attribute
-	 * from the given pattern to a Integer format, i.e. number of 
-	 * milliseconds passed since 01/Jan/1970.
-	 * 
-	 * @param tValues The list of attribute values to format.
-	 * @param typeDescr the DATETIME("...") type description.
-	 */
-	private synchronized void formatDate(String[] tValues, final String typeDescr) {
-		// get the current DATETIME pattern
-		int s = typeDescr.indexOf("\"") + 1;
-		int e = typeDescr.lastIndexOf("\"");
-		final String datePattern = typeDescr
-				.substring(s, e)
-				.replaceAll("\\"+DATE_BOND, " ");
-		Date newDate;
-		for (int i=0; i<tValues.length; i++) {
-			String oldDate = tValues[i];
-			newDate = DateUtils.parseDate(oldDate, datePattern);
-			tValues[i] = ""+newDate.getTime();
-		}	
-	}
-
-	/**
-	 * Fix backwards time-stamps (negative delta time-stamps).
-	 * 
-	 * @param deltaTimeValues List of time-stamp values.
-	 */
-	private synchronized void fixTimeStamps(String[] deltaTimeValues, String type) {
-		// do only if time-stamp values are numbers
-		if (Keywords.isNumberType(type)) {
-			String prev, next;
-			for (int i=0; i<deltaTimeValues.length-1; i++) {
-				prev = deltaTimeValues[i];
-				next = deltaTimeValues[i+1];
-				// if delta is negative
-				if (Double.parseDouble(next) < Double.parseDouble(prev)) {
-					deltaTimeValues[i+1] = prev;
-				}
-			}			
-		}
+		// many records per file split by delimiter, 
+		// or one record per file
+		return RecordAssembler.assemble(fileLines, recordsDelim);
 	}
 
 	/**
@@ -0,0 +1,399 @@
+package traminer.parser.format;
+
+import java.util.List;
+
+import traminer.parser.DateTimeParser;
+import traminer.parser.ParserInterface;
+import traminer.parser.analyzer.Keywords;
+import traminer.parser.analyzer.LexicalAnalyzer;
+import traminer.parser.analyzer.Symbols;
+import traminer.parser.analyzer.LexicalAnalyzer.Token;
+import traminer.parser.format.Format.AttributeEntry;
+import traminer.util.math.Decimal;
+
+/**
+ * Compiled parse plan of the data records, derived once from
+ * the {@link DataFormat} at the beginning of the parsing job.
+ * <p>
+ * The plan resolves everything that does not depend on the
+ * record contents, i.e. the kind of each attribute slot, the
+ * attributes' delimiters, the array layouts, delta flags, and
+ * date-time formatters, so that the parsers do not need to
+ * query the data format or run the lexical analyzer per record.
+ * <p>
+ * A plan is immutable, hence it can be shared by all parser threads.
+ *
+ * @see DataFormat
+ * @see ArrayFormat
+ *
+ * @author douglasapeixoto
+ */
+@SuppressWarnings("serial")
+public final class RecordPlan implements ParserInterface {
+	/**
+	 * The kind of an attribute slot in the data records.
+	 */
+	public enum SlotKind {
+		/** Attribute ignored for reading */
+		IGNORED,
+		/** The trajectory ID */
+		ID,
+		/** The coordinates array */
+		COORDINATES,
+		/** Semantic attribute, array type */
+		ARRAY,
+		/** Semantic attribute, single valued */
+		VALUE
+	}
+
+	/**
+	 * The kind of a spatial-temporal attribute value
+	 * in the coordinates array.
+	 */
+	public enum ValueKind {
+		/** DECIMAL or DELTADECIMAL */
+		DECIMAL,
+		/** INTEGER or DELTAINTEGER */
+		INTEGER,
+		/** Non-numeric value */
+		OTHER
+	}
+
+	// kind of each attribute slot in the record
+	private final SlotKind[] slotKinds;
+	// name and type of each attribute slot in the record
+	private final String[] attrNames;
+	private final String[] attrTypes;
+	// delimiter of each attribute slot in the record
+	private final Delimiter[] delimiters;
+	// items' delimiters of the array attribute slots (null if not array)
+	private final Delimiter[][] arrayDelimiters;
+	// the layout of the coordinates array
+	private final CoordinatesPlan coordinates;
+	// whether all attributes' delimiters are single ASCII chars
+	private final boolean byteDelimited;
+	// Auto ID properties
+	private final boolean autoId;
+	private final String idPrefix;
+	private final boolean numberIdPrefix;
+	private final long idPrefixValue;
+
+	/**
+	 * Compiles the parse plan of the given data format.
+	 *
+	 * @param dataFormat The input data format.
+	 * Must not be modified after the plan is compiled.
+	 */
+	public RecordPlan(DataFormat dataFormat) {
+		if (dataFormat == null) {
+			throw new NullPointerException(
+					"Data format for plan compilation must not be null.");
+		}
+		final int numSlots = dataFormat.numAttributes();
+		final int idPos    = dataFormat.getIdAttrIndex();
+		final int coordPos = dataFormat.getCoordinatesAttrIndex();
+		this.slotKinds  = new SlotKind[numSlots];
+		this.attrNames  = new String[numSlots];
+		this.attrTypes  = new String[numSlots];
+		this.delimiters = new Delimiter[numSlots];
+		this.arrayDelimiters = new Delimiter[numSlots][];
+		for (int i=0; i<numSlots; i++) {
+			AttributeEntry attr = dataFormat.getAttribute(i);
+			delimiters[i] = new Delimiter(attr.delim);
+			attrNames[i] = attr.name;
+			attrTypes[i] = attr.type;
+			if (attr.isIgnoredAttr()) {
+				slotKinds[i] = SlotKind.IGNORED;
+			} else if (i == idPos) {
+				slotKinds[i] = SlotKind.ID;
+			} else if (i == coordPos) {
+				slotKinds[i] = SlotKind.COORDINATES;
+			} else if (attr.isArrayType()) {
+				slotKinds[i] = SlotKind.ARRAY;
+				arrayDelimiters[i] = toDelimiters(
+						new ArrayFormat(attr.type).getDelimiters());
+			} else {
+				slotKinds[i] = SlotKind.VALUE;
+			}
+		}
+		boolean asciiDelims = true;
+		for (Delimiter delim : delimiters) {
+			asciiDelims &= delim.isChar() && delim.charValue() < 0x80;
+		}
+		this.byteDelimited = asciiDelims;
+		this.coordinates = new CoordinatesPlan(
+				dataFormat.getCoordinatesArrayFormat(),
+				dataFormat.getDecimalPrecision());
+
+		// auto-generated IDs, parse the prefix only once
+		this.autoId = dataFormat.isAutoId();
+		this.idPrefix = dataFormat.getIdPrefix();
+		this.numberIdPrefix = autoId && idPrefix.matches("\\d{1,18}");
+		this.idPrefixValue = numberIdPrefix ? Long.parseLong(idPrefix) : 0;
+	}
+
+	/**
+	 * @return The number of attribute slots in the records,
+	 * including the ignored attributes.
+	 */
+	public int numSlots() {
+		return slotKinds.length;
+	}
+
+	/**
+	 * @param i The attribute slot index.
+	 * @return The kind of the i-th attribute slot.
+	 */
+	public SlotKind getSlotKind(int i) {
+		return slotKinds[i];
+	}
+
+	/**
+	 * @param i The attribute slot index.
+	 * @return The name of the i-th attribute slot.
+	 */
+	public String getAttributeName(int i) {
+		return attrNames[i];
+	}
+
+	/**
+	 * @param i The attribute slot index.
+	 * @return The type of the i-th attribute slot,
+	 * as in the input data format.
+	 */
+	public String getAttributeType(int i) {
+		return attrTypes[i];
+	}
+
+	/**
+	 * @param i The attribute slot index.
+	 * @return The delimiter of the i-th attribute slot.
+	 */
+	public Delimiter getDelimiter(int i) {
+		return delimiters[i];
+	}
+
+	/**
+	 * @param i The attribute slot index.
+	 * @return The items' delimiters of the i-th attribute slot,
+	 * or null if the attribute is not a semantic array.
+	 * The returned array must not be modified.
+	 */
+	public Delimiter[] getArrayDelimiters(int i) {
+		return arrayDelimiters[i];
+	}
+
+	/**
+	 * @return True if all attributes' delimiters are single ASCII 
+	 * chars, hence the records can be split directly on their 
+	 * bytes (UTF-8 encoded), see {@link traminer.parser.ByteRecord}.
+	 */
+	public boolean isByteDelimited() {
+		return byteDelimited;
+	}
+
+	/**
+	 * @return The layout of the coordinates array.
+	 */
+	public CoordinatesPlan getCoordinates() {
+		return coordinates;
+	}
+
+	/**
+	 * @return Whether the trajectory IDs are auto-generated.
+	 */
+	public boolean isAutoId() {
+		return autoId;
+	}
+
+	/**
+	 * Generate the ID of the given auto-generated trajectory
+	 * number, i.e. (prefix + num - 1) if the _AUTO_ID prefix
+	 * is an integer number (up to 18 digits), or (prefix_num)
+	 * otherwise.
+	 *
+	 * @param num The trajectory number, starting from 1.
+	 * @return The trajectory ID.
+	 */
+	public String autoId(long num) {
+		if (numberIdPrefix) {
+			return ""+(num + idPrefixValue - 1);
+		}
+		return idPrefix + "_" + num;
+	}
+
+	/**
+	 * Convert a list of delimiters from the data format.
+	 */
+	private static Delimiter[] toDelimiters(List<String> delimList) {
+		Delimiter[] delims = new Delimiter[delimList.size()];
+		for (int i=0; i<delims.length; i++) {
+			delims[i] = new Delimiter(delimList.get(i));
+		}
+		return delims;
+	}
+
+	/**
+	 * Check if a type is compressed (delta type).
+	 */
+	private static boolean isDeltaType(String type) {
+		Token token = new LexicalAnalyzer().analyzeToken(type, false);
+		return token.lexSymbol.equals(Symbols.DeltaTypeSymbol);
+	}
+
+	/**
+	 * @return The kind of values of the given type.
+	 */
+	private static ValueKind valueKind(String type) {
+		if (type.equals(Keywords.DECIMAL.name()) ||
+			type.equals(Keywords.DELTADECIMAL.name())) {
+			return ValueKind.DECIMAL;
+		}
+		if (type.equals(Keywords.INTEGER.name()) ||
+			type.equals(Keywords.DELTAINTEGER.name())) {
+			return ValueKind.INTEGER;
+		}
+		return ValueKind.OTHER;
+	}
+
+	/**
+	 * An attribute delimiter. Delimiters are usually a single
+	 * character, which is searched for as a char.
+	 */
+	public static final class Delimiter {
+		/** The delimiter string */
+		public final String value;
+		// the delimiter char, if single-char delimiter
+		private final char delimChar;
+		private final boolean isChar;
+
+		private Delimiter(String value) {
+			this.value  = value;
+			this.isChar = value.length() == 1;
+			this.delimChar = isChar ? value.charAt(0) : 0;
+		}
+
+		/**
+		 * @param str The string to search.
+		 * @param fromIndex The index to start the search from.
+		 * @return The index of the first occurrence of this
+		 * delimiter in the string, from the given index, or
+		 * -1 if the delimiter does not occur.
+		 */
+		public int indexIn(String str, int fromIndex) {
+			return isChar ? str.indexOf(delimChar, fromIndex) :
+							str.indexOf(value, fromIndex);
+		}
+
+		/**
+		 * @return True if this delimiter is a single character.
+		 */
+		public boolean isChar() {
+			return isChar;
+		}
+
+		/**
+		 * @return The delimiter char, if {@link #isChar()}.
+		 */
+		public char charValue() {
+			return delimChar;
+		}
+	}
+
+	/**
+	 * Compiled layout of the coordinates array, i.e. items'
+	 * delimiters, position of the spatial-temporal attributes,
+	 * their types, delta flags, and date-time parser.
+	 */
+	public static final class CoordinatesPlan {
+		/** Number of attributes per array item (point) */
+		public final int numAttr;
+		/** Position of the X, Y, and Time attributes in the item */
+		public final int xPos, yPos, tPos;
+		/** Whether the X, Y, and Time values are delta-compressed */
+		public final boolean isDeltaX, isDeltaY, isDeltaT;
+		/** Types of the X, Y, and Time values (DATETIME as INTEGER) */
+		public final String xType, yType, tType;
+		/** Kind of the X, Y, and Time values (DATETIME as INTEGER) */
+		public final ValueKind xKind, yKind, tKind;
+		/** Parser of DATETIME time values, or null if not DATETIME */
+		public final DateTimeParser dateParser;
+		/** The DATETIME pattern, or null if not DATETIME */
+		public final String datePattern;
+		/** Number of decimal places kept for DECIMAL values */
+		public final int decimalPrecision;
+		/** Scale of the DECIMAL values, i.e. 10^DECIMAL_PRECISION */
+		public final Decimal decimalScale;
+		// items' delimiters, in the array order
+		private final Delimiter[] delimiters;
+		// position of the semantic attributes in the item
+		private final int[] semanticPos;
+
+		private CoordinatesPlan(ArrayFormat coordArrayFormat, int decimalPrecision) {
+			this.delimiters = toDelimiters(coordArrayFormat.getDelimiters());
+			this.numAttr = coordArrayFormat.numAttributes();
+			this.xPos = coordArrayFormat.getXAttrIndex();
+			this.yPos = coordArrayFormat.getYAttrIndex();
+			this.tPos = coordArrayFormat.getTimeAttrIndex();
+
+			AttributeEntry xAttr = coordArrayFormat.getAttribute(xPos);
+			AttributeEntry yAttr = coordArrayFormat.getAttribute(yPos);
+			AttributeEntry tAttr = coordArrayFormat.getAttribute(tPos);
+
+			// check if any coordinate attribute is compressed (delta type)
+			this.isDeltaX = isDeltaType(xAttr.type);
+			this.isDeltaY = isDeltaType(yAttr.type);
+			this.isDeltaT = isDeltaType(tAttr.type);
+
+			// DATETIME attributes are converted from the given pattern to
+			// INTEGER, i.e. number of milliseconds passed since 01/Jan/1970.
+			if (Keywords.isDateTimeType(tAttr.type)) {
+				int s = tAttr.type.indexOf("\"") + 1;
+				int e = tAttr.type.lastIndexOf("\"");
+				this.datePattern = tAttr.type
+						.substring(s, e)
+						.replaceAll("\\"+DATE_BOND, " ");
+				this.dateParser = DateTimeParser.forPattern(datePattern);
+				this.tType = Keywords.INTEGER.name();
+			} else {
+				this.datePattern = null;
+				this.dateParser = null;
+				this.tType = tAttr.type;
+			}
+			this.xType = xAttr.type;
+			this.yType = yAttr.type;
+			this.xKind = valueKind(xType);
+			this.yKind = valueKind(yType);
+			this.tKind = valueKind(tType);
+
+			this.decimalPrecision = decimalPrecision;
+			this.decimalScale = Decimal.valueOf(Math.pow(10, decimalPrecision));
+
+			int numSemantic = 0;
+			for (int j=0; j<numAttr; j++) {
+				if (j != xPos && j != yPos && j != tPos) numSemantic++;
+			}
+			this.semanticPos = new int[numSemantic];
+			for (int j=0, k=0; j<numAttr; j++) {
+				if (j != xPos && j != yPos && j != tPos) semanticPos[k++] = j;
+			}
+		}
+
+		/**
+		 * @return The items' delimiters, in the array order.
+		 * The returned array must not be modified.
+		 */
+		public Delimiter[] getDelimiters() {
+			return delimiters;
+		}
+
+		/**
+		 * @return The position of the semantic attributes (other
+		 * than X, Y, and Time) in the array item, in the array order.
+		 * The returned array must not be modified.
+		 */
+		public int[] getSemanticPositions() {
+			return semanticPos;
+		}
+	}
+}
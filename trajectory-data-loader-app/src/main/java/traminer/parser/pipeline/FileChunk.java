@@ -0,0 +1,78 @@
+package traminer.parser.pipeline;
+
+/**
+ * A byte range of an input file, aligned on the data records
+ * delimiters, i.e. a chunk always starts at the beginning of
+ * a data record. Large files are split into chunks that are
+ * read and parsed by different workers of the {@link IngestPipeline}.
+ *
+ * @author douglasapeixoto
+ */
+public final class FileChunk {
+	/** Number of the first line of the chunk is unknown */
+	public static final int UNKNOWN_LINE = -1;
+
+	/** Path to the input file */
+	public final String path;
+	/** Sequence number of this chunk within its file */
+	public final int index;
+	/** Number of chunks the file was split into */
+	public final int count;
+	/** Position of the first byte of this chunk in the file */
+	public final long start;
+	/** Position after the last byte of this chunk in the file */
+	public final long end;
+	/**
+	 * Number of the first line of this chunk in the file
+	 * (zero-based), or {@link #UNKNOWN_LINE} if the chunk
+	 * starts after the last line to ignore in the file.
+	 */
+	public final int firstLine;
+
+	/**
+	 * @param path Path to the input file.
+	 * @param index Sequence number of this chunk within its file.
+	 * @param count Number of chunks the file was split into.
+	 * @param start Position of the first byte of this chunk.
+	 * @param end Position after the last byte of this chunk.
+	 * @param firstLine Number of the first line of this chunk.
+	 */
+	public FileChunk(String path, int index, int count,
+			long start, long end, int firstLine) {
+		if (path == null) {
+			throw new NullPointerException(
+					"Chunk file path must not be null.");
+		}
+		if (index < 0 || index >= count || start < 0 || end < start) {
+			throw new IllegalArgumentException(
+					"Invalid file chunk range.");
+		}
+		this.path  = path;
+		this.index = index;
+		this.count = count;
+		this.start = start;
+		this.end   = end;
+		this.firstLine = firstLine;
+	}
+
+	/**
+	 * @param path Path to the input file.
+	 * @param size The file size.
+	 * @return A chunk containing the whole file.
+	 */
+	public static FileChunk wholeFile(String path, long size) {
+		return new FileChunk(path, 0, 1, 0, size, 0);
+	}
+
+	/**
+	 * @return True if this chunk contains the whole file.
+	 */
+	public boolean isWholeFile() {
+		return count == 1;
+	}
+
+	@Override
+	public String toString() {
+		return path + " [" + start + "," + end + ")";
+	}
+}
@@ -0,0 +1,789 @@
+package traminer.parser.pipeline;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.function.LongPredicate;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+import org.apache.log4j.Logger;
+
+import traminer.io.IOService;
+import traminer.parser.DataWriter;
+import traminer.parser.ParserException;
+import traminer.parser.ParserInterface;
+import traminer.parser.pipeline.PipelineParameters.Stage;
+
+/**
+ * Staged ingest pipeline for the trajectory data parser.
+ * <p>
+ * The input data goes through the stages DISCOVER -> READ ->
+ * PARSE -> ENCODE -> WRITE, see {@link Stage}. Each stage runs
+ * in its own pool of worker threads, and the stages are connected
+ * by bounded queues of record batches. When a stage downstream
+ * is slow (e.g. the output database), the queues fill up and
+ * the stages upstream block, instead of holding the whole
+ * dataset in memory.
+ * <p>
+ * The DISCOVER stage splits large files into chunks aligned on
+ * the data records, see {@link FileChunk}, so that the chunks of
+ * a file can be read by many workers. The READ stage also splits
+ * the chunks into data records, since the records assembly depends
+ * on the order of the file lines. Batches from the same input file
+ * are always written by the same writer thread, to the same output
+ * file, either in the input order or in any order, see
+ * {@link PipelineParameters#setOrderedOutput(boolean)}.
+ * <p>
+ * Every record is given a sequence number, which depends only on
+ * its file and its position in the file, not on the number of
+ * threads or the order in which the chunks are read, i.e.
+ * <pre>
+ * fileIndex * RECORDS_PER_FILE + position
+ * </pre>
+ * where fileIndex is the index of the file in the input, by path,
+ * and position is the record's number in the file, from 1. Files
+ * split into chunks reserve a block of positions per chunk, from
+ * the chunk's start (in bytes), so the positions are contiguous
+ * within the first chunk only. Sequence numbers are unique, and
+ * stable across runs: the numbers of a file do not change when
+ * other files change (e.g. grow), only when files are added or
+ * removed before it (by path).
+ * <p>
+ * A pipeline created without an encoder runs in profile-only mode:
+ * the records are read and parsed (hence the metadata statistics
+ * are computed) at full parallelism, but the ENCODE and WRITE
+ * stages are skipped, and nothing is written to the output.
+ * If a {@link RecordSampler} is set, only the records in the
+ * sample are parsed and written, with their input sequence numbers.
+ *
+ * @param <R> The type of the data records read from the files.
+ * @param <T> The type of the parsed records.
+ *
+ * @author douglasapeixoto
+ */
+@SuppressWarnings("serial")
+public class IngestPipeline<R, T> implements ParserInterface {
+	// pipeline configuration
+	private final PipelineParameters params;
+	// splits the input files into chunks
+	private final FileSplitter splitter;
+	// reads the data records of a file chunk
+	private final RecordReader<R> reader;
+	// creates one record parser per parse worker
+	private final Supplier<ParseFunction<R, T>> parserFactory;
+	// encodes the parsed records for output
+	private final Function<T, String> encoder;
+	// first error thrown by a worker of the current run (if any)
+	private final AtomicReference<Throwable> failure = new AtomicReference<>();
+	// worker pools of the current run, cancelled on failure
+	private final List<ExecutorService> stagePools = new CopyOnWriteArrayList<>();
+	// list of input files found in the discovery stage
+	private volatile List<String> pathList = new ArrayList<>();
+	// files that could not be read (index)
+	private final Set<Integer> errorFiles = ConcurrentHashMap.newKeySet();
+	// chunks of the files being read ahead of the chunks written, by
+	// file index (ordered output, files split into chunks only)
+	private final Map<Integer, ReorderWindow> reorderWindows = new ConcurrentHashMap<>();
+	// number of records written to the output
+	private final AtomicLong recordsCount = new AtomicLong(0);
+	// number of records read, and sent to the parsers (sampled)
+	private final AtomicLong readCount = new AtomicLong(0);
+	private final AtomicLong sampledCount = new AtomicLong(0);
+	// number of records parsed
+	private final AtomicLong parsedCount = new AtomicLong(0);
+	// number of input bytes read
+	private final AtomicLong bytesCount = new AtomicLong(0);
+	// running time of the last run, in milliseconds
+	private volatile long elapsedTime = 0;
+
+	// time (ms) between checks for failed workers, while waiting
+	private static final long AWAIT_TIMEOUT = 100;
+
+	/** Block of sequence numbers reserved per input file */
+	public static final long RECORDS_PER_FILE = 1000000000000L;
+
+	// System log
+	private static Logger log = Logger.getLogger(IngestPipeline.class);
+
+	/**
+	 * Splits an input file into chunks aligned on the data records.
+	 */
+	public interface FileSplitter {
+		/**
+		 * @param path Path to the input file.
+		 * @return The chunks of the file, in the file order.
+		 * @throws IOException If the file could not be read.
+		 */
+		List<FileChunk> split(String path) throws IOException;
+
+		/**
+		 * @param chunk A chunk of a file split by this splitter.
+		 * @return The maximum number of data records in the chunk,
+		 * by default its size in bytes.
+		 */
+		default long maxRecords(FileChunk chunk) {
+			return chunk.end - chunk.start;
+		}
+	}
+
+	/**
+	 * Reads the data records of an input file chunk. Must return
+	 * one data record per stream item, with ignored lines
+	 * (if any) already removed.
+	 *
+	 * @param <R> The type of the data records.
+	 */
+	public interface RecordReader<R> {
+		/**
+		 * @param chunk The file chunk to read.
+		 * @return A stream with the data records in the chunk.
+		 * @throws IOException If the file could not be read.
+		 */
+		Stream<R> read(FileChunk chunk) throws IOException;
+	}
+
+	/**
+	 * Parses the data records read from the files.
+	 *
+	 * @param <R> The type of the data records.
+	 * @param <T> The type of the parsed records.
+	 */
+	public interface ParseFunction<R, T> {
+		/**
+		 * @param record The data record to parse.
+		 * @param recordNum Sequence number of the record in
+		 * the input, starting from 1, see {@link IngestPipeline}.
+		 * @return The parsed record, or null if the record 
+		 * could not be parsed.
+		 */
+		T parse(R record, long recordNum);
+	}
+
+	/**
+	 * Creates a new ingest pipeline.
+	 *
+	 * @param params Pipeline configuration parameters.
+	 * @param splitter Splits the input files into chunks.
+	 * @param reader Reads the data records of each file chunk.
+	 * @param parserFactory Creates the record parser function of
+	 * each parse worker. Each function is used by one thread only.
+	 * @param encoder Encodes the parsed records for output,
+	 * must be thread-safe. If null, the parsed records are 
+	 * discarded, and nothing is written (profile-only).
+	 */
+	public IngestPipeline(
+			PipelineParameters params,
+			FileSplitter splitter,
+			RecordReader<R> reader,
+			Supplier<ParseFunction<R, T>> parserFactory,
+			Function<T, String> encoder) {
+		if (params == null || splitter == null || reader == null ||
+			parserFactory == null) {
+			throw new NullPointerException(
+					"Pipeline parameters and stages must not be null.");
+		}
+		this.params = params;
+		this.splitter = splitter;
+		this.reader = reader;
+		this.parserFactory = parserFactory;
+		this.encoder = encoder;
+	}
+
+	/**
+	 * Run the pipeline over all files in the given input
+	 * directory (recursively), and save the parsed records
+	 * to the output database set in the {@link DataWriter}
+	 * (unless profile-only).
+	 * <p>
+	 * Blocks until all files have been written.
+	 *
+	 * @param inputDataPath Path to the input data directory.
+	 *
+	 * @throws ParserException If the pipeline is interrupted,
+	 * or if a worker fails with an unexpected error (the
+	 * pipeline is cancelled).
+	 */
+	public void run(final Path inputDataPath) throws ParserException {
+		final long startTime = System.currentTimeMillis();
+		final int batchSize = params.getBatchSize();
+		final int numWriters = params.getNumWorkers(Stage.WRITE);
+		final boolean profileOnly = isProfileOnly();
+		final boolean ordered = params.isOrderedOutput() && !profileOnly;
+		reorderWindows.clear();
+		failure.set(null);
+		stagePools.clear();
+
+		// queues between stages
+		final BlockingQueue<ReadTask> chunksQueue = new ArrayBlockingQueue<>(
+				params.getQueueCapacity(Stage.READ));
+		final BlockingQueue<RecordBatch<R>> recordsQueue = new ArrayBlockingQueue<>(
+				params.getQueueCapacity(Stage.PARSE));
+		final BlockingQueue<RecordBatch<T>> parsedQueue = new ArrayBlockingQueue<>(
+				params.getQueueCapacity(Stage.ENCODE));
+		// one queue per writer, batches of a file go to the same writer
+		final List<BlockingQueue<RecordBatch<String>>> writeQueues = new ArrayList<>();
+		for (int i=0; i<numWriters; i++) {
+			writeQueues.add(new ArrayBlockingQueue<>(
+					params.getQueueCapacity(Stage.WRITE)));
+		}
+
+		// DISCOVER: list the input files, split them into chunks
+		ExecutorService discoverPool = newStagePool(Stage.DISCOVER);
+		discoverPool.execute(worker(() -> {
+			List<String> paths = new ArrayList<>();
+			try {
+				paths = new ArrayList<>(IOService.getFilesPathList(inputDataPath));
+			} catch (IOException e) {
+				log.error("Error reading input data path.", e);
+			}
+			// files in a stable order, for the records' sequence numbers
+			Collections.sort(paths);
+			pathList = paths;
+			try {
+				for (int i=0; i<paths.size(); i++) {
+					for (FileChunk chunk : splitFile(i, paths.get(i))) {
+						// records before the chunk (blocks reserved)
+						final long recordBase = i * RECORDS_PER_FILE + chunk.start;
+						chunksQueue.put(new ReadTask(i, chunk, recordBase));
+					}
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}));
+
+		// READ: read the file chunks and split the data records
+		ExecutorService readPool = newStagePool(Stage.READ);
+		for (int w=0; w<params.getNumWorkers(Stage.READ); w++) {
+			readPool.execute(worker(() -> {
+				try {
+					ReadTask task;
+					while ((task = chunksQueue.take()) != ReadTask.END) {
+						if (ordered && !task.chunk.isWholeFile()) {
+							// wait for the chunks before the window to be written
+							reorderWindow(task.fileIndex).enter(
+									task.chunk.index, params.getReorderWindow());
+						}
+						readChunk(task, batchSize, recordsQueue);
+					}
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}));
+		}
+
+		// PARSE: parse the records, one parser per worker
+		ExecutorService parsePool = newStagePool(Stage.PARSE);
+		for (int w=0; w<params.getNumWorkers(Stage.PARSE); w++) {
+			parsePool.execute(worker(() -> {
+				final ParseFunction<R, T> parser = parserFactory.get();
+				try {
+					RecordBatch<R> batch;
+					while (!(batch = recordsQueue.take()).isEnd()) {
+						List<T> parsed = new ArrayList<>(batch.records.size());
+						RuntimeException error = null;
+						for (int i=0; i<batch.records.size(); i++) {
+							try {
+								T value = parser.parse(batch.records.get(i), batch.recordNum(i));
+								if (value != null) parsed.add(value);
+							} catch (RuntimeException e) {
+								// skip the record, keep the batch going downstream
+								error = e;
+							}
+						}
+						if (error != null) batchError(batch, "parse", error);
+						parsedCount.addAndGet(parsed.size());
+						if (!profileOnly) {
+							parsedQueue.put(batch.withRecords(parsed));
+						}
+					}
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}));
+		}
+
+		// ENCODE: encode the parsed records for output (skipped if profile-only)
+		ExecutorService encodePool = profileOnly ? null : newStagePool(Stage.ENCODE);
+		for (int w=0; encodePool != null && w<params.getNumWorkers(Stage.ENCODE); w++) {
+			encodePool.execute(worker(() -> {
+				try {
+					RecordBatch<T> batch;
+					while (!(batch = parsedQueue.take()).isEnd()) {
+						List<String> encoded = new ArrayList<>(batch.records.size());
+						RuntimeException error = null;
+						for (T record : batch.records) {
+							try {
+								encoded.add(encoder.apply(record));
+							} catch (RuntimeException e) {
+								error = e;
+							}
+						}
+						if (error != null) batchError(batch, "encode", error);
+						writeQueues.get(batch.fileIndex % numWriters)
+							.put(batch.withRecords(encoded));
+					}
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}));
+		}
+
+		// WRITE: write the records to the output database (skipped if profile-only)
+		ExecutorService writePool = profileOnly ? null : newStagePool(Stage.WRITE);
+		for (int w=0; writePool != null && w<numWriters; w++) {
+			final BlockingQueue<RecordBatch<String>> queue = writeQueues.get(w);
+			writePool.execute(worker(() -> {
+				try {
+					writeBatches(queue);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}));
+		}
+
+		// shut down every stage after the stage upstream is done
+		try {
+			awaitStage(discoverPool);
+			for (int w=0; w<params.getNumWorkers(Stage.READ); w++) {
+				putEnd(chunksQueue, ReadTask.END);
+			}
+			awaitStage(readPool);
+			for (int w=0; w<params.getNumWorkers(Stage.PARSE); w++) {
+				putEnd(recordsQueue, RecordBatch.end());
+			}
+			awaitStage(parsePool);
+			if (!profileOnly) {
+				for (int w=0; w<params.getNumWorkers(Stage.ENCODE); w++) {
+					putEnd(parsedQueue, RecordBatch.end());
+				}
+				awaitStage(encodePool);
+				for (BlockingQueue<RecordBatch<String>> queue : writeQueues) {
+					putEnd(queue, RecordBatch.end());
+				}
+			}
+			awaitStage(writePool);
+		} catch (InterruptedException e) {
+			cancel();
+			Thread.currentThread().interrupt();
+			throw new ParserException("Ingest pipeline interrupted.", e);
+		} finally {
+			elapsedTime = System.currentTimeMillis() - startTime;
+		}
+	}
+
+	/**
+	 * Split the given file into chunks. If the file could not 
+	 * be split, the file is counted as an error file.
+	 *
+	 * @param fileIndex Index of the file in the files list.
+	 * @param path Path to the file.
+	 * @return The file chunks, or an empty list on error.
+	 */
+	private List<FileChunk> splitFile(int fileIndex, String path) {
+		try {
+			List<FileChunk> chunks = splitter.split(path);
+			for (FileChunk chunk : chunks) {
+				if (chunk.start + splitter.maxRecords(chunk) >= RECORDS_PER_FILE) {
+					throw new IllegalArgumentException("File too large, more than "
+							+ RECORDS_PER_FILE + " records reserved.");
+				}
+			}
+			return chunks;
+		} catch (IOException | RuntimeException e) {
+			errorFiles.add(fileIndex);
+			String errMsg = "Unable to parse file: '" + path + "'.\nFile Ignored!";
+			log.error(errMsg, new ParserException(errMsg, e));
+			return new ArrayList<>(0);
+		}
+	}
+
+	/**
+	 * Read the records of the given file chunk, and send them in
+	 * batches to the given queue. The last batch of the chunk is
+	 * always sent, even if the chunk could not be read. If the
+	 * records are sampled, only the records in the sample are sent.
+	 *
+	 * @param task The file chunk to read.
+	 * @param batchSize Maximum number of records per batch.
+	 * @param queue Queue to send the batches to.
+	 *
+	 * @throws InterruptedException If interrupted while waiting
+	 * for room in the queue.
+	 */
+	private void readChunk(ReadTask task, int batchSize,
+			BlockingQueue<RecordBatch<R>> queue) throws InterruptedException {
+		final int fileIndex = task.fileIndex;
+		final FileChunk chunk = task.chunk;
+		final RecordSampler sampler = params.getSampler();
+		final LongPredicate inSample = sampler == null ? 
+				null : sampler.select(chunk, task.recordBase);
+		int batchIndex = 0;
+		// sequence number of the last record read
+		long recordNum = task.recordBase;
+		// sequence number of the first record of the batch
+		long firstRecord = recordNum + 1;
+		// sequence numbers of the records in the batch (if sampled)
+		long[] recordNums = inSample == null ? null : new long[batchSize];
+		List<R> batch = new ArrayList<>(batchSize);
+		bytesCount.addAndGet(chunk.end - chunk.start);
+		try (Stream<R> records = reader.read(chunk)) {
+			Iterator<R> recordsItr = records.iterator();
+			while (recordsItr.hasNext()) {
+				R record = recordsItr.next();
+				recordNum++;
+				if (inSample != null) {
+					// skip the records not in the sample
+					if (!inSample.test(recordNum)) continue;
+					recordNums[batch.size()] = recordNum;
+				}
+				batch.add(record);
+				if (batch.size() == batchSize) {
+					queue.put(new RecordBatch<>(fileIndex, chunk, 
+							batchIndex++, false, firstRecord, recordNums, batch));
+					sampledCount.addAndGet(batchSize);
+					firstRecord = recordNum + 1;
+					batch = new ArrayList<>(batchSize);
+					if (recordNums != null) recordNums = new long[batchSize];
+				}
+			}
+		} catch (IOException | RuntimeException e) {
+			errorFiles.add(fileIndex);
+			batch = new ArrayList<>(0);
+			String errMsg = "Unable to parse file: '" + chunk + "'.\nRemaining file records Ignored!";
+			log.error(errMsg, new ParserException(errMsg, e));
+		}
+		readCount.addAndGet(recordNum - task.recordBase);
+		sampledCount.addAndGet(batch.size());
+		queue.put(new RecordBatch<>(fileIndex, chunk, batchIndex, true, firstRecord, recordNums, batch));
+	}
+
+	/**
+	 * Write the batches from the given queue to the output
+	 * database, one output file per input file.
+	 *
+	 * @param queue The queue of this writer.
+	 *
+	 * @throws InterruptedException If interrupted while waiting
+	 * for batches.
+	 */
+	private void writeBatches(BlockingQueue<RecordBatch<String>> queue)
+			throws InterruptedException {
+		final boolean ordered = params.isOrderedOutput();
+		// output files currently open by this writer
+		Map<Integer, OutputFile> openFiles = new HashMap<>();
+		RecordBatch<String> batch;
+		while (!(batch = queue.take()).isEnd()) {
+			OutputFile file = openFiles.get(batch.fileIndex);
+			if (file == null) {
+				file = new OutputFile(DataWriter.newDataFileName(), batch.numChunks);
+				openFiles.put(batch.fileIndex, file);
+			}
+			if (ordered) {
+				// write the batches in the input order
+				file.pending.put(file.orderKey(batch), batch);
+				RecordBatch<String> next;
+				while ((next = file.pending.remove(file.nextKey)) != null) {
+					writeBatch(file, next);
+					if (next.last && file.numChunks > 1) {
+						// let the readers of the file move the window on
+						reorderWindow(next.fileIndex).chunkWritten();
+					}
+				}
+			} else {
+				// batches of a file may arrive in any order
+				writeBatch(file, batch);
+			}
+			if (file.isComplete()) {
+				try {
+					DataWriter.closeDataFile(file.name);
+				} catch (RuntimeException e) {
+					batchError(batch, "close", e);
+				}
+				openFiles.remove(batch.fileIndex);
+				reorderWindows.remove(batch.fileIndex);
+			}
+		}
+	}
+
+	/**
+	 * Write the given batch to its output file.
+	 */
+	private void writeBatch(OutputFile file, RecordBatch<String> batch) {
+		if (!batch.records.isEmpty()) {
+			try {
+				DataWriter.saveDataBatch(file.name, batch.records);
+				recordsCount.addAndGet(batch.records.size());
+			} catch (RuntimeException e) {
+				// keep writing, the file is still closed when complete
+				batchError(batch, "write", e);
+			}
+		}
+		file.received++;
+		if (batch.last) {
+			file.expected += batch.batchIndex + 1;
+			file.chunksDone++;
+			file.nextKey = file.orderKey(batch.chunkIndex + 1, 0);
+		} else {
+			file.nextKey = file.orderKey(batch.chunkIndex, batch.batchIndex + 1);
+		}
+	}
+
+	/**
+	 * @return The reorder window of the given file.
+	 */
+	private ReorderWindow reorderWindow(int fileIndex) {
+		return reorderWindows.computeIfAbsent(fileIndex, i -> new ReorderWindow());
+	}
+
+	/**
+	 * Count the file of the given batch as an error file, after
+	 * an error in the given stage. The workers keep draining
+	 * their queues, so the stages upstream never block.
+	 */
+	private void batchError(RecordBatch<?> batch, String stage, RuntimeException e) {
+		errorFiles.add(batch.fileIndex);
+		String errMsg = "Unable to " + stage + " records of file: '" 
+				+ batch.filePath + "'.\nRecords Ignored!";
+		log.error(errMsg, new ParserException(errMsg, e));
+	}
+
+	/**
+	 * @return The given worker, recording any error it throws
+	 * and cancelling the pipeline, so the stages never wait for
+	 * a worker that died.
+	 */
+	private Runnable worker(final Runnable worker) {
+		return () -> {
+			try {
+				worker.run();
+			} catch (Throwable t) {
+				if (failure.compareAndSet(null, t)) {
+					log.error("Ingest pipeline worker '"
+							+ Thread.currentThread().getName() + "' failed.", t);
+				}
+				cancel();
+			}
+		};
+	}
+
+	/**
+	 * Cancel all workers of the current run.
+	 */
+	private void cancel() {
+		for (ExecutorService pool : stagePools) {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * @throws ParserException If a worker of the current run failed.
+	 */
+	private void checkFailure() {
+		Throwable t = failure.get();
+		if (t != null) {
+			cancel();
+			throw new ParserException("Ingest pipeline failed, "
+					+ "a worker thread threw an unexpected error.", t);
+		}
+	}
+
+	/**
+	 * Send the given end marker to the given queue, waiting for
+	 * room in the queue while no worker of the pipeline failed.
+	 */
+	private <E> void putEnd(BlockingQueue<E> queue, E end)
+			throws InterruptedException {
+		while (!queue.offer(end, AWAIT_TIMEOUT, TimeUnit.MILLISECONDS)) {
+			checkFailure();
+		}
+	}
+
+	/**
+	 * @return A new worker pool for the given stage.
+	 */
+	private ExecutorService newStagePool(final Stage stage) {
+		final String prefix = "traminer-" + stage.name().toLowerCase() + "-";
+		final AtomicInteger count = new AtomicInteger(0);
+		ThreadFactory threadFactory = new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, prefix + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		};
+		ExecutorService pool = Executors.newFixedThreadPool(
+				params.getNumWorkers(stage), threadFactory);
+		stagePools.add(pool);
+		return pool;
+	}
+
+	/**
+	 * Wait for all workers of the given stage to finish
+	 * (if the stage was not skipped), or for any worker of
+	 * the pipeline to fail.
+	 */
+	private void awaitStage(ExecutorService pool) throws InterruptedException {
+		if (pool == null) return;
+		pool.shutdown();
+		while (!pool.awaitTermination(AWAIT_TIMEOUT, TimeUnit.MILLISECONDS)) {
+			checkFailure();
+		}
+		checkFailure();
+	}
+
+	/**
+	 * @return The list of input files found by the pipeline.
+	 */
+	public List<String> getPathList() {
+		return pathList;
+	}
+
+	/**
+	 * @return Number of input files that could not be read.
+	 */
+	public long getErrorFilesCount() {
+		return errorFiles.size();
+	}
+
+	/**
+	 * @return Number of records written to the output.
+	 */
+	public long getRecordsCount() {
+		return recordsCount.get();
+	}
+
+	/**
+	 * @return Number of records read from the input files,
+	 * including the records not in the sample (if sampled).
+	 */
+	public long getReadCount() {
+		return readCount.get();
+	}
+
+	/**
+	 * @return Number of records sent to the parsers, i.e.
+	 * the records in the sample (if sampled), otherwise all
+	 * records read.
+	 */
+	public long getSampledCount() {
+		return sampledCount.get();
+	}
+
+	/**
+	 * @return Number of records parsed, including the
+	 * records not written (e.g. profile-only).
+	 */
+	public long getParsedCount() {
+		return parsedCount.get();
+	}
+
+	/**
+	 * @return Number of input bytes read.
+	 */
+	public long getBytesCount() {
+		return bytesCount.get();
+	}
+
+	/**
+	 * @return Running time (in milliseconds) of the last
+	 * run of this pipeline.
+	 */
+	public long getElapsedTime() {
+		return elapsedTime;
+	}
+
+	/**
+	 * @return True if the parsed records are not written,
+	 * i.e. this pipeline has no encoder.
+	 */
+	public boolean isProfileOnly() {
+		return encoder == null;
+	}
+
+	/**
+	 * An output file being written, the number of batches
+	 * received/expected for it, and the batches pending to
+	 * write (ordered output only).
+	 */
+	private static class OutputFile {
+		final String name;
+		final int numChunks;
+		int received = 0;
+		int expected = 0;
+		int chunksDone = 0;
+		// position of the next batch to write, in the input order
+		long nextKey = 0;
+		final Map<Long, RecordBatch<String>> pending = new HashMap<>();
+		OutputFile(String name, int numChunks) {
+			this.name = name;
+			this.numChunks = numChunks;
+		}
+		long orderKey(RecordBatch<String> batch) {
+			return orderKey(batch.chunkIndex, batch.batchIndex);
+		}
+		long orderKey(int chunkIndex, int batchIndex) {
+			return ((long) chunkIndex << 32) | batchIndex;
+		}
+		boolean isComplete() {
+			return chunksDone == numChunks && received == expected;
+		}
+	}
+
+	/**
+	 * The chunks of a file being read ahead of the chunks written,
+	 * in ordered output. The chunks are taken by the readers in the
+	 * input order, so the first chunk not written is always in the
+	 * window, and the window always moves on.
+	 */
+	private static class ReorderWindow {
+		// chunks of the file written, in the input order
+		private int chunksWritten = 0;
+		synchronized void enter(int chunkIndex, int size)
+				throws InterruptedException {
+			while (chunkIndex >= chunksWritten + size) {
+				wait();
+			}
+		}
+		synchronized void chunkWritten() {
+			chunksWritten++;
+			notifyAll();
+		}
+	}
+
+	/**
+	 * A file chunk to read.
+	 */
+	private static class ReadTask {
+		// task marking the end of the chunks to read
+		static final ReadTask END = new ReadTask(-1, null, 0);
+		final int fileIndex;
+		final FileChunk chunk;
+		// records before this chunk in the input (block reserved)
+		final long recordBase;
+		ReadTask(int fileIndex, FileChunk chunk, long recordBase) {
+			this.fileIndex = fileIndex;
+			this.chunk = chunk;
+			this.recordBase = recordBase;
+		}
+	}
+}
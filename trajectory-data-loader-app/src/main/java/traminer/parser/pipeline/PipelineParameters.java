@@ -0,0 +1,246 @@
+package traminer.parser.pipeline;
+
+import traminer.parser.ParserInterface;
+
+/**
+ * Configuration parameters of the {@link IngestPipeline},
+ * i.e. the number of worker threads of each stage, the
+ * capacity of the queues between stages, and the number
+ * of records per batch.
+ *
+ * @author douglasapeixoto
+ */
+@SuppressWarnings("serial")
+public class PipelineParameters implements ParserInterface {
+	/**
+	 * The stages of the ingest pipeline, in processing order.
+	 */
+	public enum Stage {
+		/** List the input files (always runs in one thread) */
+		DISCOVER,
+		/** Read the files and assemble the data records */
+		READ,
+		/** Parse the records to the intermediate format */
+		PARSE,
+		/** Encode the parsed records for output */
+		ENCODE,
+		/** Write the encoded records to the output database */
+		WRITE
+	}
+
+	// number of worker threads per stage
+	private final int[] numWorkers = new int[Stage.values().length];
+	// capacity of the input queue of each stage (in batches)
+	private final int[] queueCapacity = new int[Stage.values().length];
+	// number of records per batch
+	private int batchSize = DEFAULT_BATCH_SIZE;
+	// whether to read the input files memory-mapped
+	private boolean mappedInput = false;
+	// size of the chunks large input files are split into
+	private long chunkSize = DEFAULT_CHUNK_SIZE;
+	// whether to write the records in the input order
+	private boolean orderedOutput = false;
+	// chunks of a file read ahead of the chunks written (ordered output)
+	private int reorderWindow = DEFAULT_REORDER_WINDOW;
+	// selects the sample of records to parse (null for all)
+	private RecordSampler sampler = null;
+
+	/**
+	 * Creates new pipeline parameters with the default values.
+	 * The number of parser threads defaults to the number of
+	 * available processors.
+	 */
+	public PipelineParameters() {
+		final int cores = Runtime.getRuntime().availableProcessors();
+		numWorkers[Stage.DISCOVER.ordinal()] = 1;
+		numWorkers[Stage.READ.ordinal()]   = Math.max(1, cores / 4);
+		numWorkers[Stage.PARSE.ordinal()]  = cores;
+		numWorkers[Stage.ENCODE.ordinal()] = Math.max(1, cores / 4);
+		numWorkers[Stage.WRITE.ordinal()]  = 2;
+		for (Stage stage : Stage.values()) {
+			queueCapacity[stage.ordinal()] = DEFAULT_QUEUE_CAPACITY;
+		}
+	}
+
+	/**
+	 * @param stage The pipeline stage.
+	 * @return The number of worker threads of the given stage.
+	 */
+	public int getNumWorkers(Stage stage) {
+		return numWorkers[stage.ordinal()];
+	}
+
+	/**
+	 * Set the number of worker threads of the given stage.
+	 * The {@link Stage#DISCOVER} stage always runs in one thread.
+	 *
+	 * @param stage The pipeline stage.
+	 * @param num Number of worker threads, must be positive.
+	 */
+	public void setNumWorkers(Stage stage, int num) {
+		if (num <= 0) {
+			throw new IllegalArgumentException(
+					"Number of pipeline workers must be positive.");
+		}
+		if (stage.equals(Stage.DISCOVER) && num != 1) {
+			throw new IllegalArgumentException(
+					"Files discovery stage must run in one thread.");
+		}
+		numWorkers[stage.ordinal()] = num;
+	}
+
+	/**
+	 * @param stage The pipeline stage.
+	 * @return The capacity (in batches) of the queue
+	 * feeding the given stage.
+	 */
+	public int getQueueCapacity(Stage stage) {
+		return queueCapacity[stage.ordinal()];
+	}
+
+	/**
+	 * Set the capacity (in batches) of the queue feeding the
+	 * given stage. When the queue is full, the upstream stage
+	 * blocks until there is room in the queue (backpressure).
+	 *
+	 * @param stage The pipeline stage.
+	 * @param capacity Queue capacity, must be positive.
+	 */
+	public void setQueueCapacity(Stage stage, int capacity) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException(
+					"Pipeline queue capacity must be positive.");
+		}
+		queueCapacity[stage.ordinal()] = capacity;
+	}
+
+	/**
+	 * @return The maximum number of records per batch.
+	 */
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	/**
+	 * @param batchSize The maximum number of records per
+	 * batch, must be positive.
+	 */
+	public void setBatchSize(int batchSize) {
+		if (batchSize <= 0) {
+			throw new IllegalArgumentException(
+					"Pipeline batch size must be positive.");
+		}
+		this.batchSize = batchSize;
+	}
+
+	/**
+	 * @return Whether the input files are read memory-mapped.
+	 */
+	public boolean isMappedInput() {
+		return mappedInput;
+	}
+
+	/**
+	 * Read the input files memory-mapped, and split the data
+	 * records directly on the file bytes. Only applies to data
+	 * with one record per file line (_RECORDS_DELIM LN),
+	 * otherwise the files are read as text streams.
+	 *
+	 * @param mappedInput True to read the files memory-mapped.
+	 */
+	public void setMappedInput(boolean mappedInput) {
+		this.mappedInput = mappedInput;
+	}
+
+	/**
+	 * @return The size (in bytes) of the chunks large input
+	 * files are split into.
+	 */
+	public long getChunkSize() {
+		return chunkSize;
+	}
+
+	/**
+	 * Set the size (in bytes) of the chunks large input files
+	 * are split into. The chunks of a file are read and parsed
+	 * in parallel. Files with one record per file (EOF) are
+	 * never split.
+	 *
+	 * @param chunkSize The chunks size, must be positive.
+	 */
+	public void setChunkSize(long chunkSize) {
+		if (chunkSize <= 0) {
+			throw new IllegalArgumentException(
+					"Pipeline chunk size must be positive.");
+		}
+		this.chunkSize = chunkSize;
+	}
+
+	/**
+	 * @return Whether the records of each file are written
+	 * in the input order.
+	 */
+	public boolean isOrderedOutput() {
+		return orderedOutput;
+	}
+
+	/**
+	 * Write the records of each input file in the same order
+	 * as in the input file. Otherwise, batches of records are
+	 * written as soon as they are parsed, in any order. Ordered
+	 * output may hold parsed batches in memory, waiting for the
+	 * batches before them, see {@link #setReorderWindow(int)}.
+	 *
+	 * @param orderedOutput True to write the records in order.
+	 */
+	public void setOrderedOutput(boolean orderedOutput) {
+		this.orderedOutput = orderedOutput;
+	}
+
+	/**
+	 * @return The maximum number of chunks of a file read ahead
+	 * of the chunks written (ordered output only).
+	 */
+	public int getReorderWindow() {
+		return reorderWindow;
+	}
+
+	/**
+	 * Set the maximum number of chunks of a file read ahead of
+	 * the chunks written, in ordered output. The readers of the
+	 * chunks after the window block until the chunks before them
+	 * are written, so the batches held in memory waiting for the
+	 * batches before them are at most the window's chunks.
+	 *
+	 * @param reorderWindow The window size (in chunks), must
+	 * be positive.
+	 */
+	public void setReorderWindow(int reorderWindow) {
+		if (reorderWindow <= 0) {
+			throw new IllegalArgumentException(
+					"Pipeline reorder window must be positive.");
+		}
+		this.reorderWindow = reorderWindow;
+	}
+
+	/**
+	 * @return The sampler of the records to parse, or null
+	 * if all records are parsed.
+	 */
+	public RecordSampler getSampler() {
+		return sampler;
+	}
+
+	/**
+	 * Parse and write only a random sample of the input records,
+	 * selected by the given sampler. Records not in the sample
+	 * are read, but not parsed. The metadata is computed from the
+	 * sample, and the totals of the dataset are extrapolated.
+	 *
+	 * @param sampler The records sampler, or null to parse
+	 * all records.
+	 */
+	public void setSampler(RecordSampler sampler) {
+		this.sampler = sampler;
+	}
+}
@@ -0,0 +1,100 @@
+package traminer.parser.pipeline;
+
+import java.util.List;
+
+/**
+ * A batch of records from one input file chunk, the unit of work
+ * passed between the stages of the {@link IngestPipeline}.
+ *
+ * @param <E> The type of the records in this batch.
+ *
+ * @author douglasapeixoto
+ */
+final class RecordBatch<E> {
+	// batch marking the end of the stream of batches
+	private static final RecordBatch<?> END = new RecordBatch<>(-1, null, -1, -1, -1, true, 0, null, null);
+
+	/** Index of the input file this batch comes from */
+	final int fileIndex;
+	/** Path to the input file this batch comes from */
+	final String filePath;
+	/** Sequence number of the file chunk this batch comes from */
+	final int chunkIndex;
+	/** Number of chunks the file was split into */
+	final int numChunks;
+	/** Sequence number of this batch within its chunk */
+	final int batchIndex;
+	/** Whether this is the last batch of its chunk */
+	final boolean last;
+	/** Sequence number of the first record in this batch */
+	final long firstRecord;
+	/** 
+	 * Sequence numbers of the records read, if not consecutive 
+	 * from the first record (e.g. sampled), otherwise null 
+	 */
+	final long[] recordNums;
+	/** The records in this batch */
+	final List<E> records;
+
+	/**
+	 * @param fileIndex Index of the input file.
+	 * @param chunk The file chunk.
+	 * @param batchIndex Sequence number of this batch within its chunk.
+	 * @param last Whether this is the last batch of the chunk.
+	 * @param firstRecord Sequence number of the first record.
+	 * @param recordNums Sequence numbers of the records, or null
+	 * if consecutive from the first record.
+	 * @param records The records in this batch.
+	 */
+	RecordBatch(int fileIndex, FileChunk chunk, int batchIndex, boolean last, 
+			long firstRecord, long[] recordNums, List<E> records) {
+		this(fileIndex, chunk.path, chunk.index, chunk.count,
+				batchIndex, last, firstRecord, recordNums, records);
+	}
+
+	private RecordBatch(int fileIndex, String filePath, int chunkIndex, int numChunks,
+			int batchIndex, boolean last, long firstRecord, long[] recordNums, List<E> records) {
+		this.fileIndex  = fileIndex;
+		this.filePath   = filePath;
+		this.chunkIndex = chunkIndex;
+		this.numChunks  = numChunks;
+		this.batchIndex = batchIndex;
+		this.last 		= last;
+		this.firstRecord = firstRecord;
+		this.recordNums  = recordNums;
+		this.records 	= records;
+	}
+
+	/**
+	 * @param records The new records.
+	 * @return A batch with the same file and sequence
+	 * information as this one, with the given records.
+	 */
+	<T> RecordBatch<T> withRecords(List<T> records) {
+		return new RecordBatch<T>(fileIndex, filePath, chunkIndex,
+				numChunks, batchIndex, last, firstRecord, recordNums, records);
+	}
+
+	/**
+	 * @param i Index of a record read in this batch.
+	 * @return The sequence number of the record.
+	 */
+	long recordNum(int i) {
+		return recordNums == null ? firstRecord + i : recordNums[i];
+	}
+
+	/**
+	 * @return The batch marking the end of the stream of batches.
+	 */
+	@SuppressWarnings("unchecked")
+	static <E> RecordBatch<E> end() {
+		return (RecordBatch<E>) END;
+	}
+
+	/**
+	 * @return True if this is the end of stream batch.
+	 */
+	boolean isEnd() {
+		return this == END;
+	}
+}
@@ -0,0 +1,149 @@
+package traminer.parser.pipeline;
+
+import java.util.function.LongPredicate;
+
+/**
+ * Selects a seeded random sample of the input records, before
+ * they are parsed, see {@link PipelineParameters#setSampler(RecordSampler)}.
+ * Records not in the sample are read (to find the records
+ * boundaries) but never parsed, encoded or written.
+ * <p>
+ * Each record is in the sample with probability equal to the
+ * sample rate, by one of the methods:
+ * <ul>
+ * <li>{@link Method#UNIFORM}: each record is selected independently,
+ * by a seeded hash of its sequence number (Bernoulli sampling).</li>
+ * <li>{@link Method#STRATIFIED}: the records of each file chunk are
+ * split into strata of about (1/rate) consecutive records, and one
+ * record of each stratum is selected at random. Every file gives its
+ * share of the sample, up to one record per chunk, and unlike a
+ * systematic sample (every k-th record), periodic patterns in the
+ * input do not bias the sample.</li>
+ * </ul>
+ * The selection depends only on the seed, the records sequence
+ * numbers and the file chunks, hence the same input, seed and
+ * chunk size always give the same sample, regardless of the
+ * number of threads. Unlike a reservoir, no records are held in
+ * memory, so the sample size is not bounded.
+ *
+ * @author douglasapeixoto
+ */
+public final class RecordSampler {
+	/**
+	 * Sampling methods.
+	 */
+	public enum Method {
+		/** Uniform sample of all records */
+		UNIFORM,
+		/** Sample stratified by input file (and chunk) */
+		STRATIFIED
+	}
+
+	/** Fraction of the records in the sample, in (0, 1] */
+	public final double rate;
+	/** Sampling method */
+	public final Method method;
+	/** Seed of the random selection */
+	public final long seed;
+
+	// hashes below this are selected (uniform)
+	private final long threshold;
+
+	/**
+	 * Creates a new record sampler.
+	 *
+	 * @param rate Fraction of the records in the sample, in (0, 1].
+	 * @param method Sampling method.
+	 * @param seed Seed of the random selection.
+	 */
+	public RecordSampler(double rate, Method method, long seed) {
+		if (!(rate > 0 && rate <= 1)) {
+			throw new IllegalArgumentException(
+					"Sample rate must be in (0, 1].");
+		}
+		if (method == null) {
+			throw new NullPointerException(
+					"Sampling method must not be null.");
+		}
+		this.rate = rate;
+		this.method = method;
+		this.seed = seed;
+		this.threshold = (long) Math.ceil(rate * (1L << 53));
+	}
+
+	/**
+	 * @param chunk A file chunk.
+	 * @param recordBase Block of sequence numbers reserved before this
+	 * chunk, i.e. the sequence number of its first record is
+	 * (recordBase+1), see {@link IngestPipeline}.
+	 * @return The selection of the records in the given chunk, by
+	 * their sequence number. The selection must be tested for every
+	 * record of the chunk, in order, by one thread.
+	 */
+	public LongPredicate select(FileChunk chunk, final long recordBase) {
+		if (rate == 1) {
+			return recordNum -> true;
+		}
+		if (method == Method.UNIFORM) {
+			return recordNum -> (mix(seed + recordNum * 0x9E3779B97F4A7C15L) >>> 11) < threshold;
+		}
+		final long chunkSeed = mix(seed ^ mix(chunk.path.hashCode() + 
+				((long) chunk.index << 32)));
+		// random offset of the strata of this chunk
+		final double start = (chunkSeed >>> 11) * 0x1.0p-53;
+		return new LongPredicate() {
+			// current stratum, and its selected record
+			long stratum = -1, selected = -1;
+			public boolean test(long recordNum) {
+				final long i = recordNum - recordBase - 1;
+				final long s = stratum(i, start);
+				if (s != stratum) {
+					// new stratum, select one of its records (the 
+					// first stratum may start before the chunk)
+					stratum = s;
+					long first = firstOf(s, start);
+					long size = firstOf(s + 1, start) - first;
+					selected = first + Math.floorMod(mix(chunkSeed + s), size);
+				}
+				return i == selected;
+			}
+		};
+	}
+
+	/**
+	 * @return The stratum of the i-th record of a chunk.
+	 */
+	private long stratum(long i, double start) {
+		return (long) Math.floor(i * rate + start);
+	}
+
+	/**
+	 * @return The index of the first record of the given stratum
+	 * (negative if before the chunk).
+	 */
+	private long firstOf(long stratum, double start) {
+		long i = (long) Math.ceil((stratum - start) / rate);
+		// correct the rounding errors
+		while (stratum(i - 1, start) >= stratum) i--;
+		while (stratum(i, start) < stratum) i++;
+		return i;
+	}
+
+	@Override
+	public String toString() {
+		return method + " sample, rate " + rate + ", seed " + seed;
+	}
+
+	/**
+	 * @return A well-mixed hash of the given value
+	 * (MurmurHash3 fmix64).
+	 */
+	private static long mix(long h) {
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+}
@@ -0,0 +1,172 @@
+package traminer.parser;
+
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.bson.Document;
+
+import junit.framework.TestCase;
+import traminer.io.params.LocalFSParameters;
+import traminer.test.parser.StandInCollection;
+import traminer.util.spatial.distance.EuclideanDistanceFunction;
+
+/**
+ * Unit test for the trajectories in buckets of points, i.e. the
+ * {@link MongoDocumentEncoder#encodeBuckets(String, int, double, MongoShardSplitter)}
+ * boundaries and summaries, and the deletion of the trailing buckets
+ * of the trajectories that got shorter on reload.
+ *
+ * @author douglasapeixoto
+ */
+public class MongoBucketsTest extends TestCase {
+	// cartesian format, integer time-stamps
+	private static final String NUMBER_FORMAT =
+			"_COORD_SYSTEM	CARTESIAN\n" +
+			"_ID			STRING	;\n" +
+			"label			STRING	;\n" +
+			"_COORDINATES	ARRAY(_X DECIMAL , _Y DECIMAL , _TIME INTEGER |)	LN";
+	// cartesian format, date-time time-stamps
+	private static final String DATETIME_FORMAT =
+			"_COORD_SYSTEM	CARTESIAN\n" +
+			"_ID			STRING	;\n" +
+			"label			STRING	;\n" +
+			"_COORDINATES	ARRAY(_X DECIMAL , _Y DECIMAL , " +
+			"_TIME DATETIME[\"yyyy-MM-dd HH:mm:ss\"] |)	LN";
+
+	@Override
+	protected void setUp() throws Exception {
+		MetadataService.init(new EuclideanDistanceFunction());
+		DataWriter.init(new LocalFSParameters(
+				Files.createTempDirectory("traminer-out").toString()));
+	}
+
+	public void testBucketsByPoints() throws Exception {
+		MongoDocumentEncoder encoder = MongoDocumentEncoderTest.createEncoder(NUMBER_FORMAT);
+		List<Document> docs = encoder.encodeBuckets(record("t1", 7), 3, 0, null);
+
+		// the header, then the buckets of 3, 3 and 1 points
+		assertEquals(4, docs.size());
+		assertBucket(docs.get(1), "t1", 0, Arrays.asList(0.0, 1.5, 3.0));
+		assertBucket(docs.get(2), "t1", 1, Arrays.asList(4.5, 6.0, 7.5));
+		assertBucket(docs.get(3), "t1", 2, Arrays.asList(9.0));
+
+		Document header = docs.get(0);
+		assertEquals("t1", header.get("_id"));
+		assertEquals("red", header.get("label"));
+		assertEquals(7, header.get("_numPoints"));
+		assertEquals(3, header.get("_numBuckets"));
+		assertEquals(Arrays.asList(0.0, -6.0, 9.0, 0.0), header.get("_bbox"));
+		assertEquals(100, header.get("_startTime"));
+		assertEquals(160, header.get("_endTime"));
+		assertFalse(header.containsKey("_x"));
+		// the summaries of the buckets
+		List<?> summaries = (List<?>) header.get("_buckets");
+		assertEquals(3, summaries.size());
+		for (int b=0; b<3; b++) {
+			Document summary = (Document) summaries.get(b);
+			Document bucket = docs.get(b + 1);
+			for (String field : Arrays.asList("_id", "_numPoints",
+					"_bbox", "_startTime", "_endTime")) {
+				assertEquals(bucket.get(field), summary.get(field));
+			}
+			assertFalse(summary.containsKey("_x"));
+		}
+	}
+
+	public void testBucketsBySpan() throws Exception {
+		MongoDocumentEncoder encoder = MongoDocumentEncoderTest.createEncoder(NUMBER_FORMAT);
+		// time-stamps 0, 10, 20, 35, 40, 100
+		String line = MongoDocumentEncoderTest.parse(NUMBER_FORMAT,
+				"t2;red;0,0,0|1,0,10|2,0,20|3,0,35|4,0,40|5,0,100");
+		List<Document> docs = encoder.encodeBuckets(line, 1000, 20, null);
+
+		// a bucket spans at most 20 from its first point
+		assertEquals(4, docs.size());
+		assertBucket(docs.get(1), "t2", 0, Arrays.asList(0.0, 1.0, 2.0));
+		assertBucket(docs.get(2), "t2", 1, Arrays.asList(3.0, 4.0));
+		assertBucket(docs.get(3), "t2", 2, Arrays.asList(5.0));
+		assertEquals(35, docs.get(2).get("_startTime"));
+		assertEquals(40, docs.get(2).get("_endTime"));
+
+		// by points first, then by span
+		docs = encoder.encodeBuckets(line, 2, 20, null);
+		assertEquals(5, docs.size());
+		assertEquals(4, docs.get(0).get("_numBuckets"));
+	}
+
+	public void testBucketsByDateTimeSpan() throws Exception {
+		MongoDocumentEncoder encoder = MongoDocumentEncoderTest.createEncoder(DATETIME_FORMAT);
+		String line = MongoDocumentEncoderTest.parse(DATETIME_FORMAT, "t3;red;" +
+				"0,0,2008-02-02 10:00:00|1,0,2008-02-02 10:00:30|" +
+				"2,0,2008-02-02 10:01:00|3,0,2008-02-02 10:01:01");
+		// span in seconds, the time-stamps in milliseconds
+		List<Document> docs = encoder.encodeBuckets(line, 1000, 60, null);
+
+		assertEquals(3, docs.size());
+		assertBucket(docs.get(1), "t3", 0, Arrays.asList(0.0, 1.0, 2.0));
+		assertBucket(docs.get(2), "t3", 1, Arrays.asList(3.0));
+	}
+
+	public void testDeleteTrailingBuckets() throws Exception {
+		MongoDocumentEncoder encoder = MongoDocumentEncoderTest.createEncoder(NUMBER_FORMAT);
+		StandInCollection standIn = new StandInCollection();
+		MongoBulkWriter writer = new MongoBulkWriter(
+				standIn.collection(), new MongoWriteParameters());
+		final List<Document> deleted = new ArrayList<>();
+		writer.setReplaceListener(Arrays.asList("_numBuckets"),
+				DataWriter.trailingBucketsRemover(deleted::add));
+
+		// first load: 3, 2 and 1 buckets
+		writer.upsert(header(encoder, record("t1", 7), 1));
+		writer.upsert(header(encoder, record("t2", 5), 1));
+		writer.upsert(header(encoder, record("t3", 2), 1));
+		writer.flush();
+		assertEquals(3, standIn.stored.size());
+		assertTrue(deleted.isEmpty());
+
+		// reload: t1 shorter, t2 unchanged, t3 longer
+		writer.upsert(header(encoder, record("t1", 2), 2));
+		writer.upsert(header(encoder, record("t2", 5), 1));
+		writer.upsert(header(encoder, record("t3", 9), 2));
+		writer.close();
+		assertEquals(Arrays.asList(
+				new Document("trajectory", "t1").append("bucket", 1),
+				new Document("trajectory", "t1").append("bucket", 2)), deleted);
+		assertEquals(1, standIn.stored.get("t1").get("_numBuckets"));
+		assertEquals(3, standIn.stored.get("t3").get("_numBuckets"));
+	}
+
+	/**
+	 * @return The output record of a trajectory of the given
+	 * number of points, at x = 1.5 * i, y = -i, time = 100 + 10 * i.
+	 */
+	private static String record(String id, int numPts) {
+		StringBuilder record = new StringBuilder(id + ";red;");
+		for (int i=0; i<numPts; i++) {
+			if (i > 0) record.append("|");
+			record.append(1.5 * i).append(",").append(-i)
+				  .append(",").append(100 + 10 * i);
+		}
+		return MongoDocumentEncoderTest.parse(NUMBER_FORMAT, record.toString());
+	}
+
+	/**
+	 * @return The header of the given record, in buckets of 3
+	 * points, with the given content hash.
+	 */
+	private static Document header(MongoDocumentEncoder encoder,
+			String line, long hash) {
+		return encoder.encodeBuckets(line, 3, 0, null).get(0)
+				.append(MongoBulkWriter.HASH_FIELD, hash);
+	}
+
+	private static void assertBucket(Document bucket, String id, int index,
+			List<Double> x) {
+		assertEquals(new Document("trajectory", id).append("bucket", index),
+				bucket.get("_id"));
+		assertEquals(x.size(), bucket.get("_numPoints"));
+		assertEquals(x, bucket.get("_x"));
+	}
+}
@@ -0,0 +1,161 @@
+package traminer.parser;
+
+import java.nio.file.Files;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+
+import org.bson.Document;
+
+import junit.framework.TestCase;
+import traminer.io.params.LocalFSParameters;
+import traminer.parser.analyzer.Keywords.OutputFormat;
+import traminer.parser.analyzer.LexicalAnalyzer;
+import traminer.parser.format.DataFormat;
+import traminer.util.spatial.distance.EuclideanDistanceFunction;
+
+/**
+ * Unit test for the {@link MongoDocumentEncoder}. The records
+ * parsed by the {@link RecordParser} (delta-compressed) must be
+ * decoded to their input values, typed as declared, with a valid
+ * GeoJSON geometry.
+ *
+ * @author douglasapeixoto
+ */
+public class MongoDocumentEncoderTest extends TestCase {
+	// geographic format, date-time time-stamps, and an array
+	// attribute with two item attributes
+	private static final String GEOGRAPHIC_FORMAT =
+			"_COORD_SYSTEM	GEOGRAPHIC\n" +
+			"_ID			STRING	;\n" +
+			"carType		INTEGER	;\n" +
+			"stops			ARRAY(name STRING : wait INTEGER |)	;\n" +
+			"_COORDINATES	ARRAY(_X DECIMAL , _Y DECIMAL , " +
+			"_TIME DATETIME[\"yyyy-MM-dd HH:mm:ss\"] , speed DECIMAL |)	LN";
+	// cartesian format, decimal time-stamps
+	private static final String CARTESIAN_FORMAT =
+			"_COORD_SYSTEM	CARTESIAN\n" +
+			"_ID			INTEGER	;\n" +
+			"tags			ARRAY(tag STRING |)	;\n" +
+			"_COORDINATES	ARRAY(_X DECIMAL , _Y DECIMAL , _TIME DECIMAL |)	LN";
+
+	@Override
+	protected void setUp() throws Exception {
+		MetadataService.init(new EuclideanDistanceFunction());
+		DataWriter.init(new LocalFSParameters(
+				Files.createTempDirectory("traminer-out").toString()));
+	}
+
+	public void testEncodeGeographic() throws Exception {
+		MongoDocumentEncoder encoder = createEncoder(GEOGRAPHIC_FORMAT);
+		Document doc = encoder.encode(parse(GEOGRAPHIC_FORMAT,
+				"t1;2;a:10|b:20;" +
+				"-8.5,41.25,2008-02-02 10:00:00,12.5|" +
+				"-8.5,41.25,2008-02-02 10:00:05,13|" +
+				"-8.25,41.5,2008-02-02 10:01:00,7.5"));
+
+		assertEquals("t1", doc.get("_id"));
+		assertEquals(Arrays.asList(-8.5, -8.5, -8.25), doc.get("_x"));
+		assertEquals(Arrays.asList(41.25, 41.25, 41.5), doc.get("_y"));
+		assertEquals(Arrays.asList(
+				date("2008-02-02 10:00:00"),
+				date("2008-02-02 10:00:05"),
+				date("2008-02-02 10:01:00")), doc.get("_time"));
+		assertEquals(new Document("speed", Arrays.asList(12.5, 13.0, 7.5)),
+				doc.get("_pointAttributes"));
+		// typed semantic attributes, one list per array item attribute
+		assertEquals(2, doc.get("carType"));
+		assertEquals(new Document("name", Arrays.asList("a", "b"))
+				.append("wait", Arrays.asList(10, 20)), doc.get("stops"));
+		// consecutive duplicate points removed
+		assertEquals(new Document("type", "LineString")
+				.append("coordinates", Arrays.asList(
+						Arrays.asList(-8.5, 41.25),
+						Arrays.asList(-8.25, 41.5))),
+				doc.get("_geometry"));
+	}
+
+	public void testGeometry() throws Exception {
+		MongoDocumentEncoder encoder = createEncoder(GEOGRAPHIC_FORMAT);
+		// one distinct point
+		Document doc = encoder.encode(parse(GEOGRAPHIC_FORMAT,
+				"t2;1;a:1;" +
+				"-8.5,41.25,2008-02-02 10:00:00,0|" +
+				"-8.5,41.25,2008-02-02 10:00:05,0"));
+		assertEquals(new Document("type", "Point")
+				.append("coordinates", Arrays.asList(-8.5, 41.25)),
+				doc.get("_geometry"));
+		assertEquals(Arrays.asList("a"), ((Document) doc.get("stops")).get("name"));
+
+		// longitude out of range, no geometry
+		doc = encoder.encode(parse(GEOGRAPHIC_FORMAT,
+				"t3;1;a:1;" +
+				"-8.5,41.25,2008-02-02 10:00:00,0|" +
+				"200.5,41.25,2008-02-02 10:00:05,0"));
+		assertEquals(Arrays.asList(-8.5, 200.5), doc.get("_x"));
+		assertFalse(doc.containsKey("_geometry"));
+	}
+
+	public void testEncodeCartesian() throws Exception {
+		MongoDocumentEncoder encoder = createEncoder(CARTESIAN_FORMAT);
+		Document doc = encoder.encode(parse(CARTESIAN_FORMAT,
+				"42;red|blue;" +
+				"1.5,-2.25,10.5|1.75,-2.5,11|-3.00001,0,12.25"));
+
+		assertEquals(42, doc.get("_id"));
+		assertEquals(Arrays.asList(1.5, 1.75, -3.00001), doc.get("_x"));
+		assertEquals(Arrays.asList(-2.25, -2.5, 0.0), doc.get("_y"));
+		assertEquals(Arrays.asList(10.5, 11.0, 12.25), doc.get("_time"));
+		// one item attribute, a plain list
+		assertEquals(Arrays.asList("red", "blue"), doc.get("tags"));
+		// cartesian coordinates, no geometry
+		assertFalse(doc.containsKey("_geometry"));
+		assertFalse(doc.containsKey("_pointAttributes"));
+
+		// records of another format
+		try {
+			encoder.encode("42;1,2,3");
+			fail();
+		} catch (IllegalArgumentException e) {}
+	}
+
+	/**
+	 * @return The output record of the given input record,
+	 * parsed by the {@link RecordParser}.
+	 */
+	static String parse(String format, String record) {
+		RecordParser parser = new RecordParser(createFormat(format), OutputFormat.ALL);
+		return parser.parse(record).encode(OutputFormat.ALL);
+	}
+
+	/**
+	 * @return An encoder of the output format of the given
+	 * input format, with the GeoJSON geometry.
+	 */
+	static MongoDocumentEncoder createEncoder(String format) throws Exception {
+		return new MongoDocumentEncoder(createSpec(format, OutputFormat.ALL), true);
+	}
+
+	/**
+	 * @return The specifications of the given output format
+	 * of the given input format.
+	 */
+	static OutputSpec createSpec(String format, OutputFormat outFormat)
+			throws Exception {
+		String script = DataWriter.saveOutputFormatFile(
+				createFormat(format), outFormat);
+		return OutputSpec.parse(Arrays.asList(script.split("\n")), "output-format");
+	}
+
+	/**
+	 * @return The data format object of the given format script.
+	 */
+	static DataFormat createFormat(String script) {
+		return new DataFormat(new LexicalAnalyzer()
+				.analyzeFile(Arrays.asList(script.split("\n"))));
+	}
+
+	private static Date date(String value) throws Exception {
+		return new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").parse(value);
+	}
+}
@@ -0,0 +1,178 @@
+package traminer.parser;
+
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+import traminer.io.params.LocalFSParameters;
+import traminer.parser.MongoWriteParameters.ShardKey;
+import traminer.parser.analyzer.Keywords.OutputFormat;
+import traminer.util.spatial.distance.EuclideanDistanceFunction;
+
+/**
+ * Unit test for the {@link MongoShardSplitter}. The split points
+ * must be strictly increasing, and split the points of the data
+ * into chunks of about the same size. The shard key of an output
+ * record must be the key of its first point.
+ *
+ * @author douglasapeixoto
+ */
+public class MongoShardSplitterTest extends TestCase {
+	// number of chunks to split the collection into
+	private static final int NUM_CHUNKS = 8;
+	// cartesian format, integer time-stamps
+	private static final String FORMAT =
+			"_COORD_SYSTEM	CARTESIAN\n" +
+			"_ID			STRING	;\n" +
+			"_COORDINATES	ARRAY(_X DECIMAL , _Y DECIMAL , _TIME INTEGER |)	LN";
+
+	// points of the test data, (x,y,time)
+	private final List<double[]> points = new ArrayList<>();
+
+	@Override
+	protected void setUp() throws Exception {
+		MetadataService.init(new EuclideanDistanceFunction());
+		DataWriter.init(new LocalFSParameters(
+				Files.createTempDirectory("traminer-out").toString()));
+	}
+
+	public void testSpatialSplitPoints() throws Exception {
+		MongoShardSplitter splitter = new MongoShardSplitter(ShardKey.SPATIAL,
+				createSpec(), createProfile(new DensityGrid(
+						DensityGrid.DEFAULT_RESOLUTION, DensityGrid.DEFAULT_DEPTH, false)));
+		long[] splitPoints = splitter.splitPoints(NUM_CHUNKS);
+		assertIncreasing(splitPoints);
+
+		long[] counts = new long[splitPoints.length + 1];
+		for (double[] p : points) {
+			counts[chunkOf(splitPoints, splitter.spatialKey(p[0], p[1]))]++;
+		}
+		assertBalanced(counts);
+	}
+
+	public void testTemporalSplitPoints() throws Exception {
+		// 3D density grid, split on the time density
+		MongoShardSplitter splitter = new MongoShardSplitter(ShardKey.TEMPORAL,
+				createSpec(), createProfile(new DensityGrid(
+						DensityGrid.DEFAULT_RESOLUTION, DensityGrid.DEFAULT_DEPTH, true)));
+		long[] splitPoints = splitter.splitPoints(NUM_CHUNKS);
+		assertIncreasing(splitPoints);
+
+		long[] counts = new long[splitPoints.length + 1];
+		for (double[] p : points) {
+			counts[chunkOf(splitPoints, splitter.keyOf(p[0], p[1], (long) p[2]))]++;
+		}
+		assertBalanced(counts);
+	}
+
+	public void testTemporalFallback() throws Exception {
+		// 2D density grid, uniform over the time range
+		StatisticsAccumulator profile = createProfile(new DensityGrid(
+				DensityGrid.DEFAULT_RESOLUTION, DensityGrid.DEFAULT_DEPTH, false));
+		MongoShardSplitter splitter = new MongoShardSplitter(
+				ShardKey.TEMPORAL, createSpec(), profile);
+		long[] splitPoints = splitter.splitPoints(NUM_CHUNKS);
+		assertIncreasing(splitPoints);
+		assertEquals(NUM_CHUNKS - 1, splitPoints.length);
+
+		double[] coverage = profile.getCoverageStats();
+		long min = (long) coverage[2], max = (long) coverage[5];
+		for (int i=1; i<NUM_CHUNKS; i++) {
+			assertEquals(min + (max - min) * i / NUM_CHUNKS, splitPoints[i-1]);
+		}
+
+		// no time-stamps in the output
+		try {
+			new MongoShardSplitter(ShardKey.TEMPORAL, MongoDocumentEncoderTest
+					.createSpec(FORMAT, OutputFormat.SPATIAL), profile);
+			fail();
+		} catch (IllegalArgumentException e) {}
+	}
+
+	public void testKeyOfRecord() throws Exception {
+		StatisticsAccumulator profile = createProfile(new DensityGrid(
+				DensityGrid.DEFAULT_RESOLUTION, DensityGrid.DEFAULT_DEPTH, false));
+		for (ShardKey shardKey : ShardKey.values()) {
+			MongoShardSplitter splitter = new MongoShardSplitter(
+					shardKey, createSpec(), profile);
+			// the last record is out of the coverage
+			double[][] firstPoints = {{12.5, 830.25, 1500}, {0, 0, 1000},
+					{999.99999, 0.00001, 98765}, {-50.5, 2000, 3}};
+			for (double[] p : firstPoints) {
+				String line = MongoDocumentEncoderTest.parse(FORMAT, "t;" +
+						p[0] + "," + p[1] + "," + (long) p[2] + "|" +
+						(p[0] + 1) + "," + (p[1] - 1) + "," + ((long) p[2] + 5));
+				assertEquals(splitter.keyOf(p[0], p[1], (long) p[2]),
+						splitter.keyOf(line));
+			}
+		}
+	}
+
+	/**
+	 * @return The specifications of the output of the test format.
+	 */
+	private static OutputSpec createSpec() throws Exception {
+		return MongoDocumentEncoderTest.createSpec(FORMAT, OutputFormat.ALL);
+	}
+
+	/**
+	 * @return The statistics of the test data, in the given grid:
+	 * half of the points in a dense cluster over a tenth of the
+	 * coverage (and a fifth of the time range), the other half
+	 * uniform over the coverage.
+	 */
+	private StatisticsAccumulator createProfile(DensityGrid grid) {
+		StatisticsAccumulator profile = new StatisticsAccumulator(
+				new EuclideanDistanceFunction(), grid);
+		Random random = new Random(41);
+		points.clear();
+		for (int i=0; i<2000; i++) {
+			final boolean cluster = (i % 2 == 0);
+			final double range = cluster ? 100 : 1000;
+			final double start = cluster ? 8000 : 1000;
+			final int numPts = 2 + random.nextInt(20);
+			double[] x = new double[numPts], y = new double[numPts], t = new double[numPts];
+			double t0 = start + random.nextInt(cluster ? 2000 : 10000);
+			for (int j=0; j<numPts; j++) {
+				x[j] = Math.floor(random.nextDouble() * range * 100) / 100;
+				y[j] = Math.floor(random.nextDouble() * range * 100) / 100;
+				t[j] = t0 + j;
+				points.add(new double[] {x[j], y[j], t[j]});
+			}
+			profile.addValues(x, false, y, false, t, false);
+		}
+		return profile;
+	}
+
+	/**
+	 * @return The chunk of the given key, i.e. the number of
+	 * split points before or at the key.
+	 */
+	private static int chunkOf(long[] splitPoints, long key) {
+		int chunk = 0;
+		while (chunk < splitPoints.length && splitPoints[chunk] <= key) chunk++;
+		return chunk;
+	}
+
+	private static void assertIncreasing(long[] splitPoints) {
+		assertTrue(splitPoints.length > 0);
+		for (int i=1; i<splitPoints.length; i++) {
+			assertTrue(splitPoints[i-1] < splitPoints[i]);
+		}
+	}
+
+	/**
+	 * Assert the chunks have about the same number of points.
+	 */
+	private void assertBalanced(long[] counts) {
+		final double expected = (double) points.size() / NUM_CHUNKS;
+		assertEquals(NUM_CHUNKS, counts.length);
+		for (long count : counts) {
+			assertTrue(Arrays.toString(counts),
+					count > expected / 2 && count < expected * 1.5);
+		}
+	}
+}
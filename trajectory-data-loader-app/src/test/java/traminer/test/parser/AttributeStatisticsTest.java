@@ -0,0 +1,95 @@
+package traminer.test.parser;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.TestCase;
+import traminer.parser.AttributeStatistics;
+import traminer.parser.DistinctCountSketch;
+import traminer.parser.TopValuesSketch;
+
+/**
+ * Test the semantic {@link AttributeStatistics}, and their
+ * distinct count and top values sketches.
+ *
+ * @author douglasapeixoto
+ */
+public class AttributeStatisticsTest extends TestCase {
+
+	public void testNumberAttribute() {
+		AttributeStatistics stats = new AttributeStatistics("speed", "DECIMAL");
+		for (String value : new String[]{"12.5", "", "NULL", "-3", "1E2", "abc", "7", " "}) {
+			stats.add(value);
+		}
+		assertEquals(8, stats.getCount());
+		assertEquals(1, stats.getNullCount());
+		assertEquals(2, stats.getEmptyCount());
+		assertEquals(5, stats.getDistinctCount());
+		assertEquals("-3", stats.getMinValue());
+		assertEquals("1E2", stats.getMaxValue());
+		assertNull(stats.getTopValues());
+	}
+
+	public void testStringAttributeMerge() {
+		AttributeStatistics merged = new AttributeStatistics("status", "STRING");
+		for (int part=0; part<4; part++) {
+			AttributeStatistics stats = new AttributeStatistics("status", "STRING");
+			for (int i=0; i<1000; i++) {
+				stats.add(i % 2 == 0 ? "busy" : (i % 10 == 1 ? "free" : "v" + part + "_" + i));
+			}
+			merged.merge(stats);
+		}
+		assertEquals(4000, merged.getCount());
+		assertNull(merged.getMinValue());
+		List<Map.Entry<String, Long>> top = merged.getTopValues();
+		assertEquals(AttributeStatistics.TOP_K, top.size());
+		assertEquals("busy", top.get(0).getKey());
+		assertTrue(top.get(0).getValue() >= 2000);
+		assertEquals("free", top.get(1).getKey());
+		assertTrue(top.get(1).getValue() >= 400);
+		// 2 + 4 * 400 distinct values
+		assertEquals(1602, merged.getDistinctCount(), 1602 * 0.05);
+
+		try {
+			merged.merge(new AttributeStatistics("status", "INTEGER"));
+			fail();
+		} catch (IllegalArgumentException e) {}
+	}
+
+	public void testDistinctCountError() {
+		Random random = new Random(19);
+		DistinctCountSketch merged = new DistinctCountSketch();
+		for (int n : new int[]{10, 300, 5000, 200000}) {
+			DistinctCountSketch sketch = new DistinctCountSketch();
+			for (int i=0; i<n; i++) {
+				String value = "value_" + n + "_" + i;
+				sketch.update(value);
+				// duplicates do not count
+				if (random.nextBoolean()) sketch.update(value);
+			}
+			merged.merge(sketch);
+			assertEquals(n, sketch.getEstimate(), Math.max(1, n * 0.05));
+		}
+		assertEquals(205310, merged.getEstimate(), 205310 * 0.05);
+	}
+
+	public void testTopValuesBounds() {
+		TopValuesSketch sketch = new TopValuesSketch(20);
+		Random random = new Random(23);
+		int heavy = 0;
+		for (int i=0; i<100000; i++) {
+			if (random.nextInt(10) == 0) {
+				sketch.update("heavy");
+				heavy++;
+			} else {
+				sketch.update("v" + random.nextInt(50000));
+			}
+		}
+		List<Map.Entry<String, Long>> top = sketch.getTopValues(3);
+		assertEquals("heavy", top.get(0).getKey());
+		// over-estimated by at most n / capacity
+		assertTrue(top.get(0).getValue() >= heavy);
+		assertTrue(top.get(0).getValue() <= heavy + 100000 / 20);
+	}
+}
@@ -0,0 +1,70 @@
+package traminer.test.parser;
+
+import java.lang.reflect.Proxy;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.lang.NullArgumentException;
+import org.bson.Document;
+
+import com.mongodb.client.MongoCollection;
+
+import junit.framework.TestCase;
+import traminer.io.params.MongoDBParameters;
+import traminer.parser.DataWriter;
+
+/**
+ * Test the {@link DataWriter} MongoDB metadata documents
+ * are saved again by a second load into the same database,
+ * and the MongoDB initialization arguments are checked.
+ *
+ * @author douglasapeixoto
+ */
+public class DataWriterTest extends TestCase {
+	// documents in the stand-in collection, by '_id'
+	private final Map<Object, Document> stored = new ConcurrentHashMap<>();
+
+	public void testSaveMetadataTwice() {
+		MongoCollection<Document> collection = collection();
+		DataWriter.saveMongoDocument(collection, "metadata", "first load");
+		DataWriter.saveMongoDocument(collection, "metadata-state", new byte[] {1});
+		// second load, e.g. reload mode
+		DataWriter.saveMongoDocument(collection, "metadata", "second load");
+		DataWriter.saveMongoDocument(collection, "metadata-state", new byte[] {2});
+
+		assertEquals(2, stored.size());
+		assertEquals("second load", stored.get("metadata").get("value"));
+		assertEquals(2, ((byte[]) stored.get("metadata-state").get("value"))[0]);
+	}
+
+	public void testInitNullWriteParams() {
+		MongoDBParameters params = new MongoDBParameters("traminerdb");
+		try {
+			DataWriter.init(params, null);
+			fail();
+		} catch (NullArgumentException e) {}
+		// nothing registered before the arguments are checked
+		assertNull(params.getCollectionName("data"));
+		assertNull(params.getCollectionName("buckets"));
+	}
+
+	/**
+	 * @return A stand-in collection, that only takes replacements
+	 * (an insert would fail on the second load, duplicate '_id').
+	 */
+	@SuppressWarnings("unchecked")
+	private MongoCollection<Document> collection() {
+		return (MongoCollection<Document>) Proxy.newProxyInstance(
+				getClass().getClassLoader(),
+				new Class<?>[] {MongoCollection.class},
+				(proxy, method, args) -> {
+			if (!method.getName().equals("replaceOne")) {
+				throw new UnsupportedOperationException(method.getName());
+			}
+			// the filter is on the '_id' of the replacement
+			Document replacement = (Document) args[1];
+			stored.put(replacement.get("_id"), replacement);
+			return null;
+		});
+	}
+}
@@ -0,0 +1,86 @@
+package traminer.test.parser;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Random;
+
+import junit.framework.TestCase;
+import traminer.parser.DateTimeParser;
+
+/**
+ * Differential test of the {@link DateTimeParser}, against
+ * parsing each value with the pattern formatter.
+ *
+ * @author douglasapeixoto
+ */
+public class DateTimeParserTest extends TestCase {
+	private static final Random RANDOM = new Random(11);
+	private static final String[] PATTERNS = {
+			"yyyy-MM-dd HH:mm:ss", "yyyy-MM-dd'T'HH:mm:ss.SSS",
+			"yyyy/MM/dd,HH:mm:ss", "M/d/yyyy H:mm:ss a"};
+
+	public void testIsoLayouts() {
+		assertTrue(DateTimeParser.forPattern(PATTERNS[0]).isIsoLayout());
+		assertTrue(DateTimeParser.forPattern(PATTERNS[1]).isIsoLayout());
+		assertTrue(DateTimeParser.forPattern(PATTERNS[2]).isIsoLayout());
+		assertFalse(DateTimeParser.forPattern(PATTERNS[3]).isIsoLayout());
+		assertFalse(DateTimeParser.forPattern("yyyy-MM-dd[HH:mm:ss]").isIsoLayout());
+		assertSame(DateTimeParser.forPattern(PATTERNS[0]),
+				   DateTimeParser.forPattern(PATTERNS[0]));
+	}
+
+	public void testRandomDates() {
+		for (String pattern : PATTERNS) {
+			DateTimeFormatter formatter = DateTimeFormatter.ofPattern(pattern);
+			DateTimeParser parser = DateTimeParser.forPattern(pattern);
+			// a trajectory, values sharing the date part
+			LocalDateTime date = LocalDateTime.of(1990 + RANDOM.nextInt(40),
+					1 + RANDOM.nextInt(12), 1 + RANDOM.nextInt(28), 0, 0);
+			String[] values = new String[2000];
+			for (int i=0; i<values.length; i++) {
+				date = date.plusNanos(RANDOM.nextInt(60000) * 1000000L);
+				values[i] = formatter.format(date);
+			}
+			String[] expected = new String[values.length];
+			for (int i=0; i<values.length; i++) {
+				expected[i] = "" + parse(values[i], formatter);
+				assertEquals(expected[i], "" + parser.toEpochMilli(values[i]));
+			}
+			parser.toEpochMilli(values, 0, values.length);
+			for (int i=0; i<values.length; i++) {
+				assertEquals(expected[i], values[i]);
+			}
+		}
+	}
+
+	public void testInvalidDates() {
+		String[] values = {"2008-02-29 10:00:00", "2008-02-30 10:00:00",
+				"2009-02-29 10:00:00", "2008-02-29 24:00:00", "2008-02-29 10:60:00",
+				"2008-13-01 10:00:00", "2008-02-29T10:00:00", "2008-2-29 10:00:00",
+				"0000-01-01 00:00:00", "2008-02-29 10:00:0x", "+2008-02-29 10:00:00"};
+		DateTimeFormatter formatter = DateTimeFormatter.ofPattern(PATTERNS[0]);
+		DateTimeParser parser = DateTimeParser.forPattern(PATTERNS[0]);
+		for (String value : values) {
+			String expected, result;
+			try {
+				expected = "" + parse(value, formatter);
+			} catch (RuntimeException e) {
+				expected = e.getClass().getName();
+			}
+			try {
+				String[] array = {values[0], value};
+				parser.toEpochMilli(array, 0, 2);
+				result = array[1];
+			} catch (RuntimeException e) {
+				result = e.getClass().getName();
+			}
+			assertEquals(value, expected, result);
+		}
+	}
+
+	private static long parse(String value, DateTimeFormatter formatter) {
+		return LocalDateTime.parse(value, formatter)
+				.toInstant(ZoneOffset.UTC).toEpochMilli();
+	}
+}
@@ -0,0 +1,98 @@
+package traminer.test.parser;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+import traminer.parser.DeltaCompressor;
+import traminer.util.DeltaEncoder;
+import traminer.util.math.Decimal;
+
+/**
+ * Differential test of the {@link DeltaCompressor} fast path,
+ * against the delta compression with Decimal numbers.
+ *
+ * @author douglasapeixoto
+ */
+public class DeltaCompressorTest extends TestCase {
+	private static final Random RANDOM = new Random(7);
+
+	public void testRandomDecimals() {
+		for (int n=0; n<500; n++) {
+			String[] values = randomValues(1 + RANDOM.nextInt(50));
+			for (int precision=0; precision<=8; precision++) {
+				assertCompress(values, false, precision);
+				assertCompress(values, true, precision);
+			}
+		}
+	}
+
+	public void testSpecialValues() {
+		assertCompress(new String[]{"-0.5", "+0.5", "0", "-0", ".5", "5."}, false, 0);
+		assertCompress(new String[]{"-116.3170", "39.98412", "-0.0000000001"}, false, 5);
+		assertCompress(new String[]{"1224523781", "1224523786", "1224523790"}, false, 0);
+		assertCompress(new String[]{"9.9999999999", "-9.9999999999"}, false, 9);
+		assertCompress(new String[]{"42"}, false, 3);
+		assertCompress(new String[]{}, false, 3);
+	}
+
+	public void testUnsupportedValues() {
+		assertNull(DeltaCompressor.compress(new String[]{"1.5E3"}, false, 2));
+		assertNull(DeltaCompressor.compress(new String[]{"0.12345678901"}, false, 2));
+		assertNull(DeltaCompressor.compress(new String[]{"-", "1"}, false, 2));
+		assertNull(DeltaCompressor.compress(new String[]{"1.2.3"}, false, 2));
+		assertNull(DeltaCompressor.compress(new String[]{"NaN"}, false, 2));
+		// overflow
+		assertNull(DeltaCompressor.compress(new String[]{"-9223372036854775808", "1"}, false, 0));
+		assertNull(DeltaCompressor.compress(new String[]{"123456789.5"}, false, 12));
+	}
+
+	/**
+	 * Assert the fast path compression is identical to the
+	 * compression with Decimal numbers.
+	 */
+	private static void assertCompress(String[] values, boolean isCompressed, int precision) {
+		long[] result = DeltaCompressor.compress(values, isCompressed, precision);
+		assertNotNull(result);
+		String[] expected = decimalCompress(values, isCompressed, precision);
+		assertEquals(expected.length, result.length);
+		for (int i=0; i<result.length; i++) {
+			assertEquals(expected[i], "" + result[i]);
+		}
+	}
+
+	/**
+	 * Delta compression with Decimal numbers, as in the parser.
+	 */
+	private static String[] decimalCompress(String[] values, boolean isCompressed, int precision) {
+		if (!isCompressed) {
+			values = DeltaEncoder.deltaEncode(values);
+		}
+		Decimal round = Decimal.valueOf(Math.pow(10, precision));
+		String[] result = new String[values.length];
+		for (int i=0; i<values.length; i++) {
+			Decimal value = Decimal.valueOf(values[i]);
+			result[i] = "" + (precision == 0 ? value.longValue() :
+				value.multiply(round).longValue());
+		}
+		return result;
+	}
+
+	/**
+	 * @return Random decimal strings, with up to 10 decimal places.
+	 */
+	private static String[] randomValues(int size) {
+		String[] values = new String[size];
+		for (int i=0; i<size; i++) {
+			StringBuilder value = new StringBuilder();
+			if (RANDOM.nextBoolean()) value.append('-');
+			value.append(RANDOM.nextInt(1000000));
+			int places = RANDOM.nextInt(11);
+			if (places > 0) value.append('.');
+			for (int k=0; k<places; k++) {
+				value.append(RANDOM.nextInt(10));
+			}
+			values[i] = value.toString();
+		}
+		return values;
+	}
+}
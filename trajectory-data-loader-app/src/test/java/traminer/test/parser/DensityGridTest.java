@@ -0,0 +1,143 @@
+package traminer.test.parser;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+import traminer.parser.DensityGrid;
+import traminer.parser.DensityHistogram;
+
+/**
+ * Test the {@link DensityGrid} counts, merge and
+ * adaptive histogram.
+ *
+ * @author douglasapeixoto
+ */
+public class DensityGridTest extends TestCase {
+	private static final int NUM_POINTS = 50000;
+
+	public void testCountsAndBounds() {
+		double[][] points = randomPoints(new Random(11), NUM_POINTS);
+		DensityGrid grid = new DensityGrid(16, 2, true);
+		for (double[] p : points) {
+			grid.update(p[0], p[1], p[2]);
+		}
+		grid.update(Double.NaN, 0, 0);
+		assertEquals(NUM_POINTS, grid.getCount());
+		assertTrue(grid.numCells() <= 64 * 64 * 64);
+
+		DensityHistogram histogram = grid.toHistogram();
+		assertEquals(3, histogram.dims);
+		long total = 0;
+		for (int c=0; c<histogram.numCells(); c++) {
+			total += histogram.getCount(c);
+			// points counted in the cell
+			long inside = 0;
+			for (double[] p : points) {
+				if (contains(histogram, c, p)) inside++;
+			}
+			assertEquals(histogram.getCount(c), inside);
+		}
+		assertEquals(NUM_POINTS, total);
+	}
+
+	public void testAdaptiveRefinement() {
+		double[][] points = randomPoints(new Random(13), NUM_POINTS);
+		DensityGrid grid = new DensityGrid(8, 3, false);
+		for (double[] p : points) {
+			grid.update(p[0], p[1], p[2]);
+		}
+		DensityHistogram histogram = grid.toHistogram();
+		// the hot spot is described by the finest cells,
+		// and the sparse area by coarse cells
+		int hotLevel = -1, sparseLevel = -1;
+		for (int c=0; c<histogram.numCells(); c++) {
+			if (contains(histogram, c, new double[]{10.001, 20.001})) {
+				hotLevel = histogram.getLevel(c);
+			}
+			if (contains(histogram, c, new double[]{-90.0, 80.0})) {
+				sparseLevel = histogram.getLevel(c);
+			}
+		}
+		assertEquals(0, hotLevel);
+		assertEquals(3, sparseLevel);
+	}
+
+	public void testMergeIsSplitIndependent() throws IOException {
+		double[][] points = randomPoints(new Random(17), NUM_POINTS);
+		DensityGrid single = new DensityGrid(32, 2, false);
+		for (double[] p : points) {
+			single.update(p[0], p[1], p[2]);
+		}
+		// split the points among grids, in a different order
+		DensityGrid merged = new DensityGrid(32, 2, false);
+		DensityGrid[] parts = new DensityGrid[7];
+		for (int i=0; i<parts.length; i++) {
+			parts[i] = new DensityGrid(32, 2, false);
+		}
+		for (int i=points.length-1; i>=0; i--) {
+			parts[i % parts.length].update(points[i][0], points[i][1], points[i][2]);
+		}
+		for (DensityGrid part : parts) {
+			merged.merge(part);
+		}
+		byte[] expected = single.toHistogram().toByteArray();
+		byte[] result = merged.toHistogram().toByteArray();
+		assertTrue(Arrays.equals(expected, result));
+
+		// binary form round trip
+		DensityHistogram read = DensityHistogram.read(
+				new ByteArrayInputStream(result));
+		assertTrue(Arrays.equals(result, read.toByteArray()));
+		assertEquals(NUM_POINTS, read.count);
+	}
+
+	public void testInvalidGrids() {
+		try {
+			new DensityGrid(0, 2, false);
+			fail();
+		} catch (IllegalArgumentException e) {}
+		try {
+			new DensityGrid(1 << 18, 2, false);
+			fail();
+		} catch (IllegalArgumentException e) {}
+		try {
+			new DensityGrid(16, 2, false).merge(new DensityGrid(16, 2, true));
+			fail();
+		} catch (IllegalArgumentException e) {}
+	}
+
+	/**
+	 * Points around a hot spot at (10,20), and sparse points
+	 * over (-100,100), time-stamps in milliseconds.
+	 */
+	private static double[][] randomPoints(Random random, int n) {
+		double[][] points = new double[n][];
+		for (int i=0; i<n; i++) {
+			if (i % 4 == 0) {
+				points[i] = new double[]{
+						random.nextDouble() * 200 - 100,
+						random.nextDouble() * 200 - 100,
+						1224523781000.0 + random.nextInt(86400000)};
+			} else {
+				points[i] = new double[]{
+						10 + random.nextGaussian() * 0.01,
+						20 + random.nextGaussian() * 0.01,
+						1224523781000.0 + random.nextInt(3600000)};
+			}
+		}
+		return points;
+	}
+
+	private static boolean contains(DensityHistogram histogram, int cell, double[] p) {
+		for (int d=0; d<histogram.dims; d++) {
+			if (p[d] < histogram.getCellMin(cell, d) ||
+				p[d] >= histogram.getCellMax(cell, d)) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
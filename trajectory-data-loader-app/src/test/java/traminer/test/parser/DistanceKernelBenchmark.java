@@ -0,0 +1,93 @@
+package traminer.test.parser;
+
+import java.util.Random;
+
+import traminer.parser.DistanceKernel;
+
+/**
+ * Benchmark of the geographic {@link DistanceKernel}s. Reports the
+ * time per segment of each kernel, its speedup over the exact
+ * Haversine kernel, and the relative error of the trajectories
+ * length against the exact kernel.
+ * <p>
+ * Trajectories are generated as in 'examples/synthetic-data.csv',
+ * i.e. 10 to 98 points sampled every 1000 ms, here as random walks
+ * of GPS points (up to 30 meters per sample) at latitudes up to 80
+ * degrees.
+ * <p>
+ * Usage: {@code DistanceKernelBenchmark [num-trajectories] [rounds]}
+ *
+ * @author douglasapeixoto
+ */
+public class DistanceKernelBenchmark {
+	// keeps the results alive, so the loops are not eliminated
+	private static volatile double sink;
+
+	public static void main(String[] args) {
+		int numTraj = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+		int rounds  = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+		Random random = new Random(7);
+		double[][] lon = new double[numTraj][];
+		double[][] lat = new double[numTraj][];
+		long numSegments = 0;
+		for (int i=0; i<numTraj; i++) {
+			int numPts = 10 + random.nextInt(89);
+			lon[i] = new double[numPts];
+			lat[i] = new double[numPts];
+			double x = random.nextDouble() * 360 - 180;
+			double y = random.nextDouble() * 160 - 80;
+			for (int p=0; p<numPts; p++) {
+				// step of up to 30 meters
+				double step = random.nextDouble() * 30 / 111195.0;
+				double angle = random.nextDouble() * 2 * Math.PI;
+				y = Math.max(-80, Math.min(80, y + step * Math.sin(angle)));
+				x += step * Math.cos(angle) / Math.cos(Math.toRadians(y));
+				if (x > 180) x -= 360; else if (x < -180) x += 360;
+				lon[i][p] = x;
+				lat[i][p] = y;
+			}
+			numSegments += numPts - 1;
+		}
+
+		// exact lengths
+		double[] exact = new double[numTraj];
+		for (int i=0; i<numTraj; i++) {
+			exact[i] = DistanceKernel.HAVERSINE.length(lon[i], lat[i], lon[i].length);
+		}
+
+		System.out.println(numTraj + " trajectories, " + numSegments + " segments.");
+		System.out.println(String.format("%-16s %12s %9s %12s %12s",
+				"KERNEL", "NS/SEGMENT", "SPEEDUP", "MAX_ERROR", "MEAN_ERROR"));
+		double exactTime = 0;
+		for (DistanceKernel kernel : DistanceKernel.values()) {
+			double checksum = 0;
+			// warm-up
+			for (int i=0; i<numTraj; i++) {
+				checksum += kernel.length(lon[i], lat[i], lon[i].length);
+			}
+			long start = System.nanoTime();
+			for (int r=0; r<rounds; r++) {
+				for (int i=0; i<numTraj; i++) {
+					checksum += kernel.length(lon[i], lat[i], lon[i].length);
+				}
+			}
+			double nsPerSegment = (double) (System.nanoTime() - start)
+					/ (rounds * numSegments);
+			if (kernel == DistanceKernel.HAVERSINE) {
+				exactTime = nsPerSegment;
+			}
+			double maxError = 0, sumError = 0;
+			for (int i=0; i<numTraj; i++) {
+				double length = kernel.length(lon[i], lat[i], lon[i].length);
+				double error = Math.abs(length - exact[i]) / exact[i];
+				maxError = Math.max(maxError, error);
+				sumError += error;
+			}
+			System.out.println(String.format("%-16s %12.2f %8.2fx %12.3e %12.3e",
+					kernel, nsPerSegment, exactTime / nsPerSegment,
+					maxError, sumError / numTraj));
+			sink = checksum;
+		}
+	}
+}
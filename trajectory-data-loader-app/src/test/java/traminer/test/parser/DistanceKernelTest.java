@@ -0,0 +1,94 @@
+package traminer.test.parser;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import junit.framework.TestCase;
+import traminer.parser.DistanceKernel;
+import traminer.parser.MetadataState;
+import traminer.parser.StatisticsAccumulator;
+import traminer.util.spatial.distance.HaversineDistanceFunction;
+
+/**
+ * Unit test for the {@link DistanceKernel}s. The approximate
+ * kernels must be within their documented error bounds.
+ *
+ * @author douglasapeixoto
+ */
+public class DistanceKernelTest extends TestCase {
+
+	public void testHaversine() {
+		HaversineDistanceFunction exact = new HaversineDistanceFunction();
+		Random random = new Random(11);
+		for (int i=0; i<10000; i++) {
+			double[] s = randomSegment(random, 89, 1e6);
+			assertEquals(exact.pointToPointDistance(s[0], s[1], s[2], s[3]),
+					DistanceKernel.HAVERSINE.pointToPointDistance(s[0], s[1], s[2], s[3]));
+		}
+	}
+
+	public void testErrorBounds() {
+		HaversineDistanceFunction exact = new HaversineDistanceFunction();
+		Random random = new Random(13);
+		for (int i=0; i<100000; i++) {
+			double[] s = randomSegment(random, 80, 10000);
+			double d = exact.pointToPointDistance(s[0], s[1], s[2], s[3]);
+			double e = DistanceKernel.EQUIRECTANGULAR.pointToPointDistance(s[0], s[1], s[2], s[3]);
+			assertEquals(d, e, d * DistanceKernel.MAX_EQUIRECTANGULAR_ERROR);
+			s = randomSegment(random, 89, 1e6);
+			d = exact.pointToPointDistance(s[0], s[1], s[2], s[3]);
+			e = DistanceKernel.HAVERSINE_TABLE.pointToPointDistance(s[0], s[1], s[2], s[3]);
+			assertEquals(d, e, d * DistanceKernel.MAX_TABLE_ERROR);
+		}
+		// across the antimeridian
+		assertEquals(exact.pointToPointDistance(179.9999, 10, -179.9999, 10),
+				DistanceKernel.EQUIRECTANGULAR.pointToPointDistance(179.9999, 10, -179.9999, 10), 1e-3);
+		assertEquals(exact.pointToPointDistance(179.9999, 10, -179.9999, 10),
+				DistanceKernel.HAVERSINE_TABLE.pointToPointDistance(179.9999, 10, -179.9999, 10), 1e-3);
+	}
+
+	public void testLength() {
+		double[] lon = {0, 0.001, 0.002, 0.002};
+		double[] lat = {0, 0, 0.001, 0.001};
+		for (DistanceKernel kernel : DistanceKernel.values()) {
+			double length = 0;
+			for (int i=1; i<lon.length; i++) {
+				length += kernel.pointToPointDistance(lon[i-1], lat[i-1], lon[i], lat[i]);
+			}
+			assertEquals(length, kernel.length(lon, lat, lon.length), 1e-9);
+			assertEquals(0.0, kernel.length(lon, lat, 1));
+		}
+	}
+
+	public void testMetadataState() throws IOException {
+		StatisticsAccumulator stats = new StatisticsAccumulator(
+				DistanceKernel.EQUIRECTANGULAR);
+		stats.addValues(new double[]{0, 0.001, 0.002}, false,
+				new double[]{0, 0, 0.001}, false, new double[]{0, 1, 2}, false);
+		MetadataState state = MetadataState.read(new ByteArrayInputStream(
+				new MetadataState(1, 3, 3, stats).toByteArray()));
+		assertSame(DistanceKernel.EQUIRECTANGULAR,
+				state.getStatistics().getDistanceFunction());
+		assertEquals(stats.getLengthStats()[0], state.getStatistics().getLengthStats()[0]);
+	}
+
+	/**
+	 * @return A random segment (lon1, lat1, lon2, lat2), from 1 meter
+	 * to the given length, within the given latitude.
+	 */
+	private static double[] randomSegment(Random random, double maxLat, double maxLength) {
+		while (true) {
+			double lat = (random.nextDouble() * 2 - 1) * maxLat;
+			double lon = random.nextDouble() * 360 - 180;
+			double length = 1 + random.nextDouble() * (maxLength - 1);
+			double angle = random.nextDouble() * 2 * Math.PI;
+			double lat2 = lat + Math.toDegrees(length * Math.cos(angle) / 6371000.0);
+			double lon2 = lon + Math.toDegrees(length * Math.sin(angle) / 6371000.0
+					/ Math.cos(Math.toRadians(lat)));
+			if (Math.abs(lat2) > maxLat) continue;
+			if (lon2 > 180) lon2 -= 360; else if (lon2 < -180) lon2 += 360;
+			return new double[]{lon, lat, lon2, lat2};
+		}
+	}
+}
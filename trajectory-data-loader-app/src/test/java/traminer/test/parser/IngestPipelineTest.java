@@ -0,0 +1,248 @@
+package traminer.test.parser;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+import junit.framework.TestCase;
+import traminer.io.params.LocalFSParameters;
+import traminer.parser.DataWriter;
+import traminer.parser.ParserException;
+import traminer.parser.pipeline.FileChunk;
+import traminer.parser.pipeline.IngestPipeline;
+import traminer.parser.pipeline.PipelineParameters;
+import traminer.parser.pipeline.PipelineParameters.Stage;
+
+/**
+ * Test that the {@link IngestPipeline} finishes when a stage
+ * throws, i.e. the stage workers keep draining their queues,
+ * and the files in error are counted, or the pipeline fails
+ * when a worker dies, and that the records
+ * sequence numbers (_AUTO_ID) are stable across runs, and
+ * the ordered output reads at most the reorder window ahead.
+ *
+ * @author douglasapeixoto
+ */
+public class IngestPipelineTest extends TestCase {
+	private static final int NUM_FILES = 4;
+	private static final int NUM_LINES = 500;
+
+	public void testStageErrors() throws Exception {
+		Path input = Files.createTempDirectory("traminer-in");
+		Path output = Files.createTempDirectory("traminer-out");
+		for (int f=0; f<NUM_FILES; f++) {
+			List<String> lines = new ArrayList<>();
+			for (int i=0; i<NUM_LINES; i++) lines.add(f + "-" + i);
+			Files.write(input.resolve("file" + f + ".txt"), lines);
+		}
+		DataWriter.init(new LocalFSParameters(output.toString()));
+
+		// one worker per stage, and small queues: a dead
+		// worker would block the stages upstream for good
+		PipelineParameters params = new PipelineParameters();
+		params.setBatchSize(10);
+		for (Stage stage : Stage.values()) {
+			params.setNumWorkers(stage, 1);
+			params.setQueueCapacity(stage, 1);
+		}
+		final IngestPipeline<String, String> pipeline = new IngestPipeline<>(
+				params,
+				path -> Arrays.asList(FileChunk.wholeFile(path,
+						Files.size(Paths.get(path)))),
+				chunk -> lines(chunk.path),
+				// the parser throws on one record of file 0
+				() -> (record, recordNum) -> {
+					if (record.equals("0-7")) {
+						throw new IllegalArgumentException("Bad record.");
+					}
+					return record;
+				},
+				// a null line makes the writer throw, on file 2
+				record -> record.equals("2-3") ? null : record);
+
+		final Exception[] error = new Exception[1];
+		Thread run = new Thread(() -> {
+			try {
+				pipeline.run(input);
+			} catch (Exception e) {
+				error[0] = e;
+			}
+		});
+		run.setDaemon(true);
+		run.start();
+		run.join(30000);
+		assertFalse("Pipeline did not finish.", run.isAlive());
+		assertNull(error[0]);
+
+		assertEquals(2, pipeline.getErrorFilesCount());
+		// one record not parsed, and one batch not written
+		assertEquals(NUM_FILES * NUM_LINES - 1, pipeline.getParsedCount());
+		assertEquals(NUM_FILES * NUM_LINES - 1 - 10, pipeline.getRecordsCount());
+		// the output files are all closed, with the records written,
+		// and the lines of the failed batch before the null line
+		long written = 0;
+		try (Stream<Path> files = Files.list(output)) {
+			for (Path file : (Iterable<Path>) files::iterator) {
+				written += Files.readAllLines(file).size();
+			}
+		}
+		assertEquals(pipeline.getRecordsCount() + 3, written);
+	}
+
+	public void testWorkerFailure() throws Exception {
+		Path input = Files.createTempDirectory("traminer-in");
+		for (int f=0; f<NUM_FILES; f++) {
+			List<String> lines = new ArrayList<>();
+			for (int i=0; i<NUM_LINES; i++) lines.add(f + "-" + i);
+			Files.write(input.resolve("file" + f + ".txt"), lines);
+		}
+		PipelineParameters params = new PipelineParameters();
+		params.setBatchSize(10);
+		for (Stage stage : Stage.values()) {
+			params.setNumWorkers(stage, 1);
+			params.setQueueCapacity(stage, 1);
+		}
+		// an error (not an exception) kills the only parse worker,
+		// the readers upstream would block on the full queue
+		final IngestPipeline<String, String> pipeline = new IngestPipeline<>(
+				params,
+				path -> Arrays.asList(FileChunk.wholeFile(path,
+						Files.size(Paths.get(path)))),
+				chunk -> lines(chunk.path),
+				() -> (record, recordNum) -> {
+					if (record.equals("1-7")) {
+						throw new AssertionError("Parser failed.");
+					}
+					return record;
+				},
+				null);
+
+		final Exception[] error = new Exception[1];
+		Thread run = new Thread(() -> {
+			try {
+				pipeline.run(input);
+			} catch (Exception e) {
+				error[0] = e;
+			}
+		});
+		run.setDaemon(true);
+		run.start();
+		run.join(30000);
+		assertFalse("Pipeline did not finish.", run.isAlive());
+		assertTrue(error[0] instanceof ParserException);
+		assertTrue(error[0].getCause() instanceof AssertionError);
+	}
+
+	public void testStableSequenceNumbers() throws Exception {
+		Path input = Files.createTempDirectory("traminer-in");
+		for (int f=0; f<3; f++) {
+			List<String> lines = new ArrayList<>();
+			for (int i=0; i<NUM_LINES; i++) lines.add(f + "-" + i);
+			Files.write(input.resolve("file" + f + ".txt"), lines);
+		}
+		Map<String, Long> first = sequenceNumbers(input);
+
+		// an unrelated file grows before the second run
+		List<String> lines = new ArrayList<>();
+		for (int i=0; i<3*NUM_LINES; i++) lines.add("0-" + i);
+		Files.write(input.resolve("file0.txt"), lines);
+		Map<String, Long> second = sequenceNumbers(input);
+
+		assertEquals(3 * NUM_LINES + 2 * NUM_LINES, second.size());
+		for (int f=0; f<3; f++) {
+			for (int i=0; i<NUM_LINES; i++) {
+				String record = f + "-" + i;
+				long expected = f * IngestPipeline.RECORDS_PER_FILE + i + 1;
+				assertEquals(expected, first.get(record).longValue());
+				assertEquals(expected, second.get(record).longValue());
+			}
+		}
+	}
+
+	public void testReorderWindow() throws Exception {
+		final int numChunks = 20;
+		final int chunkLines = 50;
+		Path input = Files.createTempDirectory("traminer-in");
+		Path output = Files.createTempDirectory("traminer-out");
+		final List<String> lines = new ArrayList<>();
+		for (int i=0; i<numChunks * chunkLines; i++) lines.add("0-" + i);
+		Files.write(input.resolve("file0.txt"), lines);
+		DataWriter.init(new LocalFSParameters(output.toString()));
+
+		PipelineParameters params = new PipelineParameters();
+		params.setBatchSize(10);
+		params.setNumWorkers(Stage.READ, 4);
+		params.setOrderedOutput(true);
+		params.setReorderWindow(1);
+		// chunks of the file, in lines, read in any order
+		final List<IngestPipeline<String, String>> pipeline = new ArrayList<>();
+		final AtomicInteger aheadCount = new AtomicInteger(0);
+		pipeline.add(new IngestPipeline<>(
+				params,
+				path -> {
+					List<FileChunk> chunks = new ArrayList<>();
+					for (int c=0; c<numChunks; c++) {
+						chunks.add(new FileChunk(path, c, numChunks,
+								c * chunkLines, (c + 1) * chunkLines, 0));
+					}
+					return chunks;
+				},
+				chunk -> {
+					// with a window of one chunk, the chunks before
+					// this one were all parsed, and written
+					if (pipeline.get(0).getRecordsCount() < chunk.start) {
+						aheadCount.incrementAndGet();
+					}
+					return lines.subList((int) chunk.start, (int) chunk.end).stream();
+				},
+				() -> (record, recordNum) -> record,
+				record -> record));
+		pipeline.get(0).run(input);
+
+		assertEquals(0, aheadCount.get());
+		assertEquals(0, pipeline.get(0).getErrorFilesCount());
+		try (Stream<Path> files = Files.list(output)) {
+			for (Path file : (Iterable<Path>) files::iterator) {
+				assertEquals(lines, Files.readAllLines(file));
+			}
+		}
+	}
+
+	/**
+	 * @return The sequence number of every record in the
+	 * input directory, by record, in profile-only mode.
+	 */
+	private static Map<String, Long> sequenceNumbers(Path input)
+			throws Exception {
+		final Map<String, Long> numbers = new ConcurrentHashMap<>();
+		PipelineParameters params = new PipelineParameters();
+		params.setBatchSize(10);
+		IngestPipeline<String, String> pipeline = new IngestPipeline<>(
+				params,
+				path -> Arrays.asList(FileChunk.wholeFile(path,
+						Files.size(Paths.get(path)))),
+				chunk -> lines(chunk.path),
+				() -> (record, recordNum) -> {
+					numbers.put(record, recordNum);
+					return record;
+				},
+				null);
+		pipeline.run(input);
+		return numbers;
+	}
+
+	/**
+	 * @return The lines of the given file.
+	 */
+	private static Stream<String> lines(String path) throws IOException {
+		return Files.lines(Paths.get(path));
+	}
+}
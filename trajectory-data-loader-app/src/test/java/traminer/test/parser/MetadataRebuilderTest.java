@@ -0,0 +1,112 @@
+package traminer.test.parser;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+import traminer.parser.AttributeStatistics;
+import traminer.parser.MetadataRebuilder;
+import traminer.parser.MetadataState;
+import traminer.parser.StatisticsAccumulator;
+import traminer.parser.pipeline.PipelineParameters;
+import traminer.util.spatial.distance.EuclideanDistanceFunction;
+
+/**
+ * Test the {@link MetadataRebuilder}. The metadata rebuilt from
+ * the output data files must be the metadata of the decoded
+ * output values.
+ *
+ * @author douglasapeixoto
+ */
+public class MetadataRebuilderTest extends TestCase {
+	private static final int NUM_TRAJECTORIES = 300;
+	private static final String FORMAT = 
+			"_OUTPUT_FORMAT\tALL\n" +
+			"_COORD_SYSTEM\tCARTESIAN\n" +
+			"_DECIMAL_PREC\t2\n" +
+			"_SPATIAL_DIM\t2\n" +
+			"_ID\tSTRING\n" +
+			"_COORDINATES\tARRAY(_X DECIMAL _Y DECIMAL _TIME INTEGER speed INTEGER)\n" +
+			"_IGNORE_ATTR\t_IGNORE_ATTR\n" +
+			"vehicle\tSTRING";
+
+	private Path dir;
+
+    /**
+     * Run by JUnit before each test to initialize variables.
+     */
+	@Override
+	protected void setUp() throws Exception {
+		dir = Files.createTempDirectory("rebuild");
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		for (Path file : Files.newDirectoryStream(dir)) {
+			Files.delete(file);
+		}
+		Files.delete(dir);
+	}
+
+	public void testRebuild() throws Exception {
+		StatisticsAccumulator expected = 
+				new StatisticsAccumulator(new EuclideanDistanceFunction());
+		AttributeStatistics vehicle = expected.getAttributeStatistics("vehicle", "STRING");
+		Random random = new Random(7);
+		StringBuilder[] files = {new StringBuilder(), new StringBuilder()};
+		for (int i=0; i<NUM_TRAJECTORIES; i++) {
+			int numPts = 2 + random.nextInt(50);
+			double[] x = new double[numPts], y = new double[numPts], t = new double[numPts];
+			StringBuilder line = files[i % 2].append("t_" + i + ";");
+			long px = 0, py = 0, pt = 0;
+			for (int p=0; p<numPts; p++) {
+				long cx = random.nextInt(200000) - 100000;
+				long cy = random.nextInt(200000) - 100000;
+				long ct = 1000L * i + 10 * p;
+				x[p] = cx / 100.0; y[p] = cy / 100.0; t[p] = ct;
+				// delta-compressed (x,y,time), and one semantic value
+				line.append(p == 0 ? "" : ",").append(cx - px).append(',')
+					.append(cy - py).append(',').append(ct - pt).append(',').append(p);
+				px = cx; py = cy; pt = ct;
+			}
+			line.append(";car_" + (i % 7)).append('\n');
+			expected.addValues(x, false, y, false, t, false);
+			vehicle.add("car_" + (i % 7));
+		}
+		// malformed records and other files are ignored
+		files[0].append("t_bad;1,2,3\n");
+		write("data_file_1.csv", files[0].toString());
+		write("data_file_2.csv", files[1].toString());
+		write("metadata.meta", "NUM_FILES\t2\n");
+		write(MetadataRebuilder.FORMAT_FILE_NAME, FORMAT);
+
+		PipelineParameters params = new PipelineParameters();
+		params.setChunkSize(4096);
+		MetadataState state = MetadataRebuilder.rebuild(dir, params);
+		StatisticsAccumulator result = state.getStatistics();
+
+		assertEquals(2, state.filesCount);
+		assertEquals(3, state.numAttributes);
+		assertEquals(4, state.numCoordAttributes);
+		assertEquals(NUM_TRAJECTORIES, result.getTrajectoriesCount());
+		assertEquals(expected.getPointsCount(), result.getPointsCount());
+		assertTrue(Arrays.equals(expected.getCoverageStats(), result.getCoverageStats()));
+		assertTrue(Arrays.equals(expected.getDurationStats(), result.getDurationStats()));
+		double[] expectedLength = expected.getLengthStats();
+		double[] resultLength = result.getLengthStats();
+		for (int i=0; i<expectedLength.length; i++) {
+			assertEquals(expectedLength[i], resultLength[i], 1e-6 * Math.abs(expectedLength[i]));
+		}
+		AttributeStatistics attr = result.getAttributesStatistics().iterator().next();
+		assertEquals("vehicle", attr.name);
+		assertEquals(NUM_TRAJECTORIES, attr.getCount());
+		assertEquals(vehicle.getDistinctCount(), attr.getDistinctCount());
+	}
+
+	private void write(String name, String content) throws Exception {
+		Files.write(dir.resolve(name), content.getBytes(StandardCharsets.UTF_8));
+	}
+}
@@ -0,0 +1,104 @@
+package traminer.test.parser;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+import traminer.parser.AttributeStatistics;
+import traminer.parser.DistanceKernel;
+import traminer.parser.MetadataState;
+import traminer.parser.StatisticsAccumulator;
+import traminer.util.spatial.distance.EuclideanDistanceFunction;
+import traminer.util.spatial.distance.HaversineDistanceFunction;
+
+/**
+ * Test the {@link MetadataState} binary form, and the merge 
+ * of the states of parts of a dataset.
+ *
+ * @author douglasapeixoto
+ */
+public class MetadataStateTest extends TestCase {
+
+	public void testWriteRead() throws IOException {
+		MetadataState state = new MetadataState(3, 5, 4, createStatistics(new Random(29), 500));
+		byte[] bytes = state.toByteArray();
+		MetadataState read = MetadataState.read(new ByteArrayInputStream(bytes));
+		assertEquals(3, read.filesCount);
+		assertEquals(5, read.numAttributes);
+		assertEquals(4, read.numCoordAttributes);
+		assertEquals(state.getMetadata(), read.getMetadata());
+		assertTrue(Arrays.equals(
+				state.getStatistics().getDensityHistogram().toByteArray(),
+				read.getStatistics().getDensityHistogram().toByteArray()));
+
+		// unsupported content
+		bytes[5] = 99;
+		try {
+			MetadataState.read(new ByteArrayInputStream(bytes));
+			fail();
+		} catch (IOException e) {}
+	}
+
+	public void testWriteReadEnumDistance() throws IOException {
+		MetadataState state = new MetadataState(1, 5, 4, new StatisticsAccumulator(
+				DistanceKernel.EQUIRECTANGULAR));
+		MetadataState read = MetadataState.read(
+				new ByteArrayInputStream(state.toByteArray()));
+		assertSame(DistanceKernel.EQUIRECTANGULAR,
+				read.getStatistics().getDistanceFunction());
+	}
+
+	public void testMergeParts() throws IOException {
+		// same trajectories in one state, and split in parts
+		StatisticsAccumulator whole = createStatistics(new Random(31), 900);
+		List<MetadataState> parts = new ArrayList<>();
+		Random random = new Random(31);
+		for (int p=0; p<3; p++) {
+			StatisticsAccumulator part = createStatistics(random, 300);
+			byte[] bytes = new MetadataState(1, 5, 4, part).toByteArray();
+			parts.add(MetadataState.read(new ByteArrayInputStream(bytes)));
+		}
+		MetadataState merged = MetadataState.merge(parts);
+		assertEquals(3, merged.filesCount);
+		// quantile sketches are approximate after merges
+		assertEquals(withoutQuantiles(new MetadataState(3, 5, 4, whole).getMetadata()),
+				withoutQuantiles(merged.getMetadata()));
+
+		parts.add(new MetadataState(1, 5, 4, new StatisticsAccumulator(
+				new HaversineDistanceFunction())));
+		try {
+			MetadataState.merge(parts);
+			fail();
+		} catch (IllegalArgumentException e) {}
+	}
+
+	private static String withoutQuantiles(String metadata) {
+		return metadata.replaceAll("(?m)^P[0-9]+_.*\\n", "");
+	}
+
+	/**
+	 * @return Statistics of n random trajectories, with one
+	 * semantic attribute.
+	 */
+	private static StatisticsAccumulator createStatistics(Random random, int n) {
+		StatisticsAccumulator stats = new StatisticsAccumulator(
+				new EuclideanDistanceFunction());
+		AttributeStatistics attr = stats.getAttributeStatistics("carType", "STRING");
+		for (int i=0; i<n; i++) {
+			int numPts = 2 + random.nextInt(50);
+			double[] x = new double[numPts], y = new double[numPts], t = new double[numPts];
+			for (int j=0; j<numPts; j++) {
+				x[j] = random.nextInt(100000) / 100.0;
+				y[j] = random.nextInt(100000) / 100.0;
+				t[j] = 1000 + j * (1 + random.nextInt(10));
+			}
+			stats.addValues(x, false, y, false, t, false);
+			attr.add("type" + random.nextInt(5));
+		}
+		return stats;
+	}
+}
@@ -0,0 +1,119 @@
+package traminer.test.parser;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.bson.Document;
+
+import com.mongodb.client.model.InsertOneModel;
+
+import junit.framework.TestCase;
+import traminer.parser.MongoBulkWriter;
+import traminer.parser.MongoWriteParameters;
+
+/**
+ * Test the {@link MongoBulkWriter} batches, concurrency and 
+ * errors, against a stand-in collection that takes a few 
+ * milliseconds per bulk write (i.e. a round trip).
+ *
+ * @author douglasapeixoto
+ */
+public class MongoBulkWriterTest extends TestCase {
+	// the stand-in collection
+	private final StandInCollection standIn = new StandInCollection();
+
+	public void testBatches() throws InterruptedException {
+		MongoWriteParameters params = new MongoWriteParameters();
+		params.setBatchSize(100);
+		params.setNumWriters(4);
+		params.setMaxInFlight(6);
+		final MongoBulkWriter writer = new MongoBulkWriter(standIn.collection(), params);
+		// three producers, as the pipeline writers
+		Thread[] producers = new Thread[3];
+		for (int t=0; t<producers.length; t++) {
+			final int first = t * 850;
+			producers[t] = new Thread(() -> {
+				for (int i=first; i<first + 850; i++) {
+					writer.insert(new Document("_id", "T" + i));
+				}
+			});
+			producers[t].start();
+		}
+		for (Thread producer : producers) producer.join();
+		writer.close();
+
+		// 25 full batches, and the last one on flush
+		assertEquals(26, standIn.batches.size());
+		Set<Object> ids = new HashSet<>();
+		for (List<?> batch : standIn.batches) {
+			assertTrue(batch.size() <= 100);
+			for (Object request : batch) {
+				ids.add(((InsertOneModel<?>) request).getDocument());
+			}
+		}
+		assertEquals(2550, ids.size());
+		assertEquals(2550, writer.getWrittenCount());
+		assertEquals(0, writer.getFailedCount());
+		assertTrue(standIn.unordered);
+		assertTrue(standIn.maxRunning.get() > 1);
+		assertTrue(standIn.maxRunning.get() <= 4);
+	}
+
+	public void testFailedBatch() {
+		MongoWriteParameters params = new MongoWriteParameters();
+		params.setBatchSize(10);
+		params.setNumWriters(2);
+		MongoBulkWriter writer = new MongoBulkWriter(standIn.collection(), params);
+		standIn.toFail.set(1);
+		for (int i=0; i<35; i++) {
+			writer.insert(new Document("_id", "T" + i));
+		}
+		writer.flush();
+		// a failed batch does not stop the others
+		assertEquals(10, writer.getFailedCount());
+		assertEquals(25, writer.getWrittenCount());
+		writer.close();
+	}
+
+	public void testUpsertChangedOnly() {
+		MongoWriteParameters params = new MongoWriteParameters();
+		params.setBatchSize(50);
+		MongoBulkWriter writer = new MongoBulkWriter(standIn.collection(), params);
+		final AtomicInteger replaced = new AtomicInteger(0);
+		writer.setReplaceListener(Arrays.asList("n"), (previous, doc) -> {
+			assertEquals(previous.get("_id"), doc.get("_id"));
+			replaced.incrementAndGet();
+		});
+		for (int i=0; i<300; i++) {
+			writer.upsert(document(i, i));
+		}
+		writer.flush();
+		assertEquals(300, writer.getWrittenCount());
+		assertEquals(300, standIn.stored.size());
+
+		// reload: 6 changed, 4 new, the rest unchanged
+		standIn.batches.clear();
+		for (int i=0; i<304; i++) {
+			writer.upsert(document(i, i % 50 == 0 ? -i - 1 : i));
+		}
+		writer.close();
+		assertEquals(310, writer.getWrittenCount());
+		assertEquals(294, writer.getUnchangedCount());
+		assertEquals(6, replaced.get());
+		assertEquals(304, standIn.stored.size());
+		int sent = 0;
+		for (List<?> batch : standIn.batches) sent += batch.size();
+		assertEquals(10, sent);
+	}
+
+	/**
+	 * @return A document of the given '_id' and content hash.
+	 */
+	private static Document document(int id, long hash) {
+		return new Document("_id", "T" + id).append("n", id)
+				.append(MongoBulkWriter.HASH_FIELD, hash);
+	}
+}
@@ -0,0 +1,83 @@
+package traminer.test.parser;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+import traminer.parser.QuantileSketch;
+
+/**
+ * Test the rank error of the {@link QuantileSketch},
+ * and the merge of sketches.
+ *
+ * @author douglasapeixoto
+ */
+public class QuantileSketchTest extends TestCase {
+	private static final double[] RANKS = {0.01, 0.1, 0.25, 0.5, 0.75, 0.9, 0.99};
+	// maximum rank error expected
+	private static final double MAX_ERROR = 0.02;
+
+	public void testExactSmallStream() {
+		QuantileSketch sketch = new QuantileSketch();
+		for (int i=100; i>=1; i--) {
+			sketch.update(i);
+		}
+		assertEquals(100, sketch.getCount());
+		assertEquals(1.0, sketch.getQuantile(0));
+		assertEquals(50.0, sketch.getQuantile(0.5));
+		assertEquals(90.0, sketch.getQuantile(0.9));
+		assertEquals(100.0, sketch.getQuantile(0.999));
+		assertEquals(100.0, sketch.getQuantile(1));
+	}
+
+	public void testEmptySketch() {
+		QuantileSketch sketch = new QuantileSketch();
+		sketch.update(Double.NaN);
+		assertEquals(0, sketch.getCount());
+		assertTrue(Double.isNaN(sketch.getQuantile(0.5)));
+	}
+
+	public void testLargeStream() {
+		Random random = new Random(3);
+		double[] values = new double[200000];
+		QuantileSketch sketch = new QuantileSketch();
+		for (int i=0; i<values.length; i++) {
+			values[i] = random.nextGaussian() * 100;
+			sketch.update(values[i]);
+		}
+		assertRankError(values, sketch);
+	}
+
+	public void testMergeSketches() {
+		Random random = new Random(5);
+		double[] values = new double[100000];
+		QuantileSketch merged = new QuantileSketch();
+		for (int s=0; s<10; s++) {
+			QuantileSketch sketch = new QuantileSketch();
+			for (int i=s*10000; i<(s+1)*10000; i++) {
+				// skewed, shifted per sketch
+				values[i] = Math.exp(random.nextDouble() * 10) + s;
+				sketch.update(values[i]);
+			}
+			merged.merge(sketch);
+		}
+		assertEquals(values.length, merged.getCount());
+		assertRankError(values, merged);
+	}
+
+	/**
+	 * Assert the rank error of the sketch quantiles, compared to
+	 * the exact ranks of the given values, is within bounds.
+	 */
+	private static void assertRankError(double[] values, QuantileSketch sketch) {
+		double[] sorted = values.clone();
+		Arrays.sort(sorted);
+		double[] quantiles = sketch.getQuantiles(RANKS);
+		for (int r=0; r<RANKS.length; r++) {
+			int rank = Arrays.binarySearch(sorted, quantiles[r]);
+			assertTrue(rank >= 0);
+			double error = Math.abs((double) rank / sorted.length - RANKS[r]);
+			assertTrue("rank error " + error + " at " + RANKS[r], error <= MAX_ERROR);
+		}
+	}
+}
@@ -0,0 +1,33 @@
+package traminer.test.parser;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import junit.framework.TestCase;
+import traminer.parser.RecordAssembler;
+
+/**
+ * Unit test for the {@link RecordAssembler}.
+ *
+ * @author douglasapeixoto
+ */
+public class RecordAssemblerTest extends TestCase {
+	// lines of a file with records split by '#'
+	private static final List<String> LINES = Arrays.asList(
+			"header", "#,1,a", "p1", "p2", "#,2,b", "#,3,c", "p3", "#", "p4");
+
+	public void testDelimitedRecords() {
+		List<String> records = RecordAssembler
+				.assemble(LINES.stream(), "#")
+				.collect(Collectors.toList());
+		assertEquals(Arrays.asList("header", ",1,a@p1@p2", ",2,b", ",3,c@p3", "p4"), records);
+	}
+
+	public void testWholeFileRecord() {
+		List<String> records = RecordAssembler
+				.assemble(LINES.stream(), "EOF")
+				.collect(Collectors.toList());
+		assertEquals(Arrays.asList(String.join("@", LINES)), records);
+	}
+}
@@ -0,0 +1,266 @@
+package traminer.test.parser;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+import junit.framework.TestCase;
+import traminer.parser.ByteRecord;
+import traminer.parser.MappedRecordReader;
+import traminer.parser.MetadataService;
+import traminer.parser.ParsedRecord;
+import traminer.parser.RecordParser;
+import traminer.parser.analyzer.Keywords.OutputFormat;
+import traminer.parser.analyzer.LexicalAnalyzer;
+import traminer.parser.format.DataFormat;
+import traminer.parser.format.RecordPlan;
+import traminer.util.spatial.distance.EuclideanDistanceFunction;
+
+/**
+ * Unit test for the {@link RecordParser}. Records parsed
+ * by many threads, or read from memory-mapped files, must
+ * be identical to records parsed by a single thread, including
+ * auto-generated IDs. Giant coordinate arrays are parsed in
+ * parallel chunks, in the common pool or in a given pool.
+ *
+ * @author douglasapeixoto
+ */
+public class RecordParserTest extends TestCase {
+	// number of records to parse
+	private static final int NUM_RECORDS = 2000;
+	// number of parser threads
+	private static final int NUM_THREADS = 8;
+
+	// input format with numeric time-stamps
+	private static final String NUMBER_FORMAT =
+			"_COORD_SYSTEM	CARTESIAN\n" +
+			"_ID			STRING	;\n" +
+			"label			STRING	;\n" +
+			"_COORDINATES	ARRAY(_X DECIMAL , _Y DECIMAL , " +
+			"_TIME INTEGER , speed DECIMAL |)	LN";
+	// input format with date-time time-stamps
+	private static final String DATETIME_FORMAT =
+			"_COORD_SYSTEM	CARTESIAN\n" +
+			"_ID			STRING	;\n" +
+			"label			STRING	;\n" +
+			"_COORDINATES	ARRAY(_X DECIMAL , _Y DECIMAL , " +
+			"_TIME DATETIME[\"yyyy-MM-dd HH:mm:ss\"] , speed DECIMAL |)	LN";
+	// input format with auto-generated IDs
+	private static final String AUTO_ID_FORMAT =
+			"_COORD_SYSTEM	CARTESIAN\n" +
+			"_AUTO_ID		100\n" +
+			"name			STRING	;\n" +
+			"label			STRING	;\n" +
+			"_COORDINATES	ARRAY(_X DECIMAL , _Y DECIMAL , " +
+			"_TIME INTEGER , speed DECIMAL |)	LN";
+
+    /**
+     * Run by JUnit before each test to initialize variables.
+     */
+	@Override
+	protected void setUp() {
+		MetadataService.init(new EuclideanDistanceFunction());
+	}
+
+	public void testNumberTimeParallel() throws Exception {
+		DataFormat dataFormat = createFormat(NUMBER_FORMAT);
+		List<String> records = createRecords(false);
+
+		String[] expected = parse(dataFormat, records, 1);
+		String[] result   = parse(dataFormat, records, NUM_THREADS);
+
+		assertEquals(NUM_RECORDS, countValid(expected));
+		assertTrue(Arrays.equals(expected, result));
+	}
+
+	public void testDateTimeParallel() throws Exception {
+		DataFormat dataFormat = createFormat(DATETIME_FORMAT);
+		List<String> records = createRecords(true);
+
+		String[] expected = parse(dataFormat, records, 1);
+		String[] result   = parse(dataFormat, records, NUM_THREADS);
+
+		assertEquals(NUM_RECORDS, countValid(expected));
+		assertTrue(Arrays.equals(expected, result));
+	}
+
+	public void testAutoIdParallel() throws Exception {
+		DataFormat dataFormat = createFormat(AUTO_ID_FORMAT);
+		List<String> records = createRecords(false);
+
+		String[] expected = parse(dataFormat, records, 1);
+		String[] result   = parse(dataFormat, records, NUM_THREADS);
+
+		assertEquals(NUM_RECORDS, countValid(expected));
+		assertTrue(Arrays.equals(expected, result));
+		// IDs given by the records sequence number
+		for (int i=0; i<NUM_RECORDS; i++) {
+			assertTrue(result[i].startsWith((100 + i) + ";"));
+		}
+	}
+
+	public void testMappedRecords() throws Exception {
+		DataFormat dataFormat = createFormat(NUMBER_FORMAT);
+		List<String> records = createRecords(false);
+
+		// CRLF line breaks, no line break at the end of file
+		Path file = Files.createTempFile("records", ".csv");
+		Files.write(file, String.join("\r\n", records)
+				.getBytes(StandardCharsets.UTF_8));
+		// ignore the first and third lines
+		MappedRecordReader reader = new MappedRecordReader(Arrays.asList(0, 2));
+		RecordParser parser = new RecordParser(dataFormat, OutputFormat.ALL);
+		List<String> result = new ArrayList<>();
+		try (Stream<ByteRecord> stream = reader.read(file.toString())) {
+			stream.forEach(record -> result.add(
+					parser.parse(record).encode(OutputFormat.ALL)));
+		} finally {
+			Files.delete(file);
+		}
+
+		String[] expected = parse(dataFormat, records, 1);
+		assertEquals(NUM_RECORDS - 2, result.size());
+		assertEquals(expected[1], result.get(0));
+		for (int i=3; i<NUM_RECORDS; i++) {
+			assertEquals(expected[i], result.get(i-2));
+		}
+	}
+
+	public void testGiantCoordinatesArray() throws Exception {
+		DataFormat dataFormat = createFormat(NUMBER_FORMAT);
+		// long enough to be parsed in parallel chunks
+		final int numPts = 100000;
+		Random random = new Random(23);
+		long[] xScaled = new long[numPts];
+		StringBuilder record = new StringBuilder("giant;label;");
+		for (int p=0; p<numPts; p++) {
+			if (p > 0) record.append("|");
+			int intPart = random.nextInt(2000) - 1000;
+			int decPart = random.nextInt(100000);
+			String x = (intPart < 0 ? "-" : "") + Math.abs(intPart) + 
+					"." + String.format("%05d", decPart);
+			xScaled[p] = Math.abs(intPart) * 100000L + decPart;
+			if (intPart < 0) xScaled[p] = -xScaled[p];
+			record.append(x).append(",1.5,").append(p * 10).append(",").append(p % 100);
+		}
+		RecordParser parser = new RecordParser(dataFormat, OutputFormat.ALL);
+		String[] items = parser.parse(record.toString())
+				.encode(OutputFormat.ALL).split(";")[1].split(",");
+		assertEquals(numPts * 4, items.length);
+
+		// decode the delta-compressed values
+		long x = 0, time = 0;
+		for (int p=0; p<numPts; p++) {
+			x += Long.parseLong(items[p*4]);
+			time += Long.parseLong(items[p*4 + 2]);
+			assertEquals(xScaled[p], x);
+			assertEquals(p * 10, time);
+			assertEquals(p == 0 ? "150000" : "0", items[p*4 + 1]);
+			assertEquals(""+(p % 100), items[p*4 + 3]);
+		}
+	}
+
+	public void testGiantCoordinatesArrayPool() throws Exception {
+		DataFormat dataFormat = createFormat(NUMBER_FORMAT);
+		StringBuilder record = new StringBuilder("giant;label;");
+		for (int p=0; p<100000; p++) {
+			if (p > 0) record.append("|");
+			record.append(p % 1000).append(".5,").append(p % 7)
+				  .append(",").append(p * 10).append(",1");
+		}
+		String expected = new RecordParser(dataFormat, OutputFormat.ALL)
+				.parse(record.toString()).encode(OutputFormat.ALL);
+
+		// chunks in a dedicated pool, e.g. of the ingest pipeline
+		ForkJoinPool pool = new ForkJoinPool(2);
+		RecordParser parser = new RecordParser(
+				new RecordPlan(dataFormat), OutputFormat.ALL, pool);
+		assertEquals(expected, parser.parse(record.toString()).encode(OutputFormat.ALL));
+		assertTrue(pool.getPoolSize() > 0);
+		pool.shutdown();
+	}
+
+	/**
+	 * Parse the records using the given number of threads,
+	 * one record parser per thread. Records are numbered in
+	 * the list order.
+	 *
+	 * @return The output lines, in the same order as the records.
+	 */
+	private static String[] parse(final DataFormat dataFormat,
+			final List<String> records, final int numThreads) throws Exception {
+		final String[] result = new String[records.size()];
+		ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+		List<Future<?>> tasks = new ArrayList<>();
+		for (int t=0; t<numThreads; t++) {
+			final int first = t;
+			tasks.add(pool.submit(() -> {
+				RecordParser parser = new RecordParser(dataFormat, OutputFormat.ALL);
+				for (int i=first; i<records.size(); i+=numThreads) {
+					ParsedRecord record = parser.parse(records.get(i), i + 1);
+					result[i] = (record == null ? null :
+						record.encode(OutputFormat.ALL));
+				}
+			}));
+		}
+		for (Future<?> task : tasks) {
+			task.get();
+		}
+		pool.shutdown();
+		return result;
+	}
+
+	/**
+	 * @return Random records for the test formats.
+	 */
+	private static List<String> createRecords(boolean dateTime) {
+		Random random = new Random(17);
+		List<String> records = new ArrayList<>(NUM_RECORDS);
+		for (int r=0; r<NUM_RECORDS; r++) {
+			StringBuilder record = new StringBuilder();
+			record.append("t").append(r).append(";label_").append(r % 7).append(";");
+			int numPts = 2 + random.nextInt(50);
+			for (int p=0; p<numPts; p++) {
+				if (p > 0) record.append("|");
+				record.append(random.nextInt(2000) - 1000).append(".")
+					  .append(random.nextInt(100000)).append(",");
+				record.append(random.nextInt(2000) - 1000).append(".")
+					  .append(random.nextInt(100000)).append(",");
+				if (dateTime) {
+					record.append(String.format("2008-02-02 %02d:%02d:%02d",
+							p / 3600 % 24, p / 60 % 60, p % 60)).append(",");
+				} else {
+					record.append(1000 + p * 5).append(",");
+				}
+				record.append(random.nextInt(120)).append(".").append(random.nextInt(10));
+			}
+			records.add(record.toString());
+		}
+		return records;
+	}
+
+	/**
+	 * @return The data format object of the given format script.
+	 */
+	private static DataFormat createFormat(String script) {
+		return new DataFormat(new LexicalAnalyzer()
+				.analyzeFile(Arrays.asList(script.split("\n"))));
+	}
+
+	private static int countValid(String[] lines) {
+		int count = 0;
+		for (String line : lines) {
+			if (line != null) count++;
+		}
+		return count;
+	}
+}
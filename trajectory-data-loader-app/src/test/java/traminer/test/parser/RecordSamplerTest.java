@@ -0,0 +1,86 @@
+package traminer.test.parser;
+
+import java.util.function.LongPredicate;
+
+import junit.framework.TestCase;
+import traminer.parser.pipeline.FileChunk;
+import traminer.parser.pipeline.RecordSampler;
+import traminer.parser.pipeline.RecordSampler.Method;
+
+/**
+ * Test the {@link RecordSampler} selection rate,
+ * strata and determinism.
+ *
+ * @author douglasapeixoto
+ */
+public class RecordSamplerTest extends TestCase {
+	private static final int NUM_RECORDS = 100000;
+
+	public void testUniformRate() {
+		FileChunk chunk = FileChunk.wholeFile("a.txt", 1000);
+		RecordSampler sampler = new RecordSampler(0.1, Method.UNIFORM, 42);
+		int count = count(sampler.select(chunk, 0), NUM_RECORDS);
+		// within 4 standard deviations (about 95)
+		assertEquals(10000, count, 380);
+		// same seed, same sample
+		assertEquals(count, count(sampler.select(chunk, 0), NUM_RECORDS));
+		RecordSampler other = new RecordSampler(0.1, Method.UNIFORM, 7);
+		assertFalse(same(sampler.select(chunk, 0),
+				other.select(chunk, 0), NUM_RECORDS));
+	}
+
+	public void testStratifiedOnePerStratum() {
+		FileChunk chunk = new FileChunk("b.txt", 2, 4, 0, 1000, 0);
+		RecordSampler sampler = new RecordSampler(0.01, Method.STRATIFIED, 42);
+		LongPredicate select = sampler.select(chunk, 500);
+		int count = count(select, 500, NUM_RECORDS);
+		// one per stratum of 100 records, the first and last strata
+		// may be partially before or after the chunk
+		assertEquals(1000, count, 1);
+		// same chunk, same sample
+		assertEquals(count, count(sampler.select(chunk, 500), 500, NUM_RECORDS));
+	}
+
+	public void testFullRate() {
+		FileChunk chunk = FileChunk.wholeFile("a.txt", 1000);
+		for (Method method : Method.values()) {
+			RecordSampler sampler = new RecordSampler(1, method, 42);
+			assertEquals(NUM_RECORDS, count(sampler.select(chunk, 0), NUM_RECORDS));
+		}
+	}
+
+	public void testInvalidRate() {
+		try {
+			new RecordSampler(0, Method.UNIFORM, 42);
+			fail("Zero sample rate must be rejected.");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	private static int count(LongPredicate select, int numRecords) {
+		return count(select, 0, numRecords);
+	}
+
+	/**
+	 * @return Number of records selected, the chunk starts after
+	 * the given records base.
+	 */
+	private static int count(LongPredicate select, long base, int numRecords) {
+		int count = 0;
+		for (long r=1; r<=numRecords; r++) {
+			if (select.test(base + r)) count++;
+		}
+		return count;
+	}
+
+	/**
+	 * @return True if both selections pick the same records.
+	 */
+	private static boolean same(LongPredicate a, LongPredicate b, int numRecords) {
+		for (long r=1; r<=numRecords; r++) {
+			if (a.test(r) != b.test(r)) return false;
+		}
+		return true;
+	}
+}
@@ -0,0 +1,107 @@
+package traminer.test.parser;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import junit.framework.TestCase;
+import traminer.parser.ByteRecord;
+import traminer.parser.MappedRecordReader;
+import traminer.parser.ParserInterface;
+import traminer.parser.RecordsSplitter;
+import traminer.parser.pipeline.FileChunk;
+
+/**
+ * Unit test for the {@link RecordsSplitter}. The lines read
+ * from all chunks of a file must be the lines of the file,
+ * with ignored lines removed by their number in the file.
+ *
+ * @author douglasapeixoto
+ */
+public class RecordsSplitterTest extends TestCase {
+	// number of lines in the test file
+	private static final int NUM_LINES = 500;
+	// size of the chunks (bytes)
+	private static final long CHUNK_SIZE = 256;
+	// lines to ignore (zero-based)
+	private static final List<Integer> IGNORED_LINES = Arrays.asList(0, 1, 17, 230);
+
+	private Path file;
+	private List<String> lines;
+
+    /**
+     * Run by JUnit before each test to initialize variables.
+     */
+	@Override
+	protected void setUp() throws Exception {
+		lines = new ArrayList<>(NUM_LINES);
+		for (int i=0; i<NUM_LINES; i++) {
+			// a new record every 10 lines
+			lines.add((i % 10 == 0 ? "#" : "") + "line_" + i + ",x,y");
+		}
+		file = Files.createTempFile("records", ".csv");
+		Files.write(file, String.join("\n", lines)
+				.getBytes(StandardCharsets.UTF_8));
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		Files.delete(file);
+	}
+
+	public void testLineChunks() throws Exception {
+		RecordsSplitter splitter = new RecordsSplitter(
+				ParserInterface.LINE_BREAK, IGNORED_LINES, CHUNK_SIZE);
+		List<FileChunk> chunks = splitter.split(file.toString());
+		assertTrue(chunks.size() > 1);
+
+		MappedRecordReader reader = new MappedRecordReader(IGNORED_LINES);
+		List<String> result = new ArrayList<>();
+		for (FileChunk chunk : chunks) {
+			try (Stream<ByteRecord> records = reader.read(chunk)) {
+				List<String> chunkRecords = records.map(ByteRecord::toString)
+						.collect(Collectors.toList());
+				// the records fit the block reserved for the chunk
+				assertTrue(chunkRecords.size() <= splitter.maxRecords(chunk));
+				result.addAll(chunkRecords);
+			}
+		}
+
+		List<String> expected = new ArrayList<>();
+		for (int i=0; i<NUM_LINES; i++) {
+			if (!IGNORED_LINES.contains(i)) expected.add(lines.get(i));
+		}
+		assertEquals(expected, result);
+	}
+
+	public void testDelimiterChunks() throws Exception {
+		RecordsSplitter splitter = new RecordsSplitter("#", null, CHUNK_SIZE);
+		List<FileChunk> chunks = splitter.split(file.toString());
+		assertTrue(chunks.size() > 1);
+
+		// every chunk (but the first) starts at a record
+		byte[] bytes = Files.readAllBytes(file);
+		for (FileChunk chunk : chunks) {
+			if (chunk.index > 0) {
+				assertEquals('#', bytes[(int) chunk.start]);
+				assertEquals('\n', bytes[(int) chunk.start - 1]);
+			}
+		}
+		assertEquals(0, chunks.get(0).start);
+		assertEquals(bytes.length, chunks.get(chunks.size()-1).end);
+	}
+
+	public void testWholeFile() throws Exception {
+		RecordsSplitter splitter = new RecordsSplitter("EOF", null, CHUNK_SIZE);
+		List<FileChunk> chunks = splitter.split(file.toString());
+		assertEquals(1, chunks.size());
+		assertTrue(chunks.get(0).isWholeFile());
+		// one record per file
+		assertEquals(1, splitter.maxRecords(chunks.get(0)));
+	}
+}
@@ -0,0 +1,114 @@
+package traminer.test.parser;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.bson.Document;
+
+import com.mongodb.MongoException;
+import com.mongodb.client.FindIterable;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.ReplaceOneModel;
+
+/**
+ * A stand-in MongoDB collection for the tests of the bulk writes,
+ * that takes a few milliseconds per bulk write (i.e. a round trip),
+ * and keeps the replaced documents in memory.
+ *
+ * @author douglasapeixoto
+ */
+public class StandInCollection {
+	/** Bulk writes received by the stand-in collection */
+	public final List<List<?>> batches = new ArrayList<>();
+	/** Bulk writes being sent, and the maximum at once */
+	public final AtomicInteger running = new AtomicInteger(0);
+	public final AtomicInteger maxRunning = new AtomicInteger(0);
+	/** Whether the bulk writes were unordered */
+	public volatile boolean unordered = true;
+	/** Number of bulk writes to fail */
+	public final AtomicInteger toFail = new AtomicInteger(0);
+	/** Documents in the stand-in collection, by '_id' */
+	public final Map<Object, Document> stored = new ConcurrentHashMap<>();
+
+	/**
+	 * @return The stand-in collection, taking 2 ms per bulk write.
+	 */
+	@SuppressWarnings("unchecked")
+	public MongoCollection<Document> collection() {
+		return (MongoCollection<Document>) Proxy.newProxyInstance(
+				getClass().getClassLoader(), 
+				new Class<?>[] {MongoCollection.class}, 
+				(proxy, method, args) -> {
+			if (method.getName().equals("find")) {
+				// all documents, the writer looks up its own
+				return findAll();
+			}
+			if (!method.getName().equals("bulkWrite")) {
+				throw new UnsupportedOperationException(method.getName());
+			}
+			maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+			try {
+				Thread.sleep(2);
+				if (toFail.getAndDecrement() > 0) {
+					throw new MongoException("Server unavailable.");
+				}
+				synchronized (batches) {
+					batches.add(new ArrayList<>((List<?>) args[0]));
+				}
+				for (Object request : (List<?>) args[0]) {
+					if (request instanceof ReplaceOneModel) {
+						Document doc = ((ReplaceOneModel<Document>) request).getReplacement();
+						stored.put(doc.get("_id"), doc);
+					}
+				}
+				unordered &= !((BulkWriteOptions) args[1]).isOrdered();
+				return null;
+			} finally {
+				running.decrementAndGet();
+			}
+		});
+	}
+
+	/**
+	 * @return The result of a query of all documents 
+	 * of the stand-in collection.
+	 */
+	@SuppressWarnings("unchecked")
+	private FindIterable<Document> findAll() {
+		return (FindIterable<Document>) Proxy.newProxyInstance(
+				getClass().getClassLoader(), 
+				new Class<?>[] {FindIterable.class}, 
+				(proxy, method, args) -> {
+			switch (method.getName()) {
+			case "projection": return proxy;
+			case "iterator": return cursor(new ArrayList<>(stored.values()).iterator());
+			default: throw new UnsupportedOperationException(method.getName());
+			}
+		});
+	}
+
+	/**
+	 * @return A query cursor over the given documents.
+	 */
+	@SuppressWarnings("unchecked")
+	private MongoCursor<Document> cursor(final Iterator<Document> documents) {
+		return (MongoCursor<Document>) Proxy.newProxyInstance(
+				getClass().getClassLoader(), 
+				new Class<?>[] {MongoCursor.class}, 
+				(proxy, method, args) -> {
+			switch (method.getName()) {
+			case "hasNext": return documents.hasNext();
+			case "next": return documents.next();
+			case "close": return null;
+			default: throw new UnsupportedOperationException(method.getName());
+			}
+		});
+	}
+}
@@ -0,0 +1,114 @@
+package traminer.test.parser;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+import traminer.parser.StatisticsAccumulator;
+import traminer.util.spatial.distance.EuclideanDistanceFunction;
+
+/**
+ * Unit test for the {@link StatisticsAccumulator}. Statistics
+ * of accumulators merged must match the statistics of a single 
+ * accumulator, within the documented tolerance.
+ *
+ * @author douglasapeixoto
+ */
+public class StatisticsAccumulatorTest extends TestCase {
+	// relative tolerance of the means and standard deviations
+	private static final double TOLERANCE = 1e-9;
+	// number of trajectories
+	private static final int NUM_TRAJ = 1000;
+
+	public void testMerge() {
+		List<double[][]> trajectories = createTrajectories();
+		StatisticsAccumulator single = newAccumulator();
+		List<StatisticsAccumulator> workers = new ArrayList<>();
+		for (int w=0; w<7; w++) {
+			workers.add(newAccumulator());
+		}
+		for (int i=0; i<trajectories.size(); i++) {
+			double[][] traj = trajectories.get(i);
+			single.addValues(traj[0], false, traj[1], false, traj[2], false);
+			workers.get(i % workers.size()).addValues(
+					traj[0], false, traj[1], false, traj[2], false);
+		}
+		StatisticsAccumulator merged = newAccumulator();
+		for (StatisticsAccumulator worker : workers) {
+			merged.merge(worker);
+		}
+
+		assertEquals(single.getTrajectoriesCount(), merged.getTrajectoriesCount());
+		assertEquals(single.getPointsCount(), merged.getPointsCount());
+		assertStats(single.getNumPointsStats(), merged.getNumPointsStats());
+		assertStats(single.getLengthStats(), merged.getLengthStats());
+		assertStats(single.getDurationStats(), merged.getDurationStats());
+		assertStats(single.getSpeedStats(), merged.getSpeedStats());
+		assertStats(single.getSamplingRateStats(), merged.getSamplingRateStats());
+		assertStats(single.getCoverageStats(), merged.getCoverageStats());
+	}
+
+	public void testStatistics() {
+		StatisticsAccumulator stats = newAccumulator();
+		// two trajectories of length 10 and 20, duration 10 and 30
+		stats.addValues(new String[]{"0", "6", "6"}, false, "DECIMAL", 
+				new String[]{"0", "8", "8"}, false, "DECIMAL",
+				new String[]{"100", "105", "110"}, false, "INTEGER");
+		stats.addValues(new String[]{"1", "1"}, false, "DECIMAL", 
+				new String[]{"0", "20"}, true, "DECIMAL",
+				new String[]{"200", "230"}, false, "INTEGER");
+
+		assertEquals(2, stats.getTrajectoriesCount());
+		assertEquals(5, stats.getPointsCount());
+		// quotient of integral values rounded (2.5)
+		assertStats(new double[]{2, 3, 2, 0.5}, stats.getNumPointsStats());
+		assertStats(new double[]{10, 20, 15, 5}, stats.getLengthStats());
+		assertStats(new double[]{10, 30, 20, 10}, stats.getDurationStats());
+		assertStats(new double[]{0, 0, 100, 6, 20, 230}, stats.getCoverageStats());
+	}
+
+	public void testOnePointTrajectory() {
+		StatisticsAccumulator stats = newAccumulator();
+		try {
+			stats.addValues(new double[]{1}, false, 
+					new double[]{1}, false, new double[]{1}, false);
+			fail("One point trajectory must not be accepted.");
+		} catch (IllegalArgumentException e) {
+			assertEquals(0, stats.getTrajectoriesCount());
+		}
+	}
+
+	private static StatisticsAccumulator newAccumulator() {
+		return new StatisticsAccumulator(new EuclideanDistanceFunction());
+	}
+
+	private static void assertStats(double[] expected, double[] result) {
+		assertEquals(expected.length, result.length);
+		for (int i=0; i<expected.length; i++) {
+			double delta = Math.max(Math.abs(expected[i]) * TOLERANCE, 1e-10);
+			assertEquals(expected[i], result[i], delta);
+		}
+	}
+
+	/**
+	 * @return Random trajectories, as (x,y,time) arrays.
+	 */
+	private static List<double[][]> createTrajectories() {
+		Random random = new Random(3);
+		List<double[][]> trajectories = new ArrayList<>(NUM_TRAJ);
+		for (int i=0; i<NUM_TRAJ; i++) {
+			int numPts = 2 + random.nextInt(100);
+			double[][] traj = new double[3][numPts];
+			double x = random.nextDouble() * 1000, y = random.nextDouble() * 1000;
+			double time = 1.2e12 + random.nextInt(1000000);
+			for (int p=0; p<numPts; p++) {
+				traj[0][p] = x += random.nextGaussian();
+				traj[1][p] = y += random.nextGaussian();
+				traj[2][p] = time += 1000 + random.nextInt(5000);
+			}
+			trajectories.add(traj);
+		}
+		return trajectories;
+	}
+}